@@ -0,0 +1,892 @@
+package api;
+
+import models.*;
+import services.*;
+import utils.Hilos;
+import utils.Metricas;
+import com.google.gson.*;
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * Servidor HTTP/JSON sin interfaz que expone las operaciones de
+ * GestionUsuarios, GestionConsultas y MonitoreoSalud
+ *
+ * Usa com.sun.net.httpserver con un hilo (virtual en Java 21+) por
+ * petición. Rutas disponibles:
+ *
+ *   POST /api/sesion                       {cedula, contrasena} -> usuario y token
+ *   POST /api/sesion/cerrar                invalida el token
+ *   POST /api/pacientes                    registra un paciente
+ *   POST /api/medicos                      registra un médico
+ *   GET  /api/pacientes | /api/medicos     lista usuarios (paginado)
+ *   GET  /api/usuarios/{id}
+ *   POST /api/consultas                    {idPaciente, idMedico | especialidad, motivo}
+ *   GET  /api/consultas?paciente=ID | ?medico=ID[&estado=pendiente|completada]   (paginado)
+ *   GET  /api/consultas/{id}
+ *   POST /api/consultas/{id}/diagnostico   {diagnostico, tratamiento, observaciones}
+ *   POST /api/consultas/{id}/cancelar      {motivo}
+ *   GET  /api/medicos/{id}/estadisticas
+ *   POST /api/medicos/{id}/siguiente       toma la consulta pendiente más urgente
+ *   POST /api/registros                    {idPaciente[, signos vitales]}
+ *   GET  /api/registros?paciente=ID        (paginado)
+ *   GET  /api/pacientes/{id}/ultimo-registro
+ *   GET  /api/pacientes/{id}/tendencias
+ *   GET  /api/pacientes/{id}/signos?[desde=F&hasta=F]   registros del rango (últimas 24 h por defecto)
+ *        &signo=S&intervalo=segundos    mínimo/máximo/promedio por intervalo
+ *        &signo=S&puntos=N              serie reducida a N puntos (LTTB)
+ *   GET  /api/pacientes/{id}/resumenes?nivel=hora|dia|frio   registros ya compactados
+ *   GET  /api/vistas[/{nombre}]             contadores del tablero (consultas pendientes, alertas...)
+ *   POST /api/vistas/{nombre}/reconstruir   recalcula una vista desde cero
+ *   GET  /api/citas/disponible?medico=ID | ?especialidad=X[&desde=F]   siguiente turno libre
+ *   POST /api/citas                        {idMedico, idPaciente, inicio[, idConsulta]}
+ *                                          | {especialidad, idPaciente[, desde]}   siguiente turno libre
+ *   GET  /api/citas?medico=ID[&desde=F&hasta=F]   citas del rango (próximos 7 días por defecto)
+ *   GET  /api/citas/{id}
+ *   POST /api/citas/{id}/cancelar
+ *   GET  /api/especialidades
+ *   GET  /api/analitica/presion[?dias=7]    % de pacientes con presión elevada
+ *   GET  /api/analitica/fiebre?por=edad|grupoSanguineo[&dias=7]
+ *   GET  /api/buscar?q=texto[&limite=N] | ?especialidad=X
+ *   GET  /api/consejos
+ *   GET  /api/metricas
+ *
+ * Salvo el inicio de sesión y el registro de pacientes, toda ruta exige
+ * la cabecera "Authorization: Bearer <token>" con el token que entrega
+ * POST /api/sesion (401 si falta o venció tras TOKEN_INACTIVIDAD_MS sin
+ * uso). Un paciente solo accede a sus propios datos, consultas, registros
+ * y citas, al listado de médicos y especialidades y a los turnos libres;
+ * el resto es de los médicos, y cada médico solo toma o diagnostica sus
+ * consultas (403 si no). Una consulta o cita solo la cancelan su paciente
+ * o su médico. Los médicos se dan de alta con la sesión de otro
+ * médico o desde la consola. Por omisión se escucha solo en la interfaz
+ * local.
+ *
+ * Con setSoloLectura (seguidor de la replicación) solo se aceptan los GET
+ * y POST /api/sesion.
+ *
+ * Los listados paginados aceptan ?limite=N (por defecto 50) y ?cursor=C y
+ * responden {elementos, siguienteCursor}; siguienteCursor es null en la
+ * última página.
+ *
+ * Las contraseñas nunca se incluyen en las respuestas.
+ */
+public class ServidorApi {
+    private static final Gson gson = new Gson();
+    private static final int LIMITE_POR_DEFECTO = 50;
+    private static final int LIMITE_MAXIMO = 500;
+    private static final DateTimeFormatter formatter =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Metricas.Temporizador tiempoPeticion =
+        Metricas.temporizador("api.peticion");
+    private static final Metricas.Contador erroresPeticion =
+        Metricas.contador("api.errores");
+    private static final long TOKEN_INACTIVIDAD_MS = 30 * 60 * 1000L;
+    private static final SecureRandom azar = new SecureRandom();
+
+    private final GestionUsuarios gestionUsuarios;
+    private final GestionConsultas gestionConsultas;
+    private final MonitoreoSalud monitoreoSalud;
+    private final AnaliticaPoblacional analitica;
+    private RetencionRegistros retencion;
+    private VistasMaterializadas vistas;
+    private AgendaCitas agenda;
+    private boolean soloLectura;
+    private final Map<String, Token> tokens;
+    private HttpServer servidor;
+    private ExecutorService ejecutor;
+
+    public ServidorApi(GestionUsuarios gestionUsuarios,
+                       GestionConsultas gestionConsultas,
+                       MonitoreoSalud monitoreoSalud) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.gestionConsultas = gestionConsultas;
+        this.monitoreoSalud = monitoreoSalud;
+        this.analitica = new AnaliticaPoblacional(gestionUsuarios, monitoreoSalud);
+        this.tokens = new ConcurrentHashMap<>();
+        Metricas.medidor("api.sesiones", tokens::size);
+    }
+
+    /**
+     * Error de la API con su código HTTP
+     */
+    private static class ErrorApi extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int codigo;
+
+        ErrorApi(int codigo, String mensaje) {
+            super(mensaje);
+            this.codigo = codigo;
+        }
+    }
+
+    /**
+     * Sesión emitida por POST /api/sesion
+     */
+    private static class Token {
+        final String idUsuario;
+        volatile long ultimoUso;
+
+        Token(String idUsuario) {
+            this.idUsuario = idUsuario;
+            this.ultimoUso = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Habilita la consulta de resúmenes compactados
+     */
+    public void setRetencion(RetencionRegistros retencion) {
+        this.retencion = retencion;
+    }
+
+    /**
+     * Habilita la consulta de las vistas materializadas
+     */
+    public void setVistas(VistasMaterializadas vistas) {
+        this.vistas = vistas;
+    }
+
+    /**
+     * Habilita la reserva de citas
+     */
+    public void setAgenda(AgendaCitas agenda) {
+        this.agenda = agenda;
+    }
+
+    /**
+     * En un seguidor de la replicación solo se aceptan lecturas (y el
+     * inicio de sesión); el resto de los POST responde 503
+     */
+    public void setSoloLectura(boolean soloLectura) {
+        this.soloLectura = soloLectura;
+    }
+
+    /**
+     * Inicia el servidor en el puerto indicado, solo en la interfaz local
+     */
+    public void iniciar(int puerto) throws IOException {
+        iniciar("127.0.0.1", puerto);
+    }
+
+    /**
+     * Inicia el servidor en la dirección y el puerto indicados
+     */
+    public void iniciar(String host, int puerto) throws IOException {
+        servidor = HttpServer.create(new InetSocketAddress(InetAddress.getByName(host), puerto), 1024);
+        ejecutor = Hilos.ejecutorPorTarea("api");
+        servidor.setExecutor(ejecutor);
+        servidor.createContext("/api/", this::manejar);
+        servidor.start();
+    }
+
+    /**
+     * Detiene el servidor
+     */
+    public void detener() {
+        if (servidor != null) {
+            servidor.stop(0);
+            ejecutor.shutdownNow();
+        }
+    }
+
+    public int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    private void manejar(HttpExchange ex) throws IOException {
+        long inicio = tiempoPeticion.iniciar();
+        try {
+            JsonElement respuesta = enrutar(ex);
+            if (respuesta == null) {
+                throw new ErrorApi(404, "Recurso no encontrado");
+            }
+            responder(ex, 200, respuesta);
+        } catch (ErrorApi e) {
+            erroresPeticion.incrementar();
+            responder(ex, e.codigo, error(e.getMessage()));
+        } catch (ConflictoVersion e) {
+            erroresPeticion.incrementar();
+            responder(ex, 409, error(e.getMessage()));
+        } catch (JsonParseException | IllegalArgumentException | IllegalStateException
+                 | UnsupportedOperationException | DateTimeException e) {
+            erroresPeticion.incrementar();
+            responder(ex, 400, error("Petición inválida: " + e.getMessage()));
+        } catch (Exception e) {
+            erroresPeticion.incrementar();
+            responder(ex, 500, error("Error interno: " + e.getMessage()));
+        } finally {
+            tiempoPeticion.detener(inicio);
+        }
+    }
+
+    /**
+     * Resuelve la ruta y ejecuta la operación correspondiente
+     */
+    private JsonElement enrutar(HttpExchange ex) throws IOException {
+        String metodo = ex.getRequestMethod();
+        String[] partes = ex.getRequestURI().getPath().substring("/api/".length()).split("/");
+        Map<String, String> query = parametros(ex.getRequestURI().getRawQuery());
+        String recurso = partes[0];
+        String id = partes.length > 1 ? partes[1] : null;
+        String accion = partes.length > 2 ? partes[2] : null;
+        boolean get = "GET".equals(metodo);
+        boolean post = "POST".equals(metodo);
+
+        if (!get && !post) {
+            throw new ErrorApi(405, "Método no soportado");
+        }
+        if (post && soloLectura && !"sesion".equals(recurso)) {
+            throw new ErrorApi(503, "Nodo de solo lectura: envíe los cambios a la primaria");
+        }
+        if ("sesion".equals(recurso)) {
+            if (!post) {
+                return null;
+            }
+            if ("cerrar".equals(id)) {
+                return cerrarSesion(ex);
+            }
+            return id == null ? iniciarSesion(cuerpo(ex)) : null;
+        }
+        if (post && "pacientes".equals(recurso) && id == null) {
+            // Alta de pacientes abierta, como en la consola
+            return registrarPaciente(cuerpo(ex));
+        }
+        Usuario actual = autenticar(ex);
+
+        switch (recurso) {
+            case "pacientes":
+                if (id == null) {
+                    exigirMedico(actual);
+                    return convertir(gestionUsuarios.paginarPacientes(query.get("cursor"), limite(query)),
+                                     this::usuarioPublico);
+                }
+                exigirPropio(actual, id);
+                if ("ultimo-registro".equals(accion)) {
+                    RegistroSalud r = monitoreoSalud.obtenerUltimoRegistro(id);
+                    return r != null ? MonitoreoSalud.registroToJson(r) : null;
+                }
+                if ("tendencias".equals(accion)) {
+                    return gson.toJsonTree(monitoreoSalud.analizarTendencias(id));
+                }
+                if ("signos".equals(accion)) {
+                    return consultarSignos(id, query);
+                }
+                if ("resumenes".equals(accion) && retencion != null) {
+                    return listarResumenes(id, query.getOrDefault("nivel", "hora"));
+                }
+                return null;
+            case "medicos":
+                if (id == null) {
+                    if (post) {
+                        exigirMedico(actual);
+                        return registrarMedico(cuerpo(ex));
+                    }
+                    return convertir(gestionUsuarios.paginarMedicos(query.get("cursor"), limite(query)),
+                                     this::usuarioPublico);
+                }
+                if (post && "siguiente".equals(accion)) {
+                    exigirMismo(actual, id);
+                    Consulta siguiente = gestionConsultas.tomarSiguienteConsulta(id);
+                    return siguiente != null ? GestionConsultas.consultaToJson(siguiente) : null;
+                }
+                exigirMedico(actual);
+                return "estadisticas".equals(accion)
+                    ? gson.toJsonTree(gestionConsultas.obtenerEstadisticasMedico(id))
+                    : null;
+            case "usuarios":
+                Usuario u = id != null ? gestionUsuarios.buscarPorId(id) : null;
+                if (u != null && !(u instanceof Medico)) {
+                    exigirPropio(actual, id);
+                }
+                return u != null ? usuarioPublico(u) : null;
+            case "consultas":
+                if (id == null) {
+                    if (post) {
+                        JsonObject datos = cuerpo(ex);
+                        exigirPropio(actual, requerido(datos, "idPaciente"));
+                        return crearConsulta(datos);
+                    }
+                    if (query.containsKey("paciente")) {
+                        exigirPropio(actual, query.get("paciente"));
+                    } else {
+                        exigirMedico(actual);
+                    }
+                    return listarConsultas(query);
+                }
+                if (accion == null) {
+                    Consulta c = gestionConsultas.obtenerConsulta(id);
+                    if (c != null) {
+                        exigirPropio(actual, c.getIdPaciente());
+                    }
+                    return c != null ? GestionConsultas.consultaToJson(c) : null;
+                }
+                if (post && "diagnostico".equals(accion)) {
+                    return registrarDiagnostico(actual, id, cuerpo(ex));
+                }
+                if (post && "cancelar".equals(accion)) {
+                    JsonObject datos = cuerpo(ex);
+                    Consulta aCancelar = gestionConsultas.obtenerConsulta(id);
+                    if (aCancelar == null) {
+                        return null;
+                    }
+                    exigirParte(actual, aCancelar.getIdPaciente(), aCancelar.getIdMedico());
+                    if (!gestionConsultas.cancelarConsulta(id, texto(datos, "motivo", ""))) {
+                        throw new ErrorApi(409, "La consulta ya no se puede cancelar (" + aCancelar.getEstado() + ")");
+                    }
+                    return GestionConsultas.consultaToJson(aCancelar);
+                }
+                return null;
+            case "registros":
+                if (post) {
+                    JsonObject datos = cuerpo(ex);
+                    exigirPropio(actual, requerido(datos, "idPaciente"));
+                    return crearRegistro(datos);
+                }
+                exigirPropio(actual, requerido(query, "paciente"));
+                return convertir(monitoreoSalud.paginarRegistrosPaciente(
+                    requerido(query, "paciente"), query.get("cursor"), limite(query)), MonitoreoSalud::registroToJson);
+            case "buscar":
+                if (query.containsKey("especialidad")) {
+                    return listarUsuarios(gestionUsuarios.buscarMedicosPorEspecialidad(query.get("especialidad")));
+                }
+                exigirMedico(actual);
+                int limite = query.containsKey("limite") ? Integer.parseInt(query.get("limite")) : 20;
+                return listarUsuarios(gestionUsuarios.buscarUsuarios(requerido(query, "q"), limite));
+            case "vistas":
+                exigirMedico(actual);
+                if (vistas == null) {
+                    return null;
+                }
+                if (id == null) {
+                    return gson.toJsonTree(vistas.valores());
+                }
+                JsonObject vista = new JsonObject();
+                vista.addProperty("nombre", id);
+                vista.addProperty("valor", post && "reconstruir".equals(accion)
+                    ? vistas.reconstruir(id)
+                    : vistas.valor(id));
+                return vista;
+            case "citas":
+                if (agenda == null) {
+                    return null;
+                }
+                if (id == null) {
+                    if (post) {
+                        JsonObject datos = cuerpo(ex);
+                        exigirPropio(actual, requerido(datos, "idPaciente"));
+                        return reservarCita(datos);
+                    }
+                    exigirMedico(actual);
+                    return listarCitas(query);
+                }
+                if (get && "disponible".equals(id)) {
+                    return turnoDisponible(query);
+                }
+                if (post && "cancelar".equals(accion)) {
+                    Cita cancelada = agenda.obtenerCita(id);
+                    if (cancelada != null) {
+                        exigirParte(actual, cancelada.getIdPaciente(), cancelada.getIdMedico());
+                    }
+                    return cancelada != null && agenda.cancelar(id) ? AgendaCitas.citaToJson(cancelada) : null;
+                }
+                Cita cita = accion == null ? agenda.obtenerCita(id) : null;
+                if (cita != null) {
+                    exigirPropio(actual, cita.getIdPaciente());
+                }
+                return cita != null ? AgendaCitas.citaToJson(cita) : null;
+            case "analitica":
+                exigirMedico(actual);
+                return analitica(id, query);
+            case "especialidades":
+                return gson.toJsonTree(gestionConsultas.getAsignacionMedicos().especialidades());
+            case "consejos":
+                return gson.toJsonTree(monitoreoSalud.generarConsejosSalud());
+            case "metricas":
+                exigirMedico(actual);
+                return Metricas.volcarJson();
+            default:
+                return null;
+        }
+    }
+
+    private JsonElement iniciarSesion(JsonObject datos) {
+        Usuario usuario = gestionUsuarios.iniciarSesion(
+            requerido(datos, "cedula"), requerido(datos, "contrasena"));
+        if (usuario == null) {
+            throw new ErrorApi(401, "Cédula o contraseña incorrectas");
+        }
+        long limite = System.currentTimeMillis() - TOKEN_INACTIVIDAD_MS;
+        tokens.values().removeIf(t -> t.ultimoUso < limite);
+
+        byte[] bytes = new byte[32];
+        azar.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tokens.put(token, new Token(usuario.getIdUsuario()));
+
+        JsonObject json = usuarioPublico(usuario);
+        json.addProperty("token", token);
+        return json;
+    }
+
+    private JsonElement cerrarSesion(HttpExchange ex) {
+        String token = token(ex);
+        if (token == null || tokens.remove(token) == null) {
+            throw new ErrorApi(401, "Sesión no válida");
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty("cerrada", true);
+        return json;
+    }
+
+    private static String token(HttpExchange ex) {
+        String cabecera = ex.getRequestHeaders().getFirst("Authorization");
+        if (cabecera == null || !cabecera.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        return cabecera.substring(7).trim();
+    }
+
+    /**
+     * Usuario dueño del token de la petición; 401 si falta, venció o su
+     * usuario ya no existe
+     */
+    private Usuario autenticar(HttpExchange ex) {
+        String token = token(ex);
+        Token sesion = token != null ? tokens.get(token) : null;
+        long ahora = System.currentTimeMillis();
+        if (sesion == null || ahora - sesion.ultimoUso > TOKEN_INACTIVIDAD_MS) {
+            if (sesion != null) {
+                tokens.remove(token, sesion);
+            }
+            throw new ErrorApi(401, "Inicie sesión con POST /api/sesion y envíe Authorization: Bearer <token>");
+        }
+        Usuario usuario = gestionUsuarios.buscarPorId(sesion.idUsuario);
+        if (usuario == null) {
+            tokens.remove(token, sesion);
+            throw new ErrorApi(401, "Sesión no válida");
+        }
+        sesion.ultimoUso = ahora;
+        return usuario;
+    }
+
+    private static void exigirMedico(Usuario actual) {
+        if (!(actual instanceof Medico)) {
+            throw new ErrorApi(403, "Solo disponible para médicos");
+        }
+    }
+
+    /**
+     * Los datos de un paciente son suyos y de los médicos
+     */
+    private static void exigirPropio(Usuario actual, String idPaciente) {
+        if (!(actual instanceof Medico) && !actual.getIdUsuario().equals(idPaciente)) {
+            throw new ErrorApi(403, "Sin permiso sobre los datos de otro paciente");
+        }
+    }
+
+    /**
+     * Acciones que un médico solo hace por sí mismo
+     */
+    private static void exigirMismo(Usuario actual, String idMedico) {
+        exigirMedico(actual);
+        if (!actual.getIdUsuario().equals(idMedico)) {
+            throw new ErrorApi(403, "Sin permiso para actuar como otro médico");
+        }
+    }
+
+    /**
+     * Acciones que solo hacen el paciente o el médico a cargo
+     */
+    private static void exigirParte(Usuario actual, String idPaciente, String idMedico) {
+        if (!actual.getIdUsuario().equals(idPaciente) && !actual.getIdUsuario().equals(idMedico)) {
+            throw new ErrorApi(403, "Solo el paciente o su médico pueden hacerlo");
+        }
+    }
+
+    private JsonElement registrarPaciente(JsonObject datos) {
+        Paciente p = gestionUsuarios.registrarPaciente(
+            requerido(datos, "nombre"), requerido(datos, "apellido"),
+            requerido(datos, "cedula"), texto(datos, "correo", ""),
+            requerido(datos, "contrasena"),
+            datos.has("edad") ? datos.get("edad").getAsInt() : 0,
+            texto(datos, "genero", ""), texto(datos, "telefono", ""));
+        if (p == null) {
+            throw new ErrorApi(409, "La cédula ya está registrada");
+        }
+        return usuarioPublico(p);
+    }
+
+    private JsonElement registrarMedico(JsonObject datos) {
+        Medico m = gestionUsuarios.registrarMedico(
+            requerido(datos, "nombre"), requerido(datos, "apellido"),
+            requerido(datos, "cedula"), texto(datos, "correo", ""),
+            requerido(datos, "contrasena"), requerido(datos, "especialidad"),
+            texto(datos, "registroMedico", ""));
+        if (m == null) {
+            throw new ErrorApi(409, "La cédula ya está registrada");
+        }
+        return usuarioPublico(m);
+    }
+
+    /**
+     * Crea la consulta y actualiza paciente y médico como lo hace Main.
+     * Si se indica especialidad en lugar de médico se asigna el menos cargado.
+     */
+    private JsonElement crearConsulta(JsonObject datos) {
+        Usuario paciente = gestionUsuarios.buscarPorId(requerido(datos, "idPaciente"));
+        if (!(paciente instanceof Paciente)) {
+            throw new ErrorApi(404, "Paciente no encontrado");
+        }
+        String motivo = requerido(datos, "motivo");
+
+        String idMedico = datos.has("idMedico") ? requerido(datos, "idMedico") : null;
+        if (idMedico != null && !(gestionUsuarios.buscarPorId(idMedico) instanceof Medico)) {
+            throw new ErrorApi(404, "Médico no encontrado");
+        }
+        String especialidad = idMedico == null ? requerido(datos, "especialidad") : null;
+
+        // Consulta, historial del paciente y asignación al médico en una transacción
+        String idPaciente = paciente.getIdUsuario();
+        Consulta consulta = gestionConsultas.getTransacciones().ejecutar(tx -> {
+            Consulta nueva = idMedico != null ? tx.crearConsulta(idPaciente, idMedico, motivo)
+                                              : tx.solicitarConsulta(idPaciente, especialidad, motivo);
+            if (nueva != null) {
+                tx.modificarUsuario(idPaciente, u -> ((Paciente) u).agregarConsulta(nueva.getIdConsulta()));
+                tx.modificarUsuario(nueva.getIdMedico(), u -> ((Medico) u).asignarPaciente(idPaciente));
+            }
+            return nueva;
+        });
+        if (consulta == null) {
+            throw new ErrorApi(404, "No hay médicos de esa especialidad");
+        }
+
+        return GestionConsultas.consultaToJson(consulta);
+    }
+
+    /**
+     * Reserva el turno indicado con un médico o, si se indica especialidad,
+     * el siguiente turno libre entre sus médicos
+     */
+    private JsonElement reservarCita(JsonObject datos) {
+        String idPaciente = requerido(datos, "idPaciente");
+        if (!(gestionUsuarios.buscarPorId(idPaciente) instanceof Paciente)) {
+            throw new ErrorApi(404, "Paciente no encontrado");
+        }
+        Cita cita;
+        if (datos.has("especialidad")) {
+            LocalDateTime desde = datos.has("desde") ? fecha(requerido(datos, "desde")) : LocalDateTime.now();
+            cita = agenda.reservarSiguiente(requerido(datos, "especialidad"), idPaciente, desde);
+            if (cita == null) {
+                throw new ErrorApi(404, "No hay turnos libres en esa especialidad");
+            }
+        } else {
+            String idMedico = requerido(datos, "idMedico");
+            if (!(gestionUsuarios.buscarPorId(idMedico) instanceof Medico)) {
+                throw new ErrorApi(404, "Médico no encontrado");
+            }
+            cita = agenda.reservar(idMedico, idPaciente, texto(datos, "idConsulta", null),
+                                   fecha(requerido(datos, "inicio")));
+            if (cita == null) {
+                throw new ErrorApi(409, "El turno ya está reservado");
+            }
+        }
+        return AgendaCitas.citaToJson(cita);
+    }
+
+    private JsonElement turnoDisponible(Map<String, String> query) {
+        LocalDateTime desde = query.containsKey("desde") ? fecha(query.get("desde")) : LocalDateTime.now();
+        JsonObject turno = new JsonObject();
+        if (query.containsKey("especialidad")) {
+            AgendaCitas.Turno libre = agenda.siguienteTurnoEspecialidad(query.get("especialidad"), desde);
+            if (libre == null) {
+                return null;
+            }
+            turno.addProperty("idMedico", libre.getIdMedico());
+            turno.addProperty("inicio", libre.getInicio().format(formatter));
+            turno.addProperty("fin", libre.getFin().format(formatter));
+        } else {
+            String idMedico = requerido(query, "medico");
+            LocalDateTime inicio = agenda.siguienteTurno(idMedico, desde);
+            if (inicio == null) {
+                return null;
+            }
+            turno.addProperty("idMedico", idMedico);
+            turno.addProperty("inicio", inicio.format(formatter));
+            turno.addProperty("fin", inicio.plusMinutes(AgendaCitas.TURNO).format(formatter));
+        }
+        return turno;
+    }
+
+    private JsonElement listarCitas(Map<String, String> query) {
+        LocalDateTime desde = query.containsKey("desde") ? fecha(query.get("desde")) : LocalDateTime.now();
+        LocalDateTime hasta = query.containsKey("hasta") ? fecha(query.get("hasta")) : desde.plusDays(7);
+        JsonArray arreglo = new JsonArray();
+        for (Cita c : agenda.citasMedico(requerido(query, "medico"), desde, hasta)) {
+            arreglo.add(AgendaCitas.citaToJson(c));
+        }
+        return arreglo;
+    }
+
+    private JsonElement listarConsultas(Map<String, String> query) {
+        String estado = query.get("estado");
+        String cursor = query.get("cursor");
+        int limite = limite(query);
+        Pagina<Consulta> pagina;
+        if (query.containsKey("paciente")) {
+            pagina = gestionConsultas.paginarConsultasPaciente(query.get("paciente"), cursor, limite);
+        } else if (Consulta.Estado.PENDIENTE.getCodigo().equals(estado)) {
+            // Las pendientes se entregan en orden de prioridad, no por ID
+            pagina = gestionConsultas.paginarConsultasPendientesMedico(requerido(query, "medico"), cursor, limite);
+        } else {
+            pagina = gestionConsultas.paginarConsultasMedico(requerido(query, "medico"), estado, cursor, limite);
+        }
+        return convertir(pagina, GestionConsultas::consultaToJson);
+    }
+
+    private JsonElement registrarDiagnostico(Usuario actual, String idConsulta, JsonObject datos) {
+        Consulta consulta = gestionConsultas.obtenerConsulta(idConsulta);
+        if (consulta == null) {
+            return null;
+        }
+        exigirMismo(actual, consulta.getIdMedico());
+        if (consulta.esCompletada()) {
+            throw new ErrorApi(409, "Esta consulta ya fue completada");
+        }
+        // Opcional: la versión con la que el cliente leyó la consulta; el
+        // servicio la compara al registrar (ConflictoVersion -> 409)
+        long version = datos.has("version") ? datos.get("version").getAsLong() : -1;
+
+        if (!gestionConsultas.registrarDiagnostico(idConsulta, requerido(datos, "diagnostico"),
+                                                  texto(datos, "tratamiento", ""),
+                                                  texto(datos, "observaciones", ""), version)) {
+            // Otro hilo la completó o canceló entre la comprobación y el registro
+            throw new ErrorApi(409, "La consulta ya no admite diagnóstico (" + consulta.getEstado() + ")");
+        }
+
+        if (gestionUsuarios.buscarPorId(consulta.getIdMedico()) instanceof Medico) {
+            gestionUsuarios.modificarUsuario(consulta.getIdMedico(),
+                u -> ((Medico) u).registrarConsultaAtendida(idConsulta));
+        }
+        return GestionConsultas.consultaToJson(consulta);
+    }
+
+    private JsonElement crearRegistro(JsonObject datos) {
+        String idPaciente = requerido(datos, "idPaciente");
+        if (!(gestionUsuarios.buscarPorId(idPaciente) instanceof Paciente)) {
+            throw new ErrorApi(404, "Paciente no encontrado");
+        }
+
+        RegistroSalud registro;
+        if (datos.has("presionSistolica")) {
+            registro = monitoreoSalud.crearRegistroManual(idPaciente,
+                datos.get("presionSistolica").getAsInt(),
+                datos.get("presionDiastolica").getAsInt(),
+                datos.get("frecuenciaCardiaca").getAsInt(),
+                datos.get("temperatura").getAsDouble(),
+                datos.get("saturacionOxigeno").getAsInt());
+        } else {
+            registro = monitoreoSalud.crearRegistroAleatorio(idPaciente);
+        }
+
+        JsonObject json = MonitoreoSalud.registroToJson(registro);
+        json.addProperty("evaluacion", registro.evaluarEstado());
+        return json;
+    }
+
+    private JsonElement analitica(String reporte, Map<String, String> query) {
+        LocalDateTime hasta = LocalDateTime.now();
+        LocalDateTime desde = hasta.minusDays(query.containsKey("dias") ? Integer.parseInt(query.get("dias")) : 7);
+        if ("presion".equals(reporte)) {
+            return estadisticaToJson(analitica.presionElevada(desde, hasta));
+        }
+        if ("fiebre".equals(reporte)) {
+            Map<String, AnaliticaPoblacional.Estadistica> grupos = "grupoSanguineo".equals(query.get("por"))
+                ? analitica.fiebrePorGrupoSanguineo(desde, hasta)
+                : analitica.fiebrePorEdad(desde, hasta);
+            JsonObject json = new JsonObject();
+            for (Map.Entry<String, AnaliticaPoblacional.Estadistica> e : grupos.entrySet()) {
+                json.add(e.getKey(), estadisticaToJson(e.getValue()));
+            }
+            return json;
+        }
+        return null;
+    }
+
+    private static JsonObject estadisticaToJson(AnaliticaPoblacional.Estadistica e) {
+        JsonObject json = new JsonObject();
+        json.addProperty("pacientes", e.getPacientes());
+        json.addProperty("pacientesConCondicion", e.getPacientesConCondicion());
+        json.addProperty("porcentajePacientes", e.getPorcentajePacientes());
+        json.addProperty("lecturas", e.getLecturas());
+        json.addProperty("lecturasConCondicion", e.getLecturasConCondicion());
+        json.addProperty("porcentajeLecturas", e.getPorcentajeLecturas());
+        return json;
+    }
+
+    private JsonElement listarResumenes(String idPaciente, String nivel) {
+        List<ResumenVital> resumenes = "frio".equalsIgnoreCase(nivel)
+            ? retencion.leerArchivoFrio(idPaciente)
+            : retencion.obtenerResumenes(idPaciente, ResumenVital.Nivel.valueOf(nivel.toUpperCase()));
+        JsonArray arreglo = new JsonArray();
+        for (ResumenVital r : resumenes) {
+            arreglo.add(RetencionRegistros.resumenToJson(r));
+        }
+        return arreglo;
+    }
+
+    private JsonElement consultarSignos(String idPaciente, Map<String, String> query) {
+        LocalDateTime hasta = query.containsKey("hasta") ? fecha(query.get("hasta")) : LocalDateTime.now();
+        LocalDateTime desde = query.containsKey("desde") ? fecha(query.get("desde")) : hasta.minusHours(24);
+        JsonArray arreglo = new JsonArray();
+
+        if (query.containsKey("intervalo")) {
+            SignoVital signo = SignoVital.desdeCampo(requerido(query, "signo"));
+            Duration intervalo = Duration.ofSeconds(Long.parseLong(query.get("intervalo")));
+            for (SerieVital.Intervalo i : monitoreoSalud.resumirSigno(idPaciente, signo, desde, hasta, intervalo)) {
+                JsonObject json = new JsonObject();
+                json.addProperty("inicio", formatoFecha(i.getInicio()));
+                json.addProperty("minimo", i.getMinimo());
+                json.addProperty("maximo", i.getMaximo());
+                json.addProperty("promedio", i.getPromedio());
+                json.addProperty("cantidad", i.getCantidad());
+                arreglo.add(json);
+            }
+        } else if (query.containsKey("puntos")) {
+            SignoVital signo = SignoVital.desdeCampo(requerido(query, "signo"));
+            int puntos = Integer.parseInt(query.get("puntos"));
+            for (SerieVital.Punto p : monitoreoSalud.reducirSigno(idPaciente, signo, desde, hasta, puntos)) {
+                JsonObject json = new JsonObject();
+                json.addProperty("fecha", formatoFecha(p.getTiempo()));
+                json.addProperty("valor", p.getValor());
+                arreglo.add(json);
+            }
+        } else {
+            for (RegistroSalud r : monitoreoSalud.obtenerRegistrosRango(idPaciente, desde, hasta)) {
+                arreglo.add(MonitoreoSalud.registroToJson(r));
+            }
+        }
+        return arreglo;
+    }
+
+    /**
+     * Acepta "yyyy-MM-dd HH:mm:ss", "yyyy-MM-ddTHH:mm:ss" o solo "yyyy-MM-dd"
+     */
+    private static LocalDateTime fecha(String valor) {
+        String texto = valor.trim().replace(' ', 'T');
+        return texto.length() == 10 ? LocalDate.parse(texto).atStartOfDay() : LocalDateTime.parse(texto);
+    }
+
+    private static String formatoFecha(long segundos) {
+        return LocalDateTime.ofEpochSecond(segundos, 0, ZoneOffset.UTC).format(formatter);
+    }
+
+    private <T> JsonObject convertir(Pagina<T> pagina, Function<? super T, JsonObject> conversor) {
+        JsonArray elementos = new JsonArray();
+        for (T elemento : pagina.getElementos()) {
+            elementos.add(conversor.apply(elemento));
+        }
+        JsonObject json = new JsonObject();
+        json.add("elementos", elementos);
+        json.addProperty("siguienteCursor", pagina.getSiguienteCursor());
+        return json;
+    }
+
+    private static int limite(Map<String, String> query) {
+        if (!query.containsKey("limite")) {
+            return LIMITE_POR_DEFECTO;
+        }
+        int limite = Integer.parseInt(query.get("limite"));
+        if (limite <= 0) {
+            throw new IllegalArgumentException("limite debe ser positivo");
+        }
+        return Math.min(limite, LIMITE_MAXIMO);
+    }
+
+    private JsonArray listarUsuarios(List<? extends Usuario> usuarios) {
+        JsonArray arreglo = new JsonArray();
+        for (Usuario u : usuarios) {
+            arreglo.add(usuarioPublico(u));
+        }
+        return arreglo;
+    }
+
+    private JsonObject usuarioPublico(Usuario u) {
+        JsonObject json = GestionUsuarios.usuarioToJson(u);
+        json.remove("contrasena");
+        return json;
+    }
+
+    private JsonObject cuerpo(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            String texto = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            if (texto.trim().isEmpty()) {
+                return new JsonObject();
+            }
+            return JsonParser.parseString(texto).getAsJsonObject();
+        }
+    }
+
+    private static String requerido(JsonObject datos, String campo) {
+        if (!datos.has(campo) || datos.get(campo).isJsonNull()
+                || datos.get(campo).getAsString().trim().isEmpty()) {
+            throw new ErrorApi(400, "Falta el campo " + campo);
+        }
+        return datos.get(campo).getAsString().trim();
+    }
+
+    private static String requerido(Map<String, String> query, String campo) {
+        String valor = query.get(campo);
+        if (valor == null || valor.isEmpty()) {
+            throw new ErrorApi(400, "Falta el parámetro " + campo);
+        }
+        return valor;
+    }
+
+    private static String texto(JsonObject datos, String campo, String porDefecto) {
+        return datos.has(campo) && !datos.get(campo).isJsonNull()
+            ? datos.get(campo).getAsString().trim()
+            : porDefecto;
+    }
+
+    private static Map<String, String> parametros(String query) {
+        Map<String, String> resultado = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return resultado;
+        }
+        for (String par : query.split("&")) {
+            int igual = par.indexOf('=');
+            String clave = igual >= 0 ? par.substring(0, igual) : par;
+            String valor = igual >= 0 ? par.substring(igual + 1) : "";
+            resultado.put(URLDecoder.decode(clave, StandardCharsets.UTF_8),
+                          URLDecoder.decode(valor, StandardCharsets.UTF_8));
+        }
+        return resultado;
+    }
+
+    private static JsonObject error(String mensaje) {
+        JsonObject json = new JsonObject();
+        json.addProperty("error", mensaje);
+        return json;
+    }
+
+    private static void responder(HttpExchange ex, int codigo, JsonElement cuerpo) throws IOException {
+        byte[] bytes = gson.toJson(cuerpo).getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(codigo, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
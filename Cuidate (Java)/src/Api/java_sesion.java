@@ -0,0 +1,110 @@
+package api;
+
+import models.Usuario;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estado de una sesión interactiva (consola local o conexión remota)
+ *
+ * Guarda el usuario autenticado y los flujos de entrada y salida, de modo
+ * que el menú de Main pueda atender varias sesiones a la vez, cada una en
+ * su propio hilo.
+ */
+public class Sesion implements Closeable {
+    private static final AtomicLong secuencia = new AtomicLong();
+    private static final DateTimeFormatter formatter =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final String idSesion;
+    private final Scanner entrada;
+    private final PrintStream salida;
+    private final boolean consola;
+    private final Closeable recurso;
+    private final String fechaInicio;
+    private volatile long ultimaActividad;
+    private volatile Usuario usuarioActual;
+    private volatile boolean cerrada;
+
+    public Sesion(InputStream entrada, PrintStream salida, boolean consola, Closeable recurso) {
+        this.idSesion = String.format("SES%05d", secuencia.incrementAndGet());
+        this.entrada = new Scanner(entrada, StandardCharsets.UTF_8);
+        this.salida = salida;
+        this.consola = consola;
+        this.recurso = recurso;
+        this.fechaInicio = LocalDateTime.now().format(formatter);
+        this.ultimaActividad = System.currentTimeMillis();
+        this.usuarioActual = null;
+        this.cerrada = false;
+    }
+
+    /**
+     * Crea la sesión de la terminal local
+     */
+    public static Sesion consola() {
+        return new Sesion(System.in, System.out, true, null);
+    }
+
+    /**
+     * Señal de que el cliente se desconectó o la sesión fue cerrada
+     */
+    public static class SesionTerminada extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public SesionTerminada() {
+            super("Sesión terminada");
+        }
+    }
+
+    // Getters
+    public String getIdSesion() { return idSesion; }
+    public PrintStream getSalida() { return salida; }
+    public boolean esConsola() { return consola; }
+    public String getFechaInicio() { return fechaInicio; }
+    public long getUltimaActividad() { return ultimaActividad; }
+    public Usuario getUsuarioActual() { return usuarioActual; }
+    public boolean estaCerrada() { return cerrada; }
+
+    // Setters
+    public void setUsuarioActual(Usuario usuarioActual) { this.usuarioActual = usuarioActual; }
+
+    /**
+     * Lee la siguiente línea del cliente (vacía los mensajes pendientes antes)
+     */
+    public String leerLinea() {
+        salida.flush();
+        if (cerrada) {
+            throw new SesionTerminada();
+        }
+        try {
+            String linea = entrada.nextLine();
+            ultimaActividad = System.currentTimeMillis();
+            return linea;
+        } catch (NoSuchElementException | IllegalStateException e) {
+            cerrada = true;
+            throw new SesionTerminada();
+        }
+    }
+
+    /**
+     * Cierra la sesión y libera la conexión asociada
+     */
+    @Override
+    public void close() {
+        cerrada = true;
+        usuarioActual = null;
+        salida.flush();
+        if (recurso != null) {
+            try {
+                recurso.close();
+            } catch (IOException e) {
+                // La conexión ya estaba cerrada
+            }
+        }
+    }
+}
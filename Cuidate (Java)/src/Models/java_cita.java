@@ -0,0 +1,52 @@
+package models;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Cita agendada: un turno de un médico reservado para un paciente y,
+ * si se agendó para una consulta, el ID de esa consulta
+ *
+ * Inicio y fin se guardan en minutos desde 1970-01-01 00:00 en hora local
+ * (la hora de la agenda, sin zona), el fin no incluido.
+ */
+public class Cita {
+    private String idCita;
+    private String idMedico;
+    private String idPaciente;
+    private String idConsulta;
+    private long inicio;
+    private long fin;
+
+    public Cita(String idCita, String idMedico, String idPaciente,
+                String idConsulta, long inicio, long fin) {
+        this.idCita = idCita;
+        this.idMedico = idMedico;
+        this.idPaciente = idPaciente;
+        this.idConsulta = idConsulta;
+        this.inicio = inicio;
+        this.fin = fin;
+    }
+
+    // Getters
+    public String getIdCita() { return idCita; }
+    public String getIdMedico() { return idMedico; }
+    public String getIdPaciente() { return idPaciente; }
+    public String getIdConsulta() { return idConsulta; }
+    public long getInicio() { return inicio; }
+    public long getFin() { return fin; }
+
+    public LocalDateTime getFechaInicio() { return aFecha(inicio); }
+    public LocalDateTime getFechaFin() { return aFecha(fin); }
+
+    /**
+     * Minutos desde 1970-01-01 00:00 de una fecha y hora local
+     */
+    public static long aMinutos(LocalDateTime fecha) {
+        return Math.floorDiv(fecha.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    public static LocalDateTime aFecha(long minutos) {
+        return LocalDateTime.ofEpochSecond(minutos * 60, 0, ZoneOffset.UTC);
+    }
+}
@@ -2,32 +2,110 @@ package models;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Clase para manejar consultas médicas
  */
 public class Consulta {
+    /**
+     * Estados de una consulta y transiciones permitidas:
+     *
+     *   PENDIENTE  -> EN_PROCESO, COMPLETADA, CANCELADA
+     *   EN_PROCESO -> PENDIENTE (devuelta a la cola), COMPLETADA, CANCELADA
+     *   COMPLETADA y CANCELADA son finales
+     *
+     * El código es el valor que se guarda en los archivos y la API.
+     */
+    public enum Estado {
+        PENDIENTE("pendiente"),
+        EN_PROCESO("en_proceso"),
+        COMPLETADA("completada"),
+        CANCELADA("cancelada");
+    
+        private static final Estado[] VALORES = values();
+    
+        private final String codigo;
+        private EnumSet<Estado> siguientes;
+    
+        static {
+            PENDIENTE.siguientes = EnumSet.of(EN_PROCESO, COMPLETADA, CANCELADA);
+            EN_PROCESO.siguientes = EnumSet.of(PENDIENTE, COMPLETADA, CANCELADA);
+            COMPLETADA.siguientes = EnumSet.noneOf(Estado.class);
+            CANCELADA.siguientes = EnumSet.noneOf(Estado.class);
+        }
+    
+        Estado(String codigo) {
+            this.codigo = codigo;
+        }
+    
+        public String getCodigo() { return codigo; }
+    
+        public boolean puedePasarA(Estado nuevo) {
+            return siguientes.contains(nuevo);
+        }
+    
+        public boolean esFinal() {
+            return siguientes.isEmpty();
+        }
+    
+        /**
+         * Estado de un código guardado; null si no es un estado conocido
+         */
+        public static Estado desdeCodigo(String codigo) {
+            for (Estado e : VALORES) {
+                if (e.codigo.equals(codigo)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+    
+        @Override
+        public String toString() {
+            return codigo;
+        }
+    }
+    
+    /**
+     * Se llama después de cada transición de estado aplicada, en el hilo
+     * que la hizo (el servicio dueño de la consulta mantiene así sus
+     * índices y contadores)
+     */
+    public interface ObservadorTransicion {
+        void alTransicionar(Consulta consulta, Estado anterior, Estado nuevo);
+    }
+    
+    private static final AtomicReferenceFieldUpdater<Consulta, Estado> ESTADO =
+        AtomicReferenceFieldUpdater.newUpdater(Consulta.class, Estado.class, "estado");
+    private static final AtomicLongFieldUpdater<Consulta> VERSION =
+        AtomicLongFieldUpdater.newUpdater(Consulta.class, "version");
+    
     private String idConsulta;
     private String idPaciente;
     private String idMedico;
     private String motivo;
-    private String estado;
+    private volatile Estado estado;
     private String fechaSolicitud;
     private String fechaAtencion;
     private String diagnostico;
     private String tratamiento;
     private String observaciones;
+    private ObservadorTransicion observador;
+    private volatile long version;
     
-    private static final DateTimeFormatter formatter = 
+    private static final DateTimeFormatter formatter =
         DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
     public Consulta(String idConsulta, String idPaciente, String idMedico,
-                   String motivo, String estado) {
+                   String motivo, Estado estado) {
         this.idConsulta = idConsulta;
         this.idPaciente = idPaciente;
         this.idMedico = idMedico;
         this.motivo = motivo;
-        this.estado = estado != null ? estado : "pendiente";
+        this.estado = estado != null ? estado : Estado.PENDIENTE;
         this.fechaSolicitud = LocalDateTime.now().format(formatter);
         this.fechaAtencion = null;
         this.diagnostico = "";
@@ -40,12 +118,13 @@ public class Consulta {
     public String getIdPaciente() { return idPaciente; }
     public String getIdMedico() { return idMedico; }
     public String getMotivo() { return motivo; }
-    public String getEstado() { return estado; }
+    public Estado getEstado() { return estado; }
     public String getFechaSolicitud() { return fechaSolicitud; }
     public String getFechaAtencion() { return fechaAtencion; }
     public String getDiagnostico() { return diagnostico; }
     public String getTratamiento() { return tratamiento; }
     public String getObservaciones() { return observaciones; }
+    public long getVersion() { return version; }
     
     // Setters
     public void setFechaSolicitud(String fechaSolicitud) { this.fechaSolicitud = fechaSolicitud; }
@@ -53,55 +132,132 @@ public class Consulta {
     public void setDiagnostico(String diagnostico) { this.diagnostico = diagnostico; }
     public void setTratamiento(String tratamiento) { this.tratamiento = tratamiento; }
     public void setObservaciones(String observaciones) { this.observaciones = observaciones; }
+    public void setObservadorTransicion(ObservadorTransicion observador) { this.observador = observador; }
+    public void setVersion(long version) { this.version = version; }
     
     /**
-     * Actualiza el estado de la consulta
+     * Avanza la versión solo si sigue siendo "esperada"; false si otro
+     * escritor la avanzó antes (ver GestionConsultas.actualizarConsulta)
      */
-    public void actualizarEstado(String nuevoEstado) {
-        String[] estadosValidos = {"pendiente", "en_proceso", "completada", "cancelada"};
-        for (String e : estadosValidos) {
-            if (e.equals(nuevoEstado)) {
-                this.estado = nuevoEstado;
-                if (nuevoEstado.equals("en_proceso") && this.fechaAtencion == null) {
-                    this.fechaAtencion = LocalDateTime.now().format(formatter);
-                }
-                return;
+    public boolean avanzarVersion(long esperada) {
+        return VERSION.compareAndSet(this, esperada, esperada + 1);
+    }
+    
+    /**
+     * Avanza la versión sin comparar (cambios hechos por el propio servicio)
+     */
+    public long incrementarVersion() {
+        return VERSION.incrementAndGet(this);
+    }
+    
+    /**
+     * Pasa de "esperado" a "nuevo" si la consulta sigue en "esperado" y la
+     * tabla de transiciones lo permite. Es atómico: si varios médicos lo
+     * intentan a la vez, solo uno lo logra.
+     */
+    public boolean transicion(Estado esperado, Estado nuevo) {
+        if (!esperado.puedePasarA(nuevo) || !ESTADO.compareAndSet(this, esperado, nuevo)) {
+            return false;
+        }
+        if ((nuevo == Estado.EN_PROCESO || nuevo == Estado.COMPLETADA) && this.fechaAtencion == null) {
+            this.fechaAtencion = LocalDateTime.now().format(formatter);
+        }
+        ObservadorTransicion o = observador;
+        if (o != null) {
+            o.alTransicionar(this, esperado, nuevo);
+        }
+        return true;
+    }
+    
+    /**
+     * Pasa al estado indicado desde el estado actual, sea cual sea; retorna
+     * el estado anterior, o null si la tabla no permite la transición
+     * (incluido quedarse en el mismo estado)
+     */
+    public Estado pasarA(Estado nuevo) {
+        while (true) {
+            Estado actual = estado;
+            if (!actual.puedePasarA(nuevo)) {
+                return null;
+            }
+            if (transicion(actual, nuevo)) {
+                return actual;
             }
         }
     }
     
     /**
-     * Registra el diagnóstico de la consulta
+     * Como pasarA, pero también acepta que ya esté en ese estado
      */
-    public void registrarDiagnostico(String diagnostico, String tratamiento, 
-                                    String observaciones) {
-        this.diagnostico = diagnostico;
-        this.tratamiento = tratamiento != null ? tratamiento : "";
-        this.observaciones = observaciones != null ? observaciones : "";
-        actualizarEstado("completada");
+    public boolean cambiarEstado(Estado nuevo) {
+        return estado == nuevo || pasarA(nuevo) != null;
     }
     
     /**
-     * Cancela la consulta
+     * Registra el diagnóstico y completa la consulta; retorna el estado
+     * anterior, o null si ya estaba completada o cancelada. Los campos se
+     * escriben antes de la transición para que quien vea COMPLETADA (los
+     * observadores, el bus de eventos) lea también el diagnóstico; si otro
+     * hilo gana la transición se restauran los valores anteriores.
      */
-    public void cancelarConsulta(String motivoCancelacion) {
-        actualizarEstado("cancelada");
-        if (motivoCancelacion != null && !motivoCancelacion.isEmpty()) {
-            this.observaciones = "Cancelada: " + motivoCancelacion;
+    public synchronized Estado registrarDiagnostico(String diagnostico, String tratamiento,
+                                                    String observaciones) {
+        return completarCon(Estado.COMPLETADA, diagnostico,
+                            tratamiento != null ? tratamiento : "",
+                            observaciones != null ? observaciones : "");
+    }
+    
+    /**
+     * Cancela la consulta; retorna el estado anterior, o null si ya estaba
+     * completada o cancelada. El motivo se escribe antes de la transición,
+     * igual que en registrarDiagnostico.
+     */
+    public synchronized Estado cancelarConsulta(String motivoCancelacion) {
+        String nuevasObservaciones = motivoCancelacion != null && !motivoCancelacion.isEmpty()
+            ? "Cancelada: " + motivoCancelacion : this.observaciones;
+        return completarCon(Estado.CANCELADA, this.diagnostico, this.tratamiento, nuevasObservaciones);
+    }
+    
+    private Estado completarCon(Estado nuevo, String diagnostico, String tratamiento,
+                                String observaciones) {
+        while (true) {
+            Estado actual = estado;
+            if (!actual.puedePasarA(nuevo)) {
+                return null;
+            }
+            String diagnosticoAnterior = this.diagnostico;
+            String tratamientoAnterior = this.tratamiento;
+            String observacionesAnteriores = this.observaciones;
+            this.diagnostico = diagnostico;
+            this.tratamiento = tratamiento;
+            this.observaciones = observaciones;
+            if (transicion(actual, nuevo)) {
+                return actual;
+            }
+            this.diagnostico = diagnosticoAnterior;
+            this.tratamiento = tratamientoAnterior;
+            this.observaciones = observacionesAnteriores;
         }
     }
     
+    /**
+     * Pasa la consulta de pendiente a en_proceso si nadie la tomó antes
+     */
+    public boolean tomarParaAtencion() {
+        return transicion(Estado.PENDIENTE, Estado.EN_PROCESO);
+    }
+    
     /**
      * Verifica si la consulta está pendiente
      */
     public boolean esPendiente() {
-        return "pendiente".equals(this.estado);
+        return this.estado == Estado.PENDIENTE;
     }
     
     /**
      * Verifica si la consulta está completada
      */
     public boolean esCompletada() {
-        return "completada".equals(this.estado);
+        return this.estado == Estado.COMPLETADA;
     }
 }
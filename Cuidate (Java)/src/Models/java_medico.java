@@ -1,5 +1,6 @@
 package models;
 
+import utils.Diccionario;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,7 +18,7 @@ public class Medico extends Usuario {
                  String cedula, String correo, String contrasena,
                  String especialidad, String registroMedico, int anosExperiencia) {
         super(idUsuario, nombre, apellido, cedula, correo, contrasena, "medico");
-        this.especialidad = especialidad;
+        this.especialidad = Diccionario.ESPECIALIDADES.canonico(especialidad);
         this.registroMedico = registroMedico;
         this.anosExperiencia = anosExperiencia;
         this.pacientesAsignados = new ArrayList<>();
@@ -32,7 +33,9 @@ public class Medico extends Usuario {
     public List<String> getConsultasAtendidas() { return consultasAtendidas; }
     
     // Setters
-    public void setEspecialidad(String especialidad) { this.especialidad = especialidad; }
+    public void setEspecialidad(String especialidad) {
+        this.especialidad = Diccionario.ESPECIALIDADES.canonico(especialidad);
+    }
     public void setRegistroMedico(String registroMedico) { this.registroMedico = registroMedico; }
     public void setAnosExperiencia(int anosExperiencia) { this.anosExperiencia = anosExperiencia; }
     public void setPacientesAsignados(List<String> pacientesAsignados) { 
@@ -67,7 +70,7 @@ public class Medico extends Usuario {
                                             String registroMedico,
                                             Integer anosExperiencia) {
         if (especialidad != null && !especialidad.isEmpty()) {
-            this.especialidad = especialidad;
+            this.especialidad = Diccionario.ESPECIALIDADES.canonico(especialidad);
         }
         if (registroMedico != null && !registroMedico.isEmpty()) {
             this.registroMedico = registroMedico;
@@ -1,5 +1,6 @@
 package models;
 
+import utils.Diccionario;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,10 +21,10 @@ public class Paciente extends Usuario {
                    String telefono, String grupoSanguineo) {
         super(idUsuario, nombre, apellido, cedula, correo, contrasena, "paciente");
         this.edad = edad;
-        this.genero = genero;
+        this.genero = Diccionario.GENEROS.canonico(genero);
         this.direccion = direccion;
         this.telefono = telefono;
-        this.grupoSanguineo = grupoSanguineo;
+        this.grupoSanguineo = Diccionario.GRUPOS_SANGUINEOS.canonico(grupoSanguineo);
         this.historialConsultas = new ArrayList<>();
     }
     
@@ -37,10 +38,12 @@ public class Paciente extends Usuario {
     
     // Setters
     public void setEdad(int edad) { this.edad = edad; }
-    public void setGenero(String genero) { this.genero = genero; }
+    public void setGenero(String genero) { this.genero = Diccionario.GENEROS.canonico(genero); }
     public void setDireccion(String direccion) { this.direccion = direccion; }
     public void setTelefono(String telefono) { this.telefono = telefono; }
-    public void setGrupoSanguineo(String grupoSanguineo) { this.grupoSanguineo = grupoSanguineo; }
+    public void setGrupoSanguineo(String grupoSanguineo) {
+        this.grupoSanguineo = Diccionario.GRUPOS_SANGUINEOS.canonico(grupoSanguineo);
+    }
     public void setHistorialConsultas(List<String> historialConsultas) { 
         this.historialConsultas = historialConsultas; 
     }
@@ -64,7 +67,7 @@ public class Paciente extends Usuario {
             this.edad = edad;
         }
         if (genero != null && !genero.isEmpty()) {
-            this.genero = genero;
+            this.genero = Diccionario.GENEROS.canonico(genero);
         }
         if (direccion != null && !direccion.isEmpty()) {
             this.direccion = direccion;
@@ -73,7 +76,7 @@ public class Paciente extends Usuario {
             this.telefono = telefono;
         }
         if (grupoSanguineo != null && !grupoSanguineo.isEmpty()) {
-            this.grupoSanguineo = grupoSanguineo;
+            this.grupoSanguineo = Diccionario.GRUPOS_SANGUINEOS.canonico(grupoSanguineo);
         }
     }
 }
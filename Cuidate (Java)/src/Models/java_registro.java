@@ -1,10 +1,12 @@
 package models;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 /**
  * Clase para registros de salud y signos vitales
@@ -49,6 +51,21 @@ public class RegistroSalud {
     public String getFechaRegistro() { return fechaRegistro; }
     public String getObservaciones() { return observaciones; }
     
+    /**
+     * Fecha del registro en segundos (hora local tratada como UTC, para
+     * ordenar y comparar sin depender de la zona horaria)
+     */
+    public long getMarcaTiempo() {
+        return aSegundos(LocalDateTime.parse(fechaRegistro, formatter));
+    }
+    
+    /**
+     * Convierte una fecha a la misma escala de segundos que getMarcaTiempo
+     */
+    public static long aSegundos(LocalDateTime fecha) {
+        return fecha.toEpochSecond(ZoneOffset.UTC);
+    }
+    
     // Setters
     public void setFechaRegistro(String fechaRegistro) { this.fechaRegistro = fechaRegistro; }
     public void setObservaciones(String observaciones) { this.observaciones = observaciones; }
@@ -57,7 +74,15 @@ public class RegistroSalud {
      * Genera un registro de salud con valores aleatorios simulados
      */
     public static RegistroSalud generarAleatorio(String idRegistro, String idPaciente) {
-        Random random = new Random();
+        return generarAleatorio(idRegistro, idPaciente, ThreadLocalRandom.current());
+    }
+    
+    /**
+     * Genera un registro aleatorio usando el generador indicado
+     * (permite series reproducibles a partir de una semilla)
+     */
+    public static RegistroSalud generarAleatorio(String idRegistro, String idPaciente,
+                                                 RandomGenerator random) {
         int presionSistolica = 110 + random.nextInt(31);
         int presionDiastolica = 70 + random.nextInt(21);
         int frecuenciaCardiaca = 60 + random.nextInt(41);
@@ -74,6 +99,26 @@ public class RegistroSalud {
      * Evalúa el estado general basado en los signos vitales
      */
     public String evaluarEstado() {
+        List<String> alertas = obtenerAlertas();
+        
+        if (alertas.isEmpty()) {
+            return "Normal - Todos los signos vitales en rango saludable";
+        } else {
+            return "Alerta: " + String.join(", ", alertas);
+        }
+    }
+    
+    /**
+     * Nivel de alerta: número de signos vitales fuera de rango (0 = normal)
+     */
+    public int nivelAlerta() {
+        return obtenerAlertas().size();
+    }
+    
+    /**
+     * Lista las alertas de los signos vitales fuera de rango
+     */
+    private List<String> obtenerAlertas() {
         List<String> alertas = new ArrayList<>();
         
         if (presionSistolica > 140 || presionDiastolica > 90) {
@@ -98,11 +143,7 @@ public class RegistroSalud {
             alertas.add("Saturación de oxígeno baja");
         }
         
-        if (alertas.isEmpty()) {
-            return "Normal - Todos los signos vitales en rango saludable";
-        } else {
-            return "Alerta: " + String.join(", ", alertas);
-        }
+        return alertas;
     }
     
     /**
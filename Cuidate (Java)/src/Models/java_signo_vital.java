@@ -0,0 +1,63 @@
+package models;
+
+/**
+ * Signos vitales que se guardan en un RegistroSalud
+ */
+public enum SignoVital {
+    PRESION_SISTOLICA("presionSistolica", 1),
+    PRESION_DIASTOLICA("presionDiastolica", 1),
+    FRECUENCIA_CARDIACA("frecuenciaCardiaca", 1),
+    TEMPERATURA("temperatura", 10),
+    SATURACION_OXIGENO("saturacionOxigeno", 1);
+
+    private final String campo;
+    private final int escala;
+
+    SignoVital(String campo, int escala) {
+        this.campo = campo;
+        this.escala = escala;
+    }
+
+    /**
+     * Nombre del campo en el JSON de registros
+     */
+    public String getCampo() { return campo; }
+
+    /**
+     * Factor por el que se multiplica el valor para guardarlo como entero
+     * sin perder precisión (la temperatura tiene un decimal)
+     */
+    public int getEscala() { return escala; }
+
+    /**
+     * Valor de este signo en un registro, como entero escalado
+     */
+    public long cuantizar(RegistroSalud r) {
+        return Math.round(valor(r) * escala);
+    }
+
+    /**
+     * Valor de este signo en un registro
+     */
+    public double valor(RegistroSalud r) {
+        switch (this) {
+            case PRESION_SISTOLICA: return r.getPresionSistolica();
+            case PRESION_DIASTOLICA: return r.getPresionDiastolica();
+            case FRECUENCIA_CARDIACA: return r.getFrecuenciaCardiaca();
+            case TEMPERATURA: return r.getTemperatura();
+            default: return r.getSaturacionOxigeno();
+        }
+    }
+
+    /**
+     * Busca un signo por su nombre de campo (por ejemplo "frecuenciaCardiaca")
+     */
+    public static SignoVital desdeCampo(String campo) {
+        for (SignoVital s : values()) {
+            if (s.campo.equalsIgnoreCase(campo) || s.name().equalsIgnoreCase(campo)) {
+                return s;
+            }
+        }
+        throw new IllegalArgumentException("Signo vital desconocido: " + campo);
+    }
+}
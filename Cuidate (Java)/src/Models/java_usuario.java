@@ -1,5 +1,6 @@
 package models;
 
+import utils.Diccionario;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -15,6 +16,7 @@ public class Usuario {
     protected String contrasena;
     protected String tipo;
     protected String fechaRegistro;
+    private volatile long version;
     
     private static final DateTimeFormatter formatter = 
         DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
@@ -27,7 +29,7 @@ public class Usuario {
         this.cedula = cedula;
         this.correo = correo;
         this.contrasena = contrasena;
-        this.tipo = tipo;
+        this.tipo = Diccionario.TIPOS_USUARIO.canonico(tipo);
         this.fechaRegistro = LocalDateTime.now().format(formatter);
     }
     
@@ -40,6 +42,7 @@ public class Usuario {
     public String getContrasena() { return contrasena; }
     public String getTipo() { return tipo; }
     public String getFechaRegistro() { return fechaRegistro; }
+    public long getVersion() { return version; }
     
     // Setters
     public void setNombre(String nombre) { this.nombre = nombre; }
@@ -47,6 +50,7 @@ public class Usuario {
     public void setCorreo(String correo) { this.correo = correo; }
     public void setContrasena(String contrasena) { this.contrasena = contrasena; }
     public void setFechaRegistro(String fechaRegistro) { this.fechaRegistro = fechaRegistro; }
+    public void setVersion(long version) { this.version = version; }
     
     /**
      * Actualiza los datos del usuario
@@ -0,0 +1,669 @@
+package services;
+
+import models.Cita;
+import models.Consulta;
+import models.Medico;
+import utils.AlmacenParticionado;
+import utils.Ids;
+import utils.JsonUtil;
+import utils.Metricas;
+import com.google.gson.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agenda de citas por médico con turnos de duración fija
+ *
+ * Cada médico tiene un calendario: su horario semanal (días y franja del
+ * día, por omisión lunes a viernes de 8 a 17) y un árbol de intervalos con
+ * sus citas. Los turnos empiezan al inicio de la franja y duran
+ * TURNO minutos. Reservar comprueba el solapamiento en O(log n) y buscar el
+ * siguiente turno libre salta de cita en cita sin recorrer los turnos
+ * ocupados uno por uno. Cada calendario tiene su propio candado, así las
+ * reservas con médicos distintos no se esperan.
+ *
+ * Las reservas, cancelaciones y horarios se agregan a una bitácora (una
+ * línea JSON por cambio) repartida en archivos por el hash del ID del
+ * médico (ver AlmacenParticionado), cada uno con su propio candado, así
+ * las reservas con médicos distintos tampoco se esperan al escribir. La
+ * línea se escribe con el candado del calendario tomado y antes de
+ * publicar el cambio en memoria y se sincroniza al disco antes de
+ * seguir: los cambios de un médico quedan en su archivo en el mismo orden
+ * en que ocurrieron, una reserva confirmada sobrevive a una caída, y si la
+ * escritura falla el archivo vuelve a su largo anterior y el cambio no
+ * ocurre (se lanza UncheckedIOException). Al iniciar se
+ * vuelven a leer los archivos y se compactan en el número de archivos
+ * configurado. Solo se agendan consultas pendientes, y cuando se cancela
+ * una consulta su cita queda libre.
+ */
+public class AgendaCitas implements ObservadorCambios {
+    private static final Metricas.Temporizador tiempoReservar =
+        Metricas.temporizador("agenda.reservar");
+    private static final Metricas.Temporizador tiempoCancelar =
+        Metricas.temporizador("agenda.cancelar");
+    private static final Metricas.Temporizador tiempoSiguienteTurno =
+        Metricas.temporizador("agenda.siguienteTurno");
+    private static final Metricas.Temporizador tiempoSiguienteTurnoEspecialidad =
+        Metricas.temporizador("agenda.siguienteTurnoEspecialidad");
+    private static final Metricas.Contador choques = Metricas.contador("agenda.choques");
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int MINUTOS_DIA = 24 * 60;
+
+    /**
+     * Duración de cada turno en minutos (-Dcuidate.agenda.turno)
+     */
+    public static final int TURNO = Integer.getInteger("cuidate.agenda.turno", 30);
+
+    private final GestionUsuarios gestionUsuarios;
+    private final GestionConsultas gestionConsultas;
+    private final String ruta;
+    private final AlmacenParticionado archivos;
+    private final int horizonteDias;
+    private final Map<String, Calendario> calendarios;
+    private final Map<String, Cita> citas;
+    private final Map<String, String> porConsulta;
+    private final AtomicInteger ultimoNumero;
+    private final FileChannel[] bitacoras;
+
+    /**
+     * Horario semanal de un médico: días de atención y franja del día
+     * (en minutos desde la medianoche, el fin no incluido)
+     */
+    public static class Horario {
+        private final EnumSet<DayOfWeek> dias;
+        private final int desde;
+        private final int hasta;
+
+        public Horario(Set<DayOfWeek> dias, LocalTime desde, LocalTime hasta) {
+            if (!desde.isBefore(hasta)) {
+                throw new IllegalArgumentException("La franja debe terminar después de empezar");
+            }
+            this.dias = dias.isEmpty() ? EnumSet.noneOf(DayOfWeek.class) : EnumSet.copyOf(dias);
+            this.desde = desde.getHour() * 60 + desde.getMinute();
+            this.hasta = hasta.getHour() * 60 + hasta.getMinute();
+        }
+
+        /**
+         * Lunes a viernes de 8:00 a 17:00
+         */
+        public static Horario porDefecto() {
+            return new Horario(EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY),
+                               LocalTime.of(8, 0), LocalTime.of(17, 0));
+        }
+
+        public Set<DayOfWeek> getDias() { return Collections.unmodifiableSet(dias); }
+        public LocalTime getDesde() { return LocalTime.of(desde / 60, desde % 60); }
+        public LocalTime getHasta() { return LocalTime.of(hasta / 60, hasta % 60); }
+
+        /**
+         * Inicio del primer turno que empieza en "minuto" o después; -1 si
+         * el horario no tiene turnos
+         */
+        long primerTurnoDesde(long minuto) {
+            long dia = Math.floorDiv(minuto, MINUTOS_DIA);
+            long enElDia = minuto - dia * MINUTOS_DIA;
+            for (int i = 0; i <= 7; i++, dia++, enElDia = 0) {
+                if (!dias.contains(LocalDate.ofEpochDay(dia).getDayOfWeek())) {
+                    continue;
+                }
+                long turno = enElDia <= desde ? desde
+                                              : desde + (enElDia - desde + TURNO - 1) / TURNO * TURNO;
+                if (turno + TURNO <= hasta) {
+                    return dia * MINUTOS_DIA + turno;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Si [inicio, inicio + TURNO) es un turno de este horario
+         */
+        boolean esTurno(long inicio) {
+            return primerTurnoDesde(inicio) == inicio;
+        }
+    }
+
+    /**
+     * Horario y citas de un médico; su monitor es el candado del calendario
+     */
+    private static class Calendario {
+        Horario horario = Horario.porDefecto();
+        final ArbolIntervalos<Cita> citas = new ArbolIntervalos<>();
+
+        /**
+         * Siguiente turno libre desde "minuto" que empiece antes de "limite";
+         * -1 si no hay. Cada cita encontrada hace saltar la búsqueda a su fin.
+         */
+        long siguienteLibre(long minuto, long limite) {
+            long turno = horario.primerTurnoDesde(minuto);
+            while (turno >= 0 && turno < limite) {
+                Cita ocupada = citas.primerSolapado(turno, turno + TURNO);
+                if (ocupada == null) {
+                    return turno;
+                }
+                turno = horario.primerTurnoDesde(ocupada.getFin());
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Turno libre encontrado para una especialidad
+     */
+    public static class Turno {
+        private final String idMedico;
+        private final long inicio;
+
+        Turno(String idMedico, long inicio) {
+            this.idMedico = idMedico;
+            this.inicio = inicio;
+        }
+
+        public String getIdMedico() { return idMedico; }
+        public LocalDateTime getInicio() { return Cita.aFecha(inicio); }
+        public LocalDateTime getFin() { return Cita.aFecha(inicio + TURNO); }
+    }
+
+    /**
+     * Carga la agenda de la bitácora en "ruta" y la deja repartida en
+     * "particiones" archivos; las búsquedas miran hasta "horizonteDias"
+     * días hacia adelante
+     */
+    public AgendaCitas(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                       String ruta, int horizonteDias, int particiones) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.gestionConsultas = gestionConsultas;
+        this.ruta = ruta;
+        this.archivos = new AlmacenParticionado(ruta, particiones);
+        this.bitacoras = new FileChannel[particiones];
+        this.horizonteDias = horizonteDias;
+        this.calendarios = new ConcurrentHashMap<>();
+        this.citas = new ConcurrentHashMap<>();
+        this.porConsulta = new ConcurrentHashMap<>();
+        this.ultimoNumero = new AtomicInteger();
+        cargar();
+        Metricas.medidor("agenda.citas", citas::size);
+    }
+
+    public AgendaCitas(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                       String ruta, int horizonteDias) {
+        this(gestionUsuarios, gestionConsultas, ruta, horizonteDias,
+             Integer.getInteger("cuidate.agenda.particiones", 16));
+    }
+
+    public AgendaCitas(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas, String ruta) {
+        this(gestionUsuarios, gestionConsultas, ruta, Integer.getInteger("cuidate.agenda.horizonte", 90));
+    }
+
+    private Calendario calendario(String idMedico) {
+        return calendarios.computeIfAbsent(idMedico, id -> new Calendario());
+    }
+
+    /**
+     * Cambia el horario semanal de un médico. Las citas ya reservadas se
+     * conservan aunque queden fuera del horario nuevo.
+     */
+    public void configurarHorario(String idMedico, Horario horario) {
+        if (!(gestionUsuarios.buscarPorId(idMedico) instanceof Medico)) {
+            throw new IllegalArgumentException("No existe el médico " + idMedico);
+        }
+        Calendario calendario = calendario(idMedico);
+        synchronized (calendario) {
+            escribir(idMedico, horarioToJson(idMedico, horario));
+            calendario.horario = horario;
+        }
+    }
+
+    public Horario obtenerHorario(String idMedico) {
+        Calendario calendario = calendarios.get(idMedico);
+        return calendario != null ? calendario.horario : Horario.porDefecto();
+    }
+
+    /**
+     * Reserva el turno que empieza en "inicio" con el médico. Retorna la
+     * cita, o null si el turno ya está ocupado. Lanza
+     * IllegalArgumentException si "inicio" no es un turno del horario del
+     * médico o si la consulta indicada no es de ese médico y paciente, no
+     * está pendiente o ya tiene cita.
+     */
+    public Cita reservar(String idMedico, String idPaciente, String idConsulta, LocalDateTime inicio) {
+        long comienzo = tiempoReservar.iniciar();
+        try {
+            if (!(gestionUsuarios.buscarPorId(idMedico) instanceof Medico)) {
+                throw new IllegalArgumentException("No existe el médico " + idMedico);
+            }
+            Consulta consulta = null;
+            if (idConsulta != null) {
+                consulta = gestionConsultas.obtenerConsulta(idConsulta);
+                if (consulta == null || !consulta.getIdMedico().equals(idMedico)
+                        || !consulta.getIdPaciente().equals(idPaciente)) {
+                    throw new IllegalArgumentException("La consulta " + idConsulta
+                                                       + " no es de ese médico y paciente");
+                }
+            }
+            return reservarTurno(idMedico, idPaciente, consulta, Cita.aMinutos(inicio));
+        } finally {
+            tiempoReservar.detener(comienzo);
+        }
+    }
+
+    private Cita reservarTurno(String idMedico, String idPaciente, Consulta consulta, long inicio) {
+        String idConsulta = consulta != null ? consulta.getIdConsulta() : null;
+        Calendario calendario = calendario(idMedico);
+        synchronized (calendario) {
+            if (!calendario.horario.esTurno(inicio)) {
+                throw new IllegalArgumentException("No es un turno del horario del médico: "
+                                                   + Cita.aFecha(inicio).format(formatter));
+            }
+            if (calendario.citas.primerSolapado(inicio, inicio + TURNO) != null) {
+                choques.incrementar();
+                return null;
+            }
+            // Las citas de una consulta son todas de su médico: este candado basta
+            if (idConsulta != null && porConsulta.containsKey(idConsulta)) {
+                throw new IllegalArgumentException("La consulta " + idConsulta + " ya tiene cita");
+            }
+            // Si se cancela después de esto, alCambiar espera este candado y libera la cita
+            if (consulta != null && !consulta.esPendiente()) {
+                throw new IllegalArgumentException("La consulta " + idConsulta + " no está pendiente ("
+                                                   + consulta.getEstado() + ")");
+            }
+            // El turno está libre y nadie más toca este calendario: el ID se usa
+            Cita cita = new Cita(String.format("CIT%04d", ultimoNumero.incrementAndGet()),
+                                 idMedico, idPaciente, idConsulta, inicio, inicio + TURNO);
+            JsonObject linea = new JsonObject();
+            linea.addProperty("op", "reservar");
+            linea.add("cita", citaToJson(cita));
+            escribir(idMedico, linea);
+            calendario.citas.insertarSiLibre(inicio, inicio + TURNO, cita);
+            citas.put(cita.getIdCita(), cita);
+            if (idConsulta != null) {
+                porConsulta.put(idConsulta, cita.getIdCita());
+            }
+            return cita;
+        }
+    }
+
+    /**
+     * Reserva el turno libre más temprano desde "desde" entre los médicos
+     * de la especialidad. Si otro lo reserva en medio, busca de nuevo. Retorna null si no hay turnos en el horizonte.
+     */
+    public Cita reservarSiguiente(String especialidad, String idPaciente, LocalDateTime desde) {
+        while (true) {
+            Turno turno = siguienteTurnoEspecialidad(especialidad, desde);
+            if (turno == null) {
+                return null;
+            }
+            Cita cita = reservar(turno.getIdMedico(), idPaciente, null, turno.getInicio());
+            if (cita != null) {
+                return cita;
+            }
+        }
+    }
+
+    /**
+     * Agenda una consulta en el siguiente turno libre de su médico desde
+     * "desde"; si ya tenía cita retorna esa. Null si la consulta no existe,
+     * no está pendiente o el médico no tiene turnos libres en el horizonte.
+     */
+    public Cita agendarConsulta(String idConsulta, LocalDateTime desde) {
+        Consulta consulta = gestionConsultas.obtenerConsulta(idConsulta);
+        if (consulta == null) {
+            return null;
+        }
+        while (true) {
+            Cita existente = citaDeConsulta(idConsulta);
+            if (existente != null) {
+                return existente;
+            }
+            if (!consulta.esPendiente()) {
+                return null;
+            }
+            LocalDateTime turno = siguienteTurno(consulta.getIdMedico(), desde);
+            if (turno == null) {
+                return null;
+            }
+            try {
+                Cita cita = reservar(consulta.getIdMedico(), consulta.getIdPaciente(), idConsulta, turno);
+                if (cita != null) {
+                    return cita;
+                }
+            } catch (IllegalArgumentException e) {
+                // Otro hilo la agendó o la consulta dejó de estar pendiente:
+                // la siguiente vuelta retorna esa cita o null
+            }
+        }
+    }
+
+    /**
+     * Libera la cita; false si no existe
+     */
+    public boolean cancelar(String idCita) {
+        long inicio = tiempoCancelar.iniciar();
+        try {
+            Cita cita = citas.get(idCita);
+            if (cita == null) {
+                return false;
+            }
+            Calendario calendario = calendario(cita.getIdMedico());
+            synchronized (calendario) {
+                if (!citas.containsKey(idCita)) {
+                    return false;
+                }
+                JsonObject linea = new JsonObject();
+                linea.addProperty("op", "cancelar");
+                linea.addProperty("idCita", idCita);
+                escribir(cita.getIdMedico(), linea);
+                citas.remove(idCita);
+                calendario.citas.quitar(cita.getInicio());
+                if (cita.getIdConsulta() != null) {
+                    porConsulta.remove(cita.getIdConsulta());
+                }
+            }
+            return true;
+        } finally {
+            tiempoCancelar.detener(inicio);
+        }
+    }
+
+    public Cita obtenerCita(String idCita) {
+        return citas.get(idCita);
+    }
+
+    public Cita citaDeConsulta(String idConsulta) {
+        String idCita = porConsulta.get(idConsulta);
+        return idCita != null ? citas.get(idCita) : null;
+    }
+
+    /**
+     * Citas de un médico que se solapan con [desde, hasta), en orden
+     */
+    public List<Cita> citasMedico(String idMedico, LocalDateTime desde, LocalDateTime hasta) {
+        List<Cita> resultado = new ArrayList<>();
+        Calendario calendario = calendarios.get(idMedico);
+        if (calendario != null) {
+            synchronized (calendario) {
+                calendario.citas.recorrer(Cita.aMinutos(desde), Cita.aMinutos(hasta), resultado::add);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Inicio del siguiente turno libre del médico desde "desde"; null si no
+     * tiene dentro del horizonte
+     */
+    public LocalDateTime siguienteTurno(String idMedico, LocalDateTime desde) {
+        long inicio = tiempoSiguienteTurno.iniciar();
+        try {
+            long minuto = Cita.aMinutos(desde);
+            long turno = buscarLibre(idMedico, minuto, minuto + (long) horizonteDias * MINUTOS_DIA);
+            return turno >= 0 ? Cita.aFecha(turno) : null;
+        } finally {
+            tiempoSiguienteTurno.detener(inicio);
+        }
+    }
+
+    /**
+     * El turno libre más temprano desde "desde" entre los médicos de la
+     * especialidad (a igual hora, el de menor ID); null si ninguno tiene
+     * dentro del horizonte. La búsqueda de cada médico se corta en el mejor
+     * turno encontrado hasta ahí.
+     */
+    public Turno siguienteTurnoEspecialidad(String especialidad, LocalDateTime desde) {
+        long inicio = tiempoSiguienteTurnoEspecialidad.iniciar();
+        try {
+            long minuto = Cita.aMinutos(desde);
+            long limite = minuto + (long) horizonteDias * MINUTOS_DIA;
+            String mejorMedico = null;
+            for (Medico medico : gestionUsuarios.buscarMedicosPorEspecialidad(especialidad)) {
+                long turno = buscarLibre(medico.getIdUsuario(), minuto, limite);
+                if (turno >= 0 && (mejorMedico == null || turno < limite
+                        || Ids.COMPARADOR.compare(medico.getIdUsuario(), mejorMedico) < 0)) {
+                    mejorMedico = medico.getIdUsuario();
+                    limite = turno;
+                }
+            }
+            return mejorMedico != null ? new Turno(mejorMedico, limite) : null;
+        } finally {
+            tiempoSiguienteTurnoEspecialidad.detener(inicio);
+        }
+    }
+
+    /**
+     * Siguiente turno libre del médico que empiece antes de "limite" (o en
+     * "limite" mismo); -1 si no hay
+     */
+    private long buscarLibre(String idMedico, long minuto, long limite) {
+        Calendario calendario = calendarios.get(idMedico);
+        if (calendario == null) {
+            long turno = Horario.porDefecto().primerTurnoDesde(minuto);
+            return turno >= 0 && turno <= limite ? turno : -1;
+        }
+        synchronized (calendario) {
+            return calendario.siguienteLibre(minuto, limite + 1);
+        }
+    }
+
+    /**
+     * Libera la cita de las consultas canceladas
+     */
+    @Override
+    public void alCambiar(EventoCambio evento) {
+        if (evento.getTipo() == EventoCambio.Tipo.CONSULTA_ACTUALIZADA
+                && evento.getEstadoNuevo() == Consulta.Estado.CANCELADA) {
+            // Con el candado del calendario, una reserva en curso termina antes de mirar
+            Consulta consulta = (Consulta) evento.getEntidad();
+            synchronized (calendario(consulta.getIdMedico())) {
+                Cita cita = citaDeConsulta(evento.getIdEntidad());
+                if (cita != null) {
+                    cancelar(cita.getIdCita());
+                }
+            }
+        }
+    }
+
+    public static JsonObject citaToJson(Cita c) {
+        JsonObject json = new JsonObject();
+        json.addProperty("idCita", c.getIdCita());
+        json.addProperty("idMedico", c.getIdMedico());
+        json.addProperty("idPaciente", c.getIdPaciente());
+        if (c.getIdConsulta() != null) {
+            json.addProperty("idConsulta", c.getIdConsulta());
+        }
+        json.addProperty("inicio", c.getFechaInicio().format(formatter));
+        json.addProperty("fin", c.getFechaFin().format(formatter));
+        return json;
+    }
+
+    private static Cita jsonToCita(JsonObject json) {
+        long inicio = Cita.aMinutos(LocalDateTime.parse(json.get("inicio").getAsString(), formatter));
+        long fin = Cita.aMinutos(LocalDateTime.parse(json.get("fin").getAsString(), formatter));
+        return new Cita(json.get("idCita").getAsString(),
+                        json.get("idMedico").getAsString(),
+                        json.get("idPaciente").getAsString(),
+                        json.has("idConsulta") ? json.get("idConsulta").getAsString() : null,
+                        inicio, fin);
+    }
+
+    private static JsonObject horarioToJson(String idMedico, Horario horario) {
+        JsonObject json = new JsonObject();
+        json.addProperty("op", "horario");
+        json.addProperty("idMedico", idMedico);
+        JsonArray dias = new JsonArray();
+        for (DayOfWeek dia : horario.dias) {
+            dias.add(dia.getValue());
+        }
+        json.add("dias", dias);
+        json.addProperty("desde", horario.getDesde().toString());
+        json.addProperty("hasta", horario.getHasta().toString());
+        return json;
+    }
+
+    // ---------------------------------------------------------------- bitácora
+
+    /**
+     * Rehace los archivos de la bitácora, con el número de archivos con que
+     * estén guardados, y los reescribe solo con los horarios y las citas
+     * vigentes en el número configurado
+     */
+    private void cargar() {
+        int guardadas = AlmacenParticionado.detectarParticiones(ruta);
+        if (guardadas > 0) {
+            AlmacenParticionado anteriores = new AlmacenParticionado(ruta, guardadas);
+            for (int i = 0; i < guardadas; i++) {
+                leer(Paths.get(anteriores.archivo(i)));
+            }
+        }
+        compactar(guardadas);
+    }
+
+    private void leer(Path archivo) {
+        if (!Files.exists(archivo)) {
+            return;
+        }
+        try (BufferedReader lector = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                JsonObject json;
+                try {
+                    json = JsonParser.parseString(linea).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    break;  // Línea incompleta al final
+                }
+                aplicar(json);
+            }
+        } catch (IOException e) {
+            System.err.println("Error al leer la agenda " + archivo + ": " + e.getMessage());
+        }
+    }
+
+    private void aplicar(JsonObject json) {
+        switch (json.get("op").getAsString()) {
+            case "reservar": {
+                Cita cita = jsonToCita(json.getAsJsonObject("cita"));
+                ultimoNumero.accumulateAndGet(Ids.numero(cita.getIdCita()), Math::max);
+                if (!calendario(cita.getIdMedico()).citas.insertarSiLibre(cita.getInicio(), cita.getFin(), cita)) {
+                    System.err.println("Cita " + cita.getIdCita() + " descartada de la agenda: se solapa con otra");
+                    break;
+                }
+                citas.put(cita.getIdCita(), cita);
+                if (cita.getIdConsulta() != null) {
+                    porConsulta.put(cita.getIdConsulta(), cita.getIdCita());
+                }
+                break;
+            }
+            case "cancelar": {
+                Cita cita = citas.remove(json.get("idCita").getAsString());
+                if (cita != null) {
+                    calendario(cita.getIdMedico()).citas.quitar(cita.getInicio());
+                    if (cita.getIdConsulta() != null) {
+                        porConsulta.remove(cita.getIdConsulta());
+                    }
+                }
+                break;
+            }
+            case "horario": {
+                Set<DayOfWeek> dias = EnumSet.noneOf(DayOfWeek.class);
+                for (JsonElement dia : json.getAsJsonArray("dias")) {
+                    dias.add(DayOfWeek.of(dia.getAsInt()));
+                }
+                calendario(json.get("idMedico").getAsString()).horario = new Horario(dias,
+                    LocalTime.parse(json.get("desde").getAsString()),
+                    LocalTime.parse(json.get("hasta").getAsString()));
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Reescribe cada archivo de forma atómica y sincronizada (ver
+     * JsonUtil.escribirAtomico). Si los datos estaban en otro número de archivos, los
+     * anteriores se borran después de tener todos los nuevos, así una
+     * caída en medio nunca deja citas sin ningún archivo que las tenga.
+     */
+    private void compactar(int guardadas) {
+        List<List<JsonObject>> lineas = new ArrayList<>();
+        for (int i = 0; i < bitacoras.length; i++) {
+            lineas.add(new ArrayList<>());
+        }
+        for (Map.Entry<String, Calendario> entry : calendarios.entrySet()) {
+            lineas.get(archivos.particion(entry.getKey())).add(horarioToJson(entry.getKey(), entry.getValue().horario));
+        }
+        for (Cita cita : citas.values()) {
+            JsonObject linea = new JsonObject();
+            linea.addProperty("op", "reservar");
+            linea.add("cita", citaToJson(cita));
+            lineas.get(archivos.particion(cita.getIdMedico())).add(linea);
+        }
+        try {
+            for (int i = 0; i < bitacoras.length; i++) {
+                List<JsonObject> contenido = lineas.get(i);
+                JsonUtil.escribirAtomico(archivos.archivo(i), salida -> {
+                    for (JsonObject linea : contenido) {
+                        salida.write(linea.toString());
+                        salida.write('\n');
+                    }
+                });
+            }
+            if (guardadas > 0 && guardadas != bitacoras.length) {
+                AlmacenParticionado anteriores = new AlmacenParticionado(ruta, guardadas);
+                // Con otro número de archivos los nombres no coinciden con los nuevos
+                for (int i = 0; i < guardadas; i++) {
+                    Files.deleteIfExists(Paths.get(anteriores.archivo(i)));
+                }
+                JsonUtil.sincronizarDirectorio(Paths.get(ruta).toAbsolutePath().getParent());
+            }
+            for (int i = 0; i < bitacoras.length; i++) {
+                bitacoras[i] = FileChannel.open(Paths.get(archivos.archivo(i)),
+                                                StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir la agenda " + ruta, e);
+        }
+    }
+
+    /**
+     * Agrega la línea al archivo de la bitácora que le toca al médico.
+     * Quien llama tiene el candado de su calendario; el del archivo solo
+     * serializa a los médicos que comparten archivo.
+     */
+    private void escribir(String idMedico, JsonObject linea) {
+        ByteBuffer texto = ByteBuffer.wrap((linea.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        int particion = archivos.particion(idMedico);
+        synchronized (archivos.candado(particion)) {
+            FileChannel bitacora = bitacoras[particion];
+            long tamano = -1;
+            try {
+                tamano = bitacora.size();
+                while (texto.hasRemaining()) {
+                    bitacora.write(texto);
+                }
+                bitacora.force(false);
+            } catch (IOException e) {
+                // Sin la línea a medias, las siguientes no quedan detrás de una rota
+                if (tamano >= 0) {
+                    try {
+                        bitacora.truncate(tamano);
+                    } catch (IOException suprimida) {
+                        e.addSuppressed(suprimida);
+                    }
+                }
+                throw new UncheckedIOException("No se pudo escribir la agenda " + archivos.archivo(particion), e);
+            }
+        }
+    }
+}
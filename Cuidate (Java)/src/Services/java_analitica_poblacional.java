@@ -0,0 +1,220 @@
+package services;
+
+import models.Paciente;
+import models.RegistroSalud;
+import models.SignoVital;
+import models.Usuario;
+import utils.Metricas;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Estadísticas de signos vitales a nivel de toda la población de pacientes
+ *
+ * Las series de MonitoreoSalud ya están particionadas por paciente, así que
+ * la agregación reparte los pacientes entre tareas fork/join: cada hoja
+ * recorre las series de su tramo con el decodificador secuencial y acumula
+ * en sus propios contadores, y los resultados parciales se combinan al
+ * volver. No hay estado compartido entre hilos, por lo que escala con el
+ * número de núcleos.
+ */
+public class AnaliticaPoblacional {
+    private static final Metricas.Temporizador tiempoAgrupar =
+        Metricas.temporizador("analitica.agrupar");
+    private static final int PACIENTES_POR_TAREA = 256;
+
+    private final GestionUsuarios gestionUsuarios;
+    private final MonitoreoSalud monitoreo;
+    private final ForkJoinPool pool;
+
+    public AnaliticaPoblacional(GestionUsuarios gestionUsuarios, MonitoreoSalud monitoreo, ForkJoinPool pool) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.monitoreo = monitoreo;
+        this.pool = pool;
+    }
+
+    public AnaliticaPoblacional(GestionUsuarios gestionUsuarios, MonitoreoSalud monitoreo) {
+        this(gestionUsuarios, monitoreo, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Condición evaluada sobre cada lectura de la serie
+     */
+    public interface CondicionLectura {
+        boolean cumple(SerieVital.Lector lectura);
+    }
+
+    /**
+     * Presión arterial elevada (mismo umbral que las alertas de RegistroSalud)
+     */
+    public static final CondicionLectura PRESION_ELEVADA = l ->
+        l.valor(SignoVital.PRESION_SISTOLICA) > 140 || l.valor(SignoVital.PRESION_DIASTOLICA) > 90;
+
+    /**
+     * Fiebre (temperatura mayor a 37.5 °C)
+     */
+    public static final CondicionLectura FIEBRE = l -> l.valor(SignoVital.TEMPERATURA) > 37.5;
+
+    /**
+     * Conteos de un grupo: pacientes y lecturas, totales y que cumplen la condición
+     */
+    public static class Estadistica {
+        private long pacientes;
+        private long pacientesConCondicion;
+        private long lecturas;
+        private long lecturasConCondicion;
+
+        // Getters
+        public long getPacientes() { return pacientes; }
+        public long getPacientesConCondicion() { return pacientesConCondicion; }
+        public long getLecturas() { return lecturas; }
+        public long getLecturasConCondicion() { return lecturasConCondicion; }
+
+        public double getPorcentajePacientes() {
+            return pacientes > 0 ? 100.0 * pacientesConCondicion / pacientes : 0;
+        }
+
+        public double getPorcentajeLecturas() {
+            return lecturas > 0 ? 100.0 * lecturasConCondicion / lecturas : 0;
+        }
+
+        void combinar(Estadistica otra) {
+            pacientes += otra.pacientes;
+            pacientesConCondicion += otra.pacientesConCondicion;
+            lecturas += otra.lecturas;
+            lecturasConCondicion += otra.lecturasConCondicion;
+        }
+    }
+
+    /**
+     * Grupo de edad de un paciente para los reportes
+     */
+    public static String grupoEdad(Paciente p) {
+        int edad = p.getEdad();
+        if (edad < 18) {
+            return "0-17";
+        } else if (edad < 40) {
+            return "18-39";
+        } else if (edad < 65) {
+            return "40-64";
+        }
+        return "65+";
+    }
+
+    /**
+     * Porcentaje de pacientes con presión elevada en el rango de fechas
+     */
+    public Estadistica presionElevada(LocalDateTime desde, LocalDateTime hasta) {
+        return agrupar(desde, hasta, p -> "total", PRESION_ELEVADA)
+            .getOrDefault("total", new Estadistica());
+    }
+
+    /**
+     * Prevalencia de fiebre por grupo de edad
+     */
+    public Map<String, Estadistica> fiebrePorEdad(LocalDateTime desde, LocalDateTime hasta) {
+        return agrupar(desde, hasta, AnaliticaPoblacional::grupoEdad, FIEBRE);
+    }
+
+    /**
+     * Prevalencia de fiebre por grupo sanguíneo
+     */
+    public Map<String, Estadistica> fiebrePorGrupoSanguineo(LocalDateTime desde, LocalDateTime hasta) {
+        return agrupar(desde, hasta, p -> {
+            String grupo = p.getGrupoSanguineo();
+            return grupo == null || grupo.isEmpty() ? "Desconocido" : grupo;
+        }, FIEBRE);
+    }
+
+    /**
+     * Agrupa a los pacientes con lecturas en [desde, hasta) según "grupo" y
+     * cuenta pacientes y lecturas que cumplen la condición en cada grupo.
+     * Un paciente cuenta como afectado si al menos una lectura la cumple.
+     */
+    public Map<String, Estadistica> agrupar(LocalDateTime desde, LocalDateTime hasta,
+                                            Function<Paciente, String> grupo,
+                                            CondicionLectura condicion) {
+        long inicio = tiempoAgrupar.iniciar();
+        try {
+            String[] ids = monitoreo.pacientesConRegistros().toArray(new String[0]);
+            Tramo tarea = new Tramo(ids, 0, ids.length, RegistroSalud.aSegundos(desde),
+                                    RegistroSalud.aSegundos(hasta), grupo, condicion);
+            return new TreeMap<>(pool.invoke(tarea));
+        } finally {
+            tiempoAgrupar.detener(inicio);
+        }
+    }
+
+    /**
+     * Tarea fork/join sobre un tramo [desde, hasta) del arreglo de pacientes
+     */
+    private class Tramo extends RecursiveTask<Map<String, Estadistica>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] ids;
+        private final int inicio;
+        private final int fin;
+        private final long desde;
+        private final long hasta;
+        private final Function<Paciente, String> grupo;
+        private final CondicionLectura condicion;
+
+        Tramo(String[] ids, int inicio, int fin, long desde, long hasta,
+              Function<Paciente, String> grupo, CondicionLectura condicion) {
+            this.ids = ids;
+            this.inicio = inicio;
+            this.fin = fin;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.grupo = grupo;
+            this.condicion = condicion;
+        }
+
+        @Override
+        protected Map<String, Estadistica> compute() {
+            if (fin - inicio > PACIENTES_POR_TAREA) {
+                int medio = (inicio + fin) >>> 1;
+                Tramo izquierda = new Tramo(ids, inicio, medio, desde, hasta, grupo, condicion);
+                Tramo derecha = new Tramo(ids, medio, fin, desde, hasta, grupo, condicion);
+                izquierda.fork();
+                Map<String, Estadistica> resultado = derecha.compute();
+                for (Map.Entry<String, Estadistica> e : izquierda.join().entrySet()) {
+                    resultado.computeIfAbsent(e.getKey(), k -> new Estadistica()).combinar(e.getValue());
+                }
+                return resultado;
+            }
+
+            Map<String, Estadistica> resultado = new HashMap<>();
+            for (int i = inicio; i < fin; i++) {
+                Usuario usuario = gestionUsuarios.buscarPorId(ids[i]);
+                SerieVital serie = monitoreo.obtenerSerie(ids[i]);
+                if (!(usuario instanceof Paciente) || serie == null) {
+                    continue;
+                }
+                long lecturas = 0;
+                long cumplen = 0;
+                SerieVital.Lector lector = serie.lector(desde, hasta);
+                while (lector.siguiente()) {
+                    lecturas++;
+                    if (condicion.cumple(lector)) {
+                        cumplen++;
+                    }
+                }
+                if (lecturas == 0) {
+                    continue;
+                }
+                Estadistica e = resultado.computeIfAbsent(grupo.apply((Paciente) usuario), k -> new Estadistica());
+                e.pacientes++;
+                e.lecturas += lecturas;
+                e.lecturasConCondicion += cumplen;
+                if (cumplen > 0) {
+                    e.pacientesConCondicion++;
+                }
+            }
+            return resultado;
+        }
+    }
+}
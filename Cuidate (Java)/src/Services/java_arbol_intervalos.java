@@ -0,0 +1,212 @@
+package services;
+
+import java.util.function.Consumer;
+
+/**
+ * Árbol de intervalos semiabiertos [inicio, fin) sin solapamientos
+ *
+ * Es un árbol AVL ordenado por inicio en el que cada nodo guarda además el
+ * mayor fin de su subárbol. Para buscar un intervalo que se solape con
+ * [a, b) se descarta todo subárbol cuyo mayor fin sea <= a y todo lo que
+ * empieza en b o después, así la búsqueda, la inserción y el borrado
+ * cuestan O(log n). No es seguro entre hilos: AgendaCitas lo usa bajo el
+ * candado del calendario de cada médico.
+ */
+public class ArbolIntervalos<T> {
+    private static final class Nodo<T> {
+        final long inicio;
+        final long fin;
+        final T valor;
+        long maximoFin;
+        int altura;
+        Nodo<T> izquierdo;
+        Nodo<T> derecho;
+
+        Nodo(long inicio, long fin, T valor) {
+            this.inicio = inicio;
+            this.fin = fin;
+            this.valor = valor;
+            this.maximoFin = fin;
+            this.altura = 1;
+        }
+    }
+
+    private Nodo<T> raiz;
+    private int tamano;
+
+    public int tamano() {
+        return tamano;
+    }
+
+    /**
+     * Valor del intervalo de menor inicio que se solapa con [inicio, fin);
+     * null si no hay ninguno
+     */
+    public T primerSolapado(long inicio, long fin) {
+        Nodo<T> nodo = primerSolapado(raiz, inicio, fin);
+        return nodo != null ? nodo.valor : null;
+    }
+
+    private static <T> Nodo<T> primerSolapado(Nodo<T> nodo, long inicio, long fin) {
+        if (nodo == null || nodo.maximoFin <= inicio) {
+            return null;
+        }
+        Nodo<T> izquierdo = primerSolapado(nodo.izquierdo, inicio, fin);
+        if (izquierdo != null) {
+            return izquierdo;
+        }
+        if (nodo.inicio >= fin) {
+            return null;
+        }
+        if (nodo.fin > inicio) {
+            return nodo;
+        }
+        return primerSolapado(nodo.derecho, inicio, fin);
+    }
+
+    /**
+     * Inserta [inicio, fin) si no se solapa con ninguno; false si se solapa
+     */
+    public boolean insertarSiLibre(long inicio, long fin, T valor) {
+        if (fin <= inicio) {
+            throw new IllegalArgumentException("Intervalo vacío: [" + inicio + ", " + fin + ")");
+        }
+        if (primerSolapado(raiz, inicio, fin) != null) {
+            return false;
+        }
+        raiz = insertar(raiz, new Nodo<>(inicio, fin, valor));
+        tamano++;
+        return true;
+    }
+
+    /**
+     * Quita el intervalo que empieza en "inicio"; false si no estaba
+     */
+    public boolean quitar(long inicio) {
+        int antes = tamano;
+        raiz = quitar(raiz, inicio);
+        return tamano < antes;
+    }
+
+    /**
+     * Recorre en orden de inicio los valores de los intervalos que se
+     * solapan con [inicio, fin)
+     */
+    public void recorrer(long inicio, long fin, Consumer<T> accion) {
+        recorrer(raiz, inicio, fin, accion);
+    }
+
+    private static <T> void recorrer(Nodo<T> nodo, long inicio, long fin, Consumer<T> accion) {
+        if (nodo == null || nodo.maximoFin <= inicio) {
+            return;
+        }
+        recorrer(nodo.izquierdo, inicio, fin, accion);
+        if (nodo.inicio >= fin) {
+            return;
+        }
+        if (nodo.fin > inicio) {
+            accion.accept(nodo.valor);
+        }
+        recorrer(nodo.derecho, inicio, fin, accion);
+    }
+
+    // ---------------------------------------------------------------- AVL
+
+    private static <T> Nodo<T> insertar(Nodo<T> nodo, Nodo<T> nuevo) {
+        if (nodo == null) {
+            return nuevo;
+        }
+        if (nuevo.inicio < nodo.inicio) {
+            nodo.izquierdo = insertar(nodo.izquierdo, nuevo);
+        } else {
+            nodo.derecho = insertar(nodo.derecho, nuevo);
+        }
+        return balancear(nodo);
+    }
+
+    private Nodo<T> quitar(Nodo<T> nodo, long inicio) {
+        if (nodo == null) {
+            return null;
+        }
+        if (inicio < nodo.inicio) {
+            nodo.izquierdo = quitar(nodo.izquierdo, inicio);
+        } else if (inicio > nodo.inicio) {
+            nodo.derecho = quitar(nodo.derecho, inicio);
+        } else {
+            tamano--;
+            if (nodo.izquierdo == null || nodo.derecho == null) {
+                return nodo.izquierdo != null ? nodo.izquierdo : nodo.derecho;
+            }
+            // Se reemplaza por el sucesor (el menor del subárbol derecho)
+            Nodo<T> sucesor = nodo.derecho;
+            while (sucesor.izquierdo != null) {
+                sucesor = sucesor.izquierdo;
+            }
+            Nodo<T> reemplazo = new Nodo<>(sucesor.inicio, sucesor.fin, sucesor.valor);
+            reemplazo.derecho = quitarMinimo(nodo.derecho);
+            reemplazo.izquierdo = nodo.izquierdo;
+            return balancear(reemplazo);
+        }
+        return balancear(nodo);
+    }
+
+    private static <T> Nodo<T> quitarMinimo(Nodo<T> nodo) {
+        if (nodo.izquierdo == null) {
+            return nodo.derecho;
+        }
+        nodo.izquierdo = quitarMinimo(nodo.izquierdo);
+        return balancear(nodo);
+    }
+
+    private static <T> Nodo<T> balancear(Nodo<T> nodo) {
+        actualizar(nodo);
+        int factor = altura(nodo.izquierdo) - altura(nodo.derecho);
+        if (factor > 1) {
+            if (altura(nodo.izquierdo.izquierdo) < altura(nodo.izquierdo.derecho)) {
+                nodo.izquierdo = rotarIzquierda(nodo.izquierdo);
+            }
+            return rotarDerecha(nodo);
+        }
+        if (factor < -1) {
+            if (altura(nodo.derecho.derecho) < altura(nodo.derecho.izquierdo)) {
+                nodo.derecho = rotarDerecha(nodo.derecho);
+            }
+            return rotarIzquierda(nodo);
+        }
+        return nodo;
+    }
+
+    private static <T> Nodo<T> rotarDerecha(Nodo<T> nodo) {
+        Nodo<T> hijo = nodo.izquierdo;
+        nodo.izquierdo = hijo.derecho;
+        hijo.derecho = nodo;
+        actualizar(nodo);
+        actualizar(hijo);
+        return hijo;
+    }
+
+    private static <T> Nodo<T> rotarIzquierda(Nodo<T> nodo) {
+        Nodo<T> hijo = nodo.derecho;
+        nodo.derecho = hijo.izquierdo;
+        hijo.izquierdo = nodo;
+        actualizar(nodo);
+        actualizar(hijo);
+        return hijo;
+    }
+
+    private static <T> void actualizar(Nodo<T> nodo) {
+        nodo.altura = 1 + Math.max(altura(nodo.izquierdo), altura(nodo.derecho));
+        long maximo = nodo.fin;
+        if (nodo.izquierdo != null) {
+            maximo = Math.max(maximo, nodo.izquierdo.maximoFin);
+        }
+        if (nodo.derecho != null) {
+            maximo = Math.max(maximo, nodo.derecho.maximoFin);
+        }
+        nodo.maximoFin = maximo;
+    }
+
+    private static int altura(Nodo<?> nodo) {
+        return nodo == null ? 0 : nodo.altura;
+    }
+}
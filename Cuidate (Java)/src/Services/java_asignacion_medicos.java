@@ -0,0 +1,247 @@
+package services;
+
+import models.Consulta;
+import models.Medico;
+import utils.Texto;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Motor de asignación de médicos por carga
+ *
+ * Mantiene un índice especialidad -> médicos y, por cada especialidad, un
+ * montículo mínimo indexado ordenado por número de consultas pendientes.
+ * Obtener el médico menos cargado es O(1) y actualizar su carga O(log n).
+ * Las cargas se mantienen al día con los eventos de GestionConsultas y
+ * GestionUsuarios.
+ */
+public class AsignacionMedicos implements ObservadorCambios {
+    private final Map<String, Monticulo> porEspecialidad;
+    private final Map<String, CargaMedico> porMedico;
+
+    public AsignacionMedicos() {
+        this.porEspecialidad = new ConcurrentHashMap<>();
+        this.porMedico = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Carga de un médico y su posición dentro del montículo
+     */
+    private static class CargaMedico {
+        final String idMedico;
+        String claveEspecialidad;
+        int pendientes;
+        int posicion;
+
+        CargaMedico(String idMedico, String claveEspecialidad, int pendientes) {
+            this.idMedico = idMedico;
+            this.claveEspecialidad = claveEspecialidad;
+            this.pendientes = pendientes;
+        }
+
+        boolean menorQue(CargaMedico otro) {
+            if (pendientes != otro.pendientes) {
+                return pendientes < otro.pendientes;
+            }
+            return idMedico.compareTo(otro.idMedico) < 0;
+        }
+    }
+
+    /**
+     * Montículo mínimo indexado de cargas de una especialidad
+     */
+    private static class Monticulo {
+        final String especialidad;
+        final List<CargaMedico> nodos = new ArrayList<>();
+
+        Monticulo(String especialidad) {
+            this.especialidad = especialidad;
+        }
+
+        void insertar(CargaMedico c) {
+            c.posicion = nodos.size();
+            nodos.add(c);
+            subir(c.posicion);
+        }
+
+        void eliminar(CargaMedico c) {
+            int i = c.posicion;
+            CargaMedico ultimo = nodos.remove(nodos.size() - 1);
+            if (ultimo != c) {
+                nodos.set(i, ultimo);
+                ultimo.posicion = i;
+                reubicar(i);
+            }
+        }
+
+        void reubicar(int i) {
+            CargaMedico c = nodos.get(i);
+            subir(i);
+            bajar(c.posicion);
+        }
+
+        CargaMedico minimo() {
+            return nodos.isEmpty() ? null : nodos.get(0);
+        }
+
+        private void subir(int i) {
+            while (i > 0) {
+                int padre = (i - 1) / 2;
+                if (!nodos.get(i).menorQue(nodos.get(padre))) {
+                    break;
+                }
+                intercambiar(i, padre);
+                i = padre;
+            }
+        }
+
+        private void bajar(int i) {
+            int n = nodos.size();
+            while (true) {
+                int menor = i;
+                int izq = 2 * i + 1;
+                int der = izq + 1;
+                if (izq < n && nodos.get(izq).menorQue(nodos.get(menor))) {
+                    menor = izq;
+                }
+                if (der < n && nodos.get(der).menorQue(nodos.get(menor))) {
+                    menor = der;
+                }
+                if (menor == i) {
+                    return;
+                }
+                intercambiar(i, menor);
+                i = menor;
+            }
+        }
+
+        private void intercambiar(int a, int b) {
+            CargaMedico ca = nodos.get(a);
+            CargaMedico cb = nodos.get(b);
+            nodos.set(a, cb);
+            nodos.set(b, ca);
+            ca.posicion = b;
+            cb.posicion = a;
+        }
+    }
+
+    /**
+     * Construye el índice a partir de los médicos y sus consultas pendientes
+     */
+    public void inicializar(Collection<Medico> medicos, Map<String, Integer> pendientesPorMedico) {
+        porEspecialidad.clear();
+        porMedico.clear();
+        for (Medico m : medicos) {
+            registrarMedico(m, pendientesPorMedico.getOrDefault(m.getIdUsuario(), 0));
+        }
+    }
+
+    /**
+     * Agrega un médico (o lo mueve si cambió de especialidad)
+     */
+    public void registrarMedico(Medico medico, int pendientes) {
+        String clave = Texto.normalizar(medico.getEspecialidad());
+        CargaMedico existente = porMedico.get(medico.getIdUsuario());
+
+        if (existente != null) {
+            if (existente.claveEspecialidad.equals(clave)) {
+                return;
+            }
+            Monticulo anterior = porEspecialidad.get(existente.claveEspecialidad);
+            synchronized (anterior) {
+                anterior.eliminar(existente);
+            }
+            pendientes = existente.pendientes;
+        }
+
+        CargaMedico carga = new CargaMedico(medico.getIdUsuario(), clave, pendientes);
+        Monticulo monticulo = porEspecialidad.computeIfAbsent(
+            clave, k -> new Monticulo(medico.getEspecialidad().trim()));
+        synchronized (monticulo) {
+            monticulo.insertar(carga);
+        }
+        porMedico.put(carga.idMedico, carga);
+    }
+
+    /**
+     * Retorna el ID del médico con menos consultas pendientes en la
+     * especialidad (sin distinguir tildes ni mayúsculas), o null si no hay
+     */
+    public String medicoMenosCargado(String especialidad) {
+        Monticulo monticulo = porEspecialidad.get(Texto.normalizar(especialidad));
+        if (monticulo == null) {
+            return null;
+        }
+        synchronized (monticulo) {
+            CargaMedico minimo = monticulo.minimo();
+            return minimo != null ? minimo.idMedico : null;
+        }
+    }
+
+    /**
+     * Especialidades disponibles con su número de médicos
+     */
+    public Map<String, Integer> especialidades() {
+        Map<String, Integer> resultado = new TreeMap<>();
+        for (Monticulo m : porEspecialidad.values()) {
+            synchronized (m) {
+                if (!m.nodos.isEmpty()) {
+                    resultado.put(m.especialidad, m.nodos.size());
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Consultas pendientes actuales de un médico
+     */
+    public int cargaMedico(String idMedico) {
+        CargaMedico carga = porMedico.get(idMedico);
+        return carga != null ? carga.pendientes : 0;
+    }
+
+    private void ajustarCarga(String idMedico, int delta) {
+        CargaMedico carga = porMedico.get(idMedico);
+        if (carga == null) {
+            return;
+        }
+        Monticulo monticulo = porEspecialidad.get(carga.claveEspecialidad);
+        synchronized (monticulo) {
+            carga.pendientes = Math.max(0, carga.pendientes + delta);
+            monticulo.reubicar(carga.posicion);
+        }
+    }
+
+    @Override
+    public void alCambiar(EventoCambio evento) {
+        switch (evento.getTipo()) {
+            case CONSULTA_CREADA: {
+                Consulta c = (Consulta) evento.getEntidad();
+                if (evento.getEstadoNuevo() == Consulta.Estado.PENDIENTE) {
+                    ajustarCarga(c.getIdMedico(), 1);
+                }
+                break;
+            }
+            case CONSULTA_ACTUALIZADA: {
+                Consulta c = (Consulta) evento.getEntidad();
+                boolean antes = evento.getEstadoAnterior() == Consulta.Estado.PENDIENTE;
+                boolean ahora = evento.getEstadoNuevo() == Consulta.Estado.PENDIENTE;
+                if (antes && !ahora) {
+                    ajustarCarga(c.getIdMedico(), -1);
+                } else if (!antes && ahora) {
+                    ajustarCarga(c.getIdMedico(), 1);
+                }
+                break;
+            }
+            case USUARIO_CREADO:
+            case USUARIO_ACTUALIZADO:
+                if (evento.getEntidad() instanceof Medico) {
+                    registrarMedico((Medico) evento.getEntidad(), 0);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package services;
+
+import models.SignoVital;
+import com.google.gson.JsonObject;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bloque comprimido e inmutable de lecturas de signos vitales
+ *
+ * Codifica cada columna como un flujo de bits al estilo Gorilla:
+ *   - fechas: delta de la delta (casi siempre 0 si las lecturas son periódicas)
+ *   - IDs: delta de la delta de su parte numérica
+ *   - signos: delta respecto de la lectura anterior sobre el valor entero
+ *     escalado (ver SignoVital.getEscala)
+ * Cada número se escribe con un prefijo unario que elige el ancho más
+ * pequeño donde cabe, así un valor repetido ocupa un solo bit. Así mismo
+ * se guarda en disco y se envía a las réplicas (ver toJson).
+ */
+public final class BloqueVital {
+    private static final int[] ANCHOS_TIEMPO = {0, 7, 9, 12, 32, 64};
+    private static final int[] ANCHOS_ID = {0, 7, 16, 32, 64};
+    private static final int[] ANCHOS_VALOR = {0, 4, 8, 16, 64};
+    private static final int SIGNOS = SignoVital.values().length;
+
+    private final byte[] datos;
+    private final int cantidad;
+    private final long tiempoInicial;
+    private final long tiempoFinal;
+    private final String prefijoId;
+    private final int anchoId;
+    private final String ultimoId;
+    private final Map<Integer, String> idsEspeciales;
+
+    private BloqueVital(byte[] datos, int cantidad, long tiempoInicial, long tiempoFinal,
+                        String prefijoId, int anchoId, String ultimoId,
+                        Map<Integer, String> idsEspeciales) {
+        this.datos = datos;
+        this.cantidad = cantidad;
+        this.tiempoInicial = tiempoInicial;
+        this.tiempoFinal = tiempoFinal;
+        this.prefijoId = prefijoId;
+        this.anchoId = anchoId;
+        this.ultimoId = ultimoId;
+        this.idsEspeciales = idsEspeciales;
+    }
+
+    // Getters
+    public int getCantidad() { return cantidad; }
+    public long getTiempoInicial() { return tiempoInicial; }
+    public long getTiempoFinal() { return tiempoFinal; }
+    public String getUltimoId() { return ultimoId; }
+
+    /**
+     * Tamaño aproximado del bloque en bytes
+     */
+    public int bytes() {
+        return datos.length + 48;
+    }
+
+    /**
+     * Comprime las lecturas [desde, hasta) de las columnas indicadas, que
+     * deben estar ordenadas por fecha
+     */
+    public static BloqueVital comprimir(long[] tiempos, String[] ids, long[][] valores, int desde, int hasta) {
+        if (hasta <= desde) {
+            throw new IllegalArgumentException("Un bloque necesita al menos una lectura");
+        }
+        String primero = ids[desde];
+        int digitos = 0;
+        while (digitos < primero.length() && Character.isDigit(primero.charAt(primero.length() - 1 - digitos))) {
+            digitos++;
+        }
+        String prefijo = primero.substring(0, primero.length() - digitos);
+        Map<Integer, String> especiales = new HashMap<>();
+
+        EscritorBits bits = new EscritorBits();
+        long tiempoAnterior = 0;
+        long deltaTiempo = 0;
+        long idAnterior = 0;
+        long deltaId = 0;
+        long[] valorAnterior = new long[SIGNOS];
+
+        for (int i = desde; i < hasta; i++) {
+            long numero = numeroId(ids[i], prefijo);
+            if (numero < 0 || !formatearId(prefijo, digitos, numero).equals(ids[i])) {
+                especiales.put(i - desde, ids[i]);
+                numero = idAnterior + deltaId;
+            }
+
+            if (i == desde) {
+                bits.escribir(tiempos[i], 64);
+                bits.escribir(numero, 64);
+                for (int s = 0; s < SIGNOS; s++) {
+                    bits.escribir(valores[s][i], 64);
+                }
+            } else {
+                long nuevoDelta = tiempos[i] - tiempoAnterior;
+                bits.escribirVariable(nuevoDelta - deltaTiempo, ANCHOS_TIEMPO);
+                deltaTiempo = nuevoDelta;
+
+                long nuevoDeltaId = numero - idAnterior;
+                bits.escribirVariable(nuevoDeltaId - deltaId, ANCHOS_ID);
+                deltaId = nuevoDeltaId;
+
+                for (int s = 0; s < SIGNOS; s++) {
+                    bits.escribirVariable(valores[s][i] - valorAnterior[s], ANCHOS_VALOR);
+                }
+            }
+            tiempoAnterior = tiempos[i];
+            idAnterior = numero;
+            for (int s = 0; s < SIGNOS; s++) {
+                valorAnterior[s] = valores[s][i];
+            }
+        }
+
+        return new BloqueVital(bits.terminar(), hasta - desde, tiempos[desde], tiempos[hasta - 1],
+                               prefijo, digitos, ids[hasta - 1],
+                               especiales.isEmpty() ? null : especiales);
+    }
+
+    /**
+     * Convierte el bloque a JSON: los metadatos como propiedades y el flujo
+     * de bits en Base64
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("cantidad", cantidad);
+        json.addProperty("tiempoInicial", tiempoInicial);
+        json.addProperty("tiempoFinal", tiempoFinal);
+        json.addProperty("prefijoId", prefijoId);
+        json.addProperty("anchoId", anchoId);
+        json.addProperty("ultimoId", ultimoId);
+        if (idsEspeciales != null) {
+            JsonObject especiales = new JsonObject();
+            idsEspeciales.forEach((posicion, id) -> especiales.addProperty(Integer.toString(posicion), id));
+            json.add("idsEspeciales", especiales);
+        }
+        json.addProperty("datos", Base64.getEncoder().encodeToString(datos));
+        return json;
+    }
+
+    /**
+     * Reconstruye un bloque guardado con toJson
+     */
+    public static BloqueVital desdeJson(JsonObject json) {
+        Map<Integer, String> especiales = null;
+        if (json.has("idsEspeciales")) {
+            especiales = new HashMap<>();
+            for (var e : json.getAsJsonObject("idsEspeciales").entrySet()) {
+                especiales.put(Integer.parseInt(e.getKey()), e.getValue().getAsString());
+            }
+        }
+        int cantidad = json.get("cantidad").getAsInt();
+        if (cantidad <= 0) {
+            throw new IllegalArgumentException("Un bloque necesita al menos una lectura");
+        }
+        return new BloqueVital(Base64.getDecoder().decode(json.get("datos").getAsString()), cantidad,
+                               json.get("tiempoInicial").getAsLong(), json.get("tiempoFinal").getAsLong(),
+                               json.get("prefijoId").getAsString(), json.get("anchoId").getAsInt(),
+                               json.get("ultimoId").getAsString(), especiales);
+    }
+
+    private static long numeroId(String id, String prefijo) {
+        if (!id.startsWith(prefijo) || id.length() == prefijo.length() || id.length() - prefijo.length() > 18) {
+            return -1;
+        }
+        long n = 0;
+        for (int i = prefijo.length(); i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    private static String formatearId(String prefijo, int digitos, long numero) {
+        String texto = Long.toString(numero);
+        StringBuilder sb = new StringBuilder(prefijo.length() + Math.max(digitos, texto.length()));
+        sb.append(prefijo);
+        for (int i = texto.length(); i < digitos; i++) {
+            sb.append('0');
+        }
+        return sb.append(texto).toString();
+    }
+
+    /**
+     * Crea un decodificador secuencial del bloque
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Decodificador secuencial: avanza lectura por lectura sobre valores
+     * primitivos, sin crear objetos por lectura (el ID se arma solo si se pide)
+     */
+    public final class Cursor {
+        private final LectorBits bits = new LectorBits(datos);
+        private int posicion = -1;
+        private long tiempo;
+        private long deltaTiempo;
+        private long numeroId;
+        private long deltaId;
+        private final long[] valores = new long[SIGNOS];
+
+        /**
+         * Avanza a la siguiente lectura; false si el bloque terminó
+         */
+        public boolean siguiente() {
+            if (posicion + 1 >= cantidad) {
+                return false;
+            }
+            posicion++;
+            if (posicion == 0) {
+                tiempo = bits.leer(64);
+                numeroId = bits.leer(64);
+                for (int s = 0; s < SIGNOS; s++) {
+                    valores[s] = bits.leer(64);
+                }
+            } else {
+                deltaTiempo += bits.leerVariable(ANCHOS_TIEMPO);
+                tiempo += deltaTiempo;
+                deltaId += bits.leerVariable(ANCHOS_ID);
+                numeroId += deltaId;
+                for (int s = 0; s < SIGNOS; s++) {
+                    valores[s] += bits.leerVariable(ANCHOS_VALOR);
+                }
+            }
+            return true;
+        }
+
+        public long tiempo() { return tiempo; }
+
+        public long cuantizado(SignoVital signo) { return valores[signo.ordinal()]; }
+
+        public double valor(SignoVital signo) {
+            return (double) valores[signo.ordinal()] / signo.getEscala();
+        }
+
+        public String id() {
+            if (idsEspeciales != null) {
+                String especial = idsEspeciales.get(posicion);
+                if (especial != null) {
+                    return especial;
+                }
+            }
+            return formatearId(prefijoId, anchoId, numeroId);
+        }
+    }
+
+    /**
+     * Escritura de bits en un arreglo de bytes que crece según se necesita
+     */
+    private static final class EscritorBits {
+        private byte[] buffer = new byte[64];
+        private long posicion = 0;
+
+        void escribir(long valor, int ancho) {
+            for (int i = ancho - 1; i >= 0; i--) {
+                escribirBit((int) (valor >>> i) & 1);
+            }
+        }
+
+        private void escribirBit(int bit) {
+            int indice = (int) (posicion >>> 3);
+            if (indice == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            if (bit != 0) {
+                buffer[indice] |= (byte) (0x80 >>> (posicion & 7));
+            }
+            posicion++;
+        }
+
+        /**
+         * Escribe un entero con signo (zigzag) precedido por el índice del
+         * ancho elegido en unario: 0, 10, 110, ... y solo unos para el último
+         */
+        void escribirVariable(long valor, int[] anchos) {
+            long zigzag = (valor << 1) ^ (valor >> 63);
+            for (int i = 0; i < anchos.length; i++) {
+                boolean ultimo = i == anchos.length - 1;
+                if (ultimo || (anchos[i] < 64 && zigzag >>> anchos[i] == 0)) {
+                    for (int j = 0; j < i; j++) {
+                        escribirBit(1);
+                    }
+                    if (!ultimo) {
+                        escribirBit(0);
+                    }
+                    escribir(zigzag, anchos[i]);
+                    return;
+                }
+            }
+        }
+
+        byte[] terminar() {
+            return Arrays.copyOf(buffer, (int) ((posicion + 7) >>> 3));
+        }
+    }
+
+    /**
+     * Lectura secuencial de los bits escritos por EscritorBits
+     */
+    private static final class LectorBits {
+        private final byte[] buffer;
+        private long posicion = 0;
+
+        LectorBits(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private int leerBit() {
+            int bit = (buffer[(int) (posicion >>> 3)] >>> (7 - (posicion & 7))) & 1;
+            posicion++;
+            return bit;
+        }
+
+        long leer(int ancho) {
+            long valor = 0;
+            for (int i = 0; i < ancho; i++) {
+                valor = (valor << 1) | leerBit();
+            }
+            return valor;
+        }
+
+        long leerVariable(int[] anchos) {
+            int i = 0;
+            while (i < anchos.length - 1 && leerBit() == 1) {
+                i++;
+            }
+            long zigzag = leer(anchos[i]);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+}
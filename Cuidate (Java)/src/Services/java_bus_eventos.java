@@ -0,0 +1,229 @@
+package services;
+
+import utils.Hilos;
+import utils.Metricas;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bus de eventos de cambio en proceso, sobre un anillo sin bloqueos
+ *
+ * Al estilo Disruptor: los productores reservan una secuencia con un
+ * getAndIncrement, escriben el evento en la posición secuencia & máscara
+ * y lo publican marcando la secuencia de esa posición. Cada suscriptor
+ * tiene su propio hilo y su propia secuencia consumida, y procesa en lote
+ * todo lo publicado desde la última vez. Un productor solo espera si el
+ * suscriptor más lento quedó una vuelta entera atrás.
+ *
+ * Se conecta a los servicios como un observador más (agregarObservador),
+ * así la mutación solo paga la publicación y los suscriptores (índices,
+ * cachés, alertas, replicación) reciben los cambios sin sondear los datos.
+ */
+public class BusEventos implements ObservadorCambios {
+    private static final Metricas.Contador publicados = Metricas.contador("bus.publicados");
+    private static final Metricas.Contador erroresSuscriptores = Metricas.contador("bus.errores");
+    private static final int GIROS_ANTES_DE_CEDER = 100;
+    private static final int CESIONES_ANTES_DE_DORMIR = 100;
+
+    private final EventoCambio[] anillo;
+    private final AtomicLongArray secuencias;
+    private final int mascara;
+    private final AtomicLong siguiente;
+    private final CopyOnWriteArrayList<Suscripcion> suscripciones;
+    private final ThreadFactory fabrica;
+    private volatile long minimoConsumido = -1;
+
+    /**
+     * Crea un bus con la capacidad indicada (se redondea a potencia de dos)
+     */
+    public BusEventos(int capacidad) {
+        if (capacidad <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser mayor a cero");
+        }
+        int tamano = Integer.highestOneBit(capacidad);
+        if (tamano < capacidad) {
+            tamano <<= 1;
+        }
+        this.anillo = new EventoCambio[tamano];
+        this.secuencias = new AtomicLongArray(tamano);
+        for (int i = 0; i < tamano; i++) {
+            secuencias.set(i, -1);
+        }
+        this.mascara = tamano - 1;
+        this.siguiente = new AtomicLong();
+        this.suscripciones = new CopyOnWriteArrayList<>();
+        this.fabrica = Hilos.fabrica("bus");
+        Metricas.medidor("bus.retraso", this::retraso);
+    }
+
+    public BusEventos() {
+        this(1 << 16);
+    }
+
+    public int getCapacidad() {
+        return anillo.length;
+    }
+
+    /**
+     * Secuencia del último evento reservado (-1 si no se publicó ninguno)
+     */
+    public long ultimaSecuencia() {
+        return siguiente.get() - 1;
+    }
+
+    /**
+     * Eventos publicados que el suscriptor más lento todavía no procesó
+     */
+    public long retraso() {
+        return suscripciones.isEmpty() ? 0 : ultimaSecuencia() - calcularMinimo();
+    }
+
+    /**
+     * Publica un evento; retorna su secuencia
+     */
+    public long publicar(EventoCambio evento) {
+        long secuencia = siguiente.getAndIncrement();
+        long envuelve = secuencia - anillo.length;
+        if (envuelve > minimoConsumido) {
+            esperarSuscriptores(envuelve);
+        }
+        int posicion = (int) secuencia & mascara;
+        anillo[posicion] = evento;
+        secuencias.set(posicion, secuencia);
+        publicados.incrementar();
+        return secuencia;
+    }
+
+    /**
+     * Espera a que todos los suscriptores hayan consumido la secuencia
+     * que ocupaba la posición (presión hacia atrás sin bloqueos)
+     */
+    private void esperarSuscriptores(long envuelve) {
+        int intentos = 0;
+        long minimo;
+        while ((minimo = calcularMinimo()) < envuelve) {
+            intentos = esperar(intentos);
+        }
+        minimoConsumido = minimo;
+    }
+
+    private long calcularMinimo() {
+        long minimo = Long.MAX_VALUE;
+        for (Suscripcion s : suscripciones) {
+            minimo = Math.min(minimo, s.consumida.get());
+        }
+        return minimo;
+    }
+
+    /**
+     * Estrategia de espera: girar, luego ceder el procesador y al final dormir
+     */
+    private static int esperar(int intentos) {
+        if (intentos < GIROS_ANTES_DE_CEDER) {
+            Thread.onSpinWait();
+        } else if (intentos < GIROS_ANTES_DE_CEDER + CESIONES_ANTES_DE_DORMIR) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return intentos + 1;
+    }
+
+    @Override
+    public void alCambiar(EventoCambio evento) {
+        publicar(evento);
+    }
+
+    /**
+     * Suscribe un observador que recibe, en su propio hilo y en orden,
+     * todos los eventos publicados a partir de ahora
+     */
+    public Suscripcion suscribir(String nombre, ObservadorCambios observador) {
+        Suscripcion s = new Suscripcion(nombre, observador, ultimaSecuencia());
+        suscripciones.add(s);
+        s.hilo = fabrica.newThread(s::consumir);
+        s.hilo.setName("bus-" + nombre);
+        s.hilo.start();
+        return s;
+    }
+
+    /**
+     * Suscriptor con su propia secuencia consumida
+     */
+    public final class Suscripcion implements AutoCloseable {
+        private final String nombre;
+        private final ObservadorCambios observador;
+        private final AtomicLong consumida;
+        private volatile boolean activa = true;
+        private Thread hilo;
+
+        private Suscripcion(String nombre, ObservadorCambios observador, long desde) {
+            this.nombre = nombre;
+            this.observador = observador;
+            this.consumida = new AtomicLong(desde);
+        }
+
+        public String getNombre() { return nombre; }
+
+        /**
+         * Secuencia del último evento entregado a este suscriptor
+         */
+        public long getConsumida() { return consumida.get(); }
+
+        private void consumir() {
+            int intentos = 0;
+            while (activa) {
+                long actual = consumida.get();
+                long proxima = actual + 1;
+                while (secuencias.get((int) proxima & mascara) == proxima) {
+                    entregar(anillo[(int) proxima & mascara]);
+                    proxima++;
+                }
+                if (proxima - 1 > actual) {
+                    consumida.set(proxima - 1);
+                    intentos = 0;
+                } else {
+                    intentos = esperar(intentos);
+                }
+            }
+        }
+
+        private void entregar(EventoCambio evento) {
+            try {
+                observador.alCambiar(evento);
+            } catch (RuntimeException e) {
+                erroresSuscriptores.incrementar();
+                System.err.println("Error en el suscriptor " + nombre + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Espera hasta que el suscriptor haya procesado la secuencia indicada
+         * o se agote el tiempo; retorna true si la alcanzó
+         */
+        public boolean esperarHasta(long secuencia, long timeoutMillis) {
+            long limite = System.nanoTime() + timeoutMillis * 1_000_000L;
+            int intentos = 0;
+            while (consumida.get() < secuencia) {
+                if (System.nanoTime() > limite) {
+                    return false;
+                }
+                intentos = esperar(intentos);
+            }
+            return true;
+        }
+
+        /**
+         * Deja de recibir eventos y libera su posición en el anillo
+         */
+        @Override
+        public void close() {
+            activa = false;
+            suscripciones.remove(this);
+            LockSupport.unpark(hilo);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package services;
+
+import models.Consulta;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cola de prioridad de consultas pendientes por médico
+ *
+ * Ordena por urgencia (nivel de alerta del último registro de salud del
+ * paciente, mayor primero), luego por fecha de solicitud y por ID. Encolar y tomar
+ * la siguiente consulta cuestan O(log n). Las consultas canceladas o ya
+ * atendidas se descartan al llegar al frente de la cola.
+ */
+public class ColaConsultas {
+    private final Map<String, PriorityBlockingQueue<Entrada>> colas;
+    private final AtomicLong secuencia;
+    private volatile ToIntFunction<String> urgenciaPaciente;
+    
+    public ColaConsultas() {
+        this.colas = new ConcurrentHashMap<>();
+        this.secuencia = new AtomicLong();
+        this.urgenciaPaciente = idPaciente -> 0;
+    }
+    
+    /**
+     * Elemento de la cola con la prioridad calculada al encolar
+     */
+    private static class Entrada implements Comparable<Entrada> {
+        final Consulta consulta;
+        final int urgencia;
+        final String fechaSolicitud;
+        final String idConsulta;
+        final long orden;
+        
+        Entrada(Consulta consulta, int urgencia, long orden) {
+            this.consulta = consulta;
+            this.urgencia = urgencia;
+            this.fechaSolicitud = consulta.getFechaSolicitud();
+            this.idConsulta = consulta.getIdConsulta();
+            this.orden = orden;
+        }
+        
+        /**
+         * Entrada de referencia reconstruida desde un cursor de paginación
+         */
+        private Entrada(int urgencia, String fechaSolicitud, String idConsulta) {
+            this.consulta = null;
+            this.urgencia = urgencia;
+            this.fechaSolicitud = fechaSolicitud;
+            this.idConsulta = idConsulta;
+            this.orden = 0;
+        }
+        
+        static Entrada desdeClave(String clave) {
+            String[] partes = clave.split("\\|", 3);
+            if (partes.length != 3) {
+                throw new IllegalArgumentException("Cursor inválido");
+            }
+            return new Entrada(Integer.parseInt(partes[0]), partes[1], partes[2]);
+        }
+        
+        String clave() {
+            return urgencia + "|" + fechaSolicitud + "|" + idConsulta;
+        }
+        
+        /**
+         * Compara por la clave de orden visible (urgencia, fecha e ID)
+         */
+        int compararClave(Entrada otra) {
+            if (urgencia != otra.urgencia) {
+                return Integer.compare(otra.urgencia, urgencia);
+            }
+            int porFecha = fechaSolicitud.compareTo(otra.fechaSolicitud);
+            if (porFecha != 0) {
+                return porFecha;
+            }
+            return idConsulta.compareTo(otra.idConsulta);
+        }
+        
+        @Override
+        public int compareTo(Entrada otra) {
+            int porClave = compararClave(otra);
+            return porClave != 0 ? porClave : Long.compare(orden, otra.orden);
+        }
+    }
+    
+    /**
+     * Define cómo se calcula la urgencia de un paciente
+     */
+    public void setUrgenciaPaciente(ToIntFunction<String> urgenciaPaciente) {
+        this.urgenciaPaciente = urgenciaPaciente;
+    }
+    
+    /**
+     * Agrega una consulta pendiente a la cola de su médico
+     */
+    public void encolar(Consulta consulta) {
+        if (!consulta.esPendiente()) {
+            return;
+        }
+        int urgencia = urgenciaPaciente.applyAsInt(consulta.getIdPaciente());
+        colas.computeIfAbsent(consulta.getIdMedico(), id -> new PriorityBlockingQueue<>())
+             .add(new Entrada(consulta, urgencia, secuencia.incrementAndGet()));
+    }
+    
+    /**
+     * Toma la consulta más prioritaria del médico y la marca en proceso.
+     * Cada consulta se entrega a un solo llamador aunque varios tomen a la vez.
+     */
+    public Consulta tomarSiguiente(String idMedico) {
+        PriorityBlockingQueue<Entrada> cola = colas.get(idMedico);
+        if (cola == null) {
+            return null;
+        }
+        
+        Entrada entrada;
+        while ((entrada = cola.poll()) != null) {
+            if (entrada.consulta.tomarParaAtencion()) {
+                return entrada.consulta;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Consultas pendientes del médico en orden de prioridad
+     */
+    public List<Consulta> pendientes(String idMedico) {
+        PriorityBlockingQueue<Entrada> cola = colas.get(idMedico);
+        if (cola == null) {
+            return new ArrayList<>();
+        }
+        
+        Entrada[] entradas = cola.toArray(new Entrada[0]);
+        Arrays.sort(entradas);
+        List<Consulta> resultado = new ArrayList<>();
+        for (Entrada e : entradas) {
+            if (e.consulta.esPendiente()) {
+                resultado.add(e.consulta);
+            }
+        }
+        return resultado;
+    }
+    
+    /**
+     * Página de consultas pendientes del médico en orden de prioridad. El
+     * cursor codifica la urgencia, la fecha de solicitud y el ID de la última
+     * consulta entregada; la siguiente página empieza justo después de esa
+     * clave aunque entre llamadas se encolen o atiendan otras consultas.
+     */
+    public Pagina<Consulta> paginarPendientes(String idMedico, String cursor, int tamano) {
+        if (tamano <= 0) {
+            throw new IllegalArgumentException("El tamaño de página debe ser positivo");
+        }
+        Entrada desde = cursor == null || cursor.isEmpty()
+            ? null
+            : Entrada.desdeClave(Pagina.decodificarCursor(cursor));
+        
+        PriorityBlockingQueue<Entrada> cola = colas.get(idMedico);
+        if (cola == null) {
+            return new Pagina<>(new ArrayList<>(), null);
+        }
+        
+        Entrada[] entradas = cola.toArray(new Entrada[0]);
+        Arrays.sort(entradas);
+        List<Consulta> elementos = new ArrayList<>();
+        Set<String> vistas = new HashSet<>();
+        Entrada ultima = null;
+        for (Entrada e : entradas) {
+            // Una consulta reencolada aparece solo en su posición más prioritaria
+            if (!e.consulta.esPendiente() || !vistas.add(e.idConsulta)
+                || (desde != null && e.compararClave(desde) <= 0)) {
+                continue;
+            }
+            if (elementos.size() == tamano) {
+                return new Pagina<>(elementos, Pagina.codificarCursor(ultima.clave()));
+            }
+            elementos.add(e.consulta);
+            ultima = e;
+        }
+        return new Pagina<>(elementos, null);
+    }
+    
+    /**
+     * Vacía todas las colas
+     */
+    public void limpiar() {
+        colas.clear();
+    }
+}
@@ -0,0 +1,32 @@
+package services;
+
+import utils.Metricas;
+
+/**
+ * Error de una actualización optimista: la entidad cambió (su versión
+ * avanzó) desde que quien la actualiza la leyó, así que guardarla
+ * sobrescribiría ese cambio. Se resuelve volviendo a leer la entidad y
+ * reaplicando el cambio (ver Reintentos).
+ */
+public class ConflictoVersion extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private static final Metricas.Contador conflictos = Metricas.contador("versiones.conflictos");
+    
+    private final String idEntidad;
+    private final long versionEsperada;
+    private final long versionActual;
+    
+    public ConflictoVersion(String idEntidad, long versionEsperada, long versionActual) {
+        super("La entidad " + idEntidad + " cambió mientras se editaba (versión "
+              + versionEsperada + ", ahora " + versionActual + ")");
+        this.idEntidad = idEntidad;
+        this.versionEsperada = versionEsperada;
+        this.versionActual = versionActual;
+        conflictos.incrementar();
+    }
+    
+    // Getters
+    public String getIdEntidad() { return idEntidad; }
+    public long getVersionEsperada() { return versionEsperada; }
+    public long getVersionActual() { return versionActual; }
+}
@@ -0,0 +1,470 @@
+package services;
+
+import models.Paciente;
+import utils.Diccionario;
+import utils.Ids;
+import utils.Metricas;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Directorio de pacientes guardado fuera del heap
+ *
+ * Cada paciente se codifica en un arena de bloques ByteBuffer.allocateDirect:
+ * primero sus textos en UTF-8 y después un registro de tamaño fijo con la
+ * edad y, por cada campo, la dirección y el largo de su texto. En el heap
+ * solo quedan el índice ID -> dirección del registro (ordenado para paginar),
+ * una tabla de long para buscar por cédula y un caché con los pacientes más
+ * usados. Los objetos Paciente se decodifican al pedirlos, así el heap y
+ * las pausas del GC ya no crecen con la población. El género y el grupo
+ * sanguíneo se guardan como código de su Diccionario y al decodificarlos
+ * se obtiene la instancia canónica, sin copiar bytes.
+ *
+ * Los registros no se modifican una vez publicados: guardar un cambio
+ * escribe un registro nuevo (reutilizando los textos que no cambiaron) y
+ * mueve el índice. Las lecturas no toman candados; las escrituras se
+ * serializan. Cada registro lleva la versión del paciente, con la que
+ * guardarSiVersion detecta las actualizaciones perdidas. El espacio de las versiones anteriores se recupera al
+ * reiniciar, cuando el directorio se vuelve a armar desde el archivo.
+ *
+ * El caché guarda sus propias copias y cada lectura retorna otra copia,
+ * así nadie comparte un Paciente con el caché ni con otro lector: un
+ * cambio a un Paciente solo queda guardado al pasar por
+ * GestionUsuarios.actualizarUsuario.
+ * La memoria directa está limitada por -XX:MaxDirectMemorySize.
+ */
+public class DirectorioPacientes {
+    private static final Metricas.Contador aciertosCache = Metricas.contador("directorio.aciertosCache");
+    private static final Metricas.Contador decodificados = Metricas.contador("directorio.decodificados");
+    private static final int TAMANO_BLOQUE = 1 << 24;
+    private static final int MAX_BLOQUES = 1 << 14;
+
+    // Campos de texto, en el orden en que aparecen en el registro
+    private static final int ID = 0;
+    private static final int NOMBRE = 1;
+    private static final int APELLIDO = 2;
+    private static final int CEDULA = 3;
+    private static final int CORREO = 4;
+    private static final int CONTRASENA = 5;
+    private static final int FECHA_REGISTRO = 6;
+    private static final int GENERO = 7;
+    private static final int DIRECCION = 8;
+    private static final int TELEFONO = 9;
+    private static final int GRUPO_SANGUINEO = 10;
+    private static final int HISTORIAL = 11;
+    private static final int CAMPOS = 12;
+
+    // Registro: edad (int), versión (long) y por campo dirección (long) y largo
+    // (int; -1 si es null). En los campos codificados la "dirección" es el
+    // código del diccionario.
+    private static final int EDAD = 0;
+    private static final int VERSION = 4;
+    private static final int PRIMER_CAMPO = 12;
+    private static final int TAMANO_CAMPO = 12;
+    private static final int TAMANO_REGISTRO = PRIMER_CAMPO + CAMPOS * TAMANO_CAMPO;
+    private static final int CODIFICADO = -2;
+
+    private final ByteBuffer[] bloques;
+    private int bloqueActual;
+    private int posicion;
+    private final ConcurrentSkipListMap<String, Long> registros;
+    private long[] porCedula;
+    private int cedulas;
+    private final Map<String, Paciente> cache;
+
+    /**
+     * Crea un directorio vacío que mantiene decodificados hasta
+     * "capacidadCache" pacientes (los usados más recientemente)
+     */
+    public DirectorioPacientes(int capacidadCache) {
+        this.bloques = new ByteBuffer[MAX_BLOQUES];
+        this.bloqueActual = -1;
+        this.registros = new ConcurrentSkipListMap<>(Ids.COMPARADOR);
+        this.porCedula = new long[1024];
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Paciente> eldest) {
+                return size() > capacidadCache;
+            }
+        };
+        Metricas.medidor("directorio.bytesFueraDelHeap", this::getBytesReservados);
+    }
+
+    public DirectorioPacientes() {
+        this(10_000);
+    }
+
+    /**
+     * Memoria directa reservada por el arena
+     */
+    public long getBytesReservados() {
+        return (long) (bloqueActual + 1) * TAMANO_BLOQUE;
+    }
+
+    public int tamano() {
+        return registros.size();
+    }
+
+    public boolean contiene(String idUsuario) {
+        return registros.containsKey(idUsuario);
+    }
+
+    /**
+     * IDs de los pacientes en orden (para paginar por clave)
+     */
+    public NavigableSet<String> ids() {
+        return registros.keySet();
+    }
+
+    /**
+     * Obtiene una copia del paciente, del caché o decodificándolo del arena
+     */
+    public Paciente obtener(String idUsuario) {
+        synchronized (cache) {
+            Paciente enCache = cache.get(idUsuario);
+            if (enCache != null) {
+                aciertosCache.incrementar();
+                return copiar(enCache);
+            }
+        }
+        Long registro = registros.get(idUsuario);
+        if (registro == null) {
+            return null;
+        }
+        Paciente paciente = decodificar(registro);
+        synchronized (cache) {
+            // Si se guardó otra versión mientras se decodificaba, esta no se cachea
+            if (registro.equals(registros.get(idUsuario))) {
+                cache.putIfAbsent(idUsuario, copiar(paciente));
+            }
+        }
+        return paciente;
+    }
+
+    /**
+     * Busca un paciente por cédula comparando los bytes en el arena
+     */
+    public Paciente buscarPorCedula(String cedula) {
+        byte[] clave = cedula.getBytes(StandardCharsets.UTF_8);
+        long registro;
+        synchronized (this) {
+            int i = buscarRanura(clave, dispersar(cedula));
+            if (porCedula[i] == 0) {
+                return null;
+            }
+            registro = porCedula[i] - 1;
+        }
+        return obtener(leerTexto(registro, ID));
+    }
+
+    /**
+     * Recorre copias de los pacientes en orden de ID; los que no están en
+     * el caché se decodifican sin entrar en él, para no desplazar a los
+     * más usados
+     */
+    public Stream<Paciente> stream() {
+        return registros.entrySet().stream().map(e -> {
+            synchronized (cache) {
+                Paciente enCache = cache.get(e.getKey());
+                if (enCache != null) {
+                    return copiar(enCache);
+                }
+            }
+            return decodificar(e.getValue());
+        });
+    }
+
+    /**
+     * Versión guardada de un paciente, o -1 si no existe
+     */
+    public long version(String idUsuario) {
+        Long registro = registros.get(idUsuario);
+        return registro == null ? -1 : bloque(registro).getLong(desplazamiento(registro) + VERSION);
+    }
+    
+    /**
+     * Guarda un paciente existente solo si su versión guardada sigue siendo
+     * "esperada", dejándolo en la siguiente. Retorna false si el paciente
+     * no existe; lanza ConflictoVersion si otro lo guardó antes.
+     */
+    public synchronized boolean guardarSiVersion(Paciente paciente, long esperada) {
+        long actual = version(paciente.getIdUsuario());
+        if (actual < 0) {
+            return false;
+        }
+        if (actual != esperada) {
+            throw new ConflictoVersion(paciente.getIdUsuario(), esperada, actual);
+        }
+        paciente.setVersion(esperada + 1);
+        guardar(paciente);
+        return true;
+    }
+    
+    /**
+     * Guarda un paciente nuevo o la nueva versión de uno existente
+     */
+    public synchronized void guardar(Paciente paciente) {
+        String idUsuario = paciente.getIdUsuario();
+        Long anterior = registros.get(idUsuario);
+        String[] textos = textos(paciente);
+
+        long[] direcciones = new long[CAMPOS];
+        int[] largos = new int[CAMPOS];
+        for (int campo = 0; campo < CAMPOS; campo++) {
+            Diccionario diccionario = diccionario(campo);
+            int codigo = diccionario != null ? diccionario.codigo(textos[campo]) : Diccionario.SIN_CODIGO;
+            if (codigo != Diccionario.SIN_CODIGO) {
+                direcciones[campo] = codigo;
+                largos[campo] = CODIFICADO;
+                continue;
+            }
+            byte[] bytes = textos[campo] != null ? textos[campo].getBytes(StandardCharsets.UTF_8) : null;
+            if (anterior != null && textoIgual(anterior, campo, bytes)) {
+                ByteBuffer bloque = bloque(anterior);
+                int base = desplazamiento(anterior) + PRIMER_CAMPO + campo * TAMANO_CAMPO;
+                direcciones[campo] = bloque.getLong(base);
+                largos[campo] = bloque.getInt(base + 8);
+            } else if (bytes == null) {
+                largos[campo] = -1;
+            } else if (bytes.length == 0) {
+                largos[campo] = 0;
+            } else {
+                direcciones[campo] = reservar(bytes.length);
+                bloque(direcciones[campo]).put(desplazamiento(direcciones[campo]), bytes);
+                largos[campo] = bytes.length;
+            }
+        }
+
+        long registro = reservar(TAMANO_REGISTRO);
+        ByteBuffer bloque = bloque(registro);
+        int base = desplazamiento(registro);
+        bloque.putInt(base + EDAD, paciente.getEdad());
+        bloque.putLong(base + VERSION, paciente.getVersion());
+        for (int campo = 0; campo < CAMPOS; campo++) {
+            bloque.putLong(base + PRIMER_CAMPO + campo * TAMANO_CAMPO, direcciones[campo]);
+            bloque.putInt(base + PRIMER_CAMPO + campo * TAMANO_CAMPO + 8, largos[campo]);
+        }
+
+        if (anterior != null) {
+            int ranura = ranuraDe(anterior);
+            if (porCedula[ranura] != 0) {
+                quitarCedula(ranura);
+            }
+        }
+        ponerCedula(registro, textos[CEDULA]);
+        registros.put(idUsuario, registro);
+        synchronized (cache) {
+            cache.put(idUsuario, copiar(paciente));
+        }
+    }
+    
+    /**
+     * Copia de un paciente que no comparte la lista del historial
+     */
+    private static Paciente copiar(Paciente p) {
+        Paciente copia = new Paciente(p.getIdUsuario(), p.getNombre(), p.getApellido(), p.getCedula(),
+                                      p.getCorreo(), p.getContrasena(), p.getEdad(), p.getGenero(),
+                                      p.getDireccion(), p.getTelefono(), p.getGrupoSanguineo());
+        copia.setFechaRegistro(p.getFechaRegistro());
+        copia.setVersion(p.getVersion());
+        copia.setHistorialConsultas(new ArrayList<>(p.getHistorialConsultas()));
+        return copia;
+    }
+
+    private static String[] textos(Paciente p) {
+        String[] textos = new String[CAMPOS];
+        textos[ID] = p.getIdUsuario();
+        textos[NOMBRE] = p.getNombre();
+        textos[APELLIDO] = p.getApellido();
+        textos[CEDULA] = p.getCedula();
+        textos[CORREO] = p.getCorreo();
+        textos[CONTRASENA] = p.getContrasena();
+        textos[FECHA_REGISTRO] = p.getFechaRegistro();
+        textos[GENERO] = p.getGenero();
+        textos[DIRECCION] = p.getDireccion();
+        textos[TELEFONO] = p.getTelefono();
+        textos[GRUPO_SANGUINEO] = p.getGrupoSanguineo();
+        textos[HISTORIAL] = String.join(",", p.getHistorialConsultas());
+        return textos;
+    }
+
+    private Paciente decodificar(long registro) {
+        decodificados.incrementar();
+        Paciente p = new Paciente(
+            leerTexto(registro, ID),
+            leerTexto(registro, NOMBRE),
+            leerTexto(registro, APELLIDO),
+            leerTexto(registro, CEDULA),
+            leerTexto(registro, CORREO),
+            leerTexto(registro, CONTRASENA),
+            bloque(registro).getInt(desplazamiento(registro) + EDAD),
+            leerTexto(registro, GENERO),
+            leerTexto(registro, DIRECCION),
+            leerTexto(registro, TELEFONO),
+            leerTexto(registro, GRUPO_SANGUINEO)
+        );
+        p.setFechaRegistro(leerTexto(registro, FECHA_REGISTRO));
+        p.setVersion(bloque(registro).getLong(desplazamiento(registro) + VERSION));
+        String historial = leerTexto(registro, HISTORIAL);
+        List<String> consultas = new ArrayList<>();
+        if (historial != null && !historial.isEmpty()) {
+            consultas.addAll(Arrays.asList(historial.split(",")));
+        }
+        p.setHistorialConsultas(consultas);
+        return p;
+    }
+
+    // ---------------------------------------------------------------- arena
+
+    /**
+     * Reserva espacio contiguo en el arena; retorna su dirección
+     */
+    private long reservar(int tamano) {
+        if (tamano > TAMANO_BLOQUE) {
+            throw new IllegalArgumentException("Texto demasiado grande para el directorio: " + tamano + " bytes");
+        }
+        if (bloqueActual < 0 || posicion + tamano > TAMANO_BLOQUE) {
+            if (bloqueActual + 1 == MAX_BLOQUES) {
+                throw new IllegalStateException("El directorio de pacientes llegó a su capacidad máxima");
+            }
+            bloques[bloqueActual + 1] = ByteBuffer.allocateDirect(TAMANO_BLOQUE);
+            bloqueActual++;
+            posicion = 0;
+        }
+        long direccion = (long) bloqueActual * TAMANO_BLOQUE + posicion;
+        posicion += tamano;
+        return direccion;
+    }
+
+    private ByteBuffer bloque(long direccion) {
+        return bloques[(int) (direccion / TAMANO_BLOQUE)];
+    }
+
+    private static int desplazamiento(long direccion) {
+        return (int) (direccion % TAMANO_BLOQUE);
+    }
+
+    private String leerTexto(long registro, int campo) {
+        ByteBuffer bloque = bloque(registro);
+        int base = desplazamiento(registro) + PRIMER_CAMPO + campo * TAMANO_CAMPO;
+        int largo = bloque.getInt(base + 8);
+        if (largo == CODIFICADO) {
+            return diccionario(campo).valor((int) bloque.getLong(base));
+        }
+        if (largo <= 0) {
+            return largo == 0 ? "" : null;
+        }
+        long direccion = bloque.getLong(base);
+        byte[] bytes = new byte[largo];
+        bloque(direccion).get(desplazamiento(direccion), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Diccionario diccionario(int campo) {
+        if (campo == GENERO) {
+            return Diccionario.GENEROS;
+        } else if (campo == GRUPO_SANGUINEO) {
+            return Diccionario.GRUPOS_SANGUINEOS;
+        }
+        return null;
+    }
+
+    /**
+     * Compara el texto de un campo con los bytes dados sin decodificarlo
+     */
+    private boolean textoIgual(long registro, int campo, byte[] bytes) {
+        ByteBuffer bloque = bloque(registro);
+        int base = desplazamiento(registro) + PRIMER_CAMPO + campo * TAMANO_CAMPO;
+        int largo = bloque.getInt(base + 8);
+        if (largo == CODIFICADO) {
+            return false;
+        }
+        if (bytes == null || largo < 0) {
+            return bytes == null && largo < 0;
+        }
+        if (largo != bytes.length || largo == 0) {
+            return largo == bytes.length;
+        }
+        long direccion = bloque.getLong(base);
+        ByteBuffer texto = bloque(direccion);
+        int inicio = desplazamiento(direccion);
+        for (int i = 0; i < largo; i++) {
+            if (texto.get(inicio + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------- índice por cédula
+
+    // Tabla de direccionamiento abierto con sondeo lineal; cada posición
+    // guarda la dirección del registro + 1 (0 = vacía)
+
+    private static int dispersar(String cedula) {
+        int h = cedula.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Ranura donde está la cédula o, si no está, la vacía donde iría
+     */
+    private int buscarRanura(byte[] cedula, int hash) {
+        int mascara = porCedula.length - 1;
+        int i = hash & mascara;
+        while (porCedula[i] != 0 && !textoIgual(porCedula[i] - 1, CEDULA, cedula)) {
+            i = (i + 1) & mascara;
+        }
+        return i;
+    }
+
+    private int ranuraDe(long registro) {
+        String cedula = leerTexto(registro, CEDULA);
+        return buscarRanura(cedula.getBytes(StandardCharsets.UTF_8), dispersar(cedula));
+    }
+
+    private void ponerCedula(long registro, String cedula) {
+        if ((cedulas + 1) * 2 > porCedula.length) {
+            long[] anterior = porCedula;
+            porCedula = new long[anterior.length * 2];
+            for (long valor : anterior) {
+                if (valor != 0) {
+                    porCedula[ranuraDe(valor - 1)] = valor;
+                }
+            }
+        }
+        int i = buscarRanura(cedula.getBytes(StandardCharsets.UTF_8), dispersar(cedula));
+        if (porCedula[i] == 0) {
+            cedulas++;
+        }
+        porCedula[i] = registro + 1;
+    }
+
+    /**
+     * Vacía una ranura y corre hacia atrás las siguientes del mismo racimo
+     * para que el sondeo lineal las siga encontrando
+     */
+    private void quitarCedula(int ranura) {
+        int mascara = porCedula.length - 1;
+        porCedula[ranura] = 0;
+        cedulas--;
+        int i = ranura;
+        int j = ranura;
+        while (true) {
+            j = (j + 1) & mascara;
+            if (porCedula[j] == 0) {
+                return;
+            }
+            int k = dispersar(leerTexto(porCedula[j] - 1, CEDULA)) & mascara;
+            boolean enSuLugar = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!enSuLugar) {
+                porCedula[i] = porCedula[j];
+                porCedula[j] = 0;
+                i = j;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package services;
+
+import models.Consulta;
+
+/**
+ * Evento emitido por los servicios cuando una entidad cambia
+ *
+ * En los eventos de consultas los estados anterior y nuevo se toman al
+ * hacer el cambio: quien lo recibe por el bus puede ver la entidad ya
+ * modificada por cambios posteriores y no debe leer su estado.
+ */
+public class EventoCambio {
+    /**
+     * Tipos de cambio que emiten los servicios
+     */
+    public enum Tipo {
+        USUARIO_CREADO,
+        USUARIO_ACTUALIZADO,
+        CONSULTA_CREADA,
+        CONSULTA_ACTUALIZADA,
+        REGISTRO_CREADO,
+        REGISTRO_ELIMINADO,
+        /** Solo en instantáneas de replicación: la serie completa de un paciente */
+        SERIE_REGISTROS
+    }
+    
+    private final Tipo tipo;
+    private final String idEntidad;
+    private final Object entidad;
+    private final Consulta.Estado estadoAnterior;
+    private final Consulta.Estado estadoNuevo;
+    private final long marcaTiempo;
+    
+    public EventoCambio(Tipo tipo, String idEntidad, Object entidad, Consulta.Estado estadoAnterior,
+                        Consulta.Estado estadoNuevo) {
+        this.tipo = tipo;
+        this.idEntidad = idEntidad;
+        this.entidad = entidad;
+        this.estadoAnterior = estadoAnterior;
+        this.estadoNuevo = estadoNuevo;
+        this.marcaTiempo = System.currentTimeMillis();
+    }
+    
+    /**
+     * Evento de una entidad sin estados (usuarios y registros)
+     */
+    public EventoCambio(Tipo tipo, String idEntidad, Object entidad) {
+        this(tipo, idEntidad, entidad, null, null);
+    }
+    
+    // Getters
+    public Tipo getTipo() { return tipo; }
+    public String getIdEntidad() { return idEntidad; }
+    public Object getEntidad() { return entidad; }
+    public Consulta.Estado getEstadoAnterior() { return estadoAnterior; }
+    public Consulta.Estado getEstadoNuevo() { return estadoNuevo; }
+    public long getMarcaTiempo() { return marcaTiempo; }
+}
@@ -0,0 +1,302 @@
+package services;
+
+import models.*;
+import com.google.gson.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Generador de datos sintéticos para pruebas de carga
+ *
+ * Produce usuarios.json, consultas.json y registros.json con el mismo formato
+ * que usan los servicios. Los pacientes se generan por bloques en paralelo;
+ * cada bloque usa su propio SplittableRandom derivado de la semilla, así que
+ * el resultado es idéntico sin importar el número de hilos. Los bloques se
+ * escriben en orden a medida que terminan, con una ventana acotada en memoria.
+ *
+ * Los identificadores son deterministas: el paciente i tiene las consultas
+ * i*consultasPorPaciente+1.. y los registros i*registrosPorPaciente+1..
+ * Cada paciente se asigna al médico (i % medicos), de modo que la lista
+ * pacientesAsignados de cada médico se calcula sin recorrer los bloques.
+ *
+ * Uso:
+ * java -cp ".;bin;gson-2.10.1.jar" services.GeneradorDatos data 1000000 200 42
+ */
+public class GeneradorDatos {
+    private static final DateTimeFormatter formatter =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Gson gson = new Gson();
+    private static final int TAMANO_BLOQUE = 10_000;
+
+    private static final String[] NOMBRES = {
+        "María", "José", "Luis", "Ana", "Carlos", "Laura", "Andrés", "Sofía",
+        "Juan", "Valentina", "Diego", "Camila", "Jorge", "Isabella", "Pedro", "Lucía"
+    };
+    private static final String[] APELLIDOS = {
+        "García", "Rodríguez", "Martínez", "López", "González", "Pérez", "Sánchez",
+        "Ramírez", "Torres", "Flores", "Gómez", "Díaz", "Muñoz", "Rojas", "Vargas"
+    };
+    private static final String[] ESPECIALIDADES = {
+        "Medicina General", "Cardiología", "Pediatría", "Dermatología",
+        "Neurología", "Ginecología", "Medicina Interna", "Ortopedia"
+    };
+    private static final String[] GENEROS = {"Masculino", "Femenino", "Otro"};
+    private static final String[] GRUPOS_SANGUINEOS = {
+        "O+", "O-", "A+", "A-", "B+", "B-", "AB+", "AB-"
+    };
+    private static final String[] MOTIVOS = {
+        "Control general", "Dolor de cabeza", "Fiebre persistente",
+        "Revisión de tensión arterial", "Dolor abdominal", "Tos y congestión"
+    };
+
+    private final long semilla;
+    private final int pacientes;
+    private final int medicos;
+    private final int consultasPorPaciente;
+    private final int registrosPorPaciente;
+    private final int hilos;
+    private final LocalDateTime fechaBase;
+
+    public GeneradorDatos(long semilla, int pacientes, int medicos,
+                          int consultasPorPaciente, int registrosPorPaciente,
+                          int hilos) {
+        this.semilla = semilla;
+        this.pacientes = pacientes;
+        this.medicos = Math.max(1, medicos);
+        this.consultasPorPaciente = consultasPorPaciente;
+        this.registrosPorPaciente = registrosPorPaciente;
+        this.hilos = Math.max(1, hilos);
+        this.fechaBase = LocalDateTime.of(2025, 1, 1, 8, 0);
+    }
+
+    /**
+     * Fragmentos JSON ya serializados de un bloque de pacientes
+     */
+    private static class Bloque {
+        final StringBuilder usuarios = new StringBuilder();
+        final StringBuilder consultas = new StringBuilder();
+        final StringBuilder registros = new StringBuilder();
+    }
+
+    /**
+     * Genera los tres archivos en el directorio indicado
+     */
+    public void generar(String directorio) throws IOException, InterruptedException {
+        Files.createDirectories(Paths.get(directorio));
+
+        try (Writer usuarios = abrir(directorio, "usuarios.json");
+             Writer consultas = abrir(directorio, "consultas.json");
+             Writer registros = abrir(directorio, "registros.json")) {
+            usuarios.write("{\n");
+            consultas.write("{\n");
+            registros.write("{\n");
+
+            boolean[] primero = {true, true, true};
+            for (int m = 0; m < medicos; m++) {
+                escribirEntrada(usuarios, medicoId(m), usuarioJson(generarMedico(m)), primero, 0);
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(hilos);
+            try {
+                int totalBloques = (pacientes + TAMANO_BLOQUE - 1) / TAMANO_BLOQUE;
+                Deque<Future<Bloque>> enVuelo = new ArrayDeque<>();
+                int siguiente = 0;
+
+                while (siguiente < totalBloques || !enVuelo.isEmpty()) {
+                    while (siguiente < totalBloques && enVuelo.size() < hilos * 2) {
+                        final int indice = siguiente++;
+                        enVuelo.add(pool.submit(() -> generarBloque(indice)));
+                    }
+
+                    Bloque bloque = esperar(enVuelo.poll());
+                    escribirFragmento(usuarios, bloque.usuarios, primero, 0);
+                    escribirFragmento(consultas, bloque.consultas, primero, 1);
+                    escribirFragmento(registros, bloque.registros, primero, 2);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+
+            usuarios.write("\n}\n");
+            consultas.write("\n}\n");
+            registros.write("\n}\n");
+        }
+    }
+
+    private Writer abrir(String directorio, String nombre) throws IOException {
+        return Files.newBufferedWriter(Paths.get(directorio, nombre), StandardCharsets.UTF_8);
+    }
+
+    private Bloque esperar(Future<Bloque> futuro) throws IOException, InterruptedException {
+        try {
+            return futuro.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Error al generar bloque: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void escribirEntrada(Writer out, String id, JsonObject json,
+                                 boolean[] primero, int archivo) throws IOException {
+        if (!primero[archivo]) {
+            out.write(",\n");
+        }
+        primero[archivo] = false;
+        out.write(gson.toJson(id));
+        out.write(": ");
+        out.write(gson.toJson(json));
+    }
+
+    private void escribirFragmento(Writer out, StringBuilder fragmento,
+                                   boolean[] primero, int archivo) throws IOException {
+        if (fragmento.length() == 0) {
+            return;
+        }
+        if (!primero[archivo]) {
+            out.write(",\n");
+        }
+        primero[archivo] = false;
+        out.append(fragmento);
+    }
+
+    /**
+     * Genera un bloque de pacientes con sus consultas y registros
+     */
+    private Bloque generarBloque(int indice) {
+        SplittableRandom random = new SplittableRandom(semilla ^ (0x9E3779B97F4A7C15L * (indice + 1)));
+        Bloque bloque = new Bloque();
+        int desde = indice * TAMANO_BLOQUE;
+        int hasta = Math.min(pacientes, desde + TAMANO_BLOQUE);
+
+        for (int i = desde; i < hasta; i++) {
+            Paciente paciente = generarPaciente(i, random);
+
+            for (int j = 0; j < consultasPorPaciente; j++) {
+                Consulta consulta = generarConsulta(i, j, random);
+                paciente.agregarConsulta(consulta.getIdConsulta());
+                agregar(bloque.consultas, consulta.getIdConsulta(),
+                        GestionConsultas.consultaToJson(consulta));
+            }
+            agregar(bloque.usuarios, paciente.getIdUsuario(), usuarioJson(paciente));
+
+            for (int j = 0; j < registrosPorPaciente; j++) {
+                RegistroSalud registro = generarRegistro(i, j, random);
+                agregar(bloque.registros, registro.getIdRegistro(),
+                        MonitoreoSalud.registroToJson(registro));
+            }
+        }
+        return bloque;
+    }
+
+    private void agregar(StringBuilder fragmento, String id, JsonObject json) {
+        if (fragmento.length() > 0) {
+            fragmento.append(",\n");
+        }
+        fragmento.append(gson.toJson(id)).append(": ").append(gson.toJson(json));
+    }
+
+    private JsonObject usuarioJson(Usuario u) {
+        return GestionUsuarios.usuarioToJson(u);
+    }
+
+    private String pacienteId(int i) { return String.format("PAC%03d", i + 1); }
+    private String medicoId(int m) { return String.format("MED%03d", m + 1); }
+
+    private Paciente generarPaciente(int i, SplittableRandom random) {
+        String nombre = NOMBRES[random.nextInt(NOMBRES.length)];
+        String apellido = APELLIDOS[random.nextInt(APELLIDOS.length)];
+        Paciente p = new Paciente(
+            pacienteId(i), nombre, apellido,
+            String.valueOf(1_000_000_000L + i),
+            "paciente" + (i + 1) + "@email.com", "paciente123",
+            1 + random.nextInt(90),
+            GENEROS[random.nextInt(GENEROS.length)],
+            "Calle " + (1 + random.nextInt(200)),
+            "300" + (1_000_000 + random.nextInt(9_000_000)),
+            GRUPOS_SANGUINEOS[random.nextInt(GRUPOS_SANGUINEOS.length)]
+        );
+        p.setFechaRegistro(fechaBase.minusDays(random.nextInt(365)).format(formatter));
+        return p;
+    }
+
+    private Medico generarMedico(int m) {
+        SplittableRandom random = new SplittableRandom(semilla + m);
+        Medico medico = new Medico(
+            medicoId(m),
+            NOMBRES[random.nextInt(NOMBRES.length)],
+            APELLIDOS[random.nextInt(APELLIDOS.length)],
+            String.valueOf(2_000_000_000L + m),
+            "medico" + (m + 1) + "@cuidate.com", "medico123",
+            ESPECIALIDADES[m % ESPECIALIDADES.length],
+            String.format("RM-2024-%03d", m + 1),
+            1 + random.nextInt(30)
+        );
+        medico.setFechaRegistro(fechaBase.minusYears(1).format(formatter));
+
+        List<String> asignados = new ArrayList<>();
+        for (long i = m; i < pacientes; i += medicos) {
+            asignados.add(pacienteId((int) i));
+        }
+        medico.setPacientesAsignados(asignados);
+        return medico;
+    }
+
+    private Consulta generarConsulta(int i, int j, SplittableRandom random) {
+        String idConsulta = String.format("CON%04d", (long) i * consultasPorPaciente + j + 1);
+        Consulta c = new Consulta(idConsulta, pacienteId(i), medicoId(i % medicos),
+                                  MOTIVOS[random.nextInt(MOTIVOS.length)], Consulta.Estado.PENDIENTE);
+        LocalDateTime solicitud = fechaBase.plusMinutes(random.nextInt(60 * 24 * 180));
+        c.setFechaSolicitud(solicitud.format(formatter));
+
+        int estado = random.nextInt(10);
+        if (estado < 6) {
+            c.registrarDiagnostico("Evaluación sin hallazgos relevantes",
+                                   "Seguimiento en 30 días", "");
+            c.setFechaAtencion(solicitud.plusHours(1 + random.nextInt(48)).format(formatter));
+        } else if (estado == 6) {
+            c.cancelarConsulta("Paciente no asistió");
+        }
+        return c;
+    }
+
+    private RegistroSalud generarRegistro(int i, int j, SplittableRandom random) {
+        String idRegistro = String.format("REG%05d", (long) i * registrosPorPaciente + j + 1);
+        RegistroSalud r = RegistroSalud.generarAleatorio(idRegistro, pacienteId(i), random);
+        r.setFechaRegistro(fechaBase.plusHours((long) j * 6).plusMinutes(random.nextInt(60))
+                                    .format(formatter));
+        return r;
+    }
+
+    /**
+     * Punto de entrada: directorio pacientes [medicos] [semilla]
+     * [consultasPorPaciente] [registrosPorPaciente] [hilos]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Uso: GeneradorDatos <directorio> <pacientes> [medicos] [semilla] "
+                             + "[consultasPorPaciente] [registrosPorPaciente] [hilos]");
+            System.exit(1);
+        }
+
+        String directorio = args[0];
+        int pacientes = Integer.parseInt(args[1]);
+        int medicos = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(1, pacientes / 1000);
+        long semilla = args.length > 3 ? Long.parseLong(args[3]) : 42L;
+        int consultas = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+        int registros = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+        int hilos = args.length > 6 ? Integer.parseInt(args[6])
+                                    : Runtime.getRuntime().availableProcessors();
+
+        long inicio = System.nanoTime();
+        new GeneradorDatos(semilla, pacientes, medicos, consultas, registros, hilos)
+            .generar(directorio);
+        long ms = (System.nanoTime() - inicio) / 1_000_000;
+
+        System.out.println("Generados " + pacientes + " pacientes y " + medicos
+                         + " médicos en " + directorio + " (" + ms + " ms)");
+    }
+}
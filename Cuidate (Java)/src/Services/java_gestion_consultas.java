@@ -1,21 +1,121 @@
 package services;
 
 import models.Consulta;
-import utils.JsonUtil;
+import utils.AlmacenParticionado;
+import utils.Ids;
+import utils.Metricas;
 import com.google.gson.*;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Servicio para gestionar consultas médicas
  */
 public class GestionConsultas {
-    private String archivoDatos;
+    private static final Metricas.Temporizador tiempoCargarConsultas =
+        Metricas.temporizador("consultas.cargarConsultas");
+    private static final Metricas.Temporizador tiempoGuardarConsultas =
+        Metricas.temporizador("consultas.guardarConsultas");
+    private static final Metricas.Temporizador tiempoCrearConsulta =
+        Metricas.temporizador("consultas.crearConsulta");
+    private static final Metricas.Temporizador tiempoObtenerConsulta =
+        Metricas.temporizador("consultas.obtenerConsulta");
+    private static final Metricas.Temporizador tiempoObtenerConsultasPaciente =
+        Metricas.temporizador("consultas.obtenerConsultasPaciente");
+    private static final Metricas.Temporizador tiempoObtenerConsultasMedico =
+        Metricas.temporizador("consultas.obtenerConsultasMedico");
+    private static final Metricas.Temporizador tiempoObtenerConsultasPendientesMedico =
+        Metricas.temporizador("consultas.obtenerConsultasPendientesMedico");
+    private static final Metricas.Temporizador tiempoObtenerConsultasCompletadasMedico =
+        Metricas.temporizador("consultas.obtenerConsultasCompletadasMedico");
+    private static final Metricas.Temporizador tiempoActualizarConsulta =
+        Metricas.temporizador("consultas.actualizarConsulta");
+    private static final Metricas.Temporizador tiempoRegistrarDiagnostico =
+        Metricas.temporizador("consultas.registrarDiagnostico");
+    private static final Metricas.Temporizador tiempoCancelarConsulta =
+        Metricas.temporizador("consultas.cancelarConsulta");
+    private static final Metricas.Temporizador tiempoObtenerEstadisticasMedico =
+        Metricas.temporizador("consultas.obtenerEstadisticasMedico");
+    private static final Metricas.Temporizador tiempoTomarSiguienteConsulta =
+        Metricas.temporizador("consultas.tomarSiguienteConsulta");
+    private static final Metricas.Temporizador tiempoDevolverConsulta =
+        Metricas.temporizador("consultas.devolverConsulta");
+    private static final Metricas.Temporizador tiempoSolicitarConsulta =
+        Metricas.temporizador("consultas.solicitarConsulta");
+    private static final Metricas.Temporizador tiempoContarPendientesPorMedico =
+        Metricas.temporizador("consultas.contarPendientesPorMedico");
+    private static final Metricas.Temporizador tiempoPaginarConsultasPaciente =
+        Metricas.temporizador("consultas.paginarConsultasPaciente");
+    private static final Metricas.Temporizador tiempoPaginarConsultasMedico =
+        Metricas.temporizador("consultas.paginarConsultasMedico");
+    private static final Metricas.Temporizador tiempoPaginarConsultasPendientesMedico =
+        Metricas.temporizador("consultas.paginarConsultasPendientesMedico");
+    private static final Metricas.Temporizador tiempoMigrarEstados =
+        Metricas.temporizador("consultas.migrarEstados");
+    private static final Metricas.Temporizador tiempoModificarConsulta =
+        Metricas.temporizador("consultas.modificarConsulta");
+    
+    private AlmacenParticionado almacen;
+    private ExecutorService cargador;
     private Map<String, Consulta> consultas;
+    private Map<String, NavigableSet<String>> porPaciente;
+    private List<Set<String>> pacientesPorParticion;
+    private Map<String, NavigableSet<String>> porMedico;
+    private ColaConsultas cola;
+    private AsignacionMedicos asignacion;
+    private Transacciones transacciones;
+    private List<ObservadorCambios> observadores;
+    private AtomicInteger ultimoNumero;
+    private Map<Consulta.Estado, AtomicInteger> porEstado;
+    private final Consulta.ObservadorTransicion transiciones = this::alTransicionar;
     
-    public GestionConsultas(String archivoDatos) {
-        this.archivoDatos = archivoDatos;
-        this.consultas = new HashMap<>();
+    /**
+     * Guarda las consultas en el número de particiones indicado, repartidas
+     * por el hash del ID del paciente (ver AlmacenParticionado)
+     */
+    public GestionConsultas(String archivoDatos, int particiones) {
+        this(archivoDatos, particiones, null);
+    }
+    
+    /**
+     * Igual que el anterior, pero carga las particiones en paralelo sobre
+     * el pool indicado (null para cargar en el hilo actual)
+     */
+    public GestionConsultas(String archivoDatos, int particiones, ExecutorService cargador) {
+        this.almacen = new AlmacenParticionado(archivoDatos, particiones);
+        this.cargador = cargador;
+        this.ultimoNumero = new AtomicInteger();
+        this.consultas = new ConcurrentHashMap<>();
+        this.porPaciente = new ConcurrentHashMap<>();
+        this.pacientesPorParticion = new ArrayList<>();
+        for (int i = 0; i < almacen.getParticiones(); i++) {
+            pacientesPorParticion.add(ConcurrentHashMap.newKeySet());
+        }
+        this.porMedico = new ConcurrentHashMap<>();
+        this.cola = new ColaConsultas();
+        this.observadores = new CopyOnWriteArrayList<>();
+        this.porEstado = new EnumMap<>(Consulta.Estado.class);
+        for (Consulta.Estado e : Consulta.Estado.values()) {
+            AtomicInteger contador = new AtomicInteger();
+            porEstado.put(e, contador);
+            Metricas.medidor("consultas.estado." + e.getCodigo(), contador::get);
+        }
         cargarConsultas();
+        Metricas.medidor("consultas.total", consultas::size);
+    }
+    
+    public GestionConsultas(String archivoDatos) {
+        this(archivoDatos, 1);
     }
     
     public GestionConsultas() {
@@ -26,28 +126,61 @@ public class GestionConsultas {
      * Carga consultas desde el archivo JSON
      */
     public void cargarConsultas() {
-        JsonObject datos = JsonUtil.leerJson(archivoDatos);
+        long inicio = tiempoCargarConsultas.iniciar();
+        try {
+            if (cargador != null) {
+                almacen.leerEnParalelo(cargador, json -> json.get("idPaciente").getAsString(), json -> {
+                    Consulta consulta = jsonToConsulta(json);
+                    if (consulta == null) {
+                        return;
+                    }
+                    consultas.put(consulta.getIdConsulta(), consulta);
+                    indexar(consulta);
+                    cola.encolar(consulta);
+                });
+                return;
+            }
+            JsonObject datos = almacen.leerTodo();
         
-        for (String idConsulta : datos.keySet()) {
-            JsonObject consultaJson = datos.getAsJsonObject(idConsulta);
-            Consulta consulta = jsonToConsulta(consultaJson);
-            consultas.put(idConsulta, consulta);
+            for (String idConsulta : datos.keySet()) {
+                JsonObject consultaJson = datos.getAsJsonObject(idConsulta);
+                Consulta consulta = jsonToConsulta(consultaJson);
+                if (consulta == null) {
+                    continue;
+                }
+                consultas.put(idConsulta, consulta);
+                indexar(consulta);
+                cola.encolar(consulta);
+            }
+        } finally {
+            tiempoCargarConsultas.detener(inicio);
         }
     }
     
     /**
-     * Convierte JSON a Consulta
+     * Convierte JSON a Consulta; retorna null (y lo avisa) si el estado no
+     * es uno conocido, en lugar de tomarla por pendiente
      */
     private Consulta jsonToConsulta(JsonObject json) {
+        Consulta.Estado estado = Consulta.Estado.PENDIENTE;
+        if (json.has("estado")) {
+            estado = Consulta.Estado.desdeCodigo(json.get("estado").getAsString());
+            if (estado == null) {
+                System.err.println("Consulta " + json.get("idConsulta").getAsString()
+                                   + " descartada: estado desconocido " + json.get("estado").getAsString());
+                return null;
+            }
+        }
         Consulta c = new Consulta(
             json.get("idConsulta").getAsString(),
             json.get("idPaciente").getAsString(),
             json.get("idMedico").getAsString(),
             json.get("motivo").getAsString(),
-            json.has("estado") ? json.get("estado").getAsString() : "pendiente"
+            estado
         );
         
         c.setFechaSolicitud(json.get("fechaSolicitud").getAsString());
+        c.setVersion(json.has("version") ? json.get("version").getAsLong() : 0);
         if (json.has("fechaAtencion") && !json.get("fechaAtencion").isJsonNull()) {
             c.setFechaAtencion(json.get("fechaAtencion").getAsString());
         }
@@ -64,16 +197,56 @@ public class GestionConsultas {
         return c;
     }
     
+    /**
+     * Agrega la consulta a los índices ordenados por paciente y por médico
+     */
+    private void indexar(Consulta c) {
+        c.setObservadorTransicion(transiciones);
+        porEstado.get(c.getEstado()).incrementAndGet();
+        ultimoNumero.accumulateAndGet(Ids.numero(c.getIdConsulta()), Math::max);
+        porPaciente.computeIfAbsent(c.getIdPaciente(), k -> {
+            pacientesPorParticion.get(almacen.particion(k)).add(k);
+            return new ConcurrentSkipListSet<>(Ids.COMPARADOR);
+        }).add(c.getIdConsulta());
+        porMedico.computeIfAbsent(c.getIdMedico(), k -> new ConcurrentSkipListSet<>(Ids.COMPARADOR))
+                 .add(c.getIdConsulta());
+    }
+    
+    /**
+     * Mantiene los contadores por estado y vuelve a encolar las consultas
+     * que regresan a pendiente (lo llama la consulta tras cada transición)
+     */
+    private void alTransicionar(Consulta c, Consulta.Estado anterior, Consulta.Estado nuevo) {
+        porEstado.get(anterior).decrementAndGet();
+        porEstado.get(nuevo).incrementAndGet();
+        if (nuevo == Consulta.Estado.PENDIENTE) {
+            cola.encolar(c);
+        }
+    }
+    
+    /**
+     * Número de consultas en un estado (contador mantenido por las transiciones)
+     */
+    public int contarPorEstado(Consulta.Estado estado) {
+        return porEstado.get(estado).get();
+    }
+    
+    private NavigableSet<String> indice(Map<String, NavigableSet<String>> mapa, String id) {
+        NavigableSet<String> ids = mapa.get(id);
+        return ids != null ? ids : Collections.emptyNavigableSet();
+    }
+    
     /**
      * Convierte Consulta a JSON
      */
-    private JsonObject consultaToJson(Consulta c) {
+    public static JsonObject consultaToJson(Consulta c) {
         JsonObject json = new JsonObject();
         json.addProperty("idConsulta", c.getIdConsulta());
         json.addProperty("idPaciente", c.getIdPaciente());
         json.addProperty("idMedico", c.getIdMedico());
         json.addProperty("motivo", c.getMotivo());
-        json.addProperty("estado", c.getEstado());
+        json.addProperty("estado", c.getEstado().getCodigo());
+        json.addProperty("version", c.getVersion());
         json.addProperty("fechaSolicitud", c.getFechaSolicitud());
         json.addProperty("fechaAtencion", c.getFechaAtencion());
         json.addProperty("diagnostico", c.getDiagnostico());
@@ -83,94 +256,534 @@ public class GestionConsultas {
     }
     
     /**
-     * Guarda consultas en el archivo JSON
+     * Guarda consultas en los archivos JSON de todas las particiones
      */
     public void guardarConsultas() {
+        for (int i = 0; i < almacen.getParticiones(); i++) {
+            guardarParticion(i);
+        }
+    }
+    
+    /**
+     * Reescribe solo el archivo de una partición con las consultas de sus pacientes
+     */
+    private void guardarParticion(int particion) {
+        long inicio = tiempoGuardarConsultas.iniciar();
+        try {
+            synchronized (almacen.candado(particion)) {
+                almacen.guardar(particion, datosParticion(particion));
+            }
+        } finally {
+            tiempoGuardarConsultas.detener(inicio);
+        }
+    }
+    
+    /**
+     * Como guardarConsultas, pero lanza el error de escritura (lo usa el
+     * punto de control de Transacciones, que solo vacía la bitácora si
+     * todas las particiones quedaron en el disco)
+     */
+    void volcarConsultas() throws IOException {
+        for (int i = 0; i < almacen.getParticiones(); i++) {
+            long inicio = tiempoGuardarConsultas.iniciar();
+            try {
+                synchronized (almacen.candado(i)) {
+                    almacen.escribir(i, datosParticion(i));
+                }
+            } finally {
+                tiempoGuardarConsultas.detener(inicio);
+            }
+        }
+    }
+    
+    /**
+     * Consultas de los pacientes de una partición. Quien llama debe tener
+     * su candado. Solo recorre los pacientes de esa partición.
+     */
+    private JsonObject datosParticion(int particion) {
         JsonObject datos = new JsonObject();
-        for (Map.Entry<String, Consulta> entry : consultas.entrySet()) {
-            datos.add(entry.getKey(), consultaToJson(entry.getValue()));
+        for (String idPaciente : pacientesPorParticion.get(particion)) {
+            for (String id : indice(porPaciente, idPaciente)) {
+                datos.add(id, consultaToJson(consultas.get(id)));
+            }
         }
-        JsonUtil.guardarJson(archivoDatos, datos);
+        return datos;
+    }
+    
+    private void guardarParticion(Consulta consulta) {
+        guardarParticion(almacen.particion(consulta.getIdPaciente()));
     }
     
     /**
-     * Crea una nueva consulta
+     * Crea una nueva consulta. Solo toma el candado de la partición del
+     * paciente, así que pacientes de particiones distintas no se esperan.
      */
     public Consulta crearConsulta(String idPaciente, String idMedico, String motivo) {
-        String idConsulta = String.format("CON%04d", consultas.size() + 1);
-        Consulta consulta = new Consulta(idConsulta, idPaciente, idMedico, 
-                                        motivo, "pendiente");
-        consultas.put(idConsulta, consulta);
-        guardarConsultas();
-        return consulta;
+        long inicio = tiempoCrearConsulta.iniciar();
+        try {
+            Consulta consulta = nuevaConsulta(idPaciente, idMedico, motivo);
+            registrar(consulta, true);
+            return consulta;
+        } finally {
+            tiempoCrearConsulta.detener(inicio);
+        }
+    }
+    
+    /**
+     * Arma una consulta pendiente con el siguiente ID, sin registrarla
+     */
+    Consulta nuevaConsulta(String idPaciente, String idMedico, String motivo) {
+        String idConsulta = String.format("CON%04d", ultimoNumero.incrementAndGet());
+        return new Consulta(idConsulta, idPaciente, idMedico, motivo, Consulta.Estado.PENDIENTE);
+    }
+    
+    /**
+     * Registra una consulta nueva y la encola; con "guardar" en false queda
+     * solo en memoria (Transacciones la hace durable con su bitácora)
+     */
+    void registrar(Consulta consulta, boolean guardar) {
+        Consulta.Estado estado;
+        synchronized (almacen.candado(consulta.getIdPaciente())) {
+            estado = consulta.getEstado();
+            consultas.put(consulta.getIdConsulta(), consulta);
+            indexar(consulta);
+            cola.encolar(consulta);
+            if (guardar) {
+                guardarParticion(consulta);
+            }
+        }
+        notificar(new EventoCambio(EventoCambio.Tipo.CONSULTA_CREADA, consulta.getIdConsulta(), consulta,
+                                   null, estado));
     }
     
     /**
      * Obtiene una consulta por su ID
      */
     public Consulta obtenerConsulta(String idConsulta) {
-        return consultas.get(idConsulta);
+        long inicio = tiempoObtenerConsulta.iniciar();
+        try {
+            return consultas.get(idConsulta);
+        } finally {
+            tiempoObtenerConsulta.detener(inicio);
+        }
     }
     
     /**
      * Obtiene todas las consultas de un paciente
      */
     public List<Consulta> obtenerConsultasPaciente(String idPaciente) {
-        List<Consulta> resultado = new ArrayList<>();
-        for (Consulta c : consultas.values()) {
-            if (c.getIdPaciente().equals(idPaciente)) {
-                resultado.add(c);
-            }
+        long inicio = tiempoObtenerConsultasPaciente.iniciar();
+        try {
+            return streamConsultasPaciente(idPaciente).collect(Collectors.toList());
+        } finally {
+            tiempoObtenerConsultasPaciente.detener(inicio);
         }
-        return resultado;
     }
     
     /**
      * Obtiene todas las consultas de un médico
      */
     public List<Consulta> obtenerConsultasMedico(String idMedico) {
-        List<Consulta> resultado = new ArrayList<>();
-        for (Consulta c : consultas.values()) {
-            if (c.getIdMedico().equals(idMedico)) {
-                resultado.add(c);
-            }
+        long inicio = tiempoObtenerConsultasMedico.iniciar();
+        try {
+            return streamConsultasMedico(idMedico).collect(Collectors.toList());
+        } finally {
+            tiempoObtenerConsultasMedico.detener(inicio);
         }
-        return resultado;
     }
     
     /**
-     * Obtiene consultas pendientes de un médico
+     * Recorre todas las consultas sin copiarlas a una lista
+     */
+    public Stream<Consulta> streamConsultas() {
+        return consultas.values().stream();
+    }
+    
+    /**
+     * Recorre las consultas de un paciente en orden de ID sin copiarlas a una lista
+     */
+    public Stream<Consulta> streamConsultasPaciente(String idPaciente) {
+        return indice(porPaciente, idPaciente).stream().map(consultas::get).filter(Objects::nonNull);
+    }
+    
+    /**
+     * Recorre las consultas de un médico en orden de ID sin copiarlas a una lista
+     */
+    public Stream<Consulta> streamConsultasMedico(String idMedico) {
+        return indice(porMedico, idMedico).stream().map(consultas::get).filter(Objects::nonNull);
+    }
+    
+    /**
+     * Obtiene una página de consultas de un paciente a partir del cursor
+     * (null para la primera página)
+     */
+    public Pagina<Consulta> paginarConsultasPaciente(String idPaciente, String cursor, int tamano) {
+        long inicio = tiempoPaginarConsultasPaciente.iniciar();
+        try {
+            return Pagina.desdeIndice(indice(porPaciente, idPaciente), consultas::get,
+                                      null, cursor, tamano);
+        } finally {
+            tiempoPaginarConsultasPaciente.detener(inicio);
+        }
+    }
+    
+    /**
+     * Obtiene una página de consultas de un médico, opcionalmente filtradas por estado
+     */
+    public Pagina<Consulta> paginarConsultasMedico(String idMedico, String estado,
+                                                   String cursor, int tamano) {
+        long inicio = tiempoPaginarConsultasMedico.iniciar();
+        try {
+            Consulta.Estado buscado = Consulta.Estado.desdeCodigo(estado);
+            return Pagina.desdeIndice(indice(porMedico, idMedico), consultas::get,
+                                      estado == null ? null : c -> c.getEstado() == buscado,
+                                      cursor, tamano);
+        } finally {
+            tiempoPaginarConsultasMedico.detener(inicio);
+        }
+    }
+    
+    /**
+     * Obtiene consultas pendientes de un médico en orden de prioridad
      */
     public List<Consulta> obtenerConsultasPendientesMedico(String idMedico) {
-        List<Consulta> resultado = new ArrayList<>();
+        long inicio = tiempoObtenerConsultasPendientesMedico.iniciar();
+        try {
+            return cola.pendientes(idMedico);
+        } finally {
+            tiempoObtenerConsultasPendientesMedico.detener(inicio);
+        }
+    }
+    
+    /**
+     * Obtiene una página de consultas pendientes de un médico en orden de
+     * prioridad a partir del cursor (null para la primera página)
+     */
+    public Pagina<Consulta> paginarConsultasPendientesMedico(String idMedico, String cursor, int tamano) {
+        long inicio = tiempoPaginarConsultasPendientesMedico.iniciar();
+        try {
+            return cola.paginarPendientes(idMedico, cursor, tamano);
+        } finally {
+            tiempoPaginarConsultasPendientesMedico.detener(inicio);
+        }
+    }
+    
+    /**
+     * Define la urgencia de cada paciente (p. ej. nivel de alerta de su
+     * último registro de salud) y reordena las colas de los médicos
+     */
+    public void setUrgenciaPaciente(ToIntFunction<String> urgenciaPaciente) {
+        cola.setUrgenciaPaciente(urgenciaPaciente);
+        cola.limpiar();
         for (Consulta c : consultas.values()) {
-            if (c.getIdMedico().equals(idMedico) && c.esPendiente()) {
-                resultado.add(c);
+            cola.encolar(c);
+        }
+    }
+    
+    /**
+     * Toma la siguiente consulta pendiente más prioritaria del médico y la
+     * marca en proceso. Retorna null si no tiene consultas pendientes.
+     */
+    public Consulta tomarSiguienteConsulta(String idMedico) {
+        long inicio = tiempoTomarSiguienteConsulta.iniciar();
+        try {
+            Consulta consulta = cola.tomarSiguiente(idMedico);
+            if (consulta != null) {
+                consulta.incrementarVersion();
+                guardarParticion(consulta);
+                notificar(new EventoCambio(EventoCambio.Tipo.CONSULTA_ACTUALIZADA,
+                                           consulta.getIdConsulta(), consulta, Consulta.Estado.PENDIENTE,
+                                           Consulta.Estado.EN_PROCESO));
+            }
+            return consulta;
+        } finally {
+            tiempoTomarSiguienteConsulta.detener(inicio);
+        }
+    }
+    
+    /**
+     * Devuelve a la cola una consulta en proceso que no fue atendida
+     */
+    public boolean devolverConsulta(String idConsulta) {
+        long inicio = tiempoDevolverConsulta.iniciar();
+        try {
+            Consulta consulta = obtenerConsulta(idConsulta);
+            if (consulta == null) {
+                return false;
+            }
+            synchronized (almacen.candado(consulta.getIdPaciente())) {
+                // La transición la vuelve a encolar (ver alTransicionar)
+                if (!consulta.transicion(Consulta.Estado.EN_PROCESO, Consulta.Estado.PENDIENTE)) {
+                    return false;
+                }
+                guardarCambio(consulta);
+            }
+            notificar(new EventoCambio(EventoCambio.Tipo.CONSULTA_ACTUALIZADA,
+                                       idConsulta, consulta, Consulta.Estado.EN_PROCESO,
+                                       Consulta.Estado.PENDIENTE));
+            return true;
+        } finally {
+            tiempoDevolverConsulta.detener(inicio);
+        }
+    }
+    
+    /**
+     * Conecta las transacciones que abarcan usuarios y consultas
+     */
+    public void setTransacciones(Transacciones transacciones) {
+        this.transacciones = transacciones;
+    }
+    
+    public Transacciones getTransacciones() {
+        return transacciones;
+    }
+    
+    /**
+     * Conecta el motor de asignación por carga y lo mantiene al día
+     */
+    public void setAsignacionMedicos(AsignacionMedicos asignacion) {
+        if (this.asignacion != null) {
+            observadores.remove(this.asignacion);
+        }
+        this.asignacion = asignacion;
+        agregarObservador(asignacion);
+    }
+    
+    public AsignacionMedicos getAsignacionMedicos() {
+        return asignacion;
+    }
+    
+    /**
+     * Crea una consulta asignada al médico menos cargado de la especialidad.
+     * Retorna null si no hay médicos de esa especialidad.
+     */
+    public synchronized Consulta solicitarConsulta(String idPaciente, String especialidad,
+                                                   String motivo) {
+        long inicio = tiempoSolicitarConsulta.iniciar();
+        try {
+            String idMedico = asignacion != null ? asignacion.medicoMenosCargado(especialidad) : null;
+            if (idMedico == null) {
+                return null;
+            }
+            return crearConsulta(idPaciente, idMedico, motivo);
+        } finally {
+            tiempoSolicitarConsulta.detener(inicio);
+        }
+    }
+    
+    /**
+     * Cuenta las consultas pendientes de cada médico
+     */
+    public Map<String, Integer> contarPendientesPorMedico() {
+        long inicio = tiempoContarPendientesPorMedico.iniciar();
+        try {
+            Map<String, Integer> resultado = new HashMap<>();
+            for (Consulta c : consultas.values()) {
+                if (c.esPendiente()) {
+                    resultado.merge(c.getIdMedico(), 1, Integer::sum);
+                }
+            }
+            return resultado;
+        } finally {
+            tiempoContarPendientesPorMedico.detener(inicio);
+        }
+    }
+    
+    /**
+     * Aplica una consulta recibida de la réplica primaria sin guardar el
+     * archivo. Si ya existe se actualiza sobre el mismo objeto para que la
+     * cola y la asignación sigan apuntando a él. Si la transición de estado
+     * no es válida la consulta se deja como estaba y no se notifica nada.
+     * Retorna null si la consulta recibida no se pudo leer.
+     */
+    public Consulta aplicarReplica(JsonObject json) {
+        Consulta recibida = jsonToConsulta(json);
+        if (recibida == null) {
+            return null;
+        }
+        Consulta consulta;
+        Consulta.Estado estadoAnterior = null;
+        Consulta.Estado estadoNuevo;
+        synchronized (almacen.candado(recibida.getIdPaciente())) {
+            consulta = consultas.get(recibida.getIdConsulta());
+            if (consulta == null) {
+                consultas.put(recibida.getIdConsulta(), recibida);
+                indexar(recibida);
+                cola.encolar(recibida);
+            } else {
+                // Las líneas repetidas tras una instantánea no retroceden estados finales
+                estadoAnterior = consulta.getEstado();
+                if (!consulta.cambiarEstado(recibida.getEstado())) {
+                    return consulta;
+                }
+                consulta.setFechaAtencion(recibida.getFechaAtencion());
+                consulta.setDiagnostico(recibida.getDiagnostico());
+                consulta.setTratamiento(recibida.getTratamiento());
+                consulta.setObservaciones(recibida.getObservaciones());
+                consulta.setVersion(recibida.getVersion());
             }
+            estadoNuevo = (consulta != null ? consulta : recibida).getEstado();
+        }
+        if (consulta == null) {
+            notificar(new EventoCambio(EventoCambio.Tipo.CONSULTA_CREADA,
+                                       recibida.getIdConsulta(), recibida, null, estadoNuevo));
+            return recibida;
+        }
+        notificar(new EventoCambio(EventoCambio.Tipo.CONSULTA_ACTUALIZADA,
+                                   consulta.getIdConsulta(), consulta, estadoAnterior, estadoNuevo));
+        return consulta;
+    }
+    
+    /**
+     * Agrega un lote de consultas (JSON ya validado, ver ImportacionMasiva)
+     * con un solo guardado al final. A las que no traen ID, o traen uno ya
+     * ocupado, les asigna el siguiente libre. Retorna las agregadas.
+     */
+    public synchronized List<Consulta> agregarLote(List<JsonObject> lote) {
+        List<Consulta> agregadas = new ArrayList<>();
+        List<EventoCambio> eventos = new ArrayList<>();
+        for (JsonObject json : lote) {
+            String id = json.has("idConsulta") ? json.get("idConsulta").getAsString() : null;
+            if (id == null || id.isEmpty() || consultas.containsKey(id)) {
+                json.addProperty("idConsulta", String.format("CON%04d", ultimoNumero.incrementAndGet()));
+            }
+            Consulta consulta = jsonToConsulta(json);
+            if (consulta == null) {
+                continue;
+            }
+            synchronized (almacen.candado(consulta.getIdPaciente())) {
+                eventos.add(new EventoCambio(EventoCambio.Tipo.CONSULTA_CREADA, consulta.getIdConsulta(),
+                                             consulta, null, consulta.getEstado()));
+                consultas.put(consulta.getIdConsulta(), consulta);
+                indexar(consulta);
+                cola.encolar(consulta);
+            }
+            agregadas.add(consulta);
+        }
+        if (!agregadas.isEmpty()) {
+            guardarConsultas();
+        }
+        eventos.forEach(this::notificar);
+        return agregadas;
+    }
+    
+    /**
+     * Registra un observador de los cambios en las consultas
+     */
+    public void agregarObservador(ObservadorCambios observador) {
+        observadores.add(observador);
+    }
+    
+    private void notificar(EventoCambio evento) {
+        for (ObservadorCambios o : observadores) {
+            o.alCambiar(evento);
         }
-        return resultado;
     }
     
     /**
      * Obtiene consultas completadas de un médico
      */
     public List<Consulta> obtenerConsultasCompletadasMedico(String idMedico) {
-        List<Consulta> resultado = new ArrayList<>();
-        for (Consulta c : consultas.values()) {
-            if (c.getIdMedico().equals(idMedico) && c.esCompletada()) {
-                resultado.add(c);
+        long inicio = tiempoObtenerConsultasCompletadasMedico.iniciar();
+        try {
+            return streamConsultasMedico(idMedico).filter(Consulta::esCompletada)
+                                                  .collect(Collectors.toList());
+        } finally {
+            tiempoObtenerConsultasCompletadasMedico.detener(inicio);
+        }
+    }
+    
+    /**
+     * Copia independiente de una consulta, con su versión, para prepararle
+     * cambios sin que los vean los demás y guardarlos con
+     * actualizarConsulta; null si no existe
+     */
+    public Consulta copiarConsulta(String idConsulta) {
+        Consulta consulta = consultas.get(idConsulta);
+        if (consulta == null) {
+            return null;
+        }
+        synchronized (almacen.candado(consulta.getIdPaciente())) {
+            return jsonToConsulta(consultaToJson(consulta));
+        }
+    }
+    
+    /**
+     * Guarda en la consulta registrada los cambios hechos a una copia (ver
+     * copiarConsulta), solo si su versión sigue siendo "versionEsperada",
+     * y la deja en la siguiente; si otro escritor la guardó después de
+     * leerla lanza ConflictoVersion en lugar de sobrescribir ese cambio.
+     * La consulta registrada nunca se reemplaza (la cola y la asignación
+     * apuntan a ella): se le copian la fecha de atención, el diagnóstico,
+     * el tratamiento y las observaciones. El estado no cambia por aquí
+     * sino con las transiciones del servicio; si el de la copia ya no es
+     * el registrado también es un conflicto.
+     */
+    public void actualizarConsulta(Consulta copia, long versionEsperada) {
+        long inicio = tiempoActualizarConsulta.iniciar();
+        try {
+            Consulta actual = consultas.get(copia.getIdConsulta());
+            if (actual == null) {
+                return;
             }
+            if (actual == copia) {
+                throw new IllegalArgumentException("Se debe actualizar una copia de la consulta "
+                                                   + copia.getIdConsulta() + " (ver copiarConsulta)");
+            }
+            synchronized (almacen.candado(actual.getIdPaciente())) {
+                if (actual.getEstado() != copia.getEstado() || !actual.avanzarVersion(versionEsperada)) {
+                    throw new ConflictoVersion(copia.getIdConsulta(), versionEsperada, actual.getVersion());
+                }
+                actual.setFechaAtencion(copia.getFechaAtencion());
+                actual.setDiagnostico(copia.getDiagnostico());
+                actual.setTratamiento(copia.getTratamiento());
+                actual.setObservaciones(copia.getObservaciones());
+                copia.setVersion(versionEsperada + 1);
+                guardarParticion(actual);
+            }
+        } finally {
+            tiempoActualizarConsulta.detener(inicio);
         }
-        return resultado;
     }
     
     /**
-     * Actualiza una consulta en el sistema
+     * Avanza la versión de una consulta que el propio servicio cambió
+     * (con el candado de su partición) y reescribe la partición
      */
-    public void actualizarConsulta(Consulta consulta) {
-        if (consultas.containsKey(consulta.getIdConsulta())) {
-            consultas.put(consulta.getIdConsulta(), consulta);
-            guardarConsultas();
+    private void guardarCambio(Consulta consulta) {
+        consulta.incrementarVersion();
+        guardarParticion(consulta);
+    }
+    
+    /**
+     * Lee una copia de la consulta, le aplica el cambio y la guarda con
+     * actualizarConsulta; si otro escritor la guardó en medio, vuelve a
+     * leerla y reaplica el cambio sobre una copia nueva (ver Reintentos).
+     * El cambio puede ejecutarse más de una vez, pero nunca sobre la
+     * consulta registrada. Retorna la consulta guardada, o null si no existe.
+     */
+    public Consulta modificarConsulta(String idConsulta, Consumer<Consulta> cambio) {
+        long inicio = tiempoModificarConsulta.iniciar();
+        try {
+            Consulta copia = Reintentos.obtener(() -> {
+                Consulta leida = copiarConsulta(idConsulta);
+                if (leida == null) {
+                    return null;
+                }
+                long version = leida.getVersion();
+                cambio.accept(leida);
+                actualizarConsulta(leida, version);
+                return leida;
+            });
+            if (copia == null) {
+                return null;
+            }
+            Consulta consulta = consultas.get(idConsulta);
+            notificar(new EventoCambio(EventoCambio.Tipo.CONSULTA_ACTUALIZADA,
+                                       idConsulta, consulta, copia.getEstado(), copia.getEstado()));
+            return consulta;
+        } finally {
+            tiempoModificarConsulta.detener(inicio);
         }
     }
     
@@ -178,47 +791,148 @@ public class GestionConsultas {
      * Registra el diagnóstico de una consulta
      */
     public boolean registrarDiagnostico(String idConsulta, String diagnostico,
-                                       String tratamiento, String observaciones) {
-        Consulta consulta = obtenerConsulta(idConsulta);
-        if (consulta != null) {
-            consulta.registrarDiagnostico(diagnostico, tratamiento, observaciones);
-            actualizarConsulta(consulta);
-            return true;
+                                        String tratamiento, String observaciones) {
+        return registrarDiagnostico(idConsulta, diagnostico, tratamiento, observaciones, -1);
+    }
+    
+    /**
+     * Registra el diagnóstico solo si la consulta sigue en
+     * "versionEsperada" (la versión con la que el cliente la leyó; -1 para
+     * no comparar). La comparación y el avance de la versión son un solo
+     * compare-and-set bajo el candado de la partición, así otro escritor
+     * no puede colarse entre ambos. Lanza ConflictoVersion si la versión
+     * cambió; retorna false si la consulta no existe o ya no admite
+     * diagnóstico.
+     */
+    public boolean registrarDiagnostico(String idConsulta, String diagnostico,
+                                        String tratamiento, String observaciones,
+                                        long versionEsperada) {
+        long inicio = tiempoRegistrarDiagnostico.iniciar();
+        try {
+            Consulta consulta = obtenerConsulta(idConsulta);
+            if (consulta != null) {
+                Consulta.Estado estadoAnterior;
+                synchronized (almacen.candado(consulta.getIdPaciente())) {
+                    // Fuera del candado solo se pasa de pendiente a en proceso,
+                    // que sigue admitiendo el diagnóstico
+                    if (!consulta.getEstado().puedePasarA(Consulta.Estado.COMPLETADA)) {
+                        return false;
+                    }
+                    if (versionEsperada >= 0 && !consulta.avanzarVersion(versionEsperada)) {
+                        throw new ConflictoVersion(idConsulta, versionEsperada, consulta.getVersion());
+                    }
+                    estadoAnterior = consulta.registrarDiagnostico(diagnostico, tratamiento, observaciones);
+                    if (estadoAnterior == null) {
+                        return false;
+                    }
+                    if (versionEsperada < 0) {
+                        consulta.incrementarVersion();
+                    }
+                    guardarParticion(consulta);
+                }
+                notificar(new EventoCambio(EventoCambio.Tipo.CONSULTA_ACTUALIZADA,
+                                           idConsulta, consulta, estadoAnterior, Consulta.Estado.COMPLETADA));
+                return true;
+            }
+            return false;
+        } finally {
+            tiempoRegistrarDiagnostico.detener(inicio);
         }
-        return false;
     }
     
     /**
      * Cancela una consulta
      */
     public boolean cancelarConsulta(String idConsulta, String motivo) {
-        Consulta consulta = obtenerConsulta(idConsulta);
-        if (consulta != null) {
-            consulta.cancelarConsulta(motivo);
-            actualizarConsulta(consulta);
-            return true;
+        long inicio = tiempoCancelarConsulta.iniciar();
+        try {
+            Consulta consulta = obtenerConsulta(idConsulta);
+            if (consulta != null) {
+                Consulta.Estado estadoAnterior;
+                synchronized (almacen.candado(consulta.getIdPaciente())) {
+                    estadoAnterior = consulta.cancelarConsulta(motivo);
+                    if (estadoAnterior == null) {
+                        return false;
+                    }
+                    guardarCambio(consulta);
+                }
+                notificar(new EventoCambio(EventoCambio.Tipo.CONSULTA_ACTUALIZADA,
+                                           idConsulta, consulta, estadoAnterior, Consulta.Estado.CANCELADA));
+                return true;
+            }
+            return false;
+        } finally {
+            tiempoCancelarConsulta.detener(inicio);
+        }
+    }
+    
+    /**
+     * Pasa al estado indicado todas las consultas que cumplen el filtro y
+     * admiten la transición (p.ej. cancelar las pendientes de un médico que
+     * se da de baja). Trabaja partición por partición bajo su candado y
+     * reescribe cada archivo una sola vez. Retorna cuántas cambiaron.
+     */
+    public int migrarEstados(Predicate<Consulta> filtro, Consulta.Estado nuevo) {
+        long inicio = tiempoMigrarEstados.iniciar();
+        try {
+            List<List<Consulta>> porParticion = new ArrayList<>();
+            for (int i = 0; i < almacen.getParticiones(); i++) {
+                porParticion.add(new ArrayList<>());
+            }
+            consultas.values().stream()
+                .filter(c -> c.getEstado().puedePasarA(nuevo) && filtro.test(c))
+                .forEach(c -> porParticion.get(almacen.particion(c.getIdPaciente())).add(c));
+            
+            List<EventoCambio> eventos = new ArrayList<>();
+            for (int i = 0; i < porParticion.size(); i++) {
+                if (porParticion.get(i).isEmpty()) {
+                    continue;
+                }
+                synchronized (almacen.candado(i)) {
+                    int antes = eventos.size();
+                    for (Consulta c : porParticion.get(i)) {
+                        Consulta.Estado anterior = c.pasarA(nuevo);
+                        if (anterior != null) {
+                            c.incrementarVersion();
+                            eventos.add(new EventoCambio(EventoCambio.Tipo.CONSULTA_ACTUALIZADA,
+                                                         c.getIdConsulta(), c, anterior, nuevo));
+                        }
+                    }
+                    if (eventos.size() > antes) {
+                        guardarParticion(i);
+                    }
+                }
+            }
+            eventos.forEach(this::notificar);
+            return eventos.size();
+        } finally {
+            tiempoMigrarEstados.detener(inicio);
         }
-        return false;
     }
     
     /**
      * Obtiene estadísticas de consultas de un médico
      */
     public Map<String, Integer> obtenerEstadisticasMedico(String idMedico) {
-        List<Consulta> consultas = obtenerConsultasMedico(idMedico);
-        Map<String, Integer> stats = new HashMap<>();
+        long inicio = tiempoObtenerEstadisticasMedico.iniciar();
+        try {
+            List<Consulta> consultas = obtenerConsultasMedico(idMedico);
+            Map<String, Integer> stats = new HashMap<>();
         
-        stats.put("total", consultas.size());
-        stats.put("pendientes", 0);
-        stats.put("en_proceso", 0);
-        stats.put("completadas", 0);
-        stats.put("canceladas", 0);
+            stats.put("total", consultas.size());
+            stats.put("pendientes", 0);
+            stats.put("en_proceso", 0);
+            stats.put("completadas", 0);
+            stats.put("canceladas", 0);
         
-        for (Consulta c : consultas) {
-            String estado = c.getEstado();
-            stats.put(estado, stats.getOrDefault(estado, 0) + 1);
-        }
+            for (Consulta c : consultas) {
+                String estado = c.getEstado().getCodigo();
+                stats.put(estado, stats.getOrDefault(estado, 0) + 1);
+            }
         
-        return stats;
+            return stats;
+        } finally {
+            tiempoObtenerEstadisticasMedico.detener(inicio);
+        }
     }
 }
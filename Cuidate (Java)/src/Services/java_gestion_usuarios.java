@@ -2,20 +2,84 @@ package services;
 
 import models.*;
 import utils.JsonUtil;
+import utils.Ids;
+import utils.Metricas;
 import com.google.gson.*;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Servicio para gestionar usuarios del sistema
  */
 public class GestionUsuarios {
+    private static final Metricas.Temporizador tiempoCargarUsuarios =
+        Metricas.temporizador("usuarios.cargarUsuarios");
+    private static final Metricas.Temporizador tiempoGuardarUsuarios =
+        Metricas.temporizador("usuarios.guardarUsuarios");
+    private static final Metricas.Temporizador tiempoRegistrarPaciente =
+        Metricas.temporizador("usuarios.registrarPaciente");
+    private static final Metricas.Temporizador tiempoRegistrarMedico =
+        Metricas.temporizador("usuarios.registrarMedico");
+    private static final Metricas.Temporizador tiempoIniciarSesion =
+        Metricas.temporizador("usuarios.iniciarSesion");
+    private static final Metricas.Temporizador tiempoBuscarPorCedula =
+        Metricas.temporizador("usuarios.buscarPorCedula");
+    private static final Metricas.Temporizador tiempoBuscarPorId =
+        Metricas.temporizador("usuarios.buscarPorId");
+    private static final Metricas.Temporizador tiempoObtenerMedicos =
+        Metricas.temporizador("usuarios.obtenerMedicos");
+    private static final Metricas.Temporizador tiempoObtenerPacientes =
+        Metricas.temporizador("usuarios.obtenerPacientes");
+    private static final Metricas.Temporizador tiempoActualizarUsuario =
+        Metricas.temporizador("usuarios.actualizarUsuario");
+    private static final Metricas.Temporizador tiempoModificarUsuario =
+        Metricas.temporizador("usuarios.modificarUsuario");
+    private static final Metricas.Temporizador tiempoBuscarUsuarios =
+        Metricas.temporizador("usuarios.buscarUsuarios");
+    private static final Metricas.Temporizador tiempoBuscarMedicosPorEspecialidad =
+        Metricas.temporizador("usuarios.buscarMedicosPorEspecialidad");
+    private static final Metricas.Temporizador tiempoPaginarPacientes =
+        Metricas.temporizador("usuarios.paginarPacientes");
+    private static final Metricas.Temporizador tiempoPaginarMedicos =
+        Metricas.temporizador("usuarios.paginarMedicos");
+    
     private String archivoD atos;
-    private Map<String, Usuario> usuarios;
+    private DirectorioPacientes pacientes;
+    private NavigableMap<String, Medico> medicos;
+    private Map<String, Medico> medicosPorCedula;
+    private List<ObservadorCambios> observadores;
+    private IndiceBusqueda indice;
+    private final ReentrantLock[] candados;
     
     public GestionUsuarios(String archivoD atos) {
         this.archivoD atos = archivoD atos;
-        this.usuarios = new HashMap<>();
+        this.candados = new ReentrantLock[64];
+        for (int i = 0; i < candados.length; i++) {
+            candados[i] = new ReentrantLock();
+        }
+        // Los pacientes (millones) viven fuera del heap; los médicos son pocos
+        // y quedan como objetos. Ambos ordenados por ID para paginar por clave.
+        this.pacientes = new DirectorioPacientes(Integer.getInteger("cuidate.usuarios.cache", 10_000));
+        this.medicos = new ConcurrentSkipListMap<>(Ids.COMPARADOR);
+        this.medicosPorCedula = new ConcurrentHashMap<>();
+        this.observadores = new CopyOnWriteArrayList<>();
+        this.indice = new IndiceBusqueda();
         cargarUsuarios();
+        pacientes.stream().forEach(indice::indexar);
+        for (Medico m : medicos.values()) {
+            indice.indexar(m);
+            medicosPorCedula.put(m.getCedula(), m);
+        }
+        agregarObservador(indice);
+        Metricas.medidor("usuarios.pacientes", pacientes::tamano);
+        Metricas.medidor("usuarios.medicos", medicos::size);
     }
     
     public GestionUsuarios() {
@@ -26,24 +90,25 @@ public class GestionUsuarios {
      * Carga usuarios desde el archivo JSON
      */
     public void cargarUsuarios() {
-        JsonObject datos = JsonUtil.leerJson(archivoD atos);
-        
-        if (datos.size() == 0) {
-            crearUsuariosEjemplo();
-            return;
-        }
-        
-        for (String idUsuario : datos.keySet()) {
-            JsonObject userJson = datos.getAsJsonObject(idUsuario);
-            String tipo = userJson.get("tipo").getAsString();
+        long inicio = tiempoCargarUsuarios.iniciar();
+        try {
+            // En flujo: cada paciente pasa directo al directorio fuera del heap
+            long leidos = JsonUtil.leerJsonEnFlujo(archivoD atos, userJson -> {
+                String tipo = userJson.get("tipo").getAsString();
             
-            if ("paciente".equals(tipo)) {
-                Paciente paciente = jsonToPaciente(userJson);
-                usuarios.put(idUsuario, paciente);
-            } else if ("medico".equals(tipo)) {
-                Medico medico = jsonToMedico(userJson);
-                usuarios.put(idUsuario, medico);
+                if ("paciente".equals(tipo)) {
+                    pacientes.guardar(jsonToPaciente(userJson));
+                } else if ("medico".equals(tipo)) {
+                    Medico medico = jsonToMedico(userJson);
+                    medicos.put(medico.getIdUsuario(), medico);
+                }
+            });
+        
+            if (leidos == 0) {
+                crearUsuariosEjemplo();
             }
+        } finally {
+            tiempoCargarUsuarios.detener(inicio);
         }
     }
     
@@ -66,6 +131,7 @@ public class GestionUsuarios {
         );
         
         p.setFechaRegistro(json.get("fechaRegistro").getAsString());
+        p.setVersion(json.has("version") ? json.get("version").getAsLong() : 0);
         
         if (json.has("historialConsultas")) {
             JsonArray consultas = json.getAsJsonArray("historialConsultas");
@@ -96,6 +162,7 @@ public class GestionUsuarios {
         );
         
         m.setFechaRegistro(json.get("fechaRegistro").getAsString());
+        m.setVersion(json.has("version") ? json.get("version").getAsLong() : 0);
         
         if (json.has("pacientesAsignados")) {
             JsonArray pacientes = json.getAsJsonArray("pacientesAsignados");
@@ -121,7 +188,7 @@ public class GestionUsuarios {
     /**
      * Convierte Usuario a JSON
      */
-    private JsonObject usuarioToJson(Usuario u) {
+    public static JsonObject usuarioToJson(Usuario u) {
         JsonObject json = new JsonObject();
         json.addProperty("idUsuario", u.getIdUsuario());
         json.addProperty("nombre", u.getNombre());
@@ -131,6 +198,7 @@ public class GestionUsuarios {
         json.addProperty("contrasena", u.getContrasena());
         json.addProperty("tipo", u.getTipo());
         json.addProperty("fechaRegistro", u.getFechaRegistro());
+        json.addProperty("version", u.getVersion());
         
         if (u instanceof Paciente) {
             Paciente p = (Paciente) u;
@@ -170,12 +238,28 @@ public class GestionUsuarios {
     /**
      * Guarda usuarios en el archivo JSON
      */
-    public void guardarUsuarios() {
-        JsonObject datos = new JsonObject();
-        for (Map.Entry<String, Usuario> entry : usuarios.entrySet()) {
-            datos.add(entry.getKey(), usuarioToJson(entry.getValue()));
+    public synchronized void guardarUsuarios() {
+        try {
+            volcarUsuarios();
+        } catch (IOException e) {
+            System.err.println("Error al guardar usuarios: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Como guardarUsuarios, pero lanza el error de escritura (lo usa el
+     * punto de control de Transacciones, que solo vacía la bitácora si el
+     * archivo quedó en el disco)
+     */
+    synchronized void volcarUsuarios() throws IOException {
+        long inicio = tiempoGuardarUsuarios.iniciar();
+        try {
+            Stream<Usuario> usuarios = Stream.concat(medicos.values().stream(), pacientes.stream());
+            JsonUtil.escribirJsonEnFlujo(archivoD atos, usuarios.map(GestionUsuarios::usuarioToJson),
+                                         json -> json.get("idUsuario").getAsString());
+        } finally {
+            tiempoGuardarUsuarios.detener(inicio);
         }
-        JsonUtil.guardarJson(archivoD atos, datos);
     }
     
     /**
@@ -187,14 +271,14 @@ public class GestionUsuarios {
             "carlos.rodriguez@cuidate.com", "medico123",
             "Medicina General", "RM-2024-001", 5
         );
-        usuarios.put(medico.getIdUsuario(), medico);
+        medicos.put(medico.getIdUsuario(), medico);
         
         Paciente paciente = new Paciente(
             "PAC001", "María", "García", "0987654321",
             "maria.garcia@email.com", "paciente123",
             30, "Femenino", "Calle 123", "3001234567", "O+"
         );
-        usuarios.put(paciente.getIdUsuario(), paciente);
+        pacientes.guardar(paciente);
         
         guardarUsuarios();
     }
@@ -202,114 +286,450 @@ public class GestionUsuarios {
     /**
      * Registra un nuevo paciente
      */
-    public Paciente registrarPaciente(String nombre, String apellido, String cedula,
-                                     String correo, String contrasena, int edad,
-                                     String genero, String telefono) {
-        if (buscarPorCedula(cedula) != null) {
-            return null;
-        }
-        
-        long countPacientes = usuarios.values().stream()
-            .filter(u -> u.getTipo().equals("paciente"))
-            .count();
+    public synchronized Paciente registrarPaciente(String nombre, String apellido, String cedula,
+                                                  String correo, String contrasena, int edad,
+                                                  String genero, String telefono) {
+        long inicio = tiempoRegistrarPaciente.iniciar();
+        try {
+            if (buscarPorCedula(cedula) != null) {
+                return null;
+            }
         
-        String idUsuario = String.format("PAC%03d", countPacientes + 1);
+            String idUsuario = String.format("PAC%03d", siguienteNumero(pacientes.ids()));
         
-        Paciente paciente = new Paciente(idUsuario, nombre, apellido, cedula,
-                                        correo, contrasena, edad, genero,
-                                        "", telefono, "");
-        usuarios.put(idUsuario, paciente);
-        guardarUsuarios();
-        return paciente;
+            Paciente paciente = new Paciente(idUsuario, nombre, apellido, cedula,
+                                            correo, contrasena, edad, genero,
+                                            "", telefono, "");
+            pacientes.guardar(paciente);
+            guardarUsuarios();
+            notificar(new EventoCambio(EventoCambio.Tipo.USUARIO_CREADO, idUsuario, paciente));
+            return paciente;
+        } finally {
+            tiempoRegistrarPaciente.detener(inicio);
+        }
     }
     
     /**
      * Registra un nuevo médico
      */
-    public Medico registrarMedico(String nombre, String apellido, String cedula,
-                                 String correo, String contrasena, String especialidad,
-                                 String registroMedico) {
-        if (buscarPorCedula(cedula) != null) {
-            return null;
-        }
-        
-        long countMedicos = usuarios.values().stream()
-            .filter(u -> u.getTipo().equals("medico"))
-            .count();
+    public synchronized Medico registrarMedico(String nombre, String apellido, String cedula,
+                                              String correo, String contrasena, String especialidad,
+                                              String registroMedico) {
+        long inicio = tiempoRegistrarMedico.iniciar();
+        try {
+            if (buscarPorCedula(cedula) != null) {
+                return null;
+            }
         
-        String idUsuario = String.format("MED%03d", countMedicos + 1);
+            String idUsuario = String.format("MED%03d", siguienteNumero(medicos.navigableKeySet()));
         
-        Medico medico = new Medico(idUsuario, nombre, apellido, cedula,
-                                  correo, contrasena, especialidad,
-                                  registroMedico, 0);
-        usuarios.put(idUsuario, medico);
-        guardarUsuarios();
-        return medico;
+            Medico medico = new Medico(idUsuario, nombre, apellido, cedula,
+                                      correo, contrasena, especialidad,
+                                      registroMedico, 0);
+            medicos.put(idUsuario, medico);
+            medicosPorCedula.put(cedula, medico);
+            guardarUsuarios();
+            notificar(new EventoCambio(EventoCambio.Tipo.USUARIO_CREADO, idUsuario, medico));
+            return medico;
+        } finally {
+            tiempoRegistrarMedico.detener(inicio);
+        }
+    }
+    
+    /**
+     * Número siguiente al mayor ID (las claves van ordenadas con
+     * Ids.COMPARADOR, así que la última es la mayor)
+     */
+    private static int siguienteNumero(NavigableSet<String> ids) {
+        return ids.isEmpty() ? 1 : Ids.numero(ids.last()) + 1;
     }
     
     /**
      * Inicia sesión y retorna el usuario si es válido
      */
     public Usuario iniciarSesion(String cedula, String contrasena) {
-        Usuario usuario = buscarPorCedula(cedula);
-        if (usuario != null && usuario.verificarContrasena(contrasena)) {
-            return usuario;
+        long inicio = tiempoIniciarSesion.iniciar();
+        try {
+            Usuario usuario = buscarPorCedula(cedula);
+            if (usuario != null && usuario.verificarContrasena(contrasena)) {
+                return usuario;
+            }
+            return null;
+        } finally {
+            tiempoIniciarSesion.detener(inicio);
         }
-        return null;
     }
     
     /**
-     * Busca un usuario por su cédula
+     * Busca un usuario por su cédula (índices por cédula, O(1))
      */
     public Usuario buscarPorCedula(String cedula) {
-        for (Usuario usuario : usuarios.values()) {
-            if (usuario.getCedula().equals(cedula)) {
-                return usuario;
+        long inicio = tiempoBuscarPorCedula.iniciar();
+        try {
+            if (cedula == null) {
+                return null;
             }
+            Medico medico = medicosPorCedula.get(cedula);
+            return medico != null ? medico : pacientes.buscarPorCedula(cedula);
+        } finally {
+            tiempoBuscarPorCedula.detener(inicio);
         }
-        return null;
     }
     
     /**
      * Busca un usuario por su ID
      */
     public Usuario buscarPorId(String idUsuario) {
-        return usuarios.get(idUsuario);
+        long inicio = tiempoBuscarPorId.iniciar();
+        try {
+            Medico medico = medicos.get(idUsuario);
+            return medico != null ? medico : pacientes.obtener(idUsuario);
+        } finally {
+            tiempoBuscarPorId.detener(inicio);
+        }
+    }
+    
+    /**
+     * Busca usuarios por prefijo de nombre y apellido, sin distinguir tildes
+     */
+    public List<Usuario> buscarUsuarios(String texto, int limite) {
+        long inicio = tiempoBuscarUsuarios.iniciar();
+        try {
+            List<Usuario> resultado = new ArrayList<>();
+            for (String id : indice.buscar(texto, limite)) {
+                Usuario u = buscarPorId(id);
+                if (u != null) {
+                    resultado.add(u);
+                }
+            }
+            return resultado;
+        } finally {
+            tiempoBuscarUsuarios.detener(inicio);
+        }
+    }
+    
+    /**
+     * Obtiene los médicos de una especialidad
+     */
+    public List<Medico> buscarMedicosPorEspecialidad(String especialidad) {
+        long inicio = tiempoBuscarMedicosPorEspecialidad.iniciar();
+        try {
+            List<Medico> resultado = new ArrayList<>();
+            for (String id : indice.buscarPorEspecialidad(especialidad)) {
+                Medico m = medicos.get(id);
+                if (m != null) {
+                    resultado.add(m);
+                }
+            }
+            return resultado;
+        } finally {
+            tiempoBuscarMedicosPorEspecialidad.detener(inicio);
+        }
     }
     
     /**
      * Obtiene la lista de todos los médicos
      */
     public List<Medico> obtenerMedicos() {
-        List<Medico> medicos = new ArrayList<>();
-        for (Usuario u : usuarios.values()) {
-            if (u instanceof Medico) {
-                medicos.add((Medico) u);
-            }
+        long inicio = tiempoObtenerMedicos.iniciar();
+        try {
+            return new ArrayList<>(medicos.values());
+        } finally {
+            tiempoObtenerMedicos.detener(inicio);
         }
-        return medicos;
     }
     
     /**
      * Obtiene la lista de todos los pacientes
      */
     public List<Paciente> obtenerPacientes() {
-        List<Paciente> pacientes = new ArrayList<>();
-        for (Usuario u : usuarios.values()) {
-            if (u instanceof Paciente) {
-                pacientes.add((Paciente) u);
+        long inicio = tiempoObtenerPacientes.iniciar();
+        try {
+            return pacientes.stream().collect(Collectors.toList());
+        } finally {
+            tiempoObtenerPacientes.detener(inicio);
+        }
+    }
+    
+    /**
+     * Obtiene una página de pacientes en orden de ID a partir del cursor
+     * (null para la primera página)
+     */
+    public Pagina<Paciente> paginarPacientes(String cursor, int tamano) {
+        long inicio = tiempoPaginarPacientes.iniciar();
+        try {
+            return Pagina.desdeIndice(pacientes.ids(), pacientes::obtener, null, cursor, tamano);
+        } finally {
+            tiempoPaginarPacientes.detener(inicio);
+        }
+    }
+    
+    /**
+     * Obtiene una página de médicos en orden de ID a partir del cursor
+     */
+    public Pagina<Medico> paginarMedicos(String cursor, int tamano) {
+        long inicio = tiempoPaginarMedicos.iniciar();
+        try {
+            return Pagina.desdeIndice(medicos.navigableKeySet(), medicos::get, null, cursor, tamano);
+        } finally {
+            tiempoPaginarMedicos.detener(inicio);
+        }
+    }
+    
+    /**
+     * Recorre los pacientes en orden de ID sin copiarlos a una lista
+     */
+    public Stream<Paciente> streamPacientes() {
+        return pacientes.stream();
+    }
+    
+    /**
+     * Recorre los médicos en orden de ID sin copiarlos a una lista
+     */
+    public Stream<Medico> streamMedicos() {
+        return medicos.values().stream();
+    }
+    
+    /**
+     * Número de pacientes registrados
+     */
+    public int contarPacientes() {
+        return pacientes.tamano();
+    }
+    
+    /**
+     * Número de médicos registrados
+     */
+    public int contarMedicos() {
+        return medicos.size();
+    }
+    
+    /**
+     * Actualiza un usuario solo si su versión guardada sigue siendo
+     * "versionEsperada" (la que tenía cuando se leyó) y lo deja en la
+     * siguiente. Si otro escritor lo guardó después de leerlo lanza
+     * ConflictoVersion en lugar de sobrescribir ese cambio. "usuario" debe
+     * ser una copia (ver copiar y modificarUsuario): el objeto registrado
+     * lo comparten los lectores y cambiarlo en el lugar se vería antes de
+     * comparar la versión. La comparación toma solo el candado del
+     * usuario; el guardado del archivo queda serializado.
+     */
+    public void actualizarUsuario(Usuario usuario, long versionEsperada) {
+        long inicio = tiempoActualizarUsuario.iniciar();
+        try {
+            if (reemplazar(usuario, versionEsperada)) {
+                guardarUsuarios();
+                notificarActualizado(usuario);
+            }
+        } finally {
+            tiempoActualizarUsuario.detener(inicio);
+        }
+    }
+    
+    /**
+     * Instala la nueva versión de un usuario existente comparando versiones
+     * como actualizarUsuario, pero sin guardar el archivo ni notificar (lo
+     * usa Transacciones, que hace durable el cambio con su bitácora).
+     * Retorna false si el usuario no existe.
+     */
+    boolean reemplazar(Usuario usuario, long versionEsperada) {
+        String idUsuario = usuario.getIdUsuario();
+        ReentrantLock candado = candado(idUsuario);
+        candado.lock();
+        try {
+            if (usuario instanceof Paciente) {
+                return pacientes.guardarSiVersion((Paciente) usuario, versionEsperada);
             }
+            Medico actual = medicos.get(idUsuario);
+            if (!(usuario instanceof Medico) || actual == null) {
+                return false;
+            }
+            if (actual == usuario) {
+                throw new IllegalArgumentException("Se debe actualizar una copia del usuario "
+                                                   + idUsuario + " (ver copiar)");
+            }
+            if (actual.getVersion() != versionEsperada) {
+                throw new ConflictoVersion(idUsuario, versionEsperada, actual.getVersion());
+            }
+            // Se publica otra copia, así quien guardó puede seguir usando la suya
+            usuario.setVersion(versionEsperada + 1);
+            Medico publicado = (Medico) copiar(usuario);
+            medicos.put(idUsuario, publicado);
+            reindexarCedula(actual, publicado);
+            return true;
+        } finally {
+            candado.unlock();
+        }
+    }
+    
+    /**
+     * Candado de escritura de un usuario; los usuarios se reparten en un
+     * número fijo de candados por el hash de su ID
+     */
+    ReentrantLock candado(String idUsuario) {
+        return candados[Math.floorMod(idUsuario.hashCode(), candados.length)];
+    }
+    
+    /**
+     * Candados de varios usuarios, sin repetir y siempre en el mismo orden,
+     * así dos hilos que toman varios a la vez no se bloquean entre sí
+     */
+    List<ReentrantLock> candados(Collection<String> idsUsuario) {
+        SortedSet<Integer> indices = new TreeSet<>();
+        for (String idUsuario : idsUsuario) {
+            indices.add(Math.floorMod(idUsuario.hashCode(), candados.length));
+        }
+        List<ReentrantLock> resultado = new ArrayList<>();
+        for (int i : indices) {
+            resultado.add(candados[i]);
+        }
+        return resultado;
+    }
+    
+    /**
+     * Versión guardada de un usuario, o -1 si no existe. Para que siga
+     * valiendo al usarla hay que tener su candado.
+     */
+    long version(String idUsuario) {
+        Medico medico = medicos.get(idUsuario);
+        return medico != null ? medico.getVersion() : pacientes.version(idUsuario);
+    }
+    
+    void notificarActualizado(Usuario usuario) {
+        notificar(new EventoCambio(EventoCambio.Tipo.USUARIO_ACTUALIZADO,
+                                   usuario.getIdUsuario(), usuario));
+    }
+    
+    /**
+     * Copia independiente de un usuario, con su versión (para prepararle
+     * cambios sin que los vean los demás hasta confirmarlos)
+     */
+    Usuario copiar(Usuario usuario) {
+        JsonObject json = usuarioToJson(usuario);
+        return usuario instanceof Medico ? jsonToMedico(json) : jsonToPaciente(json);
+    }
+    
+    /**
+     * Lee una copia del usuario, le aplica el cambio y la guarda con
+     * actualizarUsuario; si otro escritor lo guardó en medio, vuelve a
+     * leerlo y reaplica el cambio sobre una copia nueva (ver Reintentos),
+     * así ningún cambio se pierde ni se aplica dos veces. El cambio puede
+     * ejecutarse más de una vez, pero nunca sobre el usuario registrado.
+     * Retorna la copia guardada, o null si no existe.
+     */
+    public Usuario modificarUsuario(String idUsuario, Consumer<Usuario> cambio) {
+        long inicio = tiempoModificarUsuario.iniciar();
+        try {
+            return Reintentos.obtener(() -> {
+                Usuario leido = buscarPorId(idUsuario);
+                if (leido == null) {
+                    return null;
+                }
+                Usuario copia = copiar(leido);
+                long version = copia.getVersion();
+                cambio.accept(copia);
+                actualizarUsuario(copia, version);
+                return copia;
+            });
+        } finally {
+            tiempoModificarUsuario.detener(inicio);
+        }
+    }
+    
+    /**
+     * Aplica un usuario recibido de la réplica primaria (alta o reemplazo)
+     * sin guardar el archivo; quien replica guarda al terminar el lote
+     */
+    public synchronized Usuario aplicarReplica(JsonObject json) {
+        String idUsuario = json.get("idUsuario").getAsString();
+        Usuario anterior = buscarPorId(idUsuario);
+        boolean existe = anterior != null;
+        Usuario usuario;
+        if ("medico".equals(json.get("tipo").getAsString())) {
+            Medico medico = jsonToMedico(json);
+            medicos.put(idUsuario, medico);
+            usuario = medico;
+        } else {
+            Paciente paciente = jsonToPaciente(json);
+            pacientes.guardar(paciente);
+            usuario = paciente;
+        }
+        reindexarCedula(anterior, usuario);
+        notificar(new EventoCambio(existe ? EventoCambio.Tipo.USUARIO_ACTUALIZADO
+                                          : EventoCambio.Tipo.USUARIO_CREADO,
+                                   idUsuario, usuario));
+        return usuario;
+    }
+    
+    /**
+     * Mantiene el índice por cédula de los médicos cuando se reemplaza el
+     * objeto de un usuario (el de pacientes lo mantiene el directorio)
+     */
+    private void reindexarCedula(Usuario anterior, Usuario usuario) {
+        if (anterior instanceof Medico) {
+            medicosPorCedula.remove(anterior.getCedula(), anterior);
+        }
+        if (usuario instanceof Medico) {
+            medicosPorCedula.put(usuario.getCedula(), (Medico) usuario);
         }
-        return pacientes;
     }
     
     /**
-     * Actualiza un usuario en el sistema
+     * Agrega un lote de usuarios (JSON ya validado, ver ImportacionMasiva)
+     * con un solo guardado al final. Descarta los que repiten una cédula
+     * existente o del mismo lote; a los que no traen ID, o traen uno ya
+     * ocupado, les asigna el siguiente libre. Retorna los agregados.
      */
-    public void actualizarUsuario(Usuario usuario) {
-        if (usuarios.containsKey(usuario.getIdUsuario())) {
-            usuarios.put(usuario.getIdUsuario(), usuario);
+    public synchronized List<Usuario> agregarLote(List<JsonObject> lote) {
+        List<Usuario> agregados = new ArrayList<>();
+        int siguientePaciente = siguienteNumero(pacientes.ids());
+        int siguienteMedico = siguienteNumero(medicos.navigableKeySet());
+        for (JsonObject json : lote) {
+            String cedula = json.get("cedula").getAsString();
+            if (buscarPorCedula(cedula) != null) {
+                continue;
+            }
+            boolean esMedico = "medico".equals(json.get("tipo").getAsString());
+            String id = json.has("idUsuario") ? json.get("idUsuario").getAsString() : null;
+            if (id == null || id.isEmpty() || buscarPorId(id) != null) {
+                id = esMedico ? String.format("MED%03d", siguienteMedico++)
+                              : String.format("PAC%03d", siguientePaciente++);
+                json.addProperty("idUsuario", id);
+            }
+            Usuario usuario;
+            if (esMedico) {
+                Medico medico = jsonToMedico(json);
+                medicos.put(id, medico);
+                medicosPorCedula.put(cedula, medico);
+                siguienteMedico = Math.max(siguienteMedico, Ids.numero(id) + 1);
+                usuario = medico;
+            } else {
+                Paciente paciente = jsonToPaciente(json);
+                pacientes.guardar(paciente);
+                siguientePaciente = Math.max(siguientePaciente, Ids.numero(id) + 1);
+                usuario = paciente;
+            }
+            agregados.add(usuario);
+        }
+        if (!agregados.isEmpty()) {
             guardarUsuarios();
         }
+        for (Usuario u : agregados) {
+            notificar(new EventoCambio(EventoCambio.Tipo.USUARIO_CREADO, u.getIdUsuario(), u));
+        }
+        return agregados;
+    }
+    
+    /**
+     * Registra un observador de los cambios en los usuarios
+     */
+    public void agregarObservador(ObservadorCambios observador) {
+        observadores.add(observador);
+    }
+    
+    private void notificar(EventoCambio evento) {
+        for (ObservadorCambios o : observadores) {
+            o.alCambiar(evento);
+        }
     }
 }
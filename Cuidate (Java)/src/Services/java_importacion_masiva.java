@@ -0,0 +1,519 @@
+package services;
+
+import models.*;
+import utils.Metricas;
+import com.google.gson.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Importación y exportación masiva de usuarios, consultas y registros
+ *
+ * Formatos (según la extensión del archivo):
+ *   .csv   encabezado con los nombres de los campos y una fila por entidad
+ *          (campos entre comillas si llevan comas; sin saltos de línea)
+ *   .jsonl un objeto JSON por línea, con los mismos campos que los archivos de datos
+ *
+ * La importación lee el archivo en flujo y arma lotes de líneas; cada
+ * lote se interpreta y valida en paralelo sobre el pool, y los resultados
+ * se juntan en el orden del archivo. Al final todo lo válido se confirma
+ * con una sola llamada a agregarLote del servicio, es decir, un solo
+ * guardado en disco. Los usuarios se deduplican por cédula (contra los
+ * existentes y dentro del mismo archivo).
+ *
+ * La exportación incluye las contraseñas tal como están en los archivos
+ * de datos, para poder migrar usuarios de una instalación a otra.
+ */
+public class ImportacionMasiva {
+    private static final Gson gson = new Gson();
+    private static final DateTimeFormatter formatter =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Metricas.Temporizador tiempoImportar =
+        Metricas.temporizador("importacion.importar");
+    private static final Metricas.Temporizador tiempoExportar =
+        Metricas.temporizador("importacion.exportar");
+    private static final Metricas.Contador filasInvalidas =
+        Metricas.contador("importacion.invalidas");
+    private static final int LINEAS_POR_LOTE = 10_000;
+    private static final int ERRORES_MAXIMOS = 100;
+
+    private static final String[] CAMPOS_USUARIO = {
+        "idUsuario", "tipo", "nombre", "apellido", "cedula", "correo", "contrasena",
+        "fechaRegistro", "edad", "genero", "direccion", "telefono", "grupoSanguineo",
+        "especialidad", "registroMedico", "anosExperiencia"
+    };
+    private static final String[] CAMPOS_CONSULTA = {
+        "idConsulta", "idPaciente", "idMedico", "motivo", "estado", "fechaSolicitud",
+        "fechaAtencion", "diagnostico", "tratamiento", "observaciones"
+    };
+    private static final String[] CAMPOS_REGISTRO = {
+        "idRegistro", "idPaciente", "presionSistolica", "presionDiastolica",
+        "frecuenciaCardiaca", "temperatura", "saturacionOxigeno", "fechaRegistro",
+        "observaciones"
+    };
+
+    private final GestionUsuarios gestionUsuarios;
+    private final GestionConsultas gestionConsultas;
+    private final MonitoreoSalud monitoreo;
+    private final ExecutorService pool;
+
+    public ImportacionMasiva(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                             MonitoreoSalud monitoreo, ExecutorService pool) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.gestionConsultas = gestionConsultas;
+        this.monitoreo = monitoreo;
+        this.pool = pool;
+    }
+
+    public ImportacionMasiva(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                             MonitoreoSalud monitoreo) {
+        this(gestionUsuarios, gestionConsultas, monitoreo, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Formato de archivo según su extensión
+     */
+    public enum Formato {
+        CSV,
+        JSONL;
+
+        public static Formato desdeArchivo(String ruta) {
+            String nombre = ruta.toLowerCase();
+            if (nombre.endsWith(".csv")) {
+                return CSV;
+            } else if (nombre.endsWith(".jsonl") || nombre.endsWith(".ndjson")) {
+                return JSONL;
+            }
+            throw new IllegalArgumentException("Formato no soportado (use .csv o .jsonl): " + ruta);
+        }
+    }
+
+    /**
+     * Resumen de una importación
+     */
+    public static class Resultado {
+        private long leidas;
+        private long agregadas;
+        private long duplicadas;
+        private long invalidas;
+        private final List<String> errores = new ArrayList<>();
+
+        // Getters
+        public long getLeidas() { return leidas; }
+        public long getAgregadas() { return agregadas; }
+        public long getDuplicadas() { return duplicadas; }
+        public long getInvalidas() { return invalidas; }
+        public List<String> getErrores() { return errores; }
+
+        private void invalida(long linea, String motivo) {
+            invalidas++;
+            filasInvalidas.incrementar();
+            if (errores.size() < ERRORES_MAXIMOS) {
+                errores.add("Línea " + linea + ": " + motivo);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return leidas + " leídas, " + agregadas + " agregadas, " + duplicadas
+                   + " duplicadas, " + invalidas + " inválidas";
+        }
+    }
+
+    /**
+     * Valida una fila ya convertida a JSON y completa los valores por
+     * defecto; retorna el motivo del rechazo o null si es válida
+     */
+    private interface Validador {
+        String validar(JsonObject json);
+    }
+
+    /**
+     * Fila interpretada: el JSON o el motivo del rechazo
+     */
+    private static class Fila {
+        final long linea;
+        final JsonObject json;
+        final String error;
+
+        Fila(long linea, JsonObject json, String error) {
+            this.linea = linea;
+            this.json = json;
+            this.error = error;
+        }
+    }
+
+    // ---------------------------------------------------------------- importación
+
+    public Resultado importarUsuarios(String ruta) throws IOException {
+        long inicio = tiempoImportar.iniciar();
+        try {
+            Resultado resultado = new Resultado();
+            List<JsonObject> validas = leer(ruta, this::validarUsuario, resultado);
+            resultado.agregadas = gestionUsuarios.agregarLote(validas).size();
+            resultado.duplicadas = validas.size() - resultado.agregadas;
+            return resultado;
+        } finally {
+            tiempoImportar.detener(inicio);
+        }
+    }
+
+    public Resultado importarConsultas(String ruta) throws IOException {
+        long inicio = tiempoImportar.iniciar();
+        try {
+            Resultado resultado = new Resultado();
+            List<JsonObject> validas = leer(ruta, this::validarConsulta, resultado);
+            resultado.agregadas = gestionConsultas.agregarLote(validas).size();
+            return resultado;
+        } finally {
+            tiempoImportar.detener(inicio);
+        }
+    }
+
+    public Resultado importarRegistros(String ruta) throws IOException {
+        long inicio = tiempoImportar.iniciar();
+        try {
+            Resultado resultado = new Resultado();
+            List<JsonObject> validas = leer(ruta, this::validarRegistro, resultado);
+            resultado.agregadas = monitoreo.agregarLote(validas).size();
+            return resultado;
+        } finally {
+            tiempoImportar.detener(inicio);
+        }
+    }
+
+    /**
+     * Lee el archivo en lotes que se interpretan en paralelo y retorna las
+     * filas válidas en el orden del archivo
+     */
+    private List<JsonObject> leer(String ruta, Validador validador, Resultado resultado) throws IOException {
+        Formato formato = Formato.desdeArchivo(ruta);
+        List<Future<List<Fila>>> lotes = new ArrayList<>();
+        try (BufferedReader lector = Files.newBufferedReader(Paths.get(ruta), StandardCharsets.UTF_8)) {
+            long numero = 0;
+            String[] encabezado = null;
+            if (formato == Formato.CSV) {
+                String primera = lector.readLine();
+                numero++;
+                if (primera == null) {
+                    return new ArrayList<>();
+                }
+                encabezado = dividirCsv(quitarBom(primera));
+            }
+            List<String> lineas = new ArrayList<>(LINEAS_POR_LOTE);
+            long primeraDelLote = numero + 1;
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                numero++;
+                lineas.add(linea);
+                if (lineas.size() == LINEAS_POR_LOTE) {
+                    lotes.add(enviar(lineas, primeraDelLote, formato, encabezado, validador));
+                    lineas = new ArrayList<>(LINEAS_POR_LOTE);
+                    primeraDelLote = numero + 1;
+                }
+            }
+            if (!lineas.isEmpty()) {
+                lotes.add(enviar(lineas, primeraDelLote, formato, encabezado, validador));
+            }
+        }
+
+        List<JsonObject> validas = new ArrayList<>();
+        try {
+            for (Future<List<Fila>> lote : lotes) {
+                for (Fila fila : lote.get()) {
+                    resultado.leidas++;
+                    if (fila.error != null) {
+                        resultado.invalida(fila.linea, fila.error);
+                    } else {
+                        validas.add(fila.json);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Importación interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error al interpretar " + ruta + ": " + e.getCause().getMessage(), e.getCause());
+        }
+        return validas;
+    }
+
+    private Future<List<Fila>> enviar(List<String> lineas, long primera, Formato formato,
+                                      String[] encabezado, Validador validador) {
+        return pool.submit(() -> {
+            List<Fila> filas = new ArrayList<>(lineas.size());
+            long numero = primera;
+            for (String linea : lineas) {
+                if (!linea.isBlank()) {
+                    filas.add(interpretar(numero, linea, formato, encabezado, validador));
+                }
+                numero++;
+            }
+            return filas;
+        });
+    }
+
+    private static Fila interpretar(long numero, String linea, Formato formato,
+                                    String[] encabezado, Validador validador) {
+        JsonObject json;
+        try {
+            if (formato == Formato.JSONL) {
+                json = JsonParser.parseString(linea).getAsJsonObject();
+            } else {
+                String[] valores = dividirCsv(linea);
+                if (valores.length > encabezado.length) {
+                    return new Fila(numero, null, "tiene más columnas que el encabezado");
+                }
+                json = new JsonObject();
+                for (int i = 0; i < valores.length; i++) {
+                    if (!valores[i].isEmpty()) {
+                        json.addProperty(encabezado[i], valores[i]);
+                    }
+                }
+            }
+            String error = validador.validar(json);
+            return new Fila(numero, error == null ? json : null, error);
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            return new Fila(numero, null, "formato inválido (" + e.getMessage() + ")");
+        }
+    }
+
+    // ---------------------------------------------------------------- validación
+
+    private String validarUsuario(JsonObject json) {
+        if (!json.has("tipo")) {
+            json.addProperty("tipo", "paciente");
+        }
+        String tipo = texto(json, "tipo");
+        if (!"paciente".equals(tipo) && !"medico".equals(tipo)) {
+            return "tipo debe ser paciente o medico";
+        }
+        String falta = requeridos(json, "nombre", "apellido", "cedula", "correo", "contrasena");
+        if (falta != null) {
+            return falta;
+        }
+        if (!texto(json, "cedula").chars().allMatch(Character::isLetterOrDigit)) {
+            return "cédula inválida";
+        }
+        String numero = enteros(json, 0, 150, "edad");
+        if (numero == null) {
+            numero = enteros(json, 0, 80, "anosExperiencia");
+        }
+        if (numero != null) {
+            return numero;
+        }
+        return fecha(json, "fechaRegistro");
+    }
+
+    private String validarConsulta(JsonObject json) {
+        String falta = requeridos(json, "idPaciente", "idMedico", "motivo");
+        if (falta != null) {
+            return falta;
+        }
+        if (!(gestionUsuarios.buscarPorId(texto(json, "idPaciente")) instanceof Paciente)) {
+            return "no existe el paciente " + texto(json, "idPaciente");
+        }
+        if (!(gestionUsuarios.buscarPorId(texto(json, "idMedico")) instanceof Medico)) {
+            return "no existe el médico " + texto(json, "idMedico");
+        }
+        if (!json.has("estado")) {
+            json.addProperty("estado", Consulta.Estado.PENDIENTE.getCodigo());
+        }
+        if (Consulta.Estado.desdeCodigo(texto(json, "estado")) == null) {
+            return "estado desconocido: " + texto(json, "estado");
+        }
+        return fecha(json, "fechaSolicitud");
+    }
+
+    private String validarRegistro(JsonObject json) {
+        String falta = requeridos(json, "idPaciente", "presionSistolica", "presionDiastolica",
+                                  "frecuenciaCardiaca", "temperatura", "saturacionOxigeno");
+        if (falta != null) {
+            return falta;
+        }
+        if (!(gestionUsuarios.buscarPorId(texto(json, "idPaciente")) instanceof Paciente)) {
+            return "no existe el paciente " + texto(json, "idPaciente");
+        }
+        String numero = enteros(json, 1, 400, "presionSistolica", "presionDiastolica", "frecuenciaCardiaca");
+        if (numero == null) {
+            numero = enteros(json, 0, 100, "saturacionOxigeno");
+        }
+        if (numero != null) {
+            return numero;
+        }
+        try {
+            double temperatura = json.get("temperatura").getAsDouble();
+            if (temperatura < 25 || temperatura > 45) {
+                return "temperatura fuera de rango";
+            }
+        } catch (NumberFormatException e) {
+            return "temperatura no es un número";
+        }
+        return fecha(json, "fechaRegistro");
+    }
+
+    private static String texto(JsonObject json, String campo) {
+        JsonElement e = json.get(campo);
+        return e == null || e.isJsonNull() ? "" : e.getAsString().trim();
+    }
+
+    private static String requeridos(JsonObject json, String... campos) {
+        for (String campo : campos) {
+            if (texto(json, campo).isEmpty()) {
+                return "falta " + campo;
+            }
+        }
+        return null;
+    }
+
+    private static String enteros(JsonObject json, int minimo, int maximo, String... campos) {
+        for (String campo : campos) {
+            if (!json.has(campo)) {
+                continue;
+            }
+            try {
+                int valor = Integer.parseInt(texto(json, campo));
+                if (valor < minimo || valor > maximo) {
+                    return campo + " fuera de rango";
+                }
+                json.addProperty(campo, valor);
+            } catch (NumberFormatException e) {
+                return campo + " no es un número entero";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Valida la fecha del campo o la completa con la fecha actual
+     */
+    private static String fecha(JsonObject json, String campo) {
+        if (!json.has(campo)) {
+            json.addProperty(campo, LocalDateTime.now().format(formatter));
+            return null;
+        }
+        try {
+            LocalDateTime.parse(texto(json, campo), formatter);
+            return null;
+        } catch (RuntimeException e) {
+            return campo + " debe tener el formato yyyy-MM-dd HH:mm:ss";
+        }
+    }
+
+    // ---------------------------------------------------------------- exportación
+
+    public long exportarUsuarios(String ruta) throws IOException {
+        return exportar(ruta, CAMPOS_USUARIO,
+                        Stream.concat(gestionUsuarios.streamMedicos(), gestionUsuarios.streamPacientes())
+                              .map(GestionUsuarios::usuarioToJson));
+    }
+
+    public long exportarConsultas(String ruta) throws IOException {
+        return exportar(ruta, CAMPOS_CONSULTA,
+                        gestionConsultas.streamConsultas().map(GestionConsultas::consultaToJson));
+    }
+
+    public long exportarRegistros(String ruta) throws IOException {
+        return exportar(ruta, CAMPOS_REGISTRO,
+                        monitoreo.pacientesConRegistros().stream()
+                                 .flatMap(monitoreo::streamRegistrosPaciente)
+                                 .map(MonitoreoSalud::registroToJson));
+    }
+
+    /**
+     * Escribe las entidades en flujo; retorna cuántas escribió
+     */
+    private long exportar(String ruta, String[] campos, Stream<JsonObject> entidades) throws IOException {
+        long inicio = tiempoExportar.iniciar();
+        Formato formato = Formato.desdeArchivo(ruta);
+        Path destino = Paths.get(ruta);
+        if (destino.getParent() != null) {
+            Files.createDirectories(destino.getParent());
+        }
+        long escritas = 0;
+        try (BufferedWriter salida = Files.newBufferedWriter(destino, StandardCharsets.UTF_8)) {
+            if (formato == Formato.CSV) {
+                salida.write(String.join(",", campos));
+                salida.newLine();
+            }
+            Iterator<JsonObject> it = entidades.iterator();
+            while (it.hasNext()) {
+                JsonObject json = it.next();
+                if (formato == Formato.JSONL) {
+                    salida.write(gson.toJson(json));
+                } else {
+                    for (int i = 0; i < campos.length; i++) {
+                        if (i > 0) {
+                            salida.write(',');
+                        }
+                        JsonElement valor = json.get(campos[i]);
+                        if (valor != null && !valor.isJsonNull()) {
+                            salida.write(escaparCsv(valor.getAsString()));
+                        }
+                    }
+                }
+                salida.newLine();
+                escritas++;
+            }
+        } finally {
+            tiempoExportar.detener(inicio);
+        }
+        return escritas;
+    }
+
+    // ---------------------------------------------------------------- CSV
+
+    /**
+     * Divide una línea CSV; acepta campos entre comillas con comillas dobladas
+     */
+    static String[] dividirCsv(String linea) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        boolean entreComillas = false;
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (entreComillas) {
+                if (c == '"') {
+                    if (i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+                        actual.append('"');
+                        i++;
+                    } else {
+                        entreComillas = false;
+                    }
+                } else {
+                    actual.append(c);
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+            } else if (c == ',') {
+                campos.add(actual.toString().trim());
+                actual.setLength(0);
+            } else {
+                actual.append(c);
+            }
+        }
+        if (entreComillas) {
+            throw new IllegalStateException("comillas sin cerrar");
+        }
+        campos.add(actual.toString().trim());
+        return campos.toArray(new String[0]);
+    }
+
+    static String escaparCsv(String valor) {
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0
+                && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+            return valor;
+        }
+        return '"' + valor.replace("\r", " ").replace("\n", " ").replace("\"", "\"\"") + '"';
+    }
+
+    private static String quitarBom(String linea) {
+        return !linea.isEmpty() && linea.charAt(0) == '﻿' ? linea.substring(1) : linea;
+    }
+}
@@ -0,0 +1,171 @@
+package services;
+
+import models.Medico;
+import models.Usuario;
+import utils.Texto;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Índice invertido en memoria sobre nombres, apellidos y especialidades
+ *
+ * Los términos se guardan normalizados (sin tildes ni mayúsculas), de modo
+ * que "rodriguez" encuentra a "Rodríguez". La búsqueda por nombre es por
+ * prefijo de cada palabra; la especialidad se compara de forma exacta.
+ * Se actualiza con los eventos de GestionUsuarios.
+ */
+public class IndiceBusqueda implements ObservadorCambios {
+    private final ConcurrentSkipListMap<String, Set<String>> terminos;
+    private final Map<String, Set<String>> especialidades;
+    private final Map<String, Entrada> porUsuario;
+
+    public IndiceBusqueda() {
+        this.terminos = new ConcurrentSkipListMap<>();
+        this.especialidades = new ConcurrentHashMap<>();
+        this.porUsuario = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Términos indexados de un usuario, para poder retirarlos al actualizar
+     */
+    private static class Entrada {
+        final List<String> terminos;
+        final String especialidad;
+
+        Entrada(List<String> terminos, String especialidad) {
+            this.terminos = terminos;
+            this.especialidad = especialidad;
+        }
+    }
+
+    /**
+     * Indexa (o reindexa) un usuario
+     */
+    public synchronized void indexar(Usuario usuario) {
+        String id = usuario.getIdUsuario();
+        List<String> nuevos = new ArrayList<>();
+        for (String palabra : Texto.normalizar(usuario.getNombreCompleto()).split(" ")) {
+            if (!palabra.isEmpty() && !nuevos.contains(palabra)) {
+                nuevos.add(palabra);
+            }
+        }
+        String especialidad = usuario instanceof Medico
+            ? Texto.normalizar(((Medico) usuario).getEspecialidad())
+            : null;
+
+        Entrada anterior = porUsuario.get(id);
+        if (anterior != null) {
+            if (anterior.terminos.equals(nuevos) && Objects.equals(anterior.especialidad, especialidad)) {
+                return;
+            }
+            retirar(id, anterior);
+        }
+
+        for (String t : nuevos) {
+            terminos.computeIfAbsent(t, k -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+        if (especialidad != null && !especialidad.isEmpty()) {
+            especialidades.computeIfAbsent(especialidad, k -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+        porUsuario.put(id, new Entrada(nuevos, especialidad));
+    }
+
+    /**
+     * Elimina un usuario del índice
+     */
+    public synchronized void eliminar(String idUsuario) {
+        Entrada anterior = porUsuario.remove(idUsuario);
+        if (anterior != null) {
+            retirar(idUsuario, anterior);
+        }
+    }
+
+    private void retirar(String id, Entrada entrada) {
+        for (String t : entrada.terminos) {
+            Set<String> ids = terminos.get(t);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    terminos.remove(t, ids);
+                }
+            }
+        }
+        if (entrada.especialidad != null) {
+            Set<String> ids = especialidades.get(entrada.especialidad);
+            if (ids != null) {
+                ids.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Busca usuarios cuyo nombre o apellido empiece por cada palabra del
+     * texto (por ejemplo "car rod" encuentra a Carlos Rodríguez).
+     * Retorna como máximo "limite" IDs.
+     */
+    public List<String> buscar(String texto, int limite) {
+        List<String> prefijos = new ArrayList<>();
+        for (String p : Texto.normalizar(texto).split(" ")) {
+            if (!p.isEmpty()) {
+                prefijos.add(p);
+            }
+        }
+        List<String> resultado = new ArrayList<>();
+        if (prefijos.isEmpty() || limite <= 0) {
+            return resultado;
+        }
+
+        // Se recorre el prefijo más largo (el más selectivo) y se filtra por el resto
+        prefijos.sort((a, b) -> b.length() - a.length());
+        String principal = prefijos.get(0);
+        Set<String> vistos = new HashSet<>();
+
+        for (Set<String> ids : terminos.subMap(principal, true, principal + Character.MAX_VALUE, true).values()) {
+            for (String id : ids) {
+                if (vistos.add(id) && coincideConTodos(id, prefijos)) {
+                    resultado.add(id);
+                    if (resultado.size() >= limite) {
+                        return resultado;
+                    }
+                }
+            }
+        }
+        return resultado;
+    }
+
+    private boolean coincideConTodos(String id, List<String> prefijos) {
+        Entrada entrada = porUsuario.get(id);
+        if (entrada == null) {
+            return false;
+        }
+        for (String prefijo : prefijos) {
+            boolean coincide = false;
+            for (String t : entrada.terminos) {
+                if (t.startsWith(prefijo)) {
+                    coincide = true;
+                    break;
+                }
+            }
+            if (!coincide) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * IDs de los médicos de una especialidad (sin distinguir tildes ni mayúsculas)
+     */
+    public Set<String> buscarPorEspecialidad(String especialidad) {
+        Set<String> ids = especialidades.get(Texto.normalizar(especialidad));
+        return ids != null ? Collections.unmodifiableSet(ids) : Collections.emptySet();
+    }
+
+    @Override
+    public void alCambiar(EventoCambio evento) {
+        if (evento.getEntidad() instanceof Usuario) {
+            indexar((Usuario) evento.getEntidad());
+        }
+    }
+}
@@ -1,21 +1,102 @@
 package services;
 
 import models.RegistroSalud;
-import utils.JsonUtil;
+import models.SignoVital;
+import utils.AlmacenParticionado;
+import utils.Ids;
+import utils.Metricas;
 import com.google.gson.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Servicio para monitorear la salud de los pacientes
+ *
+ * Las lecturas de cada paciente viven solo en su SerieVital comprimida:
+ * no se guarda un RegistroSalud por lectura, se arma uno cuando alguien
+ * lee la lectura. Cada partición se guarda en disco como las series de
+ * sus pacientes (bloques codificados en Base64) y la instantánea de
+ * replicación envía esas mismas series. Los archivos con el formato
+ * anterior, un objeto JSON por lectura, se siguen leyendo y pasan al
+ * nuevo formato al guardar.
+ *
+ * Los signos se guardan como enteros escalados (ver SignoVital), así que
+ * la temperatura conserva un decimal.
  */
 public class MonitoreoSalud {
-    private String archivoDatos;
-    private Map<String, RegistroSalud> registros;
+    private static final Metricas.Temporizador tiempoCargarRegistros =
+        Metricas.temporizador("monitoreo.cargarRegistros");
+    private static final Metricas.Temporizador tiempoGuardarRegistros =
+        Metricas.temporizador("monitoreo.guardarRegistros");
+    private static final Metricas.Temporizador tiempoCrearRegistroAleatorio =
+        Metricas.temporizador("monitoreo.crearRegistroAleatorio");
+    private static final Metricas.Temporizador tiempoCrearRegistroManual =
+        Metricas.temporizador("monitoreo.crearRegistroManual");
+    private static final Metricas.Temporizador tiempoObtenerRegistro =
+        Metricas.temporizador("monitoreo.obtenerRegistro");
+    private static final Metricas.Temporizador tiempoObtenerRegistrosPaciente =
+        Metricas.temporizador("monitoreo.obtenerRegistrosPaciente");
+    private static final Metricas.Temporizador tiempoObtenerUltimoRegistro =
+        Metricas.temporizador("monitoreo.obtenerUltimoRegistro");
+    private static final Metricas.Temporizador tiempoGenerarConsejosSalud =
+        Metricas.temporizador("monitoreo.generarConsejosSalud");
+    private static final Metricas.Temporizador tiempoAnalizarTendencias =
+        Metricas.temporizador("monitoreo.analizarTendencias");
+    private static final Metricas.Temporizador tiempoPaginarRegistrosPaciente =
+        Metricas.temporizador("monitoreo.paginarRegistrosPaciente");
+    private static final Metricas.Temporizador tiempoObtenerRegistrosRango =
+        Metricas.temporizador("monitoreo.obtenerRegistrosRango");
+    private static final Metricas.Temporizador tiempoResumirSigno =
+        Metricas.temporizador("monitoreo.resumirSigno");
+    private static final Metricas.Temporizador tiempoReducirSigno =
+        Metricas.temporizador("monitoreo.reducirSigno");
     
-    public MonitoreoSalud(String archivoDatos) {
-        this.archivoDatos = archivoDatos;
-        this.registros = new HashMap<>();
+    private AlmacenParticionado almacen;
+    private ExecutorService cargador;
+    private List<Set<String>> pacientesPorParticion;
+    private ConcurrentNavigableMap<String, SerieVital> series;
+    private AtomicInteger ultimoNumero;
+    private List<ObservadorCambios> observadores;
+    
+    /**
+     * Guarda los registros en el número de particiones indicado, repartidos
+     * por el hash del ID del paciente (ver AlmacenParticionado)
+     */
+    public MonitoreoSalud(String archivoDatos, int particiones) {
+        this(archivoDatos, particiones, null);
+    }
+    
+    /**
+     * Igual que el anterior, pero carga las particiones en paralelo sobre
+     * el pool indicado (null para cargar en el hilo actual)
+     */
+    public MonitoreoSalud(String archivoDatos, int particiones, ExecutorService cargador) {
+        this.almacen = new AlmacenParticionado(archivoDatos, particiones);
+        this.cargador = cargador;
+        this.ultimoNumero = new AtomicInteger();
+        this.pacientesPorParticion = new ArrayList<>();
+        for (int i = 0; i < almacen.getParticiones(); i++) {
+            pacientesPorParticion.add(ConcurrentHashMap.newKeySet());
+        }
+        this.series = new ConcurrentSkipListMap<>();
+        this.observadores = new CopyOnWriteArrayList<>();
         cargarRegistros();
+        Metricas.medidor("monitoreo.registros", this::contarRegistros);
+        Metricas.medidor("monitoreo.bytesSeries", this::bytesSeries);
+    }
+    
+    public MonitoreoSalud(String archivoDatos) {
+        this(archivoDatos, 1);
     }
     
     public MonitoreoSalud() {
@@ -26,12 +107,33 @@ public class MonitoreoSalud {
      * Carga registros desde el archivo JSON
      */
     public void cargarRegistros() {
-        JsonObject datos = JsonUtil.leerJson(archivoDatos);
+        long inicio = tiempoCargarRegistros.iniciar();
+        try {
+            if (cargador != null) {
+                // Las entradas de un paciente llegan en orden a su serie
+                almacen.leerEnParalelo(cargador, json -> json.get("idPaciente").getAsString(),
+                                       this::cargarEntrada);
+                return;
+            }
+            JsonObject datos = almacen.leerTodo();
         
-        for (String idRegistro : datos.keySet()) {
-            JsonObject registroJson = datos.getAsJsonObject(idRegistro);
-            RegistroSalud registro = jsonToRegistro(registroJson);
-            registros.put(idRegistro, registro);
+            for (String clave : datos.keySet()) {
+                cargarEntrada(datos.getAsJsonObject(clave));
+            }
+        } finally {
+            tiempoCargarRegistros.detener(inicio);
+        }
+    }
+    
+    /**
+     * Carga una entrada del archivo: la serie completa de un paciente o,
+     * en el formato anterior, una lectura suelta
+     */
+    private void cargarEntrada(JsonObject json) {
+        if (json.has("bloques")) {
+            instalarSerie(json.get("idPaciente").getAsString(), SerieVital.desdeJson(json));
+        } else {
+            indexar(jsonToRegistro(json));
         }
     }
     
@@ -60,7 +162,7 @@ public class MonitoreoSalud {
     /**
      * Convierte RegistroSalud a JSON
      */
-    private JsonObject registroToJson(RegistroSalud r) {
+    public static JsonObject registroToJson(RegistroSalud r) {
         JsonObject json = new JsonObject();
         json.addProperty("idRegistro", r.getIdRegistro());
         json.addProperty("idPaciente", r.getIdPaciente());
@@ -75,152 +177,543 @@ public class MonitoreoSalud {
     }
     
     /**
-     * Guarda registros en el archivo JSON
+     * Guarda registros en los archivos JSON de todas las particiones
      */
     public void guardarRegistros() {
-        JsonObject datos = new JsonObject();
-        for (Map.Entry<String, RegistroSalud> entry : registros.entrySet()) {
-            datos.add(entry.getKey(), registroToJson(entry.getValue()));
+        for (int i = 0; i < almacen.getParticiones(); i++) {
+            guardarParticion(i);
         }
-        JsonUtil.guardarJson(archivoDatos, datos);
+    }
+    
+    /**
+     * Reescribe solo el archivo de una partición con las series de sus pacientes
+     */
+    private void guardarParticion(int particion) {
+        long inicio = tiempoGuardarRegistros.iniciar();
+        try {
+            synchronized (almacen.candado(particion)) {
+                JsonObject datos = new JsonObject();
+                for (String idPaciente : pacientesPorParticion.get(particion)) {
+                    JsonObject serie = serieToJson(idPaciente);
+                    if (serie != null) {
+                        datos.add(idPaciente, serie);
+                    }
+                }
+                almacen.guardar(particion, datos);
+            }
+        } finally {
+            tiempoGuardarRegistros.detener(inicio);
+        }
+    }
+    
+    /**
+     * Agrega un registro nuevo con el candado de la partición de su paciente;
+     * pacientes de particiones distintas se escriben en paralelo
+     */
+    private void agregarRegistro(RegistroSalud registro) {
+        int particion = almacen.particion(registro.getIdPaciente());
+        synchronized (almacen.candado(particion)) {
+            indexar(registro);
+            guardarParticion(particion);
+        }
+        notificar(new EventoCambio(EventoCambio.Tipo.REGISTRO_CREADO, registro.getIdRegistro(), registro));
     }
     
     /**
      * Crea un registro de salud con valores aleatorios simulados
      */
     public RegistroSalud crearRegistroAleatorio(String idPaciente) {
-        String idRegistro = String.format("REG%05d", registros.size() + 1);
-        RegistroSalud registro = RegistroSalud.generarAleatorio(idRegistro, idPaciente);
-        registros.put(idRegistro, registro);
-        guardarRegistros();
-        return registro;
+        long inicio = tiempoCrearRegistroAleatorio.iniciar();
+        try {
+            String idRegistro = String.format("REG%05d", ultimoNumero.incrementAndGet());
+            RegistroSalud registro = RegistroSalud.generarAleatorio(idRegistro, idPaciente);
+            agregarRegistro(registro);
+            return registro;
+        } finally {
+            tiempoCrearRegistroAleatorio.detener(inicio);
+        }
     }
     
     /**
      * Crea un registro de salud con valores manuales
      */
     public RegistroSalud crearRegistroManual(String idPaciente, int presionSistolica,
-                                            int presionDiastolica, int frecuenciaCardiaca,
-                                            double temperatura, int saturacionOxigeno) {
-        String idRegistro = String.format("REG%05d", registros.size() + 1);
-        RegistroSalud registro = new RegistroSalud(idRegistro, idPaciente,
-                                                   presionSistolica, presionDiastolica,
-                                                   frecuenciaCardiaca, temperatura,
-                                                   saturacionOxigeno);
-        registros.put(idRegistro, registro);
-        guardarRegistros();
-        return registro;
+                                                         int presionDiastolica, int frecuenciaCardiaca,
+                                                         double temperatura, int saturacionOxigeno) {
+        long inicio = tiempoCrearRegistroManual.iniciar();
+        try {
+            String idRegistro = String.format("REG%05d", ultimoNumero.incrementAndGet());
+            // La serie guarda la temperatura con un decimal: el registro retornado ya va así
+            RegistroSalud registro = new RegistroSalud(idRegistro, idPaciente,
+                                                       presionSistolica, presionDiastolica,
+                                                       frecuenciaCardiaca, Math.round(temperatura * 10) / 10.0,
+                                                       saturacionOxigeno);
+            agregarRegistro(registro);
+            return registro;
+        } finally {
+            tiempoCrearRegistroManual.detener(inicio);
+        }
     }
     
     /**
-     * Obtiene un registro por su ID
+     * Obtiene un registro por su ID. Sin índice por ID, recorre las series
+     * de todos los pacientes: es para consultas puntuales, no para lotes.
      */
     public RegistroSalud obtenerRegistro(String idRegistro) {
-        return registros.get(idRegistro);
+        long inicio = tiempoObtenerRegistro.iniciar();
+        try {
+            for (Map.Entry<String, SerieVital> e : series.entrySet()) {
+                RegistroSalud r = e.getValue().buscar(e.getKey(), idRegistro);
+                if (r != null) {
+                    return r;
+                }
+            }
+            return null;
+        } finally {
+            tiempoObtenerRegistro.detener(inicio);
+        }
     }
     
     /**
-     * Obtiene todos los registros de un paciente
+     * Obtiene todos los registros de un paciente en orden cronológico
      */
     public List<RegistroSalud> obtenerRegistrosPaciente(String idPaciente) {
-        List<RegistroSalud> resultado = new ArrayList<>();
-        for (RegistroSalud r : registros.values()) {
-            if (r.getIdPaciente().equals(idPaciente)) {
-                resultado.add(r);
+        long inicio = tiempoObtenerRegistrosPaciente.iniciar();
+        try {
+            return obtenerRegistrosRango(idPaciente, Long.MIN_VALUE, Long.MAX_VALUE);
+        } finally {
+            tiempoObtenerRegistrosPaciente.detener(inicio);
+        }
+    }
+    
+    /**
+     * Recorre los registros de un paciente en orden cronológico sin
+     * copiarlos a una lista; cada uno se arma al llegar a él
+     */
+    public Stream<RegistroSalud> streamRegistrosPaciente(String idPaciente) {
+        SerieVital serie = series.get(idPaciente);
+        if (serie == null) {
+            return Stream.empty();
+        }
+        SerieVital.Lector lector = serie.lector(Long.MIN_VALUE, Long.MAX_VALUE);
+        Iterator<RegistroSalud> iterador = new Iterator<>() {
+            private Boolean hay;
+            
+            @Override
+            public boolean hasNext() {
+                if (hay == null) {
+                    hay = lector.siguiente();
+                }
+                return hay;
+            }
+            
+            @Override
+            public RegistroSalud next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                hay = null;
+                return lector.registro(idPaciente);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterador, Spliterator.ORDERED), false);
+    }
+    
+    /**
+     * Obtiene una página de registros de un paciente en orden cronológico
+     * a partir del cursor (null para la primera página). El cursor guarda
+     * la fecha de la última lectura entregada y cuántas de esa misma fecha
+     * ya salieron.
+     */
+    public Pagina<RegistroSalud> paginarRegistrosPaciente(String idPaciente, String cursor, int tamano) {
+        long inicio = tiempoPaginarRegistrosPaciente.iniciar();
+        try {
+            if (tamano <= 0) {
+                throw new IllegalArgumentException("El tamaño de página debe ser positivo");
+            }
+            long desde = Long.MIN_VALUE;
+            int entregados = 0;
+            if (cursor != null && !cursor.isEmpty()) {
+                String[] partes = Pagina.decodificarCursor(cursor).split("\\|");
+                if (partes.length != 2) {
+                    throw new IllegalArgumentException("Cursor inválido");
+                }
+                desde = Long.parseLong(partes[0]);
+                entregados = Integer.parseInt(partes[1]);
+            }
+            SerieVital serie = series.get(idPaciente);
+            if (serie == null) {
+                return new Pagina<>(new ArrayList<>(), null);
+            }
+            
+            SerieVital.Lector lector = serie.lector(desde, Long.MAX_VALUE, entregados);
+            List<RegistroSalud> elementos = new ArrayList<>();
+            long ultimo = desde;
+            while (lector.siguiente()) {
+                if (elementos.size() == tamano) {
+                    return new Pagina<>(elementos, Pagina.codificarCursor(ultimo + "|" + entregados));
+                }
+                long t = lector.tiempo();
+                entregados = t == ultimo ? entregados + 1 : 1;
+                ultimo = t;
+                elementos.add(lector.registro(idPaciente));
             }
+            return new Pagina<>(elementos, null);
+        } finally {
+            tiempoPaginarRegistrosPaciente.detener(inicio);
+        }
+    }
+    
+    /**
+     * Obtiene los registros de un paciente con fecha en [desde, hasta),
+     * en orden cronológico
+     */
+    public List<RegistroSalud> obtenerRegistrosRango(String idPaciente, LocalDateTime desde,
+                                                     LocalDateTime hasta) {
+        long inicio = tiempoObtenerRegistrosRango.iniciar();
+        try {
+            return obtenerRegistrosRango(idPaciente, RegistroSalud.aSegundos(desde), RegistroSalud.aSegundos(hasta));
+        } finally {
+            tiempoObtenerRegistrosRango.detener(inicio);
+        }
+    }
+    
+    private List<RegistroSalud> obtenerRegistrosRango(String idPaciente, long desde, long hasta) {
+        List<RegistroSalud> resultado = new ArrayList<>();
+        SerieVital serie = series.get(idPaciente);
+        if (serie == null) {
+            return resultado;
+        }
+        SerieVital.Lector lector = serie.lector(desde, hasta);
+        while (lector.siguiente()) {
+            resultado.add(lector.registro(idPaciente));
         }
         return resultado;
     }
     
+    /**
+     * Resume un signo vital de un paciente en intervalos de tiempo fijos
+     * (mínimo, máximo y promedio de cada intervalo con lecturas)
+     */
+    public List<SerieVital.Intervalo> resumirSigno(String idPaciente, SignoVital signo,
+                                                   LocalDateTime desde, LocalDateTime hasta,
+                                                   Duration intervalo) {
+        long inicio = tiempoResumirSigno.iniciar();
+        try {
+            SerieVital serie = series.get(idPaciente);
+            if (serie == null) {
+                return new ArrayList<>();
+            }
+            return serie.resumir(signo, RegistroSalud.aSegundos(desde), RegistroSalud.aSegundos(hasta),
+                                 intervalo.getSeconds());
+        } finally {
+            tiempoResumirSigno.detener(inicio);
+        }
+    }
+    
+    /**
+     * Reduce un signo vital de un paciente a un número máximo de puntos
+     * conservando la forma de la curva (LTTB), para graficar rangos largos
+     */
+    public List<SerieVital.Punto> reducirSigno(String idPaciente, SignoVital signo,
+                                               LocalDateTime desde, LocalDateTime hasta, int puntos) {
+        long inicio = tiempoReducirSigno.iniciar();
+        try {
+            SerieVital serie = series.get(idPaciente);
+            if (serie == null) {
+                return new ArrayList<>();
+            }
+            return serie.reducir(signo, RegistroSalud.aSegundos(desde), RegistroSalud.aSegundos(hasta), puntos);
+        } finally {
+            tiempoReducirSigno.detener(inicio);
+        }
+    }
+    
+    private static String tendencia(double[] ultimo, double[] anterior, SignoVital signo) {
+        int comparacion = Double.compare(ultimo[signo.ordinal()], anterior[signo.ordinal()]);
+        if (comparacion > 0) {
+            return "Aumentó";
+        } else if (comparacion < 0) {
+            return "Disminuyó";
+        }
+        return "Se mantiene estable";
+    }
+    
+    /**
+     * Número de lecturas en memoria de todos los pacientes
+     */
+    public long contarRegistros() {
+        long total = 0;
+        for (SerieVital serie : series.values()) {
+            total += serie.tamano();
+        }
+        return total;
+    }
+    
+    /**
+     * Bytes que ocupan los bloques comprimidos de todas las series
+     */
+    public long bytesSeries() {
+        long bytes = 0;
+        for (SerieVital serie : series.values()) {
+            bytes += serie.bytesComprimidos();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Registra un observador que recibe los registros creados y eliminados
+     */
+    public void agregarObservador(ObservadorCambios observador) {
+        observadores.add(observador);
+    }
+    
+    private void notificar(EventoCambio evento) {
+        for (ObservadorCambios o : observadores) {
+            o.alCambiar(evento);
+        }
+    }
+    
+    /**
+     * Serie temporal de un paciente, o null si no tiene registros
+     */
+    public SerieVital obtenerSerie(String idPaciente) {
+        return series.get(idPaciente);
+    }
+    
+    /**
+     * Serie de un paciente en el formato de guardado y replicación, o null
+     * si no tiene lecturas
+     */
+    public JsonObject serieToJson(String idPaciente) {
+        SerieVital serie = series.get(idPaciente);
+        return serie != null && serie.tamano() > 0 ? serie.toJson(idPaciente) : null;
+    }
+    
+    /**
+     * Pacientes que tienen registros en memoria, ordenados por ID. Es una
+     * vista viva: quien recorre por tramos puede seguir con tailSet.
+     */
+    public NavigableSet<String> pacientesConRegistros() {
+        return Collections.unmodifiableNavigableSet(series.keySet());
+    }
+    
+    /**
+     * Quita de memoria los registros de un paciente anteriores a la fecha
+     * límite y los retorna en orden cronológico. No guarda el archivo;
+     * quien compacta llama a guardarRegistros al terminar el lote.
+     */
+    public List<RegistroSalud> retirarRegistrosAntesDe(String idPaciente, LocalDateTime limite) {
+        List<RegistroSalud> retirados;
+        synchronized (almacen.candado(idPaciente)) {
+            SerieVital serie = series.get(idPaciente);
+            if (serie == null) {
+                return new ArrayList<>();
+            }
+            retirados = serie.eliminarAntesDe(idPaciente, RegistroSalud.aSegundos(limite));
+        }
+        for (RegistroSalud r : retirados) {
+            notificar(new EventoCambio(EventoCambio.Tipo.REGISTRO_ELIMINADO, r.getIdRegistro(), r));
+        }
+        return retirados;
+    }
+    
+    /**
+     * Aplica un registro recibido de la réplica primaria sin guardar el
+     * archivo; si ya existe no hace nada
+     */
+    public RegistroSalud aplicarReplica(JsonObject json) {
+        RegistroSalud registro = jsonToRegistro(json);
+        synchronized (almacen.candado(registro.getIdPaciente())) {
+            SerieVital serie = series.get(registro.getIdPaciente());
+            if (serie != null && serie.contiene(registro.getIdRegistro(), registro.getMarcaTiempo())) {
+                return registro;
+            }
+            indexar(registro);
+        }
+        notificar(new EventoCambio(EventoCambio.Tipo.REGISTRO_CREADO, registro.getIdRegistro(), registro));
+        return registro;
+    }
+    
+    /**
+     * Reemplaza la serie de un paciente por la recibida en una instantánea
+     * de la réplica primaria, sin guardar el archivo. Retorna la serie.
+     */
+    public SerieVital aplicarReplicaSerie(JsonObject json) {
+        String idPaciente = json.get("idPaciente").getAsString();
+        SerieVital serie = SerieVital.desdeJson(json);
+        synchronized (almacen.candado(idPaciente)) {
+            instalarSerie(idPaciente, serie);
+        }
+        RegistroSalud ultimo = obtenerUltimoRegistro(idPaciente);
+        if (ultimo != null) {
+            notificar(new EventoCambio(EventoCambio.Tipo.REGISTRO_CREADO, ultimo.getIdRegistro(), ultimo));
+        }
+        return serie;
+    }
+    
+    /**
+     * Replica el retiro de un registro en la primaria. La retención siempre
+     * retira un prefijo de la serie, así que basta con retirar todo lo
+     * anterior al segundo siguiente a la fecha del registro.
+     */
+    public void eliminarReplica(JsonObject json) {
+        RegistroSalud registro = jsonToRegistro(json);
+        retirarRegistrosAntesDe(registro.getIdPaciente(),
+            LocalDateTime.ofEpochSecond(registro.getMarcaTiempo() + 1, 0, ZoneOffset.UTC));
+    }
+    
+    /**
+     * Agrega un lote de registros (JSON ya validado, ver ImportacionMasiva)
+     * con un solo guardado al final. Se agregan ordenados por paciente y
+     * fecha para que cada serie crezca al final sin recodificar bloques.
+     * A los que no traen ID, o traen uno que no supera al mayor ya usado
+     * o repetido en el lote, les asigna uno nuevo después del mayor ID
+     * explícito del lote. Retorna los agregados.
+     */
+    public synchronized List<RegistroSalud> agregarLote(List<JsonObject> lote) {
+        List<RegistroSalud> agregados = new ArrayList<>();
+        Set<String> vistos = new HashSet<>();
+        // Sin índice por ID, un ID explícito solo es seguro si supera a todos los usados
+        int tope = ultimoNumero.get();
+        List<JsonObject> sinId = new ArrayList<>();
+        int mayor = tope;
+        for (JsonObject json : lote) {
+            String id = json.has("idRegistro") ? json.get("idRegistro").getAsString() : null;
+            if (id == null || id.isEmpty() || Ids.numero(id) <= tope || !vistos.add(id)) {
+                sinId.add(json);
+            } else {
+                mayor = Math.max(mayor, Ids.numero(id));
+            }
+        }
+        // Los nuevos se numeran después de todos los explícitos, no solo de los ya vistos
+        ultimoNumero.accumulateAndGet(mayor, Math::max);
+        for (JsonObject json : sinId) {
+            String id;
+            do {
+                id = String.format("REG%05d", ultimoNumero.incrementAndGet());
+            } while (!vistos.add(id));
+            json.addProperty("idRegistro", id);
+        }
+        for (JsonObject json : lote) {
+            agregados.add(jsonToRegistro(json));
+        }
+        agregados.sort(Comparator.comparing(RegistroSalud::getIdPaciente)
+                                 .thenComparing(RegistroSalud::getFechaRegistro));
+        for (RegistroSalud registro : agregados) {
+            synchronized (almacen.candado(registro.getIdPaciente())) {
+                indexar(registro);
+            }
+        }
+        if (!agregados.isEmpty()) {
+            guardarRegistros();
+        }
+        for (RegistroSalud r : agregados) {
+            notificar(new EventoCambio(EventoCambio.Tipo.REGISTRO_CREADO, r.getIdRegistro(), r));
+        }
+        return agregados;
+    }
+    
+    /**
+     * Agrega el registro a la serie temporal de su paciente
+     */
+    private void indexar(RegistroSalud r) {
+        ultimoNumero.accumulateAndGet(Ids.numero(r.getIdRegistro()), Math::max);
+        series.computeIfAbsent(r.getIdPaciente(), k -> {
+            pacientesPorParticion.get(almacen.particion(k)).add(k);
+            return new SerieVital();
+        }).agregar(r);
+    }
+    
+    /**
+     * Deja la serie como la de ese paciente (carga o instantánea)
+     */
+    private void instalarSerie(String idPaciente, SerieVital serie) {
+        ultimoNumero.accumulateAndGet(serie.getNumeroMayor(), Math::max);
+        pacientesPorParticion.get(almacen.particion(idPaciente)).add(idPaciente);
+        series.put(idPaciente, serie);
+    }
+    
     /**
      * Obtiene el último registro de un paciente
      */
     public RegistroSalud obtenerUltimoRegistro(String idPaciente) {
-        List<RegistroSalud> regs = obtenerRegistrosPaciente(idPaciente);
-        if (regs.isEmpty()) {
-            return null;
-        }
-        
-        RegistroSalud ultimo = regs.get(0);
-        for (RegistroSalud r : regs) {
-            if (r.getFechaRegistro().compareTo(ultimo.getFechaRegistro()) > 0) {
-                ultimo = r;
+        long inicio = tiempoObtenerUltimoRegistro.iniciar();
+        try {
+            SerieVital serie = series.get(idPaciente);
+            if (serie == null) {
+                return null;
             }
+            SerieVital.Lector lector = serie.lectorUltimos(1);
+            return lector.siguiente() ? lector.registro(idPaciente) : null;
+        } finally {
+            tiempoObtenerUltimoRegistro.detener(inicio);
         }
-        return ultimo;
     }
     
     /**
      * Genera consejos de salud aleatorios
      */
     public List<String> generarConsej osSalud() {
-        List<String> todosConsejos = Arrays.asList(
-            "Bebe al menos 8 vasos de agua al día para mantenerte hidratado.",
-            "Realiza al menos 30 minutos de ejercicio moderado diariamente.",
-            "Duerme entre 7 y 8 horas cada noche para una recuperación óptima.",
-            "Consume 5 porciones de frutas y verduras al día.",
-            "Reduce el consumo de alimentos procesados y azúcares refinados.",
-            "Practica técnicas de relajación como meditación o yoga.",
-            "Mantén una postura correcta al sentarte y al caminar.",
-            "Lava tus manos frecuentemente para prevenir enfermedades.",
-            "Limita el tiempo frente a pantallas, especialmente antes de dormir.",
-            "Realiza chequeos médicos preventivos regularmente.",
-            "Evita el consumo excesivo de alcohol y tabaco.",
-            "Mantén un peso saludable según tu edad y estatura.",
-            "Cuida tu salud mental: habla con alguien si te sientes abrumado.",
-            "Protege tu piel del sol usando protector solar.",
-            "Mantén una rutina de higiene bucal adecuada."
-        );
+        long inicio = tiempoGenerarConsejosSalud.iniciar();
+        try {
+            List<String> todosConsejos = Arrays.asList(
+                "Bebe al menos 8 vasos de agua al día para mantenerte hidratado.",
+                "Realiza al menos 30 minutos de ejercicio moderado diariamente.",
+                "Duerme entre 7 y 8 horas cada noche para una recuperación óptima.",
+                "Consume 5 porciones de frutas y verduras al día.",
+                "Reduce el consumo de alimentos procesados y azúcares refinados.",
+                "Practica técnicas de relajación como meditación o yoga.",
+                "Mantén una postura correcta al sentarte y al caminar.",
+                "Lava tus manos frecuentemente para prevenir enfermedades.",
+                "Limita el tiempo frente a pantallas, especialmente antes de dormir.",
+                "Realiza chequeos médicos preventivos regularmente.",
+                "Evita el consumo excesivo de alcohol y tabaco.",
+                "Mantén un peso saludable según tu edad y estatura.",
+                "Cuida tu salud mental: habla con alguien si te sientes abrumado.",
+                "Protege tu piel del sol usando protector solar.",
+                "Mantén una rutina de higiene bucal adecuada."
+            );
         
-        Collections.shuffle(todosConsejos);
-        return todosConsejos.subList(0, Math.min(5, todosConsejos.size()));
+            Collections.shuffle(todosConsejos);
+            return todosConsejos.subList(0, Math.min(5, todosConsejos.size()));
+        } finally {
+            tiempoGenerarConsejosSalud.detener(inicio);
+        }
     }
     
     /**
      * Analiza las tendencias de salud de un paciente
      */
     public Map<String, String> analizarTendencias(String idPaciente) {
-        List<RegistroSalud> regs = obtenerRegistrosPaciente(idPaciente);
-        Map<String, String> analisis = new HashMap<>();
-        
-        if (regs.size() < 2) {
-            analisis.put("mensaje", "No hay suficientes registros para analizar tendencias");
-            return analisis;
-        }
+        long inicio = tiempoAnalizarTendencias.iniciar();
+        try {
+            Map<String, String> analisis = new HashMap<>();
+            SerieVital serie = series.get(idPaciente);
         
-        // Ordenar por fecha (del más reciente al más antiguo)
-        regs.sort((r1, r2) -> r2.getFechaRegistro().compareTo(r1.getFechaRegistro()));
-        
-        RegistroSalud ultimo = regs.get(0);
-        RegistroSalud anterior = regs.get(1);
+            if (serie == null || serie.tamano() < 2) {
+                analisis.put("mensaje", "No hay suficientes registros para analizar tendencias");
+                return analisis;
+            }
         
-        // Analizar presión arterial
-        if (ultimo.getPresionSistolica() > anterior.getPresionSistolica()) {
-            analisis.put("presion", "Aumentó");
-        } else if (ultimo.getPresionSistolica() < anterior.getPresionSistolica()) {
-            analisis.put("presion", "Disminuyó");
-        } else {
-            analisis.put("presion", "Se mantiene estable");
-        }
+            // Las dos lecturas más recientes, directamente del decodificador de la serie
+            double[] anterior = new double[SignoVital.values().length];
+            double[] ultimo = new double[SignoVital.values().length];
+            SerieVital.Lector lector = serie.lectorUltimos(2);
+            for (double[] destino : new double[][] {anterior, ultimo}) {
+                lector.siguiente();
+                for (SignoVital s : SignoVital.values()) {
+                    destino[s.ordinal()] = lector.valor(s);
+                }
+            }
         
-        // Analizar frecuencia cardíaca
-        if (ultimo.getFrecuenciaCardiaca() > anterior.getFrecuenciaCardiaca()) {
-            analisis.put("frecuencia", "Aumentó");
-        } else if (ultimo.getFrecuenciaCardiaca() < anterior.getFrecuenciaCardiaca()) {
-            analisis.put("frecuencia", "Disminuyó");
-        } else {
-            analisis.put("frecuencia", "Se mantiene estable");
-        }
+            analisis.put("presion", tendencia(ultimo, anterior, SignoVital.PRESION_SISTOLICA));
+            analisis.put("frecuencia", tendencia(ultimo, anterior, SignoVital.FRECUENCIA_CARDIACA));
+            analisis.put("temperatura", tendencia(ultimo, anterior, SignoVital.TEMPERATURA));
         
-        // Analizar temperatura
-        if (ultimo.getTemperatura() > anterior.getTemperatura()) {
-            analisis.put("temperatura", "Aumentó");
-        } else if (ultimo.getTemperatura() < anterior.getTemperatura()) {
-            analisis.put("temperatura", "Disminuyó");
-        } else {
-            analisis.put("temperatura", "Se mantiene estable");
+            return analisis;
+        } finally {
+            tiempoAnalizarTendencias.detener(inicio);
         }
-        
-        return analisis;
     }
 }
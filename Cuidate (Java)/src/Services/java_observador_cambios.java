@@ -0,0 +1,8 @@
+package services;
+
+/**
+ * Recibe los eventos de cambio de un servicio
+ */
+public interface ObservadorCambios {
+    void alCambiar(EventoCambio evento);
+}
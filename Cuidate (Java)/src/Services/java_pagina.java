@@ -0,0 +1,73 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Página de resultados con cursor de continuación
+ *
+ * El cursor codifica la última clave entregada (paginación por clave), así
+ * que pedir la siguiente página no depende de desplazamientos y no se
+ * repiten ni se saltan elementos aunque se agreguen nuevos entre llamadas.
+ */
+public class Pagina<T> {
+    private final List<T> elementos;
+    private final String siguienteCursor;
+    
+    public Pagina(List<T> elementos, String siguienteCursor) {
+        this.elementos = elementos;
+        this.siguienteCursor = siguienteCursor;
+    }
+    
+    // Getters
+    public List<T> getElementos() { return elementos; }
+    public String getSiguienteCursor() { return siguienteCursor; }
+    
+    /**
+     * Indica si hay más resultados después de esta página
+     */
+    public boolean haySiguiente() {
+        return siguienteCursor != null;
+    }
+    
+    /**
+     * Construye una página recorriendo un índice ordenado de claves a
+     * partir del cursor. Solo se resuelven las claves que se entregan.
+     */
+    public static <T> Pagina<T> desdeIndice(NavigableSet<String> claves, Function<String, T> resolver,
+                                            Predicate<T> filtro, String cursor, int tamano) {
+        if (tamano <= 0) {
+            throw new IllegalArgumentException("El tamaño de página debe ser positivo");
+        }
+        
+        NavigableSet<String> resto = cursor == null || cursor.isEmpty()
+            ? claves
+            : claves.tailSet(decodificarCursor(cursor), false);
+        
+        List<T> elementos = new ArrayList<>();
+        String ultima = null;
+        for (String clave : resto) {
+            T elemento = resolver.apply(clave);
+            if (elemento == null || (filtro != null && !filtro.test(elemento))) {
+                continue;
+            }
+            if (elementos.size() == tamano) {
+                return new Pagina<>(elementos, codificarCursor(ultima));
+            }
+            elementos.add(elemento);
+            ultima = clave;
+        }
+        return new Pagina<>(elementos, null);
+    }
+    
+    static String codificarCursor(String clave) {
+        return Base64.getUrlEncoder().withoutPadding()
+                     .encodeToString(clave.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    static String decodificarCursor(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+package services;
+
+import utils.Metricas;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Reintenta operaciones de lectura-modificación-escritura que fallan con
+ * ConflictoVersion
+ *
+ * La operación debe volver a leer la entidad en cada intento, así su
+ * cambio se aplica sobre la versión más reciente. Entre intentos espera
+ * un tiempo aleatorio que se duplica con cada conflicto, para que los
+ * escritores que chocaron no vuelvan a chocar en el mismo instante.
+ */
+public final class Reintentos {
+    public static final int INTENTOS = 8;
+    private static final long ESPERA_BASE_NANOS = 50_000;
+    private static final Metricas.Contador reintentos = Metricas.contador("versiones.reintentos");
+    
+    private Reintentos() {
+    }
+    
+    /**
+     * Ejecuta la operación hasta INTENTOS veces; si sigue en conflicto
+     * propaga el último ConflictoVersion
+     */
+    public static <T> T obtener(Supplier<T> operacion) {
+        return obtener(INTENTOS, operacion);
+    }
+    
+    public static <T> T obtener(int intentos, Supplier<T> operacion) {
+        for (int intento = 1; ; intento++) {
+            try {
+                return operacion.get();
+            } catch (ConflictoVersion e) {
+                if (intento >= intentos) {
+                    throw e;
+                }
+                reintentos.incrementar();
+                long tope = ESPERA_BASE_NANOS << Math.min(intento, 10);
+                LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(tope / 2, tope));
+            }
+        }
+    }
+    
+    /**
+     * Como obtener, para operaciones sin resultado
+     */
+    public static void ejecutar(Runnable operacion) {
+        obtener(INTENTOS, () -> {
+            operacion.run();
+            return null;
+        });
+    }
+}
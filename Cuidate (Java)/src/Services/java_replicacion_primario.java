@@ -0,0 +1,320 @@
+package services;
+
+import models.Consulta;
+import models.RegistroSalud;
+import models.Usuario;
+import utils.Hilos;
+import utils.Metricas;
+import com.google.gson.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lado primario de la replicación por envío de bitácora
+ *
+ * Se suscribe al bus de eventos y convierte cada cambio en una línea JSON
+ * numerada de la bitácora de replicación, que guarda en un anillo con las
+ * últimas líneas. Cada seguidor que se conecta por TCP envía la época y la
+ * última secuencia que aplicó: si sigue dentro del anillo recibe solo lo
+ * que le falta; si no (primera vez, primaria reiniciada o se quedó muy
+ * atrás) recibe una instantánea completa y luego la bitácora en vivo.
+ *
+ * La bitácora lleva todos los datos, contraseñas incluidas: por omisión
+ * solo se escucha en la interfaz local (-Dcuidate.replicacion.host para
+ * otra) y el saludo debe traer el secreto compartido con los seguidores;
+ * si no coincide se cierra la conexión sin enviar nada.
+ *
+ * Protocolo, una línea JSON por mensaje:
+ *   seguidor -> {"epoca": E, "secuencia": S, "secreto": "..."}
+ *   primaria -> {"tipo": "REANUDAR", "epoca": E}
+ *             | {"tipo": "INSTANTANEA", "epoca": E} + entidades + {"tipo": "FIN_INSTANTANEA", "secuencia": S}
+ *             (los registros van como SERIE_REGISTROS, una serie comprimida por paciente)
+ *   primaria -> {"secuencia": S, "tipo": EventoCambio.Tipo, "entidad": {...}} ...
+ *   primaria -> {"tipo": "LATIDO", "secuencia": S} cada segundo sin cambios
+ */
+public class ReplicacionPrimario implements ObservadorCambios {
+    private static final Gson gson = new Gson();
+    private static final Metricas.Contador lineasEnviadas = Metricas.contador("replicacion.lineasEnviadas");
+    private static final Metricas.Contador instantaneas = Metricas.contador("replicacion.instantaneas");
+    private static final Metricas.Contador rechazados = Metricas.contador("replicacion.rechazados");
+    private static final int LOTE = 512;
+    private static final long LATIDO_MILLIS = 1000;
+    private static final int SALUDO_MILLIS = 5000;
+
+    private final GestionUsuarios gestionUsuarios;
+    private final GestionConsultas gestionConsultas;
+    private final MonitoreoSalud monitoreo;
+    private final long epoca;
+    private final String[] bitacora;
+    private long ultimaSecuencia;
+    private final AtomicInteger seguidores;
+    private byte[] secreto;
+    private ServerSocket servidor;
+    private ExecutorService ejecutor;
+    private BusEventos.Suscripcion suscripcion;
+
+    public ReplicacionPrimario(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                               MonitoreoSalud monitoreo, int capacidadBitacora) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.gestionConsultas = gestionConsultas;
+        this.monitoreo = monitoreo;
+        this.epoca = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        this.bitacora = new String[capacidadBitacora];
+        this.seguidores = new AtomicInteger();
+        Metricas.medidor("replicacion.seguidores", seguidores::get);
+        Metricas.medidor("replicacion.secuencia", this::getUltimaSecuencia);
+    }
+
+    public long getEpoca() {
+        return epoca;
+    }
+
+    public synchronized long getUltimaSecuencia() {
+        return ultimaSecuencia;
+    }
+
+    public int getSeguidores() {
+        return seguidores.get();
+    }
+
+    /**
+     * Se suscribe al bus y empieza a aceptar, en la dirección y el puerto
+     * indicados, seguidores que saluden con el secreto
+     */
+    public void iniciar(BusEventos bus, String host, int puerto, String secreto) throws IOException {
+        if (secreto == null || secreto.isEmpty()) {
+            throw new IllegalArgumentException("La replicación requiere un secreto compartido");
+        }
+        this.secreto = secreto.getBytes(StandardCharsets.UTF_8);
+        servidor = new ServerSocket();
+        servidor.bind(new InetSocketAddress(InetAddress.getByName(host), puerto));
+        suscripcion = bus.suscribir("replicacion", this);
+        ejecutor = Hilos.ejecutorPorTarea("replicacion");
+        ejecutor.submit(this::aceptar);
+    }
+
+    public int getPuerto() {
+        return servidor.getLocalPort();
+    }
+
+    /**
+     * Deja de aceptar seguidores y cierra las conexiones abiertas
+     */
+    public void detener() {
+        if (suscripcion != null) {
+            suscripcion.close();
+        }
+        try {
+            if (servidor != null) {
+                servidor.close();
+            }
+        } catch (IOException e) {
+            // Ya estaba cerrado
+        }
+        if (ejecutor != null) {
+            ejecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Agrega el cambio a la bitácora (lo llama el hilo del bus)
+     */
+    @Override
+    public void alCambiar(EventoCambio evento) {
+        JsonObject entidad = entidadToJson(evento.getEntidad());
+        if (entidad == null) {
+            return;
+        }
+        JsonObject linea = new JsonObject();
+        synchronized (this) {
+            long secuencia = ultimaSecuencia + 1;
+            linea.addProperty("secuencia", secuencia);
+            linea.addProperty("tipo", evento.getTipo().name());
+            linea.add("entidad", entidad);
+            bitacora[(int) (secuencia % bitacora.length)] = gson.toJson(linea);
+            ultimaSecuencia = secuencia;
+            notifyAll();
+        }
+    }
+
+    private static JsonObject entidadToJson(Object entidad) {
+        if (entidad instanceof Usuario) {
+            return GestionUsuarios.usuarioToJson((Usuario) entidad);
+        } else if (entidad instanceof Consulta) {
+            return GestionConsultas.consultaToJson((Consulta) entidad);
+        } else if (entidad instanceof RegistroSalud) {
+            return MonitoreoSalud.registroToJson((RegistroSalud) entidad);
+        }
+        return null;
+    }
+
+    /**
+     * Líneas posteriores a la secuencia indicada (a lo sumo LOTE). Espera
+     * hasta el tiempo indicado si no hay nada nuevo; retorna null si la
+     * secuencia ya salió del anillo.
+     */
+    private synchronized List<String> leerDesde(long secuencia, long esperaMillis) throws InterruptedException {
+        if (secuencia >= ultimaSecuencia) {
+            wait(esperaMillis);
+        }
+        if (ultimaSecuencia - secuencia > bitacora.length) {
+            return null;
+        }
+        List<String> lineas = new ArrayList<>();
+        for (long s = secuencia + 1; s <= ultimaSecuencia && lineas.size() < LOTE; s++) {
+            lineas.add(bitacora[(int) (s % bitacora.length)]);
+        }
+        return lineas;
+    }
+
+    private void aceptar() {
+        while (!servidor.isClosed()) {
+            try {
+                Socket socket = servidor.accept();
+                ejecutor.submit(() -> atender(socket));
+            } catch (IOException e) {
+                if (servidor.isClosed()) {
+                    return;
+                }
+                System.err.println("Error al aceptar seguidor: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Envía a un seguidor lo que le falta y después la bitácora en vivo
+     */
+    private void atender(Socket socket) {
+        seguidores.incrementAndGet();
+        try (socket;
+             BufferedReader entrada = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer salida = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            // Quien no saluda a tiempo no retiene el hilo
+            socket.setSoTimeout(SALUDO_MILLIS);
+            String textoSaludo = entrada.readLine();
+            if (textoSaludo == null) {
+                return;
+            }
+            JsonObject saludo = JsonParser.parseString(textoSaludo).getAsJsonObject();
+            if (!autorizado(saludo)) {
+                rechazados.incrementar();
+                System.err.println("Seguidor rechazado desde " + socket.getRemoteSocketAddress()
+                                   + ": secreto incorrecto");
+                return;
+            }
+            socket.setSoTimeout(0);
+            long enviada = saludo.get("secuencia").getAsLong();
+            boolean reanudar = saludo.get("epoca").getAsLong() == epoca
+                               && enviada <= getUltimaSecuencia()
+                               && getUltimaSecuencia() - enviada <= bitacora.length;
+
+            if (reanudar) {
+                escribir(salida, control("REANUDAR"));
+            } else {
+                enviada = enviarInstantanea(salida);
+            }
+            salida.flush();
+
+            while (!socket.isClosed()) {
+                List<String> lineas = leerDesde(enviada, LATIDO_MILLIS);
+                if (lineas == null) {
+                    // Se quedó una vuelta atrás: al reconectar recibirá una instantánea
+                    return;
+                }
+                if (lineas.isEmpty()) {
+                    JsonObject latido = control("LATIDO");
+                    latido.addProperty("secuencia", enviada);
+                    escribir(salida, latido);
+                }
+                for (String linea : lineas) {
+                    salida.write(linea);
+                    salida.write('\n');
+                }
+                salida.flush();
+                enviada += lineas.size();
+                lineasEnviadas.sumar(lineas.size());
+            }
+        } catch (SocketException | EOFException e) {
+            // El seguidor se desconectó
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error de replicación: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            seguidores.decrementAndGet();
+        }
+    }
+
+    /**
+     * Compara el secreto del saludo en tiempo constante
+     */
+    private boolean autorizado(JsonObject saludo) {
+        if (!saludo.has("secreto") || !saludo.get("secreto").isJsonPrimitive()) {
+            return false;
+        }
+        return MessageDigest.isEqual(secreto, saludo.get("secreto").getAsString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Envía el estado completo. La secuencia se toma antes de recorrer los
+     * servicios: lo que cambie mientras tanto se vuelve a enviar después,
+     * y aplicar una entidad dos veces no altera el resultado.
+     */
+    private long enviarInstantanea(Writer salida) throws IOException {
+        instantaneas.incrementar();
+        long desde = getUltimaSecuencia();
+        escribir(salida, control("INSTANTANEA"));
+        for (Usuario u : gestionUsuarios.obtenerMedicos()) {
+            escribir(salida, entidad(EventoCambio.Tipo.USUARIO_CREADO, GestionUsuarios.usuarioToJson(u)));
+        }
+        for (Usuario u : gestionUsuarios.obtenerPacientes()) {
+            escribir(salida, entidad(EventoCambio.Tipo.USUARIO_CREADO, GestionUsuarios.usuarioToJson(u)));
+        }
+        for (Consulta c : (Iterable<Consulta>) gestionConsultas.streamConsultas()::iterator) {
+            escribir(salida, entidad(EventoCambio.Tipo.CONSULTA_CREADA, GestionConsultas.consultaToJson(c)));
+        }
+        // Las lecturas viajan como la serie comprimida de cada paciente
+        for (String idPaciente : monitoreo.pacientesConRegistros()) {
+            JsonObject serie = monitoreo.serieToJson(idPaciente);
+            if (serie != null) {
+                escribir(salida, entidad(EventoCambio.Tipo.SERIE_REGISTROS, serie));
+            }
+        }
+        JsonObject fin = control("FIN_INSTANTANEA");
+        fin.addProperty("secuencia", desde);
+        escribir(salida, fin);
+        return desde;
+    }
+
+    private JsonObject control(String tipo) {
+        JsonObject json = new JsonObject();
+        json.addProperty("tipo", tipo);
+        json.addProperty("epoca", epoca);
+        return json;
+    }
+
+    private static JsonObject entidad(EventoCambio.Tipo tipo, JsonObject entidad) {
+        JsonObject json = new JsonObject();
+        json.addProperty("tipo", tipo.name());
+        json.add("entidad", entidad);
+        return json;
+    }
+
+    private static void escribir(Writer salida, JsonObject json) throws IOException {
+        salida.write(gson.toJson(json));
+        salida.write('\n');
+    }
+}
@@ -0,0 +1,273 @@
+package services;
+
+import models.RegistroSalud;
+import utils.Hilos;
+import utils.Metricas;
+import com.google.gson.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lado seguidor de la replicación por envío de bitácora
+ *
+ * Se conecta a la primaria (ver ReplicacionPrimario), aplica cada línea
+ * sobre sus propios servicios con aplicarReplica y guarda los archivos
+ * cuando no queda nada por leer. Si la conexión se cae reintenta cada
+ * pocos segundos y retoma desde la última secuencia aplicada.
+ *
+ * Una instantánea se aplica sobre el estado que ya había. La primaria
+ * nunca borra usuarios ni consultas, así que basta con sobrescribirlos;
+ * los registros que la retención retiró mientras tanto se barren al
+ * terminarla (ver barrerRegistros).
+ *
+ * Los servicios del seguidor solo deben usarse para lectura (el servidor
+ * de la API se inicia con setSoloLectura). Para conmutar, basta con
+ * iniciar el nodo como primaria sobre el mismo directorio de datos.
+ */
+public class ReplicacionSeguidor {
+    private static final Metricas.Contador lineasAplicadas = Metricas.contador("replicacion.lineasAplicadas");
+    private static final long REINTENTO_MILLIS = 2000;
+
+    private final GestionUsuarios gestionUsuarios;
+    private final GestionConsultas gestionConsultas;
+    private final MonitoreoSalud monitoreo;
+    private final String host;
+    private final int puerto;
+    private final String secreto;
+    private volatile long epoca;
+    private volatile long secuencia;
+    private volatile long secuenciaPrimaria;
+    private volatile boolean conectado;
+    private volatile boolean activo;
+    private Thread hilo;
+    private Socket socket;
+    private boolean usuariosPendientes;
+    private boolean consultasPendientes;
+    private boolean registrosPendientes;
+    // Primer segundo recibido por paciente durante una instantánea
+    private Map<String, Long> inicioInstantanea;
+
+    public ReplicacionSeguidor(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                               MonitoreoSalud monitoreo, String host, int puerto, String secreto) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.gestionConsultas = gestionConsultas;
+        this.monitoreo = monitoreo;
+        this.host = host;
+        this.puerto = puerto;
+        this.secreto = secreto;
+        Metricas.medidor("replicacion.retraso", this::getRetraso);
+    }
+
+    // Getters
+    public long getSecuencia() { return secuencia; }
+    public boolean isConectado() { return conectado; }
+
+    /**
+     * Cambios que la primaria anunció y que todavía no se aplicaron
+     */
+    public long getRetraso() {
+        return Math.max(0, secuenciaPrimaria - secuencia);
+    }
+
+    /**
+     * Inicia el hilo que se conecta a la primaria y aplica la bitácora
+     */
+    public void iniciar() {
+        activo = true;
+        hilo = Hilos.fabrica("seguidor").newThread(this::ejecutar);
+        hilo.start();
+    }
+
+    public void detener() {
+        activo = false;
+        cerrarSocket();
+        if (hilo != null) {
+            hilo.interrupt();
+        }
+    }
+
+    /**
+     * Espera hasta haber aplicado la secuencia indicada de la primaria
+     */
+    public boolean esperarSecuencia(long objetivo, long timeoutMillis) throws InterruptedException {
+        long limite = System.currentTimeMillis() + timeoutMillis;
+        while (secuencia < objetivo) {
+            if (System.currentTimeMillis() > limite) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void ejecutar() {
+        while (activo) {
+            try {
+                conectar();
+            } catch (IOException | RuntimeException e) {
+                if (activo) {
+                    System.err.println("Replicación desconectada: " + e.getMessage());
+                }
+            } finally {
+                conectado = false;
+                cerrarSocket();
+                guardarPendientes();
+            }
+            try {
+                Thread.sleep(REINTENTO_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void conectar() throws IOException {
+        Socket s = new Socket();
+        synchronized (this) {
+            socket = s;
+        }
+        s.connect(new InetSocketAddress(host, puerto), 5000);
+        BufferedReader entrada = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        Writer salida = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+
+        JsonObject saludo = new JsonObject();
+        saludo.addProperty("epoca", epoca);
+        saludo.addProperty("secuencia", secuencia);
+        saludo.addProperty("secreto", secreto);
+        salida.write(saludo + "\n");
+        salida.flush();
+        conectado = true;
+
+        boolean enInstantanea = false;
+        long epocaInstantanea = 0;
+        String texto;
+        while (activo && (texto = entrada.readLine()) != null) {
+            JsonObject linea = JsonParser.parseString(texto).getAsJsonObject();
+            String tipo = linea.get("tipo").getAsString();
+            switch (tipo) {
+                case "INSTANTANEA":
+                    // Hasta terminarla no se puede reanudar: una instantánea cortada pide otra
+                    enInstantanea = true;
+                    epoca = 0;
+                    secuenciaPrimaria = 0;
+                    epocaInstantanea = linea.get("epoca").getAsLong();
+                    inicioInstantanea = new HashMap<>();
+                    break;
+                case "FIN_INSTANTANEA":
+                    barrerRegistros();
+                    enInstantanea = false;
+                    epoca = epocaInstantanea;
+                    secuencia = linea.get("secuencia").getAsLong();
+                    secuenciaPrimaria = Math.max(secuenciaPrimaria, secuencia);
+                    break;
+                case "REANUDAR":
+                    break;
+                case "LATIDO":
+                    secuenciaPrimaria = linea.get("secuencia").getAsLong();
+                    break;
+                default:
+                    aplicar(EventoCambio.Tipo.valueOf(tipo), linea.getAsJsonObject("entidad"));
+                    if (linea.has("secuencia")) {
+                        secuencia = linea.get("secuencia").getAsLong();
+                        secuenciaPrimaria = Math.max(secuenciaPrimaria, secuencia);
+                    }
+            }
+            if (!enInstantanea && !entrada.ready()) {
+                guardarPendientes();
+            }
+        }
+    }
+
+    private void aplicar(EventoCambio.Tipo tipo, JsonObject entidad) {
+        switch (tipo) {
+            case USUARIO_CREADO:
+            case USUARIO_ACTUALIZADO:
+                gestionUsuarios.aplicarReplica(entidad);
+                usuariosPendientes = true;
+                break;
+            case CONSULTA_CREADA:
+            case CONSULTA_ACTUALIZADA:
+                gestionConsultas.aplicarReplica(entidad);
+                consultasPendientes = true;
+                break;
+            case REGISTRO_CREADO:
+                RegistroSalud registro = monitoreo.aplicarReplica(entidad);
+                if (inicioInstantanea != null) {
+                    inicioInstantanea.merge(registro.getIdPaciente(), registro.getMarcaTiempo(), Math::min);
+                }
+                registrosPendientes = true;
+                break;
+            case REGISTRO_ELIMINADO:
+                monitoreo.eliminarReplica(entidad);
+                registrosPendientes = true;
+                break;
+            case SERIE_REGISTROS:
+                SerieVital serie = monitoreo.aplicarReplicaSerie(entidad);
+                if (inicioInstantanea != null && serie.tamano() > 0) {
+                    inicioInstantanea.merge(entidad.get("idPaciente").getAsString(), serie.tiempoInicial(), Math::min);
+                }
+                registrosPendientes = true;
+                break;
+        }
+        lineasAplicadas.incrementar();
+    }
+
+    /**
+     * Retira los registros que la instantánea no trajo: los anteriores al
+     * primero recibido de cada paciente, o todos si no recibió ninguno.
+     * La retención siempre retira un prefijo de la serie, así que lo que
+     * falta al principio es lo que la primaria ya eliminó.
+     */
+    private void barrerRegistros() {
+        Map<String, Long> inicio = inicioInstantanea;
+        inicioInstantanea = null;
+        if (inicio == null) {
+            return;
+        }
+        for (String idPaciente : new ArrayList<>(monitoreo.pacientesConRegistros())) {
+            Long primero = inicio.get(idPaciente);
+            LocalDateTime limite = primero == null
+                ? LocalDateTime.MAX
+                : LocalDateTime.ofEpochSecond(primero, 0, ZoneOffset.UTC);
+            if (!monitoreo.retirarRegistrosAntesDe(idPaciente, limite).isEmpty()) {
+                registrosPendientes = true;
+            }
+        }
+    }
+
+    /**
+     * Guarda los archivos de los servicios que recibieron cambios
+     */
+    private void guardarPendientes() {
+        if (usuariosPendientes) {
+            gestionUsuarios.guardarUsuarios();
+            usuariosPendientes = false;
+        }
+        if (consultasPendientes) {
+            gestionConsultas.guardarConsultas();
+            consultasPendientes = false;
+        }
+        if (registrosPendientes) {
+            monitoreo.guardarRegistros();
+            registrosPendientes = false;
+        }
+    }
+
+    private synchronized void cerrarSocket() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Ya estaba cerrado
+        }
+    }
+}
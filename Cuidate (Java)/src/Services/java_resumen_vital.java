@@ -0,0 +1,110 @@
+package services;
+
+import models.RegistroSalud;
+import models.SignoVital;
+
+/**
+ * Resumen (rollup) de los signos vitales de un paciente en una hora o un día
+ *
+ * Guarda mínimo, máximo y suma de cada signo, así dos resúmenes del mismo
+ * periodo se pueden combinar sin perder precisión en el promedio.
+ */
+public class ResumenVital {
+    public enum Nivel {
+        HORA(3600),
+        DIA(86400);
+
+        private final long segundos;
+
+        Nivel(long segundos) {
+            this.segundos = segundos;
+        }
+
+        public long getSegundos() { return segundos; }
+
+        /**
+         * Inicio del periodo que contiene la marca de tiempo
+         */
+        public long inicioPeriodo(long marcaTiempo) {
+            return Math.floorDiv(marcaTiempo, segundos) * segundos;
+        }
+    }
+
+    private final String idPaciente;
+    private final Nivel nivel;
+    private final long inicio;
+    private int cantidad;
+    private final double[] minimo;
+    private final double[] maximo;
+    private final double[] suma;
+
+    public ResumenVital(String idPaciente, Nivel nivel, long inicio) {
+        int signos = SignoVital.values().length;
+        this.idPaciente = idPaciente;
+        this.nivel = nivel;
+        this.inicio = inicio;
+        this.cantidad = 0;
+        this.minimo = new double[signos];
+        this.maximo = new double[signos];
+        this.suma = new double[signos];
+    }
+
+    // Getters
+    public String getIdPaciente() { return idPaciente; }
+    public Nivel getNivel() { return nivel; }
+    public long getInicio() { return inicio; }
+    public int getCantidad() { return cantidad; }
+    public double getMinimo(SignoVital s) { return minimo[s.ordinal()]; }
+    public double getMaximo(SignoVital s) { return maximo[s.ordinal()]; }
+    public double getSuma(SignoVital s) { return suma[s.ordinal()]; }
+
+    public double getPromedio(SignoVital s) {
+        return cantidad > 0 ? suma[s.ordinal()] / cantidad : 0;
+    }
+
+    /**
+     * Incorpora una lectura al resumen
+     */
+    public void agregar(RegistroSalud r) {
+        for (SignoVital s : SignoVital.values()) {
+            double v = s.valor(r);
+            acumular(s.ordinal(), v, v, v);
+        }
+        cantidad++;
+    }
+
+    /**
+     * Incorpora otro resumen (de un periodo igual o contenido en este)
+     */
+    public void combinar(ResumenVital otro) {
+        if (otro.cantidad == 0) {
+            return;
+        }
+        for (int i = 0; i < suma.length; i++) {
+            acumular(i, otro.minimo[i], otro.maximo[i], otro.suma[i]);
+        }
+        cantidad += otro.cantidad;
+    }
+
+    /**
+     * Restaura los valores de un signo (al leer un resumen guardado)
+     */
+    public void restaurar(SignoVital s, double minimo, double maximo, double suma, int cantidad) {
+        int i = s.ordinal();
+        this.minimo[i] = minimo;
+        this.maximo[i] = maximo;
+        this.suma[i] = suma;
+        this.cantidad = cantidad;
+    }
+
+    private void acumular(int i, double min, double max, double total) {
+        if (cantidad == 0) {
+            minimo[i] = min;
+            maximo[i] = max;
+        } else {
+            minimo[i] = Math.min(minimo[i], min);
+            maximo[i] = Math.max(maximo[i], max);
+        }
+        suma[i] += total;
+    }
+}
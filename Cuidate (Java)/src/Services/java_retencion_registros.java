@@ -0,0 +1,570 @@
+package services;
+
+import models.RegistroSalud;
+import models.SignoVital;
+import utils.Hilos;
+import utils.JsonUtil;
+import utils.Metricas;
+import com.google.gson.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Política de retención por niveles para los registros de salud
+ *
+ *   - Los registros crudos se conservan "diasCrudos" días en MonitoreoSalud.
+ *   - Después se reemplazan por resúmenes por hora (mínimo, máximo y
+ *     promedio de cada signo), que se conservan "diasHorarios" días.
+ *   - Los resúmenes por hora más antiguos se agrupan en resúmenes por día,
+ *     que se conservan "diasCalientes" días.
+ *   - Los resúmenes diarios más antiguos pasan al nivel frío: segmentos
+ *     numerados de JSON por líneas comprimidos con GZIP, uno por pasada
+ *     ("resumenes_frio_000001.jsonl.gz"...). Cada segmento se escribe
+ *     entero y se mueve a su nombre de forma atómica, nunca se modifica.
+ *
+ * La compactación es incremental: cada pasada procesa un lote de pacientes
+ * y la siguiente continúa donde quedó la anterior, así el trabajo por
+ * pasada queda acotado aunque haya muchos pacientes.
+ *
+ * Cada pasada guarda primero los resúmenes, con los diarios que van al
+ * nivel frío apartados como segmento pendiente bajo su número; después
+ * escribe ese segmento y solo al final retira los crudos y guarda el
+ * archivo de registros: si se corta a mitad de camino nunca se pierde un
+ * dato, y un segmento pendiente que sobrevive a un corte se vuelve a
+ * escribir con el mismo número, sin duplicarse. Para no resumir dos veces los
+ * crudos que sobrevivieron a un corte, los resúmenes guardan hasta dónde
+ * se compactó cada paciente y lo anterior se descarta sin volver a sumar.
+ */
+public class RetencionRegistros {
+    private static final Metricas.Temporizador tiempoCompactar =
+        Metricas.temporizador("retencion.compactar");
+    private static final Metricas.Contador registrosCompactados =
+        Metricas.contador("retencion.registrosCompactados");
+    private static final Metricas.Contador resumenesArchivados =
+        Metricas.contador("retencion.resumenesArchivados");
+    private static final DateTimeFormatter formatter =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Clave del segmento pendiente en el archivo de resúmenes (no es un ID de paciente)
+    private static final String CLAVE_PENDIENTE = "pendienteFrio";
+
+    private final MonitoreoSalud monitoreo;
+    private final int diasCrudos;
+    private final int diasHorarios;
+    private final int diasCalientes;
+    private final String archivoResumenes;
+    private final String archivoFrio;
+    private final ConcurrentNavigableMap<String, NavigableMap<Long, ResumenVital>> horarios;
+    private final ConcurrentNavigableMap<String, NavigableMap<Long, ResumenVital>> diarios;
+    // Segundo hasta el que ya se resumieron los crudos de cada paciente
+    private final Map<String, Long> compactadoHasta;
+    // "data/resumenes_frio.jsonl.gz" -> "resumenes_frio" y ".jsonl.gz"
+    private final String raizSegmento;
+    private final String extensionSegmento;
+    private final Pattern patronSegmento;
+    private SegmentoFrio pendiente;
+    private int siguienteSegmento;
+    private String ultimoPaciente;
+    private ScheduledExecutorService programador;
+
+    /**
+     * Resúmenes diarios apartados para un segmento del nivel frío que
+     * todavía no está escrito
+     */
+    private static final class SegmentoFrio {
+        final int numero;
+        final List<ResumenVital> resumenes;
+        // Si ya figura en el archivo de resúmenes
+        boolean guardado;
+
+        SegmentoFrio(int numero, List<ResumenVital> resumenes) {
+            this.numero = numero;
+            this.resumenes = resumenes;
+        }
+    }
+
+    public RetencionRegistros(MonitoreoSalud monitoreo, int diasCrudos, int diasHorarios,
+                              int diasCalientes, String archivoResumenes, String archivoFrio) {
+        if (diasCrudos < 0 || diasHorarios < diasCrudos || diasCalientes < diasHorarios) {
+            throw new IllegalArgumentException("Los plazos deben ser crecientes: crudos <= horarios <= calientes");
+        }
+        this.monitoreo = monitoreo;
+        this.diasCrudos = diasCrudos;
+        this.diasHorarios = diasHorarios;
+        this.diasCalientes = diasCalientes;
+        this.archivoResumenes = archivoResumenes;
+        this.archivoFrio = archivoFrio;
+        this.horarios = new ConcurrentSkipListMap<>();
+        this.diarios = new ConcurrentSkipListMap<>();
+        this.compactadoHasta = new ConcurrentHashMap<>();
+        File base = new File(archivoFrio);
+        int punto = base.getName().indexOf('.');
+        this.raizSegmento = punto > 0 ? base.getName().substring(0, punto) : base.getName();
+        this.extensionSegmento = punto > 0 ? base.getName().substring(punto) : "";
+        this.patronSegmento = Pattern.compile(Pattern.quote(raizSegmento) + "_(\\d+)"
+                                              + Pattern.quote(extensionSegmento));
+        this.ultimoPaciente = null;
+        cargarResumenes();
+        this.siguienteSegmento = 1;
+        for (int numero : segmentosFrio().keySet()) {
+            siguienteSegmento = Math.max(siguienteSegmento, numero + 1);
+        }
+        if (pendiente != null) {
+            siguienteSegmento = Math.max(siguienteSegmento, pendiente.numero + 1);
+        }
+    }
+
+    public RetencionRegistros(MonitoreoSalud monitoreo) {
+        this(monitoreo, 30, 90, 365, "data/resumenes.json", "data/resumenes_frio.jsonl.gz");
+    }
+
+    /**
+     * Inicia la compactación periódica en segundo plano
+     */
+    public synchronized void iniciar(long periodoMinutos, int lote) {
+        if (programador != null) {
+            return;
+        }
+        programador = Executors.newSingleThreadScheduledExecutor(Hilos.fabrica("retencion"));
+        programador.scheduleWithFixedDelay(() -> {
+            try {
+                compactar(lote);
+            } catch (RuntimeException e) {
+                System.err.println("Error en la compactación de registros: " + e.getMessage());
+            }
+        }, periodoMinutos, periodoMinutos, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Detiene la compactación periódica
+     */
+    public synchronized void detener() {
+        if (programador != null) {
+            programador.shutdownNow();
+            programador = null;
+        }
+    }
+
+    /**
+     * Ejecuta una pasada de compactación sobre el siguiente lote de pacientes
+     * y retorna cuántos pacientes procesó
+     */
+    public int compactar(int lote) {
+        return compactar(lote, LocalDateTime.now());
+    }
+
+    public synchronized int compactar(int lote, LocalDateTime ahora) {
+        long inicio = tiempoCompactar.iniciar();
+        try {
+            // Los cortes se alinean a la hora y al día para no partir un periodo entre niveles
+            long ahoraSeg = RegistroSalud.aSegundos(ahora);
+            long corteCrudos = ResumenVital.Nivel.HORA.inicioPeriodo(ahoraSeg - diasCrudos * 86400L);
+            long corteHorarios = ResumenVital.Nivel.DIA.inicioPeriodo(ahoraSeg - diasHorarios * 86400L);
+            long corteCalientes = ResumenVital.Nivel.DIA.inicioPeriodo(ahoraSeg - diasCalientes * 86400L);
+
+            List<String> pacientes = siguienteLote(lote);
+            LocalDateTime limiteCrudos = LocalDateTime.ofEpochSecond(corteCrudos, 0, ZoneOffset.UTC);
+            Map<String, Long> hastaAnterior = new HashMap<>();
+            Set<String> resumidos = new HashSet<>();
+            boolean resumenesCambiados = false;
+            List<ResumenVital> paraArchivar = new ArrayList<>();
+
+            for (String idPaciente : pacientes) {
+                // Se resumen sin retirarlos: los crudos salen de memoria después de guardar los resúmenes
+                Long hasta = compactadoHasta.get(idPaciente);
+                hastaAnterior.put(idPaciente, hasta != null ? hasta : Long.MIN_VALUE);
+                if (hasta == null || hasta < corteCrudos) {
+                    List<RegistroSalud> crudos = monitoreo.obtenerRegistrosRango(idPaciente,
+                        hasta != null ? LocalDateTime.ofEpochSecond(hasta, 0, ZoneOffset.UTC) : LocalDateTime.MIN,
+                        limiteCrudos);
+                    if (!crudos.isEmpty()) {
+                        resumir(idPaciente, crudos, resumidos);
+                        compactadoHasta.put(idPaciente, corteCrudos);
+                        resumenesCambiados = true;
+                    }
+                }
+
+                NavigableMap<Long, ResumenVital> horas = horarios.get(idPaciente);
+                if (horas != null) {
+                    Map<Long, ResumenVital> viejos = horas.headMap(corteHorarios, false);
+                    if (!viejos.isEmpty()) {
+                        NavigableMap<Long, ResumenVital> dias = niveles(diarios, idPaciente);
+                        for (ResumenVital h : viejos.values()) {
+                            long periodo = ResumenVital.Nivel.DIA.inicioPeriodo(h.getInicio());
+                            dias.computeIfAbsent(periodo,
+                                k -> new ResumenVital(idPaciente, ResumenVital.Nivel.DIA, k)).combinar(h);
+                        }
+                        viejos.clear();
+                        resumenesCambiados = true;
+                    }
+                }
+
+                NavigableMap<Long, ResumenVital> dias = diarios.get(idPaciente);
+                if (dias != null) {
+                    Map<Long, ResumenVital> viejos = dias.headMap(corteCalientes, false);
+                    if (!viejos.isEmpty()) {
+                        paraArchivar.addAll(viejos.values());
+                        viejos.clear();
+                        resumenesCambiados = true;
+                    }
+                }
+            }
+
+            if (!paraArchivar.isEmpty()) {
+                if (pendiente == null) {
+                    pendiente = new SegmentoFrio(siguienteSegmento++, paraArchivar);
+                } else {
+                    // El segmento anterior sigue sin escribirse: estos esperan en el nivel caliente
+                    for (ResumenVital r : paraArchivar) {
+                        niveles(diarios, r.getIdPaciente()).put(r.getInicio(), r);
+                    }
+                }
+            }
+            // 1. Resúmenes, con el segmento pendiente; si no se pudieron guardar los crudos se quedan
+            if ((resumenesCambiados || (pendiente != null && !pendiente.guardado)) && !guardarResumenes()) {
+                return pacientes.size();
+            }
+            // 2. Nivel frío. Si falla, el segmento sigue pendiente y se intenta en la
+            // próxima pasada; si se corta antes de volver a guardar los resúmenes, al
+            // reiniciar se reescribe el mismo segmento
+            if (pendiente != null && archivarFrio(pendiente)) {
+                pendiente = null;
+                guardarResumenes();
+            }
+            // 3. Crudos. Lo anterior a la marca previa ya estaba resumido (sobrevivió
+            // a un corte); lo que llegó con fecha vieja durante la pasada se resume ahora.
+            boolean registrosRetirados = false;
+            boolean tardios = false;
+            for (String idPaciente : pacientes) {
+                List<RegistroSalud> retirados = monitoreo.retirarRegistrosAntesDe(idPaciente, limiteCrudos);
+                if (retirados.isEmpty()) {
+                    continue;
+                }
+                List<RegistroSalud> faltantes = new ArrayList<>();
+                for (RegistroSalud r : retirados) {
+                    if (!resumidos.contains(r.getIdRegistro())
+                            && r.getMarcaTiempo() >= hastaAnterior.get(idPaciente)) {
+                        faltantes.add(r);
+                    }
+                }
+                if (!faltantes.isEmpty()) {
+                    resumir(idPaciente, faltantes, resumidos);
+                    compactadoHasta.merge(idPaciente, corteCrudos, Math::max);
+                    tardios = true;
+                }
+                registrosCompactados.sumar(retirados.size());
+                registrosRetirados = true;
+            }
+            if (tardios && !guardarResumenes()) {
+                return pacientes.size();
+            }
+            if (registrosRetirados) {
+                monitoreo.guardarRegistros();
+            }
+            return pacientes.size();
+        } finally {
+            tiempoCompactar.detener(inicio);
+        }
+    }
+
+    /**
+     * Siguientes pacientes a procesar, continuando después del último de la
+     * pasada anterior y volviendo al principio al llegar al final
+     */
+    private List<String> siguienteLote(int lote) {
+        List<String> resultado = new ArrayList<>();
+        String actual = ultimoPaciente;
+        while (resultado.size() < lote) {
+            String siguiente = siguientePaciente(actual);
+            if (siguiente == null && actual != null) {
+                siguiente = siguientePaciente(null);
+            }
+            if (siguiente == null || (!resultado.isEmpty() && siguiente.equals(resultado.get(0)))) {
+                break;
+            }
+            resultado.add(siguiente);
+            actual = siguiente;
+        }
+        if (!resultado.isEmpty()) {
+            ultimoPaciente = resultado.get(resultado.size() - 1);
+        }
+        return resultado;
+    }
+
+    /**
+     * Menor paciente posterior al indicado (o el primero si es null) entre
+     * los que tienen crudos o resúmenes. Recorre las vistas ordenadas de
+     * cada mapa con tailSet sin copiarlas.
+     */
+    private String siguientePaciente(String despuesDe) {
+        String menor = null;
+        for (NavigableSet<String> claves : List.of(monitoreo.pacientesConRegistros(),
+                                                   horarios.navigableKeySet(), diarios.navigableKeySet())) {
+            Iterator<String> it = despuesDe == null
+                ? claves.iterator()
+                : claves.tailSet(despuesDe, false).iterator();
+            if (it.hasNext()) {
+                String candidato = it.next();
+                if (menor == null || candidato.compareTo(menor) < 0) {
+                    menor = candidato;
+                }
+            }
+        }
+        return menor;
+    }
+
+    /**
+     * Suma los registros crudos a los resúmenes por hora del paciente
+     */
+    private void resumir(String idPaciente, List<RegistroSalud> crudos, Set<String> resumidos) {
+        NavigableMap<Long, ResumenVital> horas = niveles(horarios, idPaciente);
+        for (RegistroSalud r : crudos) {
+            long periodo = ResumenVital.Nivel.HORA.inicioPeriodo(r.getMarcaTiempo());
+            horas.computeIfAbsent(periodo,
+                k -> new ResumenVital(idPaciente, ResumenVital.Nivel.HORA, k)).agregar(r);
+            resumidos.add(r.getIdRegistro());
+        }
+    }
+
+    private static NavigableMap<Long, ResumenVital> niveles(Map<String, NavigableMap<Long, ResumenVital>> mapa,
+                                                           String idPaciente) {
+        return mapa.computeIfAbsent(idPaciente, k -> new TreeMap<>());
+    }
+
+    /**
+     * Resúmenes en caliente de un paciente, en orden cronológico
+     */
+    public synchronized List<ResumenVital> obtenerResumenes(String idPaciente, ResumenVital.Nivel nivel) {
+        NavigableMap<Long, ResumenVital> mapa =
+            (nivel == ResumenVital.Nivel.HORA ? horarios : diarios).get(idPaciente);
+        return mapa != null ? new ArrayList<>(mapa.values()) : new ArrayList<>();
+    }
+
+    /**
+     * Lee del nivel frío los resúmenes diarios archivados de un paciente
+     */
+    public synchronized List<ResumenVital> leerArchivoFrio(String idPaciente) {
+        List<ResumenVital> resultado = new ArrayList<>();
+        // El archivo único de versiones anteriores, si quedó, y después los segmentos
+        List<File> archivos = new ArrayList<>();
+        if (new File(archivoFrio).exists()) {
+            archivos.add(new File(archivoFrio));
+        }
+        for (var e : segmentosFrio().entrySet()) {
+            // El pendiente se toma de memoria: su archivo puede estar a medio reemplazar
+            if (pendiente == null || e.getKey() != pendiente.numero) {
+                archivos.add(e.getValue());
+            }
+        }
+        for (File archivo : archivos) {
+            // GZIPInputStream lee de seguido los miembros que agregaban las versiones anteriores
+            try (BufferedReader lector = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(archivo)), StandardCharsets.UTF_8))) {
+                String linea;
+                while ((linea = lector.readLine()) != null) {
+                    if (linea.contains("\"" + idPaciente + "\"")) {
+                        ResumenVital r = jsonToResumen(JsonParser.parseString(linea).getAsJsonObject());
+                        if (r.getIdPaciente().equals(idPaciente)) {
+                            resultado.add(r);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error al leer el archivo frío " + archivo + ": " + e.getMessage());
+            }
+        }
+        if (pendiente != null) {
+            for (ResumenVital r : pendiente.resumenes) {
+                if (r.getIdPaciente().equals(idPaciente)) {
+                    resultado.add(r);
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Segmentos del nivel frío en disco, por número
+     */
+    private NavigableMap<Integer, File> segmentosFrio() {
+        NavigableMap<Integer, File> segmentos = new TreeMap<>();
+        File directorio = new File(archivoFrio).getAbsoluteFile().getParentFile();
+        String[] nombres = directorio.list();
+        if (nombres != null) {
+            for (String nombre : nombres) {
+                Matcher m = patronSegmento.matcher(nombre);
+                if (m.matches()) {
+                    segmentos.put(Integer.parseInt(m.group(1)), new File(directorio, nombre));
+                }
+            }
+        }
+        return segmentos;
+    }
+
+    private String archivoSegmento(int numero) {
+        return new File(new File(archivoFrio).getParentFile(),
+                        String.format("%s_%06d%s", raizSegmento, numero, extensionSegmento)).getPath();
+    }
+
+    /**
+     * Escribe el segmento completo bajo su número (reemplaza el que hubiera)
+     */
+    private boolean archivarFrio(SegmentoFrio segmento) {
+        try {
+            JsonUtil.escribirAtomicoBinario(archivoSegmento(segmento.numero), salida -> {
+                GZIPOutputStream gzip = new GZIPOutputStream(salida);
+                Writer escritor = new OutputStreamWriter(gzip, StandardCharsets.UTF_8);
+                for (ResumenVital r : segmento.resumenes) {
+                    escritor.write(resumenToJson(r).toString());
+                    escritor.write('\n');
+                }
+                escritor.flush();
+                gzip.finish();
+            });
+            resumenesArchivados.sumar(segmento.resumenes.size());
+        } catch (IOException e) {
+            System.err.println("Error al escribir el archivo frío: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Carga los resúmenes en caliente desde el archivo JSON
+     */
+    private void cargarResumenes() {
+        JsonObject datos = JsonUtil.leerJson(archivoResumenes);
+        for (String idPaciente : datos.keySet()) {
+            if (idPaciente.equals(CLAVE_PENDIENTE)) {
+                JsonObject json = datos.getAsJsonObject(CLAVE_PENDIENTE);
+                List<ResumenVital> resumenes = new ArrayList<>();
+                for (JsonElement e : json.getAsJsonArray("resumenes")) {
+                    resumenes.add(jsonToResumen(e.getAsJsonObject()));
+                }
+                pendiente = new SegmentoFrio(json.get("segmento").getAsInt(), resumenes);
+                pendiente.guardado = true;
+                continue;
+            }
+            JsonObject niveles = datos.getAsJsonObject(idPaciente);
+            if (niveles.has("compactadoHasta")) {
+                compactadoHasta.put(idPaciente, niveles.get("compactadoHasta").getAsLong());
+            }
+            for (ResumenVital.Nivel nivel : ResumenVital.Nivel.values()) {
+                if (!niveles.has(nivel.name())) {
+                    continue;
+                }
+                NavigableMap<Long, ResumenVital> mapa =
+                    niveles(nivel == ResumenVital.Nivel.HORA ? horarios : diarios, idPaciente);
+                for (JsonElement e : niveles.getAsJsonArray(nivel.name())) {
+                    ResumenVital r = jsonToResumen(e.getAsJsonObject());
+                    mapa.put(r.getInicio(), r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Guarda los resúmenes en caliente en el archivo JSON y retorna si pudo
+     */
+    private boolean guardarResumenes() {
+        JsonObject datos = new JsonObject();
+        Set<String> pacientes = new TreeSet<>(horarios.keySet());
+        pacientes.addAll(diarios.keySet());
+        pacientes.addAll(compactadoHasta.keySet());
+        for (String idPaciente : pacientes) {
+            JsonObject niveles = new JsonObject();
+            Long hasta = compactadoHasta.get(idPaciente);
+            if (hasta != null) {
+                niveles.addProperty("compactadoHasta", hasta);
+            }
+            agregarNivel(niveles, ResumenVital.Nivel.HORA, horarios.get(idPaciente));
+            agregarNivel(niveles, ResumenVital.Nivel.DIA, diarios.get(idPaciente));
+            if (niveles.size() > 0) {
+                datos.add(idPaciente, niveles);
+            }
+        }
+        SegmentoFrio segmento = pendiente;
+        if (segmento != null) {
+            JsonArray arreglo = new JsonArray();
+            for (ResumenVital r : segmento.resumenes) {
+                arreglo.add(resumenToJson(r));
+            }
+            JsonObject json = new JsonObject();
+            json.addProperty("segmento", segmento.numero);
+            json.add("resumenes", arreglo);
+            datos.add(CLAVE_PENDIENTE, json);
+        }
+        try {
+            JsonUtil.escribirJson(archivoResumenes, datos);
+            if (segmento != null) {
+                segmento.guardado = true;
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error al guardar los resúmenes: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void agregarNivel(JsonObject niveles, ResumenVital.Nivel nivel,
+                                     NavigableMap<Long, ResumenVital> mapa) {
+        if (mapa == null || mapa.isEmpty()) {
+            return;
+        }
+        JsonArray arreglo = new JsonArray();
+        for (ResumenVital r : mapa.values()) {
+            arreglo.add(resumenToJson(r));
+        }
+        niveles.add(nivel.name(), arreglo);
+    }
+
+    /**
+     * Convierte ResumenVital a JSON
+     */
+    public static JsonObject resumenToJson(ResumenVital r) {
+        JsonObject json = new JsonObject();
+        json.addProperty("idPaciente", r.getIdPaciente());
+        json.addProperty("nivel", r.getNivel().name());
+        json.addProperty("inicio", LocalDateTime.ofEpochSecond(r.getInicio(), 0, ZoneOffset.UTC).format(formatter));
+        json.addProperty("cantidad", r.getCantidad());
+        for (SignoVital s : SignoVital.values()) {
+            JsonObject signo = new JsonObject();
+            signo.addProperty("minimo", r.getMinimo(s));
+            signo.addProperty("maximo", r.getMaximo(s));
+            signo.addProperty("promedio", r.getPromedio(s));
+            signo.addProperty("suma", r.getSuma(s));
+            json.add(s.getCampo(), signo);
+        }
+        return json;
+    }
+
+    /**
+     * Convierte JSON a ResumenVital
+     */
+    public static ResumenVital jsonToResumen(JsonObject json) {
+        long inicio = RegistroSalud.aSegundos(LocalDateTime.parse(json.get("inicio").getAsString(), formatter));
+        ResumenVital r = new ResumenVital(json.get("idPaciente").getAsString(),
+                                          ResumenVital.Nivel.valueOf(json.get("nivel").getAsString()),
+                                          inicio);
+        int cantidad = json.get("cantidad").getAsInt();
+        for (SignoVital s : SignoVital.values()) {
+            JsonObject signo = json.getAsJsonObject(s.getCampo());
+            r.restaurar(s, signo.get("minimo").getAsDouble(), signo.get("maximo").getAsDouble(),
+                        signo.get("suma").getAsDouble(), cantidad);
+        }
+        return r;
+    }
+}
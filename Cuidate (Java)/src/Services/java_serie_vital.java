@@ -0,0 +1,628 @@
+package services;
+
+import models.RegistroSalud;
+import models.SignoVital;
+import utils.Ids;
+import com.google.gson.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serie temporal de signos vitales de un paciente
+ *
+ * Es el único lugar donde viven sus lecturas. Se guardan ordenadas por
+ * fecha: las más recientes en un búfer abierto de columnas primitivas y,
+ * cada TAMANO_BLOQUE lecturas, el búfer se sella en un BloqueVital
+ * comprimido. Las observaciones, casi siempre vacías, van aparte por ID.
+ * Las consultas por rango y los resúmenes recorren la serie con un Lector
+ * secuencial; un RegistroSalud se arma solo cuando alguien lo pide
+ * (Lector.registro).
+ */
+public class SerieVital {
+    static final int TAMANO_BLOQUE = 256;
+    private static final int SIGNOS = SignoVital.values().length;
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final List<BloqueVital> bloques;
+    private final Map<String, String> observaciones;
+    private Columnas abiertas;
+    private int total;
+    private int numeroMayor;
+
+    public SerieVital() {
+        this.bloques = new ArrayList<>();
+        this.observaciones = new ConcurrentHashMap<>();
+        this.abiertas = new Columnas(4);
+        this.total = 0;
+    }
+
+    /**
+     * Resumen de un intervalo de tiempo (mínimo, máximo y promedio)
+     */
+    public static class Intervalo {
+        private final long inicio;
+        private final double minimo;
+        private final double maximo;
+        private final double promedio;
+        private final int cantidad;
+
+        Intervalo(long inicio, double minimo, double maximo, double promedio, int cantidad) {
+            this.inicio = inicio;
+            this.minimo = minimo;
+            this.maximo = maximo;
+            this.promedio = promedio;
+            this.cantidad = cantidad;
+        }
+
+        // Getters
+        public long getInicio() { return inicio; }
+        public double getMinimo() { return minimo; }
+        public double getMaximo() { return maximo; }
+        public double getPromedio() { return promedio; }
+        public int getCantidad() { return cantidad; }
+    }
+
+    /**
+     * Punto (fecha, valor) de una serie reducida
+     */
+    public static class Punto {
+        private final long tiempo;
+        private final double valor;
+
+        Punto(long tiempo, double valor) {
+            this.tiempo = tiempo;
+            this.valor = valor;
+        }
+
+        // Getters
+        public long getTiempo() { return tiempo; }
+        public double getValor() { return valor; }
+    }
+
+    /**
+     * Lecturas sin comprimir en columnas ordenadas por fecha
+     */
+    private static final class Columnas {
+        long[] tiempos;
+        String[] ids;
+        long[][] valores;
+        int tamano;
+
+        Columnas(int capacidad) {
+            tiempos = new long[capacidad];
+            ids = new String[capacidad];
+            valores = new long[SIGNOS][capacidad];
+        }
+
+        /**
+         * Inserta en orden; lo normal es que la lectura llegue al final
+         */
+        void insertar(long t, String id, long[] vals) {
+            if (tamano == tiempos.length) {
+                int capacidad = tiempos.length * 2;
+                tiempos = Arrays.copyOf(tiempos, capacidad);
+                ids = Arrays.copyOf(ids, capacidad);
+                for (int s = 0; s < SIGNOS; s++) {
+                    valores[s] = Arrays.copyOf(valores[s], capacidad);
+                }
+            }
+            int pos = tamano;
+            while (pos > 0 && tiempos[pos - 1] > t) {
+                pos--;
+            }
+            if (pos < tamano) {
+                System.arraycopy(tiempos, pos, tiempos, pos + 1, tamano - pos);
+                System.arraycopy(ids, pos, ids, pos + 1, tamano - pos);
+                for (long[] columna : valores) {
+                    System.arraycopy(columna, pos, columna, pos + 1, tamano - pos);
+                }
+            }
+            tiempos[pos] = t;
+            ids[pos] = id;
+            for (int s = 0; s < SIGNOS; s++) {
+                valores[s][pos] = vals[s];
+            }
+            tamano++;
+        }
+
+        /**
+         * Primera posición con fecha mayor o igual a t
+         */
+        int posicion(long t) {
+            int bajo = 0;
+            int alto = tamano;
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (tiempos[medio] < t) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return bajo;
+        }
+
+        void eliminarPrefijo(int n) {
+            int resto = tamano - n;
+            System.arraycopy(tiempos, n, tiempos, 0, resto);
+            System.arraycopy(ids, n, ids, 0, resto);
+            for (long[] columna : valores) {
+                System.arraycopy(columna, n, columna, 0, resto);
+            }
+            Arrays.fill(ids, resto, tamano, null);
+            tamano = resto;
+        }
+
+        Columnas copiar(int desde, int hasta) {
+            Columnas c = new Columnas(Math.max(hasta - desde, 1));
+            System.arraycopy(tiempos, desde, c.tiempos, 0, hasta - desde);
+            System.arraycopy(ids, desde, c.ids, 0, hasta - desde);
+            for (int s = 0; s < SIGNOS; s++) {
+                System.arraycopy(valores[s], desde, c.valores[s], 0, hasta - desde);
+            }
+            c.tamano = hasta - desde;
+            return c;
+        }
+
+        BloqueVital comprimir() {
+            return BloqueVital.comprimir(tiempos, ids, valores, 0, tamano);
+        }
+
+        static Columnas descomprimir(BloqueVital bloque) {
+            Columnas c = new Columnas(bloque.getCantidad() + 1);
+            long[] vals = new long[SIGNOS];
+            BloqueVital.Cursor cursor = bloque.cursor();
+            while (cursor.siguiente()) {
+                for (SignoVital s : SignoVital.values()) {
+                    vals[s.ordinal()] = cursor.cuantizado(s);
+                }
+                c.insertar(cursor.tiempo(), cursor.id(), vals);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Recorrido secuencial de la serie (bloques sellados y luego el búfer
+     * abierto). Trabaja sobre una instantánea tomada al crearlo, así que se
+     * puede usar sin bloquear la serie.
+     */
+    public static final class Lector {
+        private final List<BloqueVital> bloques;
+        private final Columnas abiertas;
+        private final Map<String, String> observaciones;
+        private final long desde;
+        private final long hasta;
+        private int saltar;
+        private int siguienteBloque;
+        private BloqueVital.Cursor cursor;
+        private int posicionAbierta = -1;
+        private boolean enAbiertas;
+
+        private Lector(List<BloqueVital> bloques, Columnas abiertas, Map<String, String> observaciones,
+                       long desde, long hasta, int saltar) {
+            this.bloques = bloques;
+            this.abiertas = abiertas;
+            this.observaciones = observaciones;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.saltar = saltar;
+        }
+
+        /**
+         * Avanza a la siguiente lectura del rango; false si no quedan
+         */
+        public boolean siguiente() {
+            while (true) {
+                long t;
+                if (!enAbiertas) {
+                    if (cursor == null || !cursor.siguiente()) {
+                        if (siguienteBloque < bloques.size()) {
+                            BloqueVital bloque = bloques.get(siguienteBloque++);
+                            if (bloque.getTiempoInicial() >= hasta) {
+                                return false;
+                            }
+                            cursor = bloque.getTiempoFinal() < desde ? null : bloque.cursor();
+                        } else {
+                            enAbiertas = true;
+                            cursor = null;
+                        }
+                        continue;
+                    }
+                    t = cursor.tiempo();
+                } else {
+                    if (++posicionAbierta >= abiertas.tamano) {
+                        return false;
+                    }
+                    t = abiertas.tiempos[posicionAbierta];
+                }
+                if (t < desde) {
+                    continue;
+                }
+                if (t >= hasta) {
+                    return false;
+                }
+                if (saltar > 0) {
+                    saltar--;
+                    continue;
+                }
+                return true;
+            }
+        }
+
+        public long tiempo() {
+            return enAbiertas ? abiertas.tiempos[posicionAbierta] : cursor.tiempo();
+        }
+
+        public double valor(SignoVital signo) {
+            return enAbiertas
+                ? (double) abiertas.valores[signo.ordinal()][posicionAbierta] / signo.getEscala()
+                : cursor.valor(signo);
+        }
+
+        public String id() {
+            return enAbiertas ? abiertas.ids[posicionAbierta] : cursor.id();
+        }
+
+        /**
+         * Arma el RegistroSalud de la lectura actual
+         */
+        public RegistroSalud registro(String idPaciente) {
+            String id = id();
+            RegistroSalud r = new RegistroSalud(id, idPaciente,
+                                                (int) Math.round(valor(SignoVital.PRESION_SISTOLICA)),
+                                                (int) Math.round(valor(SignoVital.PRESION_DIASTOLICA)),
+                                                (int) Math.round(valor(SignoVital.FRECUENCIA_CARDIACA)),
+                                                valor(SignoVital.TEMPERATURA),
+                                                (int) Math.round(valor(SignoVital.SATURACION_OXIGENO)));
+            r.setFechaRegistro(LocalDateTime.ofEpochSecond(tiempo(), 0, ZoneOffset.UTC).format(formatter));
+            String observacion = observaciones.get(id);
+            if (observacion != null) {
+                r.setObservaciones(observacion);
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Agrega un registro manteniendo el orden por fecha
+     */
+    public synchronized void agregar(RegistroSalud r) {
+        long t = r.getMarcaTiempo();
+        long[] vals = new long[SIGNOS];
+        for (SignoVital s : SignoVital.values()) {
+            vals[s.ordinal()] = s.cuantizar(r);
+        }
+        total++;
+        numeroMayor = Math.max(numeroMayor, Ids.numero(r.getIdRegistro()));
+        if (r.getObservaciones() != null && !r.getObservaciones().isEmpty()) {
+            observaciones.put(r.getIdRegistro(), r.getObservaciones());
+        }
+
+        int ultimo = bloques.size() - 1;
+        if (ultimo >= 0 && t < bloques.get(ultimo).getTiempoFinal()) {
+            // Llega con fecha anterior a lo ya sellado: se recomprime el bloque que le toca
+            int i = ultimo;
+            while (i > 0 && bloques.get(i).getTiempoInicial() > t) {
+                i--;
+            }
+            Columnas c = Columnas.descomprimir(bloques.get(i));
+            c.insertar(t, r.getIdRegistro(), vals);
+            bloques.set(i, c.comprimir());
+            return;
+        }
+
+        abiertas.insertar(t, r.getIdRegistro(), vals);
+        if (abiertas.tamano >= TAMANO_BLOQUE) {
+            bloques.add(abiertas.comprimir());
+            abiertas = new Columnas(4);
+        }
+    }
+
+    public synchronized int tamano() {
+        return total;
+    }
+
+    /**
+     * Mayor parte numérica entre los IDs que pasaron por la serie, aunque
+     * ya se hayan retirado (los IDs nuevos se numeran después de este)
+     */
+    public synchronized int getNumeroMayor() {
+        return numeroMayor;
+    }
+
+    /**
+     * Fecha de la lectura más antigua; la serie no debe estar vacía
+     */
+    public synchronized long tiempoInicial() {
+        return bloques.isEmpty() ? abiertas.tiempos[0] : bloques.get(0).getTiempoInicial();
+    }
+
+    /**
+     * Bytes ocupados por los bloques comprimidos
+     */
+    public synchronized long bytesComprimidos() {
+        long bytes = 0;
+        for (BloqueVital b : bloques) {
+            bytes += b.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Lecturas guardadas en bloques comprimidos
+     */
+    public synchronized int lecturasComprimidas() {
+        return total - abiertas.tamano;
+    }
+
+    /**
+     * Lector de las lecturas con fecha en [desde, hasta)
+     */
+    public Lector lector(long desde, long hasta) {
+        return lector(desde, hasta, 0);
+    }
+
+    /**
+     * Lector de las lecturas con fecha en [desde, hasta) que salta las
+     * primeras "saltar" (para seguir una página)
+     */
+    public synchronized Lector lector(long desde, long hasta, int saltar) {
+        Columnas rango = abiertas.copiar(abiertas.posicion(desde), abiertas.posicion(hasta));
+        return new Lector(new ArrayList<>(bloques), rango, observaciones, desde, hasta, saltar);
+    }
+
+    /**
+     * Lector de las últimas n lecturas (o de todas si hay menos)
+     */
+    public synchronized Lector lectorUltimos(int n) {
+        if (abiertas.tamano >= n) {
+            Columnas rango = abiertas.copiar(abiertas.tamano - n, abiertas.tamano);
+            return new Lector(new ArrayList<>(), rango, observaciones, Long.MIN_VALUE, Long.MAX_VALUE, 0);
+        }
+        int faltan = n - abiertas.tamano;
+        int primero = bloques.size();
+        int disponibles = 0;
+        while (primero > 0 && disponibles < faltan) {
+            disponibles += bloques.get(--primero).getCantidad();
+        }
+        return new Lector(new ArrayList<>(bloques.subList(primero, bloques.size())),
+                          abiertas.copiar(0, abiertas.tamano), observaciones,
+                          Long.MIN_VALUE, Long.MAX_VALUE, Math.max(0, disponibles - faltan));
+    }
+
+    /**
+     * Indica si la serie tiene la lectura con ese ID en esa fecha
+     */
+    public boolean contiene(String id, long tiempo) {
+        Lector lector = lector(tiempo, tiempo + 1);
+        while (lector.siguiente()) {
+            if (lector.id().equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Busca una lectura por ID recorriendo toda la serie; null si no está
+     */
+    public RegistroSalud buscar(String idPaciente, String id) {
+        Lector lector = lector(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (lector.siguiente()) {
+            if (lector.id().equals(id)) {
+                return lector.registro(idPaciente);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Quita de la serie los registros con fecha anterior a "limite" y los
+     * retorna en orden cronológico. Como la serie está ordenada son un prefijo.
+     */
+    public synchronized List<RegistroSalud> eliminarAntesDe(String idPaciente, long limite) {
+        List<RegistroSalud> eliminados = new ArrayList<>();
+        Lector lector = lector(Long.MIN_VALUE, limite);
+        while (lector.siguiente()) {
+            eliminados.add(lector.registro(idPaciente));
+        }
+        while (!bloques.isEmpty() && bloques.get(0).getTiempoInicial() < limite) {
+            BloqueVital primero = bloques.get(0);
+            if (primero.getTiempoFinal() < limite) {
+                bloques.remove(0);
+            } else {
+                Columnas c = Columnas.descomprimir(primero);
+                c.eliminarPrefijo(c.posicion(limite));
+                bloques.set(0, c.comprimir());
+                break;
+            }
+        }
+        if (bloques.isEmpty() || bloques.get(0).getTiempoInicial() >= limite) {
+            abiertas.eliminarPrefijo(abiertas.posicion(limite));
+        }
+        for (RegistroSalud r : eliminados) {
+            observaciones.remove(r.getIdRegistro());
+        }
+        total -= eliminados.size();
+        return eliminados;
+    }
+
+    /**
+     * Convierte la serie a JSON para guardarla o replicarla: los bloques
+     * sellados tal cual y el búfer abierto comprimido en un bloque más
+     */
+    public synchronized JsonObject toJson(String idPaciente) {
+        JsonArray arreglo = new JsonArray();
+        for (BloqueVital b : bloques) {
+            arreglo.add(b.toJson());
+        }
+        if (abiertas.tamano > 0) {
+            arreglo.add(abiertas.comprimir().toJson());
+        }
+        JsonObject notas = new JsonObject();
+        observaciones.forEach(notas::addProperty);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("idPaciente", idPaciente);
+        json.addProperty("numeroMayor", numeroMayor);
+        json.add("bloques", arreglo);
+        json.add("observaciones", notas);
+        return json;
+    }
+
+    /**
+     * Reconstruye una serie guardada con toJson. Si el último bloque quedó
+     * incompleto (era el búfer abierto) se vuelve a abrir para seguir
+     * llenándolo, así guardar seguido no deja bloques pequeños.
+     */
+    public static SerieVital desdeJson(JsonObject json) {
+        SerieVital serie = new SerieVital();
+        for (JsonElement e : json.getAsJsonArray("bloques")) {
+            BloqueVital bloque = BloqueVital.desdeJson(e.getAsJsonObject());
+            serie.bloques.add(bloque);
+            serie.total += bloque.getCantidad();
+        }
+        int ultimo = serie.bloques.size() - 1;
+        if (ultimo >= 0 && serie.bloques.get(ultimo).getCantidad() < TAMANO_BLOQUE) {
+            serie.abiertas = Columnas.descomprimir(serie.bloques.remove(ultimo));
+        }
+        if (json.has("observaciones")) {
+            for (var e : json.getAsJsonObject("observaciones").entrySet()) {
+                serie.observaciones.put(e.getKey(), e.getValue().getAsString());
+            }
+        }
+        serie.numeroMayor = json.has("numeroMayor") ? json.get("numeroMayor").getAsInt() : 0;
+        return serie;
+    }
+
+    /**
+     * ID del registro más reciente, o null si la serie está vacía
+     */
+    public synchronized String ultimoId() {
+        if (abiertas.tamano > 0) {
+            return abiertas.ids[abiertas.tamano - 1];
+        }
+        return bloques.isEmpty() ? null : bloques.get(bloques.size() - 1).getUltimoId();
+    }
+
+    /**
+     * Agrupa las lecturas de [desde, hasta) en intervalos de "ancho"
+     * segundos y calcula mínimo, máximo y promedio de cada uno. Los
+     * intervalos sin lecturas se omiten.
+     */
+    public List<Intervalo> resumir(SignoVital signo, long desde, long hasta, long ancho) {
+        if (ancho <= 0) {
+            throw new IllegalArgumentException("El intervalo debe ser positivo");
+        }
+        List<Intervalo> resultado = new ArrayList<>();
+        Lector lector = lector(desde, hasta);
+        long inicio = 0;
+        double minimo = 0;
+        double maximo = 0;
+        double suma = 0;
+        int cantidad = 0;
+
+        while (lector.siguiente()) {
+            long t = lector.tiempo();
+            double v = lector.valor(signo);
+            if (cantidad > 0 && t >= inicio + ancho) {
+                resultado.add(new Intervalo(inicio, minimo, maximo, suma / cantidad, cantidad));
+                cantidad = 0;
+            }
+            if (cantidad == 0) {
+                inicio = desde + ((t - desde) / ancho) * ancho;
+                minimo = v;
+                maximo = v;
+                suma = 0;
+            }
+            minimo = Math.min(minimo, v);
+            maximo = Math.max(maximo, v);
+            suma += v;
+            cantidad++;
+        }
+        if (cantidad > 0) {
+            resultado.add(new Intervalo(inicio, minimo, maximo, suma / cantidad, cantidad));
+        }
+        return resultado;
+    }
+
+    /**
+     * Reduce las lecturas de [desde, hasta) a como máximo "puntos" puntos
+     * con el algoritmo Largest-Triangle-Three-Buckets, que conserva la
+     * forma visual de la curva (picos incluidos) mejor que un promedio.
+     */
+    public List<Punto> reducir(SignoVital signo, long desde, long hasta, int puntos) {
+        if (puntos < 3) {
+            throw new IllegalArgumentException("Se necesitan al menos 3 puntos");
+        }
+        // LTTB necesita acceso aleatorio: se decodifica solo el signo pedido a arreglos primitivos
+        long[] tiempos = new long[64];
+        double[] columna = new double[64];
+        int n = 0;
+        Lector lector = lector(desde, hasta);
+        while (lector.siguiente()) {
+            if (n == tiempos.length) {
+                tiempos = Arrays.copyOf(tiempos, n * 2);
+                columna = Arrays.copyOf(columna, n * 2);
+            }
+            tiempos[n] = lector.tiempo();
+            columna[n] = lector.valor(signo);
+            n++;
+        }
+        List<Punto> resultado = new ArrayList<>();
+
+        if (puntos >= n) {
+            for (int i = 0; i < n; i++) {
+                resultado.add(new Punto(tiempos[i], columna[i]));
+            }
+            return resultado;
+        }
+
+        double cubeta = (double) (n - 2) / (puntos - 2);
+        int a = 0;
+        resultado.add(new Punto(tiempos[0], columna[0]));
+
+        for (int c = 0; c < puntos - 2; c++) {
+            // Promedio de la cubeta siguiente (el tercer vértice del triángulo)
+            int sigIni = (int) Math.floor((c + 1) * cubeta) + 1;
+            int sigFin = Math.min(Math.max((int) Math.floor((c + 2) * cubeta) + 1, sigIni + 1), n);
+            double promX = 0;
+            double promY = 0;
+            for (int j = sigIni; j < sigFin; j++) {
+                promX += tiempos[j];
+                promY += columna[j];
+            }
+            int largo = sigFin - sigIni;
+            promX /= largo;
+            promY /= largo;
+
+            // Punto de la cubeta actual que forma el triángulo de mayor área
+            int actIni = (int) Math.floor(c * cubeta) + 1;
+            int actFin = (int) Math.floor((c + 1) * cubeta) + 1;
+            double ax = tiempos[a];
+            double ay = columna[a];
+            double mayorArea = -1;
+            int elegido = actIni;
+            for (int j = actIni; j < actFin; j++) {
+                double area = Math.abs((ax - promX) * (columna[j] - ay)
+                                       - (ax - tiempos[j]) * (promY - ay));
+                if (area > mayorArea) {
+                    mayorArea = area;
+                    elegido = j;
+                }
+            }
+            resultado.add(new Punto(tiempos[elegido], columna[elegido]));
+            a = elegido;
+        }
+
+        resultado.add(new Punto(tiempos[n - 1], columna[n - 1]));
+        return resultado;
+    }
+}
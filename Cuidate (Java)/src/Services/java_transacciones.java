@@ -0,0 +1,357 @@
+package services;
+
+import models.Consulta;
+import models.Usuario;
+import utils.Metricas;
+import com.google.gson.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Transacciones que abarcan usuarios y consultas
+ *
+ * Una transacción prepara sus cambios sin que los vean los demás: crea
+ * consultas nuevas y modifica copias de los usuarios (ver Transaccion).
+ * Al confirmarla se toman los candados de sus usuarios y se comparan sus
+ * versiones con las que se leyeron; si alguno cambió entretanto se lanza
+ * ConflictoVersion sin haber tocado nada. Si no, se agrega una sola línea
+ * a la bitácora con el estado final de cada entidad y se sincroniza al
+ * disco; solo entonces se instalan los usuarios y se registran las
+ * consultas, todavía con los candados tomados. Nadie ve un cambio que no
+ * sea durable: la transacción ocurre entera o no ocurre. Los archivos de
+ * datos no se reescriben en cada confirmación; un punto de control los
+ * guarda completos cuando la bitácora crece y la vacía.
+ *
+ * Al iniciar se rehacen las líneas de la bitácora sobre lo cargado de los
+ * archivos. Cada usuario se aplica solo si su versión es mayor que la que
+ * ya tiene y cada consulta solo si no existe, así rehacer es idempotente
+ * y no retrocede cambios guardados después. Una línea incompleta al final
+ * (caída a mitad de la escritura) se descarta: esa transacción no ocurrió.
+ *
+ * Formato, una línea JSON por transacción confirmada:
+ *   {"secuencia": N, "usuarios": [{...}], "consultas": [{...}]}
+ */
+public class Transacciones {
+    private static final Metricas.Temporizador tiempoConfirmar =
+        Metricas.temporizador("transacciones.confirmar");
+    private static final Metricas.Temporizador tiempoPuntoControl =
+        Metricas.temporizador("transacciones.puntoControl");
+    private static final Metricas.Contador confirmadas = Metricas.contador("transacciones.confirmadas");
+    private static final Metricas.Contador rehechas = Metricas.contador("transacciones.rehechas");
+
+    private final GestionUsuarios gestionUsuarios;
+    private final GestionConsultas gestionConsultas;
+    private final Path ruta;
+    private final long maximoBitacora;
+    private FileChannel bitacora;
+    private long secuencia;
+    // Una escritura fallida que no se pudo deshacer: no se agrega nada más
+    private boolean bitacoraDanada;
+
+    /**
+     * Rehace la bitácora de "ruta" sobre los servicios ya cargados y la deja
+     * lista para nuevas transacciones; al pasar "maximoBitacora" bytes se
+     * hace un punto de control
+     */
+    public Transacciones(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                         String ruta, long maximoBitacora) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.gestionConsultas = gestionConsultas;
+        this.ruta = Paths.get(ruta);
+        this.maximoBitacora = maximoBitacora;
+        try {
+            if (this.ruta.getParent() != null) {
+                Files.createDirectories(this.ruta.getParent());
+            }
+            this.bitacora = FileChannel.open(this.ruta, StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir la bitácora de transacciones " + ruta, e);
+        }
+        if (recuperar() > 0) {
+            puntoDeControl();
+        }
+        Metricas.medidor("transacciones.bitacoraBytes", this::getTamanoBitacora);
+    }
+
+    public Transacciones(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                         String ruta) {
+        this(gestionUsuarios, gestionConsultas, ruta,
+             Long.getLong("cuidate.transacciones.maximoBitacora", 8L << 20));
+    }
+
+    public synchronized long getTamanoBitacora() {
+        try {
+            return bitacora.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Inicia una transacción vacía
+     */
+    public Transaccion iniciar() {
+        return new Transaccion();
+    }
+
+    /**
+     * Arma una transacción con "cuerpo" y la confirma; si choca con otro
+     * escritor la vuelve a armar desde cero (ver Reintentos), así el cuerpo
+     * puede ejecutarse más de una vez. Retorna lo que retorna el cuerpo.
+     */
+    public <T> T ejecutar(Function<Transaccion, T> cuerpo) {
+        return Reintentos.obtener(() -> {
+            Transaccion transaccion = iniciar();
+            T resultado = cuerpo.apply(transaccion);
+            transaccion.confirmar();
+            return resultado;
+        });
+    }
+
+    /**
+     * Cambios preparados de una transacción. No es segura entre hilos: la
+     * arma un solo hilo y se confirma una vez.
+     */
+    public class Transaccion {
+        private final Map<String, Usuario> usuarios = new LinkedHashMap<>();
+        private final Map<String, Usuario> originales = new HashMap<>();
+        private final List<Consulta> consultas = new ArrayList<>();
+        private boolean terminada;
+
+        private Transaccion() {
+        }
+
+        /**
+         * Prepara una consulta pendiente nueva (ya con su ID)
+         */
+        public Consulta crearConsulta(String idPaciente, String idMedico, String motivo) {
+            verificarAbierta();
+            Consulta consulta = gestionConsultas.nuevaConsulta(idPaciente, idMedico, motivo);
+            consultas.add(consulta);
+            return consulta;
+        }
+
+        /**
+         * Prepara una consulta con el médico menos cargado de la
+         * especialidad; null si no hay médicos en ella
+         */
+        public Consulta solicitarConsulta(String idPaciente, String especialidad, String motivo) {
+            AsignacionMedicos asignacion = gestionConsultas.getAsignacionMedicos();
+            String idMedico = asignacion != null ? asignacion.medicoMenosCargado(especialidad) : null;
+            return idMedico == null ? null : crearConsulta(idPaciente, idMedico, motivo);
+        }
+
+        /**
+         * Aplica el cambio a la copia del usuario en esta transacción (la
+         * lee la primera vez). Retorna la copia, o null si no existe.
+         */
+        public Usuario modificarUsuario(String idUsuario, Consumer<Usuario> cambio) {
+            verificarAbierta();
+            Usuario copia = usuarios.get(idUsuario);
+            if (copia == null) {
+                Usuario leido = gestionUsuarios.buscarPorId(idUsuario);
+                if (leido == null) {
+                    return null;
+                }
+                Usuario original = gestionUsuarios.copiar(leido);
+                copia = gestionUsuarios.copiar(original);
+                originales.put(idUsuario, original);
+                usuarios.put(idUsuario, copia);
+            }
+            cambio.accept(copia);
+            return copia;
+        }
+
+        /**
+         * Confirma los cambios (ver Transacciones); lanza ConflictoVersion
+         * si un usuario cambió desde que se leyó
+         */
+        public void confirmar() {
+            verificarAbierta();
+            terminada = true;
+            if (!usuarios.isEmpty() || !consultas.isEmpty()) {
+                Transacciones.this.confirmar(this);
+            }
+        }
+
+        private void verificarAbierta() {
+            if (terminada) {
+                throw new IllegalStateException("La transacción ya fue confirmada");
+            }
+        }
+    }
+
+    private synchronized void confirmar(Transaccion transaccion) {
+        long inicio = tiempoConfirmar.iniciar();
+        try {
+            List<ReentrantLock> candados = gestionUsuarios.candados(transaccion.usuarios.keySet());
+            candados.forEach(ReentrantLock::lock);
+            try {
+                // Con los candados tomados nadie más puede cambiar estas versiones
+                for (Usuario usuario : transaccion.usuarios.values()) {
+                    long leida = transaccion.originales.get(usuario.getIdUsuario()).getVersion();
+                    long actual = gestionUsuarios.version(usuario.getIdUsuario());
+                    if (actual != leida) {
+                        throw new ConflictoVersion(usuario.getIdUsuario(), leida, actual);
+                    }
+                    usuario.setVersion(leida + 1);
+                }
+                escribir(linea(transaccion));
+
+                // Ya es durable: se instala y se publica
+                for (Usuario usuario : transaccion.usuarios.values()) {
+                    gestionUsuarios.reemplazar(usuario, usuario.getVersion() - 1);
+                }
+                for (Consulta consulta : transaccion.consultas) {
+                    gestionConsultas.registrar(consulta, false);
+                }
+            } finally {
+                for (int i = candados.size() - 1; i >= 0; i--) {
+                    candados.get(i).unlock();
+                }
+            }
+            for (Usuario usuario : transaccion.usuarios.values()) {
+                gestionUsuarios.notificarActualizado(usuario);
+            }
+            confirmadas.incrementar();
+            if (getTamanoBitacora() > maximoBitacora) {
+                puntoDeControl();
+            }
+        } finally {
+            tiempoConfirmar.detener(inicio);
+        }
+    }
+
+    private String linea(Transaccion transaccion) {
+        JsonObject linea = new JsonObject();
+        linea.addProperty("secuencia", ++secuencia);
+        JsonArray usuarios = new JsonArray();
+        for (Usuario usuario : transaccion.usuarios.values()) {
+            usuarios.add(GestionUsuarios.usuarioToJson(usuario));
+        }
+        linea.add("usuarios", usuarios);
+        JsonArray consultas = new JsonArray();
+        for (Consulta consulta : transaccion.consultas) {
+            consultas.add(GestionConsultas.consultaToJson(consulta));
+        }
+        linea.add("consultas", consultas);
+        return linea.toString() + "\n";
+    }
+
+    /**
+     * Agrega la línea al final de la bitácora y espera a que llegue al disco.
+     * Si falla, recorta lo que alcanzó a escribir y devuelve la secuencia,
+     * para que la siguiente confirmación no quede detrás de una línea rota.
+     */
+    private void escribir(String linea) {
+        if (bitacoraDanada) {
+            throw new IllegalStateException("La bitácora de transacciones quedó dañada; reinicie el sistema");
+        }
+        long tamano = -1;
+        try {
+            tamano = bitacora.size();
+            ByteBuffer bytes = ByteBuffer.wrap(linea.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                bitacora.write(bytes);
+            }
+            bitacora.force(false);
+        } catch (IOException e) {
+            secuencia--;
+            if (tamano >= 0) {
+                try {
+                    bitacora.truncate(tamano);
+                    bitacora.force(false);
+                } catch (IOException e2) {
+                    bitacoraDanada = true;
+                    e.addSuppressed(e2);
+                }
+            }
+            throw new UncheckedIOException("No se pudo escribir la bitácora de transacciones", e);
+        }
+    }
+
+    /**
+     * Rehace las transacciones de la bitácora; retorna cuántas leyó. Solo
+     * la última línea puede estar incompleta (la caída fue a mitad de esa
+     * transacción, que nunca se confirmó): se descarta y se recorta. Una
+     * línea rota con otras detrás es un daño que no se puede saltar sin
+     * perder transacciones confirmadas, así que detiene el inicio.
+     */
+    private int recuperar() {
+        int lineas = 0;
+        long completos = 0;
+        try (BufferedReader lector = Files.newBufferedReader(ruta, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                JsonObject json;
+                try {
+                    json = JsonParser.parseString(linea).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    if (lector.readLine() != null) {
+                        throw new IllegalStateException("Bitácora de transacciones dañada después de la línea "
+                                                        + lineas + ": " + ruta, e);
+                    }
+                    bitacora.truncate(completos);
+                    bitacora.force(true);
+                    break;
+                }
+                completos += linea.getBytes(StandardCharsets.UTF_8).length + 1;
+                for (JsonElement e : json.getAsJsonArray("usuarios")) {
+                    JsonObject usuario = e.getAsJsonObject();
+                    Usuario actual = gestionUsuarios.buscarPorId(usuario.get("idUsuario").getAsString());
+                    if (actual == null || actual.getVersion() < usuario.get("version").getAsLong()) {
+                        gestionUsuarios.aplicarReplica(usuario);
+                    }
+                }
+                for (JsonElement e : json.getAsJsonArray("consultas")) {
+                    JsonObject consulta = e.getAsJsonObject();
+                    if (gestionConsultas.obtenerConsulta(consulta.get("idConsulta").getAsString()) == null) {
+                        gestionConsultas.aplicarReplica(consulta);
+                    }
+                }
+                secuencia = json.get("secuencia").getAsLong();
+                lineas++;
+                rehechas.incrementar();
+            }
+            if (completos > bitacora.size()) {
+                // La última línea llegó sin su salto: se completa antes de agregar otras
+                bitacora.write(ByteBuffer.wrap(new byte[] {'\n'}));
+                bitacora.force(false);
+            }
+        } catch (IOException e) {
+            System.err.println("Error al leer la bitácora de transacciones: " + e.getMessage());
+        }
+        return lineas;
+    }
+
+    /**
+     * Guarda los archivos completos de usuarios y consultas y vacía la
+     * bitácora. Cada archivo se escribe aparte, se sincroniza al disco y
+     * reemplaza al anterior de forma atómica (ver JsonUtil.escribirJson);
+     * la bitácora se vacía solo si todos quedaron guardados. Si algo falla,
+     * o se cae en medio, la bitácora sigue entera y al iniciar se rehace
+     * sin efecto sobre lo que ya quedó guardado.
+     */
+    public synchronized void puntoDeControl() {
+        long inicio = tiempoPuntoControl.iniciar();
+        try {
+            gestionUsuarios.volcarUsuarios();
+            gestionConsultas.volcarConsultas();
+            bitacora.truncate(0);
+            bitacora.force(true);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Punto de control fallido, se conserva la bitácora de transacciones: "
+                               + e.getMessage());
+        } finally {
+            tiempoPuntoControl.detener(inicio);
+        }
+    }
+}
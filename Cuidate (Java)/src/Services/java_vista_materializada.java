@@ -0,0 +1,22 @@
+package services;
+
+/**
+ * Agregado que se mantiene al día con los eventos de cambio de los
+ * servicios, de modo que leer su valor no requiere recorrer los datos
+ */
+public interface VistaMaterializada extends ObservadorCambios {
+    /**
+     * Nombre con el que se registra y se consulta la vista
+     */
+    String getNombre();
+
+    /**
+     * Valor actual del agregado (lectura O(1))
+     */
+    long getValor();
+
+    /**
+     * Recalcula el valor desde cero a partir de los servicios
+     */
+    void reconstruir();
+}
@@ -0,0 +1,272 @@
+package services;
+
+import models.Consulta;
+import models.RegistroSalud;
+import utils.Metricas;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registro de vistas materializadas para los tableros de la clínica
+ *
+ * Se suscribe a GestionConsultas y MonitoreoSalud y reparte cada evento a
+ * las vistas registradas, que actualizan su valor de forma incremental.
+ * Incluye las vistas de consultas pendientes, alertas activas y pacientes
+ * atendidos hoy; se pueden registrar otras con registrar().
+ */
+public class VistasMaterializadas implements ObservadorCambios {
+    private static final Metricas.Temporizador tiempoReconstruir =
+        Metricas.temporizador("vistas.reconstruir");
+
+    public static final String CONSULTAS_PENDIENTES = "consultasPendientes";
+    public static final String ALERTAS_ACTIVAS = "alertasActivas";
+    public static final String PACIENTES_ATENDIDOS_HOY = "pacientesAtendidosHoy";
+
+    private final Map<String, VistaMaterializada> vistas;
+    private final CopyOnWriteArrayList<VistaMaterializada> orden;
+
+    public VistasMaterializadas() {
+        this.vistas = new ConcurrentHashMap<>();
+        this.orden = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Crea el registro con las vistas predeterminadas, las construye y lo
+     * suscribe a los servicios
+     */
+    public static VistasMaterializadas conectar(GestionConsultas gestionConsultas, MonitoreoSalud monitoreo) {
+        VistasMaterializadas registro = new VistasMaterializadas();
+        registro.registrar(new ConsultasPendientes(gestionConsultas));
+        registro.registrar(new AlertasActivas(monitoreo));
+        registro.registrar(new PacientesAtendidosHoy(gestionConsultas));
+        gestionConsultas.agregarObservador(registro);
+        monitoreo.agregarObservador(registro);
+        return registro;
+    }
+
+    /**
+     * Igual que conectar(gestionConsultas, monitoreo), pero recibe los
+     * eventos desde el bus en un hilo propio en lugar de hacerlo dentro de
+     * cada mutación (los valores quedan al día con un leve retraso)
+     */
+    public static VistasMaterializadas conectar(GestionConsultas gestionConsultas, MonitoreoSalud monitoreo,
+                                                BusEventos bus) {
+        VistasMaterializadas registro = new VistasMaterializadas();
+        registro.registrar(new ConsultasPendientes(gestionConsultas));
+        registro.registrar(new AlertasActivas(monitoreo));
+        registro.registrar(new PacientesAtendidosHoy(gestionConsultas));
+        bus.suscribir("vistas", registro);
+        return registro;
+    }
+
+    /**
+     * Registra una vista (la construye desde cero) y publica su valor como medidor
+     */
+    public void registrar(VistaMaterializada vista) {
+        vista.reconstruir();
+        if (vistas.putIfAbsent(vista.getNombre(), vista) != null) {
+            throw new IllegalArgumentException("Ya existe una vista llamada " + vista.getNombre());
+        }
+        orden.add(vista);
+        Metricas.medidor("vistas." + vista.getNombre(), vista::getValor);
+    }
+
+    /**
+     * Valor actual de una vista
+     */
+    public long valor(String nombre) {
+        return vista(nombre).getValor();
+    }
+
+    /**
+     * Valores de todas las vistas, por nombre
+     */
+    public Map<String, Long> valores() {
+        Map<String, Long> resultado = new TreeMap<>();
+        for (VistaMaterializada v : orden) {
+            resultado.put(v.getNombre(), v.getValor());
+        }
+        return resultado;
+    }
+
+    /**
+     * Recalcula una vista desde cero y retorna el nuevo valor
+     */
+    public long reconstruir(String nombre) {
+        long inicio = tiempoReconstruir.iniciar();
+        try {
+            VistaMaterializada v = vista(nombre);
+            v.reconstruir();
+            return v.getValor();
+        } finally {
+            tiempoReconstruir.detener(inicio);
+        }
+    }
+
+    private VistaMaterializada vista(String nombre) {
+        VistaMaterializada v = vistas.get(nombre);
+        if (v == null) {
+            throw new IllegalArgumentException("Vista desconocida: " + nombre);
+        }
+        return v;
+    }
+
+    @Override
+    public void alCambiar(EventoCambio evento) {
+        for (VistaMaterializada v : orden) {
+            v.alCambiar(evento);
+        }
+    }
+
+    /**
+     * Número de consultas en estado pendiente
+     */
+    public static class ConsultasPendientes implements VistaMaterializada {
+        private final GestionConsultas gestionConsultas;
+        private final AtomicLong pendientes = new AtomicLong();
+
+        public ConsultasPendientes(GestionConsultas gestionConsultas) {
+            this.gestionConsultas = gestionConsultas;
+        }
+
+        @Override
+        public String getNombre() { return CONSULTAS_PENDIENTES; }
+
+        @Override
+        public long getValor() { return pendientes.get(); }
+
+        @Override
+        public void reconstruir() {
+            pendientes.set(gestionConsultas.streamConsultas().filter(Consulta::esPendiente).count());
+        }
+
+        @Override
+        public void alCambiar(EventoCambio evento) {
+            // El estado nuevo viene en el evento: la consulta pudo cambiar otra vez antes de la entrega
+            if (evento.getTipo() == EventoCambio.Tipo.CONSULTA_CREADA) {
+                if (evento.getEstadoNuevo() == Consulta.Estado.PENDIENTE) {
+                    pendientes.incrementAndGet();
+                }
+            } else if (evento.getTipo() == EventoCambio.Tipo.CONSULTA_ACTUALIZADA) {
+                boolean antes = evento.getEstadoAnterior() == Consulta.Estado.PENDIENTE;
+                boolean ahora = evento.getEstadoNuevo() == Consulta.Estado.PENDIENTE;
+                if (antes && !ahora) {
+                    pendientes.decrementAndGet();
+                } else if (!antes && ahora) {
+                    pendientes.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Número de pacientes cuyo último registro tiene alguna alerta
+     */
+    public static class AlertasActivas implements VistaMaterializada {
+        private final MonitoreoSalud monitoreo;
+        private final Set<String> pacientes = ConcurrentHashMap.newKeySet();
+
+        public AlertasActivas(MonitoreoSalud monitoreo) {
+            this.monitoreo = monitoreo;
+        }
+
+        @Override
+        public String getNombre() { return ALERTAS_ACTIVAS; }
+
+        @Override
+        public long getValor() { return pacientes.size(); }
+
+        @Override
+        public void reconstruir() {
+            pacientes.clear();
+            for (String idPaciente : monitoreo.pacientesConRegistros()) {
+                evaluar(idPaciente);
+            }
+        }
+
+        private void evaluar(String idPaciente) {
+            RegistroSalud ultimo = monitoreo.obtenerUltimoRegistro(idPaciente);
+            if (ultimo != null && ultimo.nivelAlerta() > 0) {
+                pacientes.add(idPaciente);
+            } else {
+                pacientes.remove(idPaciente);
+            }
+        }
+
+        @Override
+        public void alCambiar(EventoCambio evento) {
+            if (evento.getTipo() == EventoCambio.Tipo.REGISTRO_CREADO
+                    || evento.getTipo() == EventoCambio.Tipo.REGISTRO_ELIMINADO) {
+                evaluar(((RegistroSalud) evento.getEntidad()).getIdPaciente());
+            }
+        }
+    }
+
+    /**
+     * Número de pacientes distintos con una consulta completada hoy
+     */
+    public static class PacientesAtendidosHoy implements VistaMaterializada {
+        private final GestionConsultas gestionConsultas;
+        private final Set<String> pacientes = ConcurrentHashMap.newKeySet();
+        private volatile LocalDate dia = LocalDate.now();
+
+        public PacientesAtendidosHoy(GestionConsultas gestionConsultas) {
+            this.gestionConsultas = gestionConsultas;
+        }
+
+        @Override
+        public String getNombre() { return PACIENTES_ATENDIDOS_HOY; }
+
+        @Override
+        public long getValor() {
+            alDia();
+            return pacientes.size();
+        }
+
+        /**
+         * Vacía el conjunto si cambió el día desde la última actualización
+         */
+        private void alDia() {
+            if (!LocalDate.now().equals(dia)) {
+                reiniciar();
+            }
+        }
+
+        private synchronized void reiniciar() {
+            LocalDate hoy = LocalDate.now();
+            if (!hoy.equals(dia)) {
+                pacientes.clear();
+                dia = hoy;
+            }
+        }
+
+        @Override
+        public synchronized void reconstruir() {
+            dia = LocalDate.now();
+            String prefijo = dia.toString();
+            pacientes.clear();
+            gestionConsultas.streamConsultas()
+                .filter(c -> c.esCompletada() && c.getFechaAtencion() != null
+                             && c.getFechaAtencion().startsWith(prefijo))
+                .forEach(c -> pacientes.add(c.getIdPaciente()));
+        }
+
+        @Override
+        public void alCambiar(EventoCambio evento) {
+            if (evento.getTipo() != EventoCambio.Tipo.CONSULTA_ACTUALIZADA) {
+                return;
+            }
+            Consulta c = (Consulta) evento.getEntidad();
+            if (evento.getEstadoNuevo() == Consulta.Estado.COMPLETADA
+                    && evento.getEstadoAnterior() != Consulta.Estado.COMPLETADA) {
+                alDia();
+                pacientes.add(c.getIdPaciente());
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package utils;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Almacenamiento JSON particionado por hash de una clave (el ID del paciente)
+ *
+ * Con N particiones, "data/registros.json" se guarda en
+ * "data/registros_0de8.json" ... "data/registros_7de8.json" y cada
+ * partición tiene su propio candado, así las escrituras de pacientes de
+ * particiones distintas no se esperan entre sí y cada una reescribe solo
+ * su archivo. Con una sola partición se usa el archivo original, igual que
+ * antes de particionar.
+ *
+ * Cambiar el número de particiones requiere reparticionar los archivos
+ * sin el sistema en marcha: Main --reparticionar N (o reparticionar()).
+ */
+public class AlmacenParticionado {
+    private static final int LOTE = 512;
+
+    private final String archivoBase;
+    private final int particiones;
+    private final Object[] candados;
+
+    public AlmacenParticionado(String archivoBase, int particiones) {
+        if (particiones <= 0) {
+            throw new IllegalArgumentException("El número de particiones debe ser mayor a cero");
+        }
+        this.archivoBase = archivoBase;
+        this.particiones = particiones;
+        this.candados = new Object[particiones];
+        for (int i = 0; i < particiones; i++) {
+            candados[i] = new Object();
+        }
+    }
+
+    public int getParticiones() {
+        return particiones;
+    }
+
+    /**
+     * Partición a la que pertenece la clave (String.hashCode es estable
+     * entre ejecuciones, así que la asignación no cambia al reiniciar)
+     */
+    public int particion(String clave) {
+        return Math.floorMod(clave.hashCode(), particiones);
+    }
+
+    /**
+     * Candado que protege los datos y el archivo de una partición
+     */
+    public Object candado(int particion) {
+        return candados[particion];
+    }
+
+    public Object candado(String clave) {
+        return candados[particion(clave)];
+    }
+
+    /**
+     * Archivo de una partición
+     */
+    public String archivo(int particion) {
+        return archivo(archivoBase, particion, particiones);
+    }
+
+    private static String archivo(String archivoBase, int particion, int particiones) {
+        if (particiones == 1) {
+            return archivoBase;
+        }
+        int punto = archivoBase.lastIndexOf('.');
+        String nombre = punto > 0 ? archivoBase.substring(0, punto) : archivoBase;
+        String extension = punto > 0 ? archivoBase.substring(punto) : "";
+        return nombre + "_" + particion + "de" + particiones + extension;
+    }
+
+    /**
+     * Lee todas las particiones en un solo objeto. Falla si en disco hay
+     * datos con otro número de particiones.
+     */
+    public JsonObject leerTodo() {
+        verificarParticiones();
+        JsonObject todo = new JsonObject();
+        for (int i = 0; i < particiones; i++) {
+            for (var e : JsonUtil.leerJson(archivo(i)).entrySet()) {
+                todo.add(e.getKey(), e.getValue());
+            }
+        }
+        return todo;
+    }
+
+    /**
+     * Como leerTodo, pero una partición ilegible lanza el error en lugar de
+     * contarse como vacía
+     */
+    private JsonObject leerTodoEstricto() throws IOException {
+        verificarParticiones();
+        JsonObject todo = new JsonObject();
+        for (int i = 0; i < particiones; i++) {
+            for (var e : JsonUtil.leerJsonEstricto(archivo(i)).entrySet()) {
+                todo.add(e.getKey(), e.getValue());
+            }
+        }
+        return todo;
+    }
+
+    private void verificarParticiones() {
+        int enDisco = detectarParticiones(archivoBase);
+        if (enDisco != 0 && enDisco != particiones) {
+            throw new IllegalStateException("Los datos de " + archivoBase + " están en " + enDisco
+                + " particiones y se configuraron " + particiones + "; use --reparticionar "
+                + particiones);
+        }
+    }
+
+    /**
+     * Lee todas las particiones en paralelo sobre el pool y entrega cada
+     * entrada a "aplicar" mientras se sigue leyendo.
+     *
+     * Cada archivo se recorre en flujo (sin armar el objeto completo) y sus
+     * entradas se agrupan en lotes por carril según el hash de la clave;
+     * los lotes de un mismo carril se aplican en orden, uno tras otro, y
+     * los carriles distintos en paralelo. Así las entradas de una misma
+     * clave llegan en el orden del archivo y la construcción de índices se
+     * solapa con la lectura. "aplicar" debe ser seguro entre hilos para
+     * claves distintas.
+     */
+    public void leerEnParalelo(ExecutorService pool, Function<JsonObject, String> clave,
+                               Consumer<JsonObject> aplicar) {
+        verificarParticiones();
+        CompletableFuture<?>[] carriles = new CompletableFuture<?>[Runtime.getRuntime().availableProcessors()];
+        Arrays.fill(carriles, CompletableFuture.completedFuture(null));
+        List<Future<?>> lecturas = new ArrayList<>();
+        for (int i = 0; i < particiones; i++) {
+            String ruta = archivo(i);
+            lecturas.add(pool.submit(() -> {
+                leerEnCarriles(ruta, clave, aplicar, carriles, pool);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> lectura : lecturas) {
+                lectura.get();
+            }
+            CompletableFuture.allOf(carriles).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Carga interrumpida de " + archivoBase, e);
+        } catch (ExecutionException | CompletionException e) {
+            throw new IllegalStateException("Error al cargar " + archivoBase + ": " + e.getCause().getMessage(),
+                                            e.getCause());
+        }
+    }
+
+    private static void leerEnCarriles(String ruta, Function<JsonObject, String> clave,
+                                       Consumer<JsonObject> aplicar, CompletableFuture<?>[] carriles,
+                                       ExecutorService pool) throws IOException {
+        File archivo = new File(ruta);
+        if (!archivo.exists() || archivo.length() == 0) {
+            return;
+        }
+        List<List<JsonObject>> lotes = new ArrayList<>();
+        for (int i = 0; i < carriles.length; i++) {
+            lotes.add(new ArrayList<>(LOTE));
+        }
+        try (JsonReader lector = new JsonReader(Files.newBufferedReader(archivo.toPath(), StandardCharsets.UTF_8))) {
+            lector.beginObject();
+            while (lector.hasNext()) {
+                lector.nextName();
+                JsonObject entrada = JsonParser.parseReader(lector).getAsJsonObject();
+                int carril = Math.floorMod(clave.apply(entrada).hashCode(), carriles.length);
+                List<JsonObject> lote = lotes.get(carril);
+                lote.add(entrada);
+                if (lote.size() == LOTE) {
+                    encadenar(carriles, carril, lote, aplicar, pool);
+                    lotes.set(carril, new ArrayList<>(LOTE));
+                }
+            }
+            lector.endObject();
+        }
+        for (int i = 0; i < carriles.length; i++) {
+            if (!lotes.get(i).isEmpty()) {
+                encadenar(carriles, i, lotes.get(i), aplicar, pool);
+            }
+        }
+    }
+
+    private static void encadenar(CompletableFuture<?>[] carriles, int carril, List<JsonObject> lote,
+                                  Consumer<JsonObject> aplicar, ExecutorService pool) {
+        synchronized (carriles) {
+            carriles[carril] = carriles[carril].thenRunAsync(() -> lote.forEach(aplicar), pool);
+        }
+    }
+
+    /**
+     * Reescribe el archivo de una partición. Quien llama debe tener su candado.
+     */
+    public void guardar(int particion, JsonObject datos) {
+        JsonUtil.guardarJson(archivo(particion), datos);
+    }
+
+    /**
+     * Como guardar, pero lanza el error de escritura en lugar de registrarlo
+     */
+    public void escribir(int particion, JsonObject datos) throws IOException {
+        JsonUtil.escribirJson(archivo(particion), datos);
+    }
+
+    /**
+     * Número de particiones con el que están guardados los datos (0 si no hay)
+     */
+    public static int detectarParticiones(String archivoBase) {
+        File base = new File(archivoBase);
+        File directorio = base.getAbsoluteFile().getParentFile();
+        String nombre = base.getName();
+        int punto = nombre.lastIndexOf('.');
+        String raiz = punto > 0 ? nombre.substring(0, punto) : nombre;
+        String extension = punto > 0 ? nombre.substring(punto) : "";
+        Pattern patron = Pattern.compile(Pattern.quote(raiz) + "_\\d+de(\\d+)" + Pattern.quote(extension));
+
+        int encontradas = 0;
+        String[] archivos = directorio.list();
+        if (archivos != null) {
+            for (String a : archivos) {
+                Matcher m = patron.matcher(a);
+                if (m.matches()) {
+                    int n = Integer.parseInt(m.group(1));
+                    if (encontradas != 0 && encontradas != n) {
+                        throw new IllegalStateException("Hay particiones mezcladas de " + archivoBase);
+                    }
+                    encontradas = n;
+                }
+            }
+        }
+        if (encontradas == 0 && base.exists()) {
+            return 1;
+        }
+        return encontradas;
+    }
+
+    /**
+     * Herramienta fuera de línea: redistribuye los datos guardados en el
+     * número de particiones actual a "nuevas" particiones según la clave
+     * de cada entrada, y borra los archivos anteriores
+     *
+     * Los archivos anteriores se borran solo cuando todos los nuevos están
+     * en su lugar y sincronizados, y una partición ilegible detiene todo
+     * antes de escribir. Si se corta mientras se mueven los nuevos, los dos
+     * juegos quedan completos en el disco y la carga avisa de particiones
+     * mezcladas: basta con borrar los archivos del juego que sobra.
+     */
+    public static void reparticionar(String archivoBase, int nuevas, Function<JsonObject, String> clave)
+            throws IOException {
+        int actuales = detectarParticiones(archivoBase);
+        if (actuales == 0 || actuales == nuevas) {
+            return;
+        }
+        JsonObject todo = new AlmacenParticionado(archivoBase, actuales).leerTodoEstricto();
+        AlmacenParticionado destino = new AlmacenParticionado(archivoBase, nuevas);
+        JsonObject[] datos = new JsonObject[nuevas];
+        for (int i = 0; i < nuevas; i++) {
+            datos[i] = new JsonObject();
+        }
+        for (var e : todo.entrySet()) {
+            datos[destino.particion(clave.apply(e.getValue().getAsJsonObject()))].add(e.getKey(), e.getValue());
+        }
+
+        // 1. Las nuevas particiones, completas y sincronizadas, con un nombre
+        // que la carga no reconoce
+        Path[] temporales = new Path[nuevas];
+        try {
+            for (int i = 0; i < nuevas; i++) {
+                temporales[i] = Paths.get(destino.archivo(i) + ".nuevo");
+                JsonUtil.escribirJson(temporales[i].toString(), datos[i]);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Path temporal : temporales) {
+                if (temporal != null) {
+                    Files.deleteIfExists(temporal);
+                }
+            }
+            throw e;
+        }
+        // 2. Cada una a su nombre definitivo (no coinciden con los anteriores)
+        for (int i = 0; i < nuevas; i++) {
+            Files.move(temporales[i], Paths.get(destino.archivo(i)), StandardCopyOption.ATOMIC_MOVE);
+        }
+        Path directorio = Paths.get(archivoBase).toAbsolutePath().getParent();
+        JsonUtil.sincronizarDirectorio(directorio);
+        // 3. Recién ahora los anteriores
+        for (int i = 0; i < actuales; i++) {
+            Files.deleteIfExists(Paths.get(archivo(archivoBase, i, actuales)));
+        }
+        JsonUtil.sincronizarDirectorio(directorio);
+    }
+}
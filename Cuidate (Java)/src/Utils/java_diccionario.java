@@ -0,0 +1,93 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diccionario de valores para campos categóricos (tipo de usuario,
+ * género, grupo sanguíneo, especialidad)
+ *
+ * Cada valor distinto recibe un código pequeño y una única instancia
+ * canónica: los objetos cargados comparten esa instancia en lugar de
+ * tener cada uno su propia copia del String, se pueden comparar por
+ * identidad y se pueden guardar como código (ver DirectorioPacientes).
+ * Los valores sembrados al crear el diccionario son los literales del
+ * código, así tipo == "paciente" funciona para todo valor que
+ * haya pasado por canonico().
+ *
+ * El diccionario tiene un máximo de valores: si un campo resulta no ser
+ * categórico, los valores que no entran se usan tal cual y no reciben código.
+ */
+public final class Diccionario {
+    public static final Diccionario TIPOS_USUARIO = new Diccionario(16, "paciente", "medico");
+    public static final Diccionario GENEROS =
+        new Diccionario(256, "", "Masculino", "Femenino", "Otro");
+    public static final Diccionario GRUPOS_SANGUINEOS =
+        new Diccionario(256, "", "O+", "O-", "A+", "A-", "B+", "B-", "AB+", "AB-");
+    public static final Diccionario ESPECIALIDADES = new Diccionario(4096, "");
+
+    /**
+     * Código de los valores que no están en el diccionario
+     */
+    public static final int SIN_CODIGO = -1;
+
+    private final int maximo;
+    private final Map<String, Integer> codigos;
+    private volatile String[] valores;
+
+    public Diccionario(int maximo, String... iniciales) {
+        this.maximo = maximo;
+        this.codigos = new ConcurrentHashMap<>();
+        this.valores = new String[0];
+        for (String valor : iniciales) {
+            codigo(valor);
+        }
+    }
+
+    /**
+     * Instancia canónica del valor (null si es null)
+     */
+    public String canonico(String valor) {
+        int codigo = codigo(valor);
+        return codigo == SIN_CODIGO ? valor : valores[codigo];
+    }
+
+    /**
+     * Código del valor, asignándole uno si es nuevo; SIN_CODIGO si es null
+     * o si el diccionario está lleno
+     */
+    public int codigo(String valor) {
+        if (valor == null) {
+            return SIN_CODIGO;
+        }
+        Integer codigo = codigos.get(valor);
+        return codigo != null ? codigo : agregar(valor);
+    }
+
+    private synchronized int agregar(String valor) {
+        Integer codigo = codigos.get(valor);
+        if (codigo != null) {
+            return codigo;
+        }
+        if (valores.length == maximo) {
+            return SIN_CODIGO;
+        }
+        String[] nuevos = Arrays.copyOf(valores, valores.length + 1);
+        nuevos[valores.length] = valor;
+        valores = nuevos;
+        codigos.put(valor, valores.length - 1);
+        return valores.length - 1;
+    }
+
+    /**
+     * Valor de un código
+     */
+    public String valor(int codigo) {
+        return valores[codigo];
+    }
+
+    public int tamano() {
+        return valores.length;
+    }
+}
@@ -0,0 +1,53 @@
+package utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utilidad para crear ejecutores de hilos
+ *
+ * En Java 21 o superior usa hilos virtuales (uno por tarea); en versiones
+ * anteriores recurre a un pool de hilos de plataforma sin límite, así el
+ * proyecto sigue compilando con cualquier JDK 17+.
+ */
+public final class Hilos {
+    private Hilos() {
+    }
+
+    /**
+     * Crea un ejecutor que lanza un hilo (virtual si es posible) por tarea
+     */
+    public static ExecutorService ejecutorPorTarea(String prefijo) {
+        try {
+            Method metodo = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) metodo.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(fabrica(prefijo));
+        }
+    }
+
+    /**
+     * Indica si el JDK actual soporta hilos virtuales
+     */
+    public static boolean soportaHilosVirtuales() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Fábrica de hilos daemon con nombre numerado
+     */
+    public static ThreadFactory fabrica(String prefijo) {
+        AtomicInteger contador = new AtomicInteger();
+        return tarea -> {
+            Thread hilo = new Thread(tarea, prefijo + "-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package utils;
+
+import java.util.Comparator;
+
+/**
+ * Utilidades para los identificadores del sistema (PAC001, CON0001, REG00001...)
+ */
+public final class Ids {
+    /**
+     * Orden natural de los IDs con prefijo y número rellenado con ceros:
+     * primero por longitud y luego alfabético, así "REG100000" va después
+     * de "REG99999" aunque el número supere el relleno.
+     */
+    public static final Comparator<String> COMPARADOR = (a, b) -> {
+        if (a.length() != b.length()) {
+            return Integer.compare(a.length(), b.length());
+        }
+        return a.compareTo(b);
+    };
+    
+    /**
+     * Parte numérica de un ID ("REG00042" -> 42), o 0 si no tiene
+     */
+    public static int numero(String id) {
+        int i = id.length();
+        while (i > 0 && Character.isDigit(id.charAt(i - 1))) {
+            i--;
+        }
+        return i < id.length() ? Integer.parseInt(id.substring(i)) : 0;
+    }
+    
+    private Ids() {
+    }
+}
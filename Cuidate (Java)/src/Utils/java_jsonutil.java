@@ -1,8 +1,17 @@
 package utils;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Utilidad para manejar operaciones JSON
@@ -22,47 +31,216 @@ public class JsonUtil {
         .setPrettyPrinting()
         .create();
     
+    private static final Metricas.Temporizador tiempoLeer =
+        Metricas.temporizador("json.leerJson");
+    private static final Metricas.Temporizador tiempoGuardar =
+        Metricas.temporizador("json.guardarJson");
+    private static final Metricas.Histograma bytesLeidos =
+        Metricas.histograma("json.bytesLeidos");
+    private static final Metricas.Histograma bytesEscritos =
+        Metricas.histograma("json.bytesEscritos");
+    private static final Metricas.Contador errores =
+        Metricas.contador("json.errores");
+    
     /**
      * Lee un archivo JSON y lo convierte en JsonObject
      */
     public static JsonObject leerJson(String rutaArchivo) {
+        try {
+            return leerJsonEstricto(rutaArchivo);
+        } catch (Exception e) {
+            errores.incrementar();
+            System.err.println("Error al leer JSON: " + e.getMessage());
+            return new JsonObject();
+        }
+    }
+    
+    /**
+     * Como leerJson, pero un archivo ilegible o mal formado lanza el error
+     * en lugar de leerse como vacío (un archivo que no existe sí es vacío)
+     */
+    public static JsonObject leerJsonEstricto(String rutaArchivo) throws IOException {
+        long inicio = tiempoLeer.iniciar();
         try {
             File archivo = new File(rutaArchivo);
             if (!archivo.exists()) {
                 return new JsonObject();
             }
             
-            String contenido = new String(Files.readAllBytes(Paths.get(rutaArchivo)));
+            byte[] bytes = Files.readAllBytes(Paths.get(rutaArchivo));
+            bytesLeidos.registrar(bytes.length);
+            String contenido = new String(bytes, StandardCharsets.UTF_8);
             if (contenido.trim().isEmpty()) {
                 return new JsonObject();
             }
             
-            return gson.fromJson(contenido, JsonObject.class);
-        } catch (Exception e) {
-            System.err.println("Error al leer JSON: " + e.getMessage());
-            return new JsonObject();
+            try {
+                return gson.fromJson(contenido, JsonObject.class);
+            } catch (JsonParseException e) {
+                throw new IOException(rutaArchivo + " no es JSON válido: " + e.getMessage(), e);
+            }
+        } finally {
+            tiempoLeer.detener(inicio);
         }
     }
     
     /**
-     * Guarda un JsonObject en un archivo
+     * Guarda un JsonObject en un archivo (ver escribirJson); si falla
+     * registra el error y deja el archivo anterior intacto
      */
     public static void guardarJson(String rutaArchivo, JsonObject datos) {
         try {
-            // Crear directorio si no existe
+            escribirJson(rutaArchivo, datos);
+        } catch (Exception e) {
+            errores.incrementar();
+            System.err.println("Error al guardar JSON: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Como guardarJson, pero lanza el error en lugar de registrarlo, para
+     * quien no puede seguir si el archivo no quedó en el disco
+     */
+    public static void escribirJson(String rutaArchivo, JsonObject datos) throws IOException {
+        escribirAtomico(rutaArchivo, escritor -> gson.toJson(datos, escritor));
+    }
+    
+    /**
+     * Lee un archivo JSON de objetos por clave entregando cada valor sin
+     * armar el objeto completo; retorna cuántos leyó
+     */
+    public static long leerJsonEnFlujo(String rutaArchivo, Consumer<JsonObject> entrada) {
+        long inicio = tiempoLeer.iniciar();
+        long leidas = 0;
+        try {
             File archivo = new File(rutaArchivo);
-            File directorio = archivo.getParentFile();
-            if (directorio != null && !directorio.exists()) {
-                directorio.mkdirs();
+            if (!archivo.exists() || archivo.length() == 0) {
+                return 0;
+            }
+            bytesLeidos.registrar(archivo.length());
+            try (JsonReader lector = new JsonReader(Files.newBufferedReader(archivo.toPath(),
+                                                                            StandardCharsets.UTF_8))) {
+                lector.beginObject();
+                while (lector.hasNext()) {
+                    lector.nextName();
+                    entrada.accept(JsonParser.parseReader(lector).getAsJsonObject());
+                    leidas++;
+                }
+                lector.endObject();
             }
-            
-            String json = gson.toJson(datos);
-            Files.write(Paths.get(rutaArchivo), json.getBytes());
         } catch (Exception e) {
+            errores.incrementar();
+            System.err.println("Error al leer JSON: " + e.getMessage());
+        } finally {
+            tiempoLeer.detener(inicio);
+        }
+        return leidas;
+    }
+    
+    /**
+     * Guarda las entradas en un archivo JSON de objetos por clave
+     * escribiéndolas a medida que se recorren, sin armar el objeto completo;
+     * si falla registra el error y deja el archivo anterior intacto
+     */
+    public static void guardarJsonEnFlujo(String rutaArchivo, Stream<JsonObject> entradas,
+                                          Function<JsonObject, String> clave) {
+        try {
+            escribirJsonEnFlujo(rutaArchivo, entradas, clave);
+        } catch (Exception e) {
+            errores.incrementar();
             System.err.println("Error al guardar JSON: " + e.getMessage());
         }
     }
     
+    /**
+     * Como guardarJsonEnFlujo, pero lanza el error en lugar de registrarlo
+     */
+    public static void escribirJsonEnFlujo(String rutaArchivo, Stream<JsonObject> entradas,
+                                           Function<JsonObject, String> clave) throws IOException {
+        escribirAtomico(rutaArchivo, destino -> {
+            JsonWriter escritor = new JsonWriter(destino);
+            escritor.setIndent("  ");
+            escritor.beginObject();
+            Iterator<JsonObject> it = entradas.iterator();
+            while (it.hasNext()) {
+                JsonObject json = it.next();
+                escritor.name(clave.apply(json));
+                gson.toJson(json, escritor);
+            }
+            escritor.endObject();
+            escritor.flush();
+        });
+    }
+    
+    /**
+     * Contenido de texto que escribe escribirAtomico
+     */
+    public interface Escritura {
+        void escribir(Writer destino) throws IOException;
+    }
+    
+    /**
+     * Contenido binario que escribe escribirAtomicoBinario
+     */
+    public interface EscrituraBinaria {
+        void escribir(OutputStream destino) throws IOException;
+    }
+    
+    /**
+     * Escribe el contenido en UTF-8 a un archivo temporal junto al destino,
+     * lo sincroniza al disco y lo mueve sobre el destino de forma atómica;
+     * después sincroniza el directorio para que el cambio de nombre también
+     * sea durable. Quien lea el archivo (o lo cargue tras una caída) ve el
+     * contenido anterior completo o el nuevo completo, nunca uno a medias.
+     */
+    public static void escribirAtomico(String rutaArchivo, Escritura escritura) throws IOException {
+        escribirAtomicoBinario(rutaArchivo, salida -> {
+            Writer escritor = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8));
+            escritura.escribir(escritor);
+            escritor.flush();
+        });
+    }
+    
+    /**
+     * Como escribirAtomico, para contenido binario (por ejemplo comprimido).
+     * La escritura no debe cerrar el flujo que recibe.
+     */
+    public static void escribirAtomicoBinario(String rutaArchivo, EscrituraBinaria escritura) throws IOException {
+        long inicio = tiempoGuardar.iniciar();
+        Path destino = Paths.get(rutaArchivo).toAbsolutePath();
+        Path directorio = destino.getParent();
+        Files.createDirectories(directorio);
+        Path temporal = Files.createTempFile(directorio, destino.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE);
+                 OutputStream salida = new BufferedOutputStream(Channels.newOutputStream(canal))) {
+                escritura.escribir(salida);
+                salida.flush();
+                canal.force(true);
+                bytesEscritos.registrar(canal.size());
+            }
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            sincronizarDirectorio(directorio);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporal);
+            throw e;
+        } finally {
+            tiempoGuardar.detener(inicio);
+        }
+    }
+    
+    /**
+     * Sincroniza la entrada del directorio; en sistemas que no permiten
+     * abrir directorios (Windows) no hace nada
+     */
+    public static void sincronizarDirectorio(Path directorio) {
+        try (FileChannel canal = FileChannel.open(directorio, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // No soportado en esta plataforma
+        }
+    }
+    
     /**
      * Convierte un objeto a JsonElement
      */
@@ -0,0 +1,261 @@
+package utils;
+
+import com.google.gson.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Registro de métricas en proceso: contadores, medidores e histogramas
+ * de latencia
+ *
+ * Las métricas se crean una vez por nombre (normalmente en un campo
+ * static final) y después registrar valores no reserva memoria.
+ * Los histogramas usan cubetas log-lineales al estilo HdrHistogram con
+ * 32 subcubetas por potencia de dos (error relativo menor al 3%).
+ *
+ * Volcado: Metricas.volcarTexto(), Metricas.volcarJson() o
+ * Metricas.volcarArchivo(ruta). Con -Dcuidate.metricas=stdout o
+ * -Dcuidate.metricas=ruta Main vuelca las métricas al terminar.
+ */
+public final class Metricas {
+    private static final Map<String, Contador> contadores = new ConcurrentSkipListMap<>();
+    private static final Map<String, Medidor> medidores = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histograma> histogramas = new ConcurrentSkipListMap<>();
+
+    private Metricas() {
+    }
+
+    /**
+     * Contador monotónico
+     */
+    public static final class Contador {
+        private final LongAdder valor = new LongAdder();
+
+        public void incrementar() { valor.increment(); }
+        public void sumar(long n) { valor.add(n); }
+        public long getValor() { return valor.sum(); }
+    }
+
+    /**
+     * Medidor cuyo valor se consulta al momento del volcado
+     */
+    public static final class Medidor {
+        private volatile LongSupplier fuente;
+
+        private Medidor(LongSupplier fuente) { this.fuente = fuente; }
+        public long getValor() { return fuente.getAsLong(); }
+    }
+
+    /**
+     * Histograma log-lineal de valores no negativos
+     */
+    public static class Histograma {
+        private static final int BITS_SUB = 5;
+        private static final int SUB = 1 << BITS_SUB;
+        private static final int CUBETAS = SUB + (63 - BITS_SUB) * SUB;
+
+        private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+        private final LongAdder cantidad = new LongAdder();
+        private final LongAdder suma = new LongAdder();
+        private final AtomicLong maximo = new AtomicLong();
+
+        /**
+         * Registra un valor (los negativos se cuentan como cero)
+         */
+        public void registrar(long valor) {
+            if (valor < 0) {
+                valor = 0;
+            }
+            cubetas.incrementAndGet(indice(valor));
+            cantidad.increment();
+            suma.add(valor);
+            long actual = maximo.get();
+            while (valor > actual && !maximo.compareAndSet(actual, valor)) {
+                actual = maximo.get();
+            }
+        }
+
+        private static int indice(long valor) {
+            if (valor < SUB) {
+                return (int) valor;
+            }
+            int exponente = 63 - Long.numberOfLeadingZeros(valor);
+            int sub = (int) (valor >>> (exponente - BITS_SUB)) - SUB;
+            return SUB + (exponente - BITS_SUB) * SUB + sub;
+        }
+
+        private static long limiteSuperior(int indice) {
+            if (indice < SUB) {
+                return indice;
+            }
+            int exponente = (indice - SUB) / SUB + BITS_SUB;
+            long sub = (indice - SUB) % SUB + SUB;
+            return ((sub + 1) << (exponente - BITS_SUB)) - 1;
+        }
+
+        public long getCantidad() { return cantidad.sum(); }
+        public long getSuma() { return suma.sum(); }
+        public long getMaximo() { return maximo.get(); }
+
+        public double getPromedio() {
+            long n = getCantidad();
+            return n == 0 ? 0 : (double) getSuma() / n;
+        }
+
+        /**
+         * Valor aproximado del percentil indicado (0-100)
+         */
+        public long percentil(double percentil) {
+            long total = 0;
+            for (int i = 0; i < CUBETAS; i++) {
+                total += cubetas.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long objetivo = Math.max(1, (long) Math.ceil(total * percentil / 100.0));
+            long acumulado = 0;
+            for (int i = 0; i < CUBETAS; i++) {
+                acumulado += cubetas.get(i);
+                if (acumulado >= objetivo) {
+                    return Math.min(limiteSuperior(i), getMaximo());
+                }
+            }
+            return getMaximo();
+        }
+    }
+
+    /**
+     * Histograma de duraciones en nanosegundos
+     */
+    public static final class Temporizador extends Histograma {
+        public long iniciar() {
+            return System.nanoTime();
+        }
+
+        public void detener(long inicio) {
+            registrar(System.nanoTime() - inicio);
+        }
+    }
+
+    public static Contador contador(String nombre) {
+        return contadores.computeIfAbsent(nombre, n -> new Contador());
+    }
+
+    public static Histograma histograma(String nombre) {
+        return histogramas.computeIfAbsent(nombre, n -> new Histograma());
+    }
+
+    public static Temporizador temporizador(String nombre) {
+        Histograma h = histogramas.computeIfAbsent(nombre, n -> new Temporizador());
+        if (!(h instanceof Temporizador)) {
+            throw new IllegalStateException("La métrica " + nombre + " no es un temporizador");
+        }
+        return (Temporizador) h;
+    }
+
+    /**
+     * Registra (o reemplaza la fuente de) un medidor
+     */
+    public static Medidor medidor(String nombre, LongSupplier fuente) {
+        Medidor m = medidores.computeIfAbsent(nombre, n -> new Medidor(fuente));
+        m.fuente = fuente;
+        return m;
+    }
+
+    /**
+     * Vuelca todas las métricas en formato de texto
+     */
+    public static String volcarTexto() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Contador> e : contadores.entrySet()) {
+            sb.append(String.format("%-45s %d%n", e.getKey(), e.getValue().getValor()));
+        }
+        for (Map.Entry<String, Medidor> e : medidores.entrySet()) {
+            sb.append(String.format("%-45s %d%n", e.getKey(), e.getValue().getValor()));
+        }
+        for (Map.Entry<String, Histograma> e : histogramas.entrySet()) {
+            Histograma h = e.getValue();
+            if (h instanceof Temporizador) {
+                sb.append(String.format(
+                    "%-45s n=%d p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms%n",
+                    e.getKey(), h.getCantidad(),
+                    h.percentil(50) / 1e6, h.percentil(99) / 1e6,
+                    h.percentil(99.9) / 1e6, h.getMaximo() / 1e6));
+            } else {
+                sb.append(String.format(
+                    "%-45s n=%d suma=%d p50=%d p99=%d p999=%d max=%d%n",
+                    e.getKey(), h.getCantidad(), h.getSuma(),
+                    h.percentil(50), h.percentil(99), h.percentil(99.9), h.getMaximo()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Vuelca todas las métricas como JsonObject
+     */
+    public static JsonObject volcarJson() {
+        JsonObject json = new JsonObject();
+
+        JsonObject c = new JsonObject();
+        for (Map.Entry<String, Contador> e : contadores.entrySet()) {
+            c.addProperty(e.getKey(), e.getValue().getValor());
+        }
+        json.add("contadores", c);
+
+        JsonObject m = new JsonObject();
+        for (Map.Entry<String, Medidor> e : medidores.entrySet()) {
+            m.addProperty(e.getKey(), e.getValue().getValor());
+        }
+        json.add("medidores", m);
+
+        JsonObject hs = new JsonObject();
+        for (Map.Entry<String, Histograma> e : histogramas.entrySet()) {
+            Histograma h = e.getValue();
+            JsonObject hj = new JsonObject();
+            hj.addProperty("unidad", h instanceof Temporizador ? "ns" : "valor");
+            hj.addProperty("cantidad", h.getCantidad());
+            hj.addProperty("suma", h.getSuma());
+            hj.addProperty("promedio", h.getPromedio());
+            hj.addProperty("p50", h.percentil(50));
+            hj.addProperty("p99", h.percentil(99));
+            hj.addProperty("p999", h.percentil(99.9));
+            hj.addProperty("max", h.getMaximo());
+            hs.add(e.getKey(), hj);
+        }
+        json.add("histogramas", hs);
+
+        return json;
+    }
+
+    /**
+     * Vuelca las métricas a un archivo (JSON si termina en .json)
+     * o a la salida estándar si la ruta es "stdout"
+     */
+    public static void volcarArchivo(String ruta) {
+        if ("stdout".equals(ruta)) {
+            System.out.print(volcarTexto());
+            return;
+        }
+
+        try {
+            String contenido = ruta.endsWith(".json")
+                ? new GsonBuilder().setPrettyPrinting().create().toJson(volcarJson())
+                : volcarTexto();
+            Path destino = Paths.get(ruta);
+            if (destino.getParent() != null) {
+                Files.createDirectories(destino.getParent());
+            }
+            Files.write(destino, contenido.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Error al volcar métricas: " + e.getMessage());
+        }
+    }
+}
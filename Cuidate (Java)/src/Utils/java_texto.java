@@ -0,0 +1,28 @@
+package utils;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Utilidades de texto
+ */
+public final class Texto {
+    private static final Pattern DIACRITICOS = Pattern.compile("\\p{M}+");
+    
+    private Texto() {
+    }
+    
+    /**
+     * Normaliza un texto para comparaciones: sin tildes, en minúsculas
+     * y sin espacios sobrantes (Rodríguez -> rodriguez)
+     */
+    public static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        String sinTildes = DIACRITICOS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD))
+                                      .replaceAll("");
+        return sinTildes.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
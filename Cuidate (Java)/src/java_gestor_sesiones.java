@@ -0,0 +1,99 @@
+import api.Sesion;
+import services.*;
+import utils.Hilos;
+import utils.Metricas;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Ejecuta sesiones interactivas de CUIDATE, cada una en su propio hilo
+ * (virtual en Java 21+)
+ *
+ * Los servicios se comparten entre todas las sesiones; el estado de cada
+ * usuario vive en su objeto Sesion. Además de la consola local puede
+ * aceptar conexiones TCP estilo telnet (por ejemplo: telnet localhost 2323).
+ */
+public class GestorSesiones {
+    private static final long INACTIVIDAD_MAXIMA_MS = 30 * 60 * 1000L;
+    
+    private final GestionUsuarios gestionUsuarios;
+    private final GestionConsultas gestionConsultas;
+    private final MonitoreoSalud monitoreoSalud;
+    private final ExecutorService ejecutor;
+    private final Map<String, Sesion> activas;
+    
+    public GestorSesiones(GestionUsuarios gestionUsuarios,
+                          GestionConsultas gestionConsultas,
+                          MonitoreoSalud monitoreoSalud) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.gestionConsultas = gestionConsultas;
+        this.monitoreoSalud = monitoreoSalud;
+        this.ejecutor = Hilos.ejecutorPorTarea("sesion");
+        this.activas = new ConcurrentHashMap<>();
+        Metricas.medidor("sesiones.activas", activas::size);
+    }
+    
+    /**
+     * Inicia una sesión en un hilo propio
+     */
+    public Future<?> iniciar(Sesion sesion) {
+        activas.put(sesion.getIdSesion(), sesion);
+        return ejecutor.submit(() -> {
+            try {
+                new Main(gestionUsuarios, gestionConsultas, monitoreoSalud, sesion).ejecutar();
+            } finally {
+                activas.remove(sesion.getIdSesion());
+                sesion.close();
+            }
+        });
+    }
+    
+    /**
+     * Acepta conexiones TCP en la interfaz indicada y abre una sesión por
+     * cada cliente
+     */
+    public void escuchar(String host, int puerto) throws IOException {
+        ScheduledExecutorService limpieza =
+            Executors.newSingleThreadScheduledExecutor(Hilos.fabrica("sesiones-limpieza"));
+        limpieza.scheduleAtFixedRate(() -> cerrarInactivas(INACTIVIDAD_MAXIMA_MS),
+                                     1, 1, TimeUnit.MINUTES);
+        
+        try (ServerSocket servidor = new ServerSocket()) {
+            servidor.bind(new InetSocketAddress(InetAddress.getByName(host), puerto), 1024);
+            while (!servidor.isClosed()) {
+                Socket cliente = servidor.accept();
+                PrintStream salida = new PrintStream(
+                    new BufferedOutputStream(cliente.getOutputStream()), true,
+                    StandardCharsets.UTF_8);
+                iniciar(new Sesion(cliente.getInputStream(), salida, false, cliente));
+            }
+        } finally {
+            limpieza.shutdownNow();
+        }
+    }
+    
+    /**
+     * Cierra las sesiones remotas sin actividad durante el tiempo indicado
+     */
+    public void cerrarInactivas(long inactividadMaximaMs) {
+        long limite = System.currentTimeMillis() - inactividadMaximaMs;
+        for (Sesion sesion : activas.values()) {
+            if (!sesion.esConsola() && sesion.getUltimaActividad() < limite) {
+                sesion.close();
+            }
+        }
+    }
+    
+    /**
+     * Número de sesiones abiertas
+     */
+    public int getSesionesActivas() {
+        return activas.size();
+    }
+}
@@ -1,42 +1,99 @@
 import models.*;
 import services.*;
+import api.ServidorApi;
+import api.Sesion;
+import utils.AlmacenParticionado;
+import utils.Hilos;
+import utils.Metricas;
+import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * CUIDATE - Sistema de Asistencia Básica en Salud
  * Versión Beta - Terminal (Java)
  */
 public class Main {
+    private static final int TAMANO_PAGINA = 5;
+    
     private GestionUsuarios gestionUsuarios;
     private GestionConsultas gestionConsultas;
     private MonitoreoSalud monitoreoSalud;
-    private Usuario usuarioActual;
-    private Scanner scanner;
+    private Sesion sesion;
+    private PrintStream salida;
+    
+    public Main(GestionUsuarios gestionUsuarios, GestionConsultas gestionConsultas,
+                MonitoreoSalud monitoreoSalud, Sesion sesion) {
+        this.gestionUsuarios = gestionUsuarios;
+        this.gestionConsultas = gestionConsultas;
+        this.monitoreoSalud = monitoreoSalud;
+        this.sesion = sesion;
+        this.salida = sesion.getSalida();
+    }
     
     public Main() {
-        this.gestionUsuarios = new GestionUsuarios();
-        this.gestionConsultas = new GestionConsultas();
-        this.monitoreoSalud = new MonitoreoSalud();
-        this.usuarioActual = null;
-        this.scanner = new Scanner(System.in);
+        this(new GestionUsuarios(), new GestionConsultas(), new MonitoreoSalud(),
+             Sesion.consola());
+        conectarServicios(gestionUsuarios, gestionConsultas, monitoreoSalud, "data");
     }
     
+    /**
+     * Conecta las dependencias entre servicios
+     */
+    static void conectarServicios(GestionUsuarios gestionUsuarios,
+                                  GestionConsultas gestionConsultas,
+                                  MonitoreoSalud monitoreoSalud, String datos) {
+        // Rehace las transacciones confirmadas que aún no llegaron a los
+        // archivos antes de que los demás servicios lean el estado
+        gestionConsultas.setTransacciones(new Transacciones(gestionUsuarios, gestionConsultas,
+                                                            datos + "/transacciones.log"));
+        
+        // La urgencia de una consulta es el nivel de alerta del último registro del paciente
+        gestionConsultas.setUrgenciaPaciente(idPaciente -> {
+            RegistroSalud ultimo = monitoreoSalud.obtenerUltimoRegistro(idPaciente);
+            return ultimo != null ? ultimo.nivelAlerta() : 0;
+        });
+        
+        // Asignación automática al médico menos cargado de cada especialidad
+        AsignacionMedicos asignacion = new AsignacionMedicos();
+        asignacion.inicializar(gestionUsuarios.obtenerMedicos(),
+                               gestionConsultas.contarPendientesPorMedico());
+        gestionUsuarios.agregarObservador(asignacion);
+        gestionConsultas.setAsignacionMedicos(asignacion);
+    }
+
+    /**
+     * Muestra el resumen de una importación masiva
+     */
+    private static void mostrarImportacion(ImportacionMasiva.Resultado resultado) {
+        System.out.println("Importación: " + resultado);
+        for (String error : resultado.getErrores()) {
+            System.out.println("  " + error);
+        }
+        if (resultado.getInvalidas() > resultado.getErrores().size()) {
+            System.out.println("  ... y " + (resultado.getInvalidas() - resultado.getErrores().size())
+                               + " filas inválidas más");
+        }
+    }
+
     /**
      * Limpia la pantalla de la terminal
      */
     private void limpiarPantalla() {
         try {
             String os = System.getProperty("os.name");
-            if (os.contains("Windows")) {
+            if (sesion.esConsola() && os.contains("Windows")) {
                 new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
             } else {
-                System.out.print("\033[H\033[2J");
-                System.out.flush();
+                salida.print("\033[H\033[2J");
+                salida.flush();
             }
         } catch (Exception e) {
             // Si falla, imprimir líneas en blanco
             for (int i = 0; i < 50; i++) {
-                System.out.println();
+                salida.println();
             }
         }
     }
@@ -45,8 +102,8 @@ public class Main {
      * Pausa la ejecución hasta que el usuario presione Enter
      */
     private void pausar() {
-        System.out.println("\nPresiona Enter para continuar...");
-        scanner.nextLine();
+        salida.println("\nPresiona Enter para continuar...");
+        sesion.leerLinea();
     }
     
     /**
@@ -54,10 +111,10 @@ public class Main {
      */
     private void mostrarEncabezado(String titulo) {
         limpiarPantalla();
-        System.out.println("============================================================");
-        System.out.println("  " + centrarTexto(titulo, 56));
-        System.out.println("============================================================");
-        System.out.println();
+        salida.println("============================================================");
+        salida.println("  " + centrarTexto(titulo, 56));
+        salida.println("============================================================");
+        salida.println();
     }
     
     /**
@@ -78,19 +135,19 @@ public class Main {
      */
     private boolean validarNombre(String texto, String campo) {
         if (texto == null || texto.isEmpty()) {
-            System.out.println("\n" + campo + " no puede estar vacío.");
+            salida.println("\n" + campo + " no puede estar vacío.");
             return false;
         }
         
         for (char c : texto.toCharArray()) {
             if (Character.isDigit(c)) {
-                System.out.println("\n" + campo + " no puede contener números.");
+                salida.println("\n" + campo + " no puede contener números.");
                 return false;
             }
         }
         
         if (texto.length() < 2) {
-            System.out.println("\n" + campo + " debe tener al menos 2 caracteres.");
+            salida.println("\n" + campo + " debe tener al menos 2 caracteres.");
             return false;
         }
         
@@ -102,17 +159,17 @@ public class Main {
      */
     private boolean validarCedula(String cedula) {
         if (cedula == null || cedula.isEmpty()) {
-            System.out.println("\nLa cédula no puede estar vacía.");
+            salida.println("\nLa cédula no puede estar vacía.");
             return false;
         }
         
         if (!cedula.matches("\\d+")) {
-            System.out.println("\nLa cédula debe contener solo números.");
+            salida.println("\nLa cédula debe contener solo números.");
             return false;
         }
         
         if (cedula.length() < 6) {
-            System.out.println("\nLa cédula debe tener al menos 6 dígitos.");
+            salida.println("\nLa cédula debe tener al menos 6 dígitos.");
             return false;
         }
         
@@ -124,17 +181,17 @@ public class Main {
      */
     private boolean validarEspecialidad(String especialidad) {
         if (especialidad == null || especialidad.isEmpty()) {
-            System.out.println("\nLa especialidad no puede estar vacía.");
+            salida.println("\nLa especialidad no puede estar vacía.");
             return false;
         }
         
         if (especialidad.matches("\\d+")) {
-            System.out.println("\nLa especialidad no puede contener solo números.");
+            salida.println("\nLa especialidad no puede contener solo números.");
             return false;
         }
         
         if (especialidad.length() < 3) {
-            System.out.println("\nLa especialidad debe tener al menos 3 caracteres.");
+            salida.println("\nLa especialidad debe tener al menos 3 caracteres.");
             return false;
         }
         
@@ -147,14 +204,14 @@ public class Main {
     private void mostrarMenuPrincipal() {
         while (true) {
             mostrarEncabezado("SISTEMA CUIDATE - Asistencia Básica en Salud");
-            System.out.println("1. Iniciar sesión");
-            System.out.println("2. Registrarse");
-            System.out.println("3. Consultar servicios");
-            System.out.println("4. Salir");
-            System.out.println();
+            salida.println("1. Iniciar sesión");
+            salida.println("2. Registrarse");
+            salida.println("3. Consultar servicios");
+            salida.println("4. Salir");
+            salida.println();
             
-            System.out.print("Selecciona una opción: ");
-            String opcion = scanner.nextLine().trim();
+            salida.print("Selecciona una opción: ");
+            String opcion = sesion.leerLinea().trim();
             
             switch (opcion) {
                 case "1":
@@ -167,11 +224,10 @@ public class Main {
                     consultarServicios();
                     break;
                 case "4":
-                    System.out.println("\n¡Gracias por usar CUIDATE! Hasta pronto.");
-                    System.exit(0);
-                    break;
+                    salida.println("\n¡Gracias por usar CUIDATE! Hasta pronto.");
+                    return;
                 default:
-                    System.out.println("\nOpción inválida. Intenta de nuevo.");
+                    salida.println("\nOpción inválida. Intenta de nuevo.");
                     pausar();
             }
         }
@@ -183,42 +239,42 @@ public class Main {
     private void iniciarSesion() {
         mostrarEncabezado("Iniciar Sesión");
         
-        System.out.println("Tipo de usuario:");
-        System.out.println("1. Paciente");
-        System.out.println("2. Médico");
-        System.out.println();
+        salida.println("Tipo de usuario:");
+        salida.println("1. Paciente");
+        salida.println("2. Médico");
+        salida.println();
         
-        System.out.print("Selecciona el tipo de usuario: ");
-        String tipoUsuario = scanner.nextLine().trim();
+        salida.print("Selecciona el tipo de usuario: ");
+        String tipoUsuario = sesion.leerLinea().trim();
         
         if (!tipoUsuario.equals("1") && !tipoUsuario.equals("2")) {
-            System.out.println("\nTipo de usuario inválido.");
+            salida.println("\nTipo de usuario inválido.");
             pausar();
             return;
         }
         
-        System.out.println();
-        System.out.print("Cédula: ");
-        String cedula = scanner.nextLine().trim();
-        System.out.print("Contraseña: ");
-        String contrasena = scanner.nextLine().trim();
+        salida.println();
+        salida.print("Cédula: ");
+        String cedula = sesion.leerLinea().trim();
+        salida.print("Contraseña: ");
+        String contrasena = sesion.leerLinea().trim();
         
         Usuario usuario = gestionUsuarios.iniciarSesion(cedula, contrasena);
         
         if (usuario != null) {
             // Verificar que el tipo de usuario coincida con la selección
             if (tipoUsuario.equals("1") && !(usuario instanceof Paciente)) {
-                System.out.println("\nError: Esta cédula pertenece a un médico, no a un paciente.");
+                salida.println("\nError: Esta cédula pertenece a un médico, no a un paciente.");
                 pausar();
                 return;
             } else if (tipoUsuario.equals("2") && !(usuario instanceof Medico)) {
-                System.out.println("\nError: Esta cédula pertenece a un paciente, no a un médico.");
+                salida.println("\nError: Esta cédula pertenece a un paciente, no a un médico.");
                 pausar();
                 return;
             }
             
-            this.usuarioActual = usuario;
-            System.out.println("\n¡Bienvenido/a, " + usuario.getNombreCompleto() + "!");
+            sesion.setUsuarioActual(usuario);
+            salida.println("\n¡Bienvenido/a, " + usuario.getNombreCompleto() + "!");
             
             try {
                 Thread.sleep(1000);
@@ -232,7 +288,7 @@ public class Main {
                 menuMedico();
             }
         } else {
-            System.out.println("\nCédula o contraseña incorrectas.");
+            salida.println("\nCédula o contraseña incorrectas.");
             pausar();
         }
     }
@@ -243,27 +299,27 @@ public class Main {
     private void registrarse() {
         mostrarEncabezado("Registro de Usuario");
         
-        System.out.println("Tipo de usuario:");
-        System.out.println("1. Paciente");
-        System.out.println("2. Médico");
-        System.out.println();
+        salida.println("Tipo de usuario:");
+        salida.println("1. Paciente");
+        salida.println("2. Médico");
+        salida.println();
         
-        System.out.print("Selecciona el tipo: ");
-        String tipo = scanner.nextLine().trim();
+        salida.print("Selecciona el tipo: ");
+        String tipo = sesion.leerLinea().trim();
         
         if (!tipo.equals("1") && !tipo.equals("2")) {
-            System.out.println("\nTipo inválido.");
+            salida.println("\nTipo inválido.");
             pausar();
             return;
         }
         
-        System.out.println();
+        salida.println();
         
         // Validar nombre
         String nombre;
         while (true) {
-            System.out.print("Nombre: ");
-            nombre = scanner.nextLine().trim();
+            salida.print("Nombre: ");
+            nombre = sesion.leerLinea().trim();
             if (validarNombre(nombre, "Nombre")) {
                 break;
             }
@@ -272,8 +328,8 @@ public class Main {
         // Validar apellido
         String apellido;
         while (true) {
-            System.out.print("Apellido: ");
-            apellido = scanner.nextLine().trim();
+            salida.print("Apellido: ");
+            apellido = sesion.leerLinea().trim();
             if (validarNombre(apellido, "Apellido")) {
                 break;
             }
@@ -282,57 +338,57 @@ public class Main {
         // Validar cédula
         String cedula;
         while (true) {
-            System.out.print("Cédula: ");
-            cedula = scanner.nextLine().trim();
+            salida.print("Cédula: ");
+            cedula = sesion.leerLinea().trim();
             if (validarCedula(cedula)) {
                 if (gestionUsuarios.buscarPorCedula(cedula) != null) {
-                    System.out.println("\nError: Esta cédula ya está registrada.");
+                    salida.println("\nError: Esta cédula ya está registrada.");
                 } else {
                     break;
                 }
             }
         }
         
-        System.out.print("Correo electrónico: ");
-        String correo = scanner.nextLine().trim();
-        System.out.print("Contraseña: ");
-        String contrasena = scanner.nextLine().trim();
+        salida.print("Correo electrónico: ");
+        String correo = sesion.leerLinea().trim();
+        salida.print("Contraseña: ");
+        String contrasena = sesion.leerLinea().trim();
         
         Usuario usuario = null;
         
         if (tipo.equals("1")) {
-            System.out.println();
-            System.out.print("Edad: ");
+            salida.println();
+            salida.print("Edad: ");
             int edad = 0;
             try {
-                edad = Integer.parseInt(scanner.nextLine().trim());
+                edad = Integer.parseInt(sesion.leerLinea().trim());
             } catch (NumberFormatException e) {
                 edad = 0;
             }
             
-            System.out.print("Género (M/F/Otro): ");
-            String genero = scanner.nextLine().trim();
-            System.out.print("Teléfono: ");
-            String telefono = scanner.nextLine().trim();
+            salida.print("Género (M/F/Otro): ");
+            String genero = sesion.leerLinea().trim();
+            salida.print("Teléfono: ");
+            String telefono = sesion.leerLinea().trim();
             
             usuario = gestionUsuarios.registrarPaciente(nombre, apellido, cedula,
                                                        correo, contrasena, edad,
                                                        genero, telefono);
         } else {
-            System.out.println();
+            salida.println();
             
             // Validar especialidad
             String especialidad;
             while (true) {
-                System.out.print("Especialidad (ej: Cardiología, Pediatría, Medicina General): ");
-                especialidad = scanner.nextLine().trim();
+                salida.print("Especialidad (ej: Cardiología, Pediatría, Medicina General): ");
+                especialidad = sesion.leerLinea().trim();
                 if (validarEspecialidad(especialidad)) {
                     break;
                 }
             }
             
-            System.out.print("Registro Médico (ej: RM-2024-001): ");
-            String registroMedico = scanner.nextLine().trim();
+            salida.print("Registro Médico (ej: RM-2024-001): ");
+            String registroMedico = sesion.leerLinea().trim();
             
             usuario = gestionUsuarios.registrarMedico(nombre, apellido, cedula,
                                                      correo, contrasena, especialidad,
@@ -340,9 +396,9 @@ public class Main {
         }
         
         if (usuario != null) {
-            System.out.println("\n✓ Registro exitoso! Tu ID es: " + usuario.getIdUsuario());
+            salida.println("\n✓ Registro exitoso! Tu ID es: " + usuario.getIdUsuario());
         } else {
-            System.out.println("\nError: No se pudo completar el registro.");
+            salida.println("\nError: No se pudo completar el registro.");
         }
         
         pausar();
@@ -354,14 +410,14 @@ public class Main {
     private void consultarServicios() {
         mostrarEncabezado("Servicios Disponibles");
         
-        System.out.println("📋 CUIDATE ofrece los siguientes servicios:\n");
-        System.out.println("✓ Monitoreo de signos vitales en tiempo real");
-        System.out.println("✓ Consultas médicas en línea");
-        System.out.println("✓ Historial médico digital");
-        System.out.println("✓ Consejos de salud personalizados");
-        System.out.println("✓ Seguimiento de tratamientos");
-        System.out.println("✓ Alertas de salud preventivas");
-        System.out.println("\n¡Regístrate para acceder a todos estos servicios!");
+        salida.println("📋 CUIDATE ofrece los siguientes servicios:\n");
+        salida.println("✓ Monitoreo de signos vitales en tiempo real");
+        salida.println("✓ Consultas médicas en línea");
+        salida.println("✓ Historial médico digital");
+        salida.println("✓ Consejos de salud personalizados");
+        salida.println("✓ Seguimiento de tratamientos");
+        salida.println("✓ Alertas de salud preventivas");
+        salida.println("\n¡Regístrate para acceder a todos estos servicios!");
         
         pausar();
     }
@@ -371,18 +427,18 @@ public class Main {
      */
     private void menuPaciente() {
         while (true) {
-            mostrarEncabezado("Panel del Paciente - " + usuarioActual.getNombreCompleto());
+            mostrarEncabezado("Panel del Paciente - " + sesion.getUsuarioActual().getNombreCompleto());
             
-            System.out.println("1. Monitoreo de salud");
-            System.out.println("2. Solicitar consulta en línea");
-            System.out.println("3. Historial de consultas");
-            System.out.println("4. Consejos de salud");
-            System.out.println("5. Actualizar datos personales");
-            System.out.println("6. Cerrar sesión");
-            System.out.println();
+            salida.println("1. Monitoreo de salud");
+            salida.println("2. Solicitar consulta en línea");
+            salida.println("3. Historial de consultas");
+            salida.println("4. Consejos de salud");
+            salida.println("5. Actualizar datos personales");
+            salida.println("6. Cerrar sesión");
+            salida.println();
             
-            System.out.print("Selecciona una opción: ");
-            String opcion = scanner.nextLine().trim();
+            salida.print("Selecciona una opción: ");
+            String opcion = sesion.leerLinea().trim();
             
             switch (opcion) {
                 case "1":
@@ -404,7 +460,7 @@ public class Main {
                     cerrarSesion();
                     return;
                 default:
-                    System.out.println("\nOpción inválida.");
+                    salida.println("\nOpción inválida.");
                     pausar();
             }
         }
@@ -416,33 +472,33 @@ public class Main {
     private void monitoreoSaludPaciente() {
         mostrarEncabezado("Monitoreo de Salud");
         
-        System.out.println("Generando lectura de signos vitales...\n");
+        salida.println("Generando lectura de signos vitales...\n");
         try {
             Thread.sleep(1000);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
         
-        RegistroSalud registro = monitoreoSalud.crearRegistroAleatorio(usuarioActual.getIdUsuario());
+        RegistroSalud registro = monitoreoSalud.crearRegistroAleatorio(sesion.getUsuarioActual().getIdUsuario());
         
-        System.out.println("📊 SIGNOS VITALES - " + registro.getFechaRegistro());
-        System.out.println("------------------------------------------------------------");
-        System.out.println("Presión Arterial: " + registro.getPresionSistolica() + "/" + 
+        salida.println("📊 SIGNOS VITALES - " + registro.getFechaRegistro());
+        salida.println("------------------------------------------------------------");
+        salida.println("Presión Arterial: " + registro.getPresionSistolica() + "/" + 
                           registro.getPresionDiastolica() + " mmHg");
-        System.out.println("Frecuencia Cardíaca: " + registro.getFrecuenciaCardiaca() + " lpm");
-        System.out.println("Temperatura: " + registro.getTemperatura() + "°C");
-        System.out.println("Saturación de Oxígeno: " + registro.getSaturacionOxigeno() + "%");
-        System.out.println("------------------------------------------------------------");
-        System.out.println("\n📋 Evaluación: " + registro.evaluarEstado());
+        salida.println("Frecuencia Cardíaca: " + registro.getFrecuenciaCardiaca() + " lpm");
+        salida.println("Temperatura: " + registro.getTemperatura() + "°C");
+        salida.println("Saturación de Oxígeno: " + registro.getSaturacionOxigeno() + "%");
+        salida.println("------------------------------------------------------------");
+        salida.println("\n📋 Evaluación: " + registro.evaluarEstado());
         
         // Mostrar tendencias si hay registros anteriores
-        Map<String, String> tendencias = monitoreoSalud.analizarTendencias(usuarioActual.getIdUsuario());
+        Map<String, String> tendencias = monitoreoSalud.analizarTendencias(sesion.getUsuarioActual().getIdUsuario());
         
         if (!tendencias.containsKey("mensaje")) {
-            System.out.println("\n📈 Tendencias:");
-            System.out.println("  • Presión arterial: " + tendencias.getOrDefault("presion", "N/A"));
-            System.out.println("  • Frecuencia cardíaca: " + tendencias.getOrDefault("frecuencia", "N/A"));
-            System.out.println("  • Temperatura: " + tendencias.getOrDefault("temperatura", "N/A"));
+            salida.println("\n📈 Tendencias:");
+            salida.println("  • Presión arterial: " + tendencias.getOrDefault("presion", "N/A"));
+            salida.println("  • Frecuencia cardíaca: " + tendencias.getOrDefault("frecuencia", "N/A"));
+            salida.println("  • Temperatura: " + tendencias.getOrDefault("temperatura", "N/A"));
         }
         
         pausar();
@@ -454,60 +510,67 @@ public class Main {
     private void solicitarConsulta() {
         mostrarEncabezado("Solicitar Consulta en Línea");
         
-        List<Medico> medicos = gestionUsuarios.obtenerMedicos();
+        List<String> especialidades = new ArrayList<>(
+            gestionConsultas.getAsignacionMedicos().especialidades().keySet());
         
-        if (medicos.isEmpty()) {
-            System.out.println("No hay médicos disponibles en este momento.");
+        if (especialidades.isEmpty()) {
+            salida.println("No hay médicos disponibles en este momento.");
             pausar();
             return;
         }
         
-        System.out.println("Médicos disponibles:\n");
-        for (int i = 0; i < medicos.size(); i++) {
-            Medico medico = medicos.get(i);
-            System.out.println((i + 1) + ". Dr(a). " + medico.getNombreCompleto());
-            System.out.println("   Especialidad: " + medico.getEspecialidad());
-            System.out.println("   Experiencia: " + medico.getAnosExperiencia() + " años\n");
+        salida.println("Especialidades disponibles:\n");
+        for (int i = 0; i < especialidades.size(); i++) {
+            salida.println((i + 1) + ". " + especialidades.get(i));
         }
+        salida.println();
         
         try {
-            System.out.print("Selecciona un médico (número): ");
-            int seleccion = Integer.parseInt(scanner.nextLine().trim());
-            
-            if (seleccion >= 1 && seleccion <= medicos.size()) {
-                Medico medico = medicos.get(seleccion - 1);
-                System.out.println();
-                System.out.print("Motivo de la consulta: ");
-                String motivo = scanner.nextLine().trim();
+            salida.print("Selecciona una especialidad (número): ");
+            int seleccion = Integer.parseInt(sesion.leerLinea().trim());
+            
+            if (seleccion >= 1 && seleccion <= especialidades.size()) {
+                String especialidad = especialidades.get(seleccion - 1);
+                salida.println();
+                salida.print("Motivo de la consulta: ");
+                String motivo = sesion.leerLinea().trim();
                 
                 if (!motivo.isEmpty()) {
-                    Consulta consulta = gestionConsultas.crearConsulta(
-                        usuarioActual.getIdUsuario(),
-                        medico.getIdUsuario(),
-                        motivo
-                    );
+                    // La consulta, el historial del paciente y la asignación al
+                    // médico (el menos cargado) se confirman juntos o nada
+                    String idPaciente = sesion.getUsuarioActual().getIdUsuario();
+                    Consulta consulta = gestionConsultas.getTransacciones().ejecutar(tx -> {
+                        Consulta nueva = tx.solicitarConsulta(idPaciente, especialidad, motivo);
+                        if (nueva != null) {
+                            tx.modificarUsuario(idPaciente,
+                                u -> ((Paciente) u).agregarConsulta(nueva.getIdConsulta()));
+                            tx.modificarUsuario(nueva.getIdMedico(),
+                                u -> ((Medico) u).asignarPaciente(idPaciente));
+                        }
+                        return nueva;
+                    });
                     
-                    // Actualizar historial del paciente
-                    if (usuarioActual instanceof Paciente) {
-                        ((Paciente) usuarioActual).agregarConsulta(consulta.getIdConsulta());
-                        gestionUsuarios.actualizarUsuario(usuarioActual);
+                    if (consulta == null) {
+                        salida.println("\nNo hay médicos disponibles en esa especialidad.");
+                        pausar();
+                        return;
                     }
                     
-                    // Asignar paciente al médico
-                    medico.asignarPaciente(usuarioActual.getIdUsuario());
-                    gestionUsuarios.actualizarUsuario(medico);
+                    sesion.setUsuarioActual(gestionUsuarios.buscarPorId(idPaciente));
+                    Medico medico = (Medico) gestionUsuarios.buscarPorId(consulta.getIdMedico());
                     
-                    System.out.println("\n✓ Consulta creada exitosamente!");
-                    System.out.println("ID de consulta: " + consulta.getIdConsulta());
-                    System.out.println("Estado: " + consulta.getEstado());
+                    salida.println("\n✓ Consulta creada exitosamente!");
+                    salida.println("ID de consulta: " + consulta.getIdConsulta());
+                    salida.println("Médico asignado: Dr(a). " + medico.getNombreCompleto());
+                    salida.println("Estado: " + consulta.getEstado());
                 } else {
-                    System.out.println("\nDebe ingresar un motivo para la consulta.");
+                    salida.println("\nDebe ingresar un motivo para la consulta.");
                 }
             } else {
-                System.out.println("\nSelección inválida.");
+                salida.println("\nSelección inválida.");
             }
         } catch (NumberFormatException e) {
-            System.out.println("\nEntrada inválida.");
+            salida.println("\nEntrada inválida.");
         }
         
         pausar();
@@ -519,30 +582,42 @@ public class Main {
     private void historialConsultasPaciente() {
         mostrarEncabezado("Historial de Consultas");
         
-        List<Consulta> consultas = gestionConsultas.obtenerConsultasPaciente(usuarioActual.getIdUsuario());
+        String idPaciente = sesion.getUsuarioActual().getIdUsuario();
+        Pagina<Consulta> pagina = gestionConsultas.paginarConsultasPaciente(idPaciente, null, TAMANO_PAGINA);
         
-        if (consultas.isEmpty()) {
-            System.out.println("No tienes consultas registradas.");
-        } else {
-            for (Consulta consulta : consultas) {
+        if (pagina.getElementos().isEmpty()) {
+            salida.println("No tienes consultas registradas.");
+        }
+        while (!pagina.getElementos().isEmpty()) {
+            for (Consulta consulta : pagina.getElementos()) {
                 Usuario medico = gestionUsuarios.buscarPorId(consulta.getIdMedico());
-                System.out.println("\n============================================================");
-                System.out.println("ID: " + consulta.getIdConsulta());
-                System.out.println("Médico: Dr(a). " + (medico != null ? medico.getNombreCompleto() : "N/A"));
-                System.out.println("Fecha: " + consulta.getFechaSolicitud());
-                System.out.println("Motivo: " + consulta.getMotivo());
-                System.out.println("Estado: " + consulta.getEstado());
+                salida.println("\n============================================================");
+                salida.println("ID: " + consulta.getIdConsulta());
+                salida.println("Médico: Dr(a). " + (medico != null ? medico.getNombreCompleto() : "N/A"));
+                salida.println("Fecha: " + consulta.getFechaSolicitud());
+                salida.println("Motivo: " + consulta.getMotivo());
+                salida.println("Estado: " + consulta.getEstado());
                 
                 if (!consulta.getDiagnostico().isEmpty()) {
-                    System.out.println("\nDiagnóstico: " + consulta.getDiagnostico());
+                    salida.println("\nDiagnóstico: " + consulta.getDiagnostico());
                 }
                 if (!consulta.getTratamiento().isEmpty()) {
-                    System.out.println("Tratamiento: " + consulta.getTratamiento());
+                    salida.println("Tratamiento: " + consulta.getTratamiento());
                 }
                 if (!consulta.getObservaciones().isEmpty()) {
-                    System.out.println("Observaciones: " + consulta.getObservaciones());
+                    salida.println("Observaciones: " + consulta.getObservaciones());
                 }
             }
+            
+            if (!pagina.haySiguiente()) {
+                break;
+            }
+            salida.print("\nEnter para ver más, 'q' para salir: ");
+            if (sesion.leerLinea().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+            pagina = gestionConsultas.paginarConsultasPaciente(idPaciente, pagina.getSiguienteCursor(),
+                                                               TAMANO_PAGINA);
         }
         
         pausar();
@@ -556,9 +631,9 @@ public class Main {
         
         List<String> consejos = monitoreoSalud.generarConsejosSalud();
         
-        System.out.println("💡 Consejos para mantener una vida saludable:\n");
+        salida.println("💡 Consejos para mantener una vida saludable:\n");
         for (int i = 0; i < consejos.size(); i++) {
-            System.out.println((i + 1) + ". " + consejos.get(i));
+            salida.println((i + 1) + ". " + consejos.get(i));
         }
         
         pausar();
@@ -570,62 +645,62 @@ public class Main {
     private void actualizarDatosPaciente() {
         mostrarEncabezado("Actualizar Datos Personales");
         
-        System.out.println("Deja en blanco para mantener el valor actual\n");
+        salida.println("Deja en blanco para mantener el valor actual\n");
         
         // Validar nombre
-        System.out.print("Nombre (" + usuarioActual.getNombre() + "): ");
-        String nombreInput = scanner.nextLine().trim();
+        salida.print("Nombre (" + sesion.getUsuarioActual().getNombre() + "): ");
+        String nombreInput = sesion.leerLinea().trim();
         String nombre = null;
         if (!nombreInput.isEmpty()) {
             while (!validarNombre(nombreInput, "Nombre")) {
-                System.out.print("Nombre (" + usuarioActual.getNombre() + "): ");
-                nombreInput = scanner.nextLine().trim();
+                salida.print("Nombre (" + sesion.getUsuarioActual().getNombre() + "): ");
+                nombreInput = sesion.leerLinea().trim();
             }
             nombre = nombreInput;
         }
         
         // Validar apellido
-        System.out.print("Apellido (" + usuarioActual.getApellido() + "): ");
-        String apellidoInput = scanner.nextLine().trim();
+        salida.print("Apellido (" + sesion.getUsuarioActual().getApellido() + "): ");
+        String apellidoInput = sesion.leerLinea().trim();
         String apellido = null;
         if (!apellidoInput.isEmpty()) {
             while (!validarNombre(apellidoInput, "Apellido")) {
-                System.out.print("Apellido (" + usuarioActual.getApellido() + "): ");
-                apellidoInput = scanner.nextLine().trim();
+                salida.print("Apellido (" + sesion.getUsuarioActual().getApellido() + "): ");
+                apellidoInput = sesion.leerLinea().trim();
             }
             apellido = apellidoInput;
         }
         
-        System.out.print("Correo (" + usuarioActual.getCorreo() + "): ");
-        String correo = scanner.nextLine().trim();
+        salida.print("Correo (" + sesion.getUsuarioActual().getCorreo() + "): ");
+        String correo = sesion.leerLinea().trim();
         
-        if (usuarioActual instanceof Paciente) {
-            Paciente paciente = (Paciente) usuarioActual;
-            System.out.print("Teléfono (" + paciente.getTelefono() + "): ");
-            String telefonoInput = scanner.nextLine().trim();
+        String telefono = "";
+        if (sesion.getUsuarioActual() instanceof Paciente) {
+            Paciente paciente = (Paciente) sesion.getUsuarioActual();
+            salida.print("Teléfono (" + paciente.getTelefono() + "): ");
+            String telefonoInput = sesion.leerLinea().trim();
             
             if (!telefonoInput.isEmpty()) {
                 while (!telefonoInput.matches("\\d+")) {
-                    System.out.println("\nEl teléfono debe contener solo números.");
-                    System.out.print("Teléfono (" + paciente.getTelefono() + "): ");
-                    telefonoInput = scanner.nextLine().trim();
+                    salida.println("\nEl teléfono debe contener solo números.");
+                    salida.print("Teléfono (" + paciente.getTelefono() + "): ");
+                    telefonoInput = sesion.leerLinea().trim();
                     if (telefonoInput.isEmpty()) break;
                 }
             }
             
-            usuarioActual.actualizarDatos(nombre, apellido, 
-                                         correo.isEmpty() ? null : correo, null);
-            
-            if (!telefonoInput.isEmpty()) {
-                paciente.setTelefono(telefonoInput);
-            }
-        } else {
-            usuarioActual.actualizarDatos(nombre, apellido,
-                                         correo.isEmpty() ? null : correo, null);
+            telefono = telefonoInput;
         }
         
-        gestionUsuarios.actualizarUsuario(usuarioActual);
-        System.out.println("\n✓ Datos actualizados correctamente.");
+        // Se aplica sobre la versión guardada (releída si otra sesión lo cambió)
+        String nuevoNombre = nombre, nuevoApellido = apellido, nuevoTelefono = telefono;
+        sesion.setUsuarioActual(gestionUsuarios.modificarUsuario(sesion.getUsuarioActual().getIdUsuario(), u -> {
+            u.actualizarDatos(nuevoNombre, nuevoApellido, correo.isEmpty() ? null : correo, null);
+            if (u instanceof Paciente && !nuevoTelefono.isEmpty()) {
+                ((Paciente) u).setTelefono(nuevoTelefono);
+            }
+        }));
+        salida.println("\n✓ Datos actualizados correctamente.");
         pausar();
     }
     
@@ -634,18 +709,18 @@ public class Main {
      */
     private void menuMedico() {
         while (true) {
-            mostrarEncabezado("Panel del Médico - Dr(a). " + usuarioActual.getNombreCompleto());
+            mostrarEncabezado("Panel del Médico - Dr(a). " + sesion.getUsuarioActual().getNombreCompleto());
             
-            System.out.println("1. Ver pacientes asignados");
-            System.out.println("2. Consultas pendientes");
-            System.out.println("3. Registrar diagnóstico");
-            System.out.println("4. Historial atendido");
-            System.out.println("5. Actualizar perfil");
-            System.out.println("6. Cerrar sesión");
-            System.out.println();
+            salida.println("1. Ver pacientes asignados");
+            salida.println("2. Consultas pendientes");
+            salida.println("3. Registrar diagnóstico");
+            salida.println("4. Historial atendido");
+            salida.println("5. Actualizar perfil");
+            salida.println("6. Cerrar sesión");
+            salida.println();
             
-            System.out.print("Selecciona una opción: ");
-            String opcion = scanner.nextLine().trim();
+            salida.print("Selecciona una opción: ");
+            String opcion = sesion.leerLinea().trim();
             
             switch (opcion) {
                 case "1":
@@ -667,7 +742,7 @@ public class Main {
                     cerrarSesion();
                     return;
                 default:
-                    System.out.println("\nOpción inválida.");
+                    salida.println("\nOpción inválida.");
                     pausar();
             }
         }
@@ -679,27 +754,27 @@ public class Main {
     private void verPacientesAsignados() {
         mostrarEncabezado("Pacientes Asignados");
         
-        if (usuarioActual instanceof Medico) {
-            Medico medico = (Medico) usuarioActual;
+        if (sesion.getUsuarioActual() instanceof Medico) {
+            Medico medico = (Medico) sesion.getUsuarioActual();
             
             if (medico.getPacientesAsignados().isEmpty()) {
-                System.out.println("No tienes pacientes asignados aún.");
+                salida.println("No tienes pacientes asignados aún.");
             } else {
-                System.out.println("Total de pacientes: " + medico.getPacientesAsignados().size() + "\n");
+                salida.println("Total de pacientes: " + medico.getPacientesAsignados().size() + "\n");
                 
                 for (String idPaciente : medico.getPacientesAsignados()) {
                     Usuario pacienteUsuario = gestionUsuarios.buscarPorId(idPaciente);
                     if (pacienteUsuario != null) {
-                        System.out.println("\n============================================================");
-                        System.out.println("ID: " + pacienteUsuario.getIdUsuario());
-                        System.out.println("Nombre: " + pacienteUsuario.getNombreCompleto());
+                        salida.println("\n============================================================");
+                        salida.println("ID: " + pacienteUsuario.getIdUsuario());
+                        salida.println("Nombre: " + pacienteUsuario.getNombreCompleto());
                         
                         if (pacienteUsuario instanceof Paciente) {
                             Paciente paciente = (Paciente) pacienteUsuario;
-                            System.out.println("Edad: " + paciente.getEdad());
-                            System.out.println("Género: " + paciente.getGenero());
-                            System.out.println("Teléfono: " + paciente.getTelefono());
-                            System.out.println("Grupo Sanguíneo: " + paciente.getGrupoSanguineo());
+                            salida.println("Edad: " + paciente.getEdad());
+                            salida.println("Género: " + paciente.getGenero());
+                            salida.println("Teléfono: " + paciente.getTelefono());
+                            salida.println("Grupo Sanguíneo: " + paciente.getGrupoSanguineo());
                         }
                     }
                 }
@@ -716,20 +791,20 @@ public class Main {
         mostrarEncabezado("Consultas Pendientes");
         
         List<Consulta> consultas = gestionConsultas.obtenerConsultasPendientesMedico(
-            usuarioActual.getIdUsuario()
+            sesion.getUsuarioActual().getIdUsuario()
         );
         
         if (consultas.isEmpty()) {
-            System.out.println("No tienes consultas pendientes.");
+            salida.println("No tienes consultas pendientes.");
         } else {
             for (Consulta consulta : consultas) {
                 Usuario paciente = gestionUsuarios.buscarPorId(consulta.getIdPaciente());
-                System.out.println("\n============================================================");
-                System.out.println("ID: " + consulta.getIdConsulta());
-                System.out.println("Paciente: " + (paciente != null ? paciente.getNombreCompleto() : "N/A"));
-                System.out.println("Fecha solicitud: " + consulta.getFechaSolicitud());
-                System.out.println("Motivo: " + consulta.getMotivo());
-                System.out.println("Estado: " + consulta.getEstado());
+                salida.println("\n============================================================");
+                salida.println("ID: " + consulta.getIdConsulta());
+                salida.println("Paciente: " + (paciente != null ? paciente.getNombreCompleto() : "N/A"));
+                salida.println("Fecha solicitud: " + consulta.getFechaSolicitud());
+                salida.println("Motivo: " + consulta.getMotivo());
+                salida.println("Estado: " + consulta.getEstado());
             }
         }
         
@@ -742,41 +817,65 @@ public class Main {
     private void registrarDiagnostico() {
         mostrarEncabezado("Registrar Diagnóstico");
         
-        System.out.print("ID de la consulta: ");
-        String idConsulta = scanner.nextLine().trim();
-        Consulta consulta = gestionConsultas.obtenerConsulta(idConsulta);
+        salida.print("ID de la consulta (Enter para atender la siguiente en cola): ");
+        String idConsulta = sesion.leerLinea().trim();
+        Consulta consulta;
+        boolean tomadaDeCola = idConsulta.isEmpty();
+        
+        if (tomadaDeCola) {
+            consulta = gestionConsultas.tomarSiguienteConsulta(sesion.getUsuarioActual().getIdUsuario());
+            if (consulta == null) {
+                salida.println("\nNo tienes consultas pendientes.");
+                pausar();
+                return;
+            }
+            idConsulta = consulta.getIdConsulta();
+            salida.println("\nConsulta asignada: " + idConsulta);
+        } else {
+            consulta = gestionConsultas.obtenerConsulta(idConsulta);
+        }
         
         if (consulta == null) {
-            System.out.println("\nConsulta no encontrada.");
-        } else if (!consulta.getIdMedico().equals(usuarioActual.getIdUsuario())) {
-            System.out.println("\nEsta consulta no está asignada a ti.");
+            salida.println("\nConsulta no encontrada.");
+        } else if (!consulta.getIdMedico().equals(sesion.getUsuarioActual().getIdUsuario())) {
+            salida.println("\nEsta consulta no está asignada a ti.");
         } else if (consulta.esCompletada()) {
-            System.out.println("\nEsta consulta ya fue completada.");
+            salida.println("\nEsta consulta ya fue completada.");
         } else {
             Usuario paciente = gestionUsuarios.buscarPorId(consulta.getIdPaciente());
-            System.out.println("\nPaciente: " + (paciente != null ? paciente.getNombreCompleto() : "N/A"));
-            System.out.println("Motivo: " + consulta.getMotivo() + "\n");
+            salida.println("\nPaciente: " + (paciente != null ? paciente.getNombreCompleto() : "N/A"));
+            salida.println("Motivo: " + consulta.getMotivo() + "\n");
             
-            System.out.print("Diagnóstico: ");
-            String diagnostico = scanner.nextLine().trim();
-            System.out.print("Tratamiento: ");
-            String tratamiento = scanner.nextLine().trim();
-            System.out.print("Observaciones: ");
-            String observaciones = scanner.nextLine().trim();
+            salida.print("Diagnóstico: ");
+            String diagnostico = sesion.leerLinea().trim();
+            salida.print("Tratamiento: ");
+            String tratamiento = sesion.leerLinea().trim();
+            salida.print("Observaciones: ");
+            String observaciones = sesion.leerLinea().trim();
             
             if (!diagnostico.isEmpty()) {
-                gestionConsultas.registrarDiagnostico(idConsulta, diagnostico, 
-                                                     tratamiento, observaciones);
+                if (!gestionConsultas.registrarDiagnostico(idConsulta, diagnostico, 
+                                                          tratamiento, observaciones)) {
+                    salida.println("\nLa consulta ya no admite diagnóstico (estado: "
+                                   + consulta.getEstado() + ").");
+                    pausar();
+                    return;
+                }
                 
                 // Registrar en historial del médico
-                if (usuarioActual instanceof Medico) {
-                    ((Medico) usuarioActual).registrarConsultaAtendida(idConsulta);
-                    gestionUsuarios.actualizarUsuario(usuarioActual);
+                if (sesion.getUsuarioActual() instanceof Medico) {
+                    String atendida = idConsulta;
+                    sesion.setUsuarioActual(gestionUsuarios.modificarUsuario(
+                        sesion.getUsuarioActual().getIdUsuario(),
+                        u -> ((Medico) u).registrarConsultaAtendida(atendida)));
                 }
                 
-                System.out.println("\n✓ Diagnóstico registrado exitosamente.");
+                salida.println("\n✓ Diagnóstico registrado exitosamente.");
             } else {
-                System.out.println("\nDebe ingresar un diagnóstico.");
+                salida.println("\nDebe ingresar un diagnóstico.");
+                if (tomadaDeCola) {
+                    gestionConsultas.devolverConsulta(idConsulta);
+                }
             }
         }
         
@@ -790,35 +889,35 @@ public class Main {
         mostrarEncabezado("Historial de Consultas Atendidas");
         
         List<Consulta> consultas = gestionConsultas.obtenerConsultasCompletadasMedico(
-            usuarioActual.getIdUsuario()
+            sesion.getUsuarioActual().getIdUsuario()
         );
         
         if (consultas.isEmpty()) {
-            System.out.println("No has completado consultas aún.");
+            salida.println("No has completado consultas aún.");
         } else {
             Map<String, Integer> estadisticas = gestionConsultas.obtenerEstadisticasMedico(
-                usuarioActual.getIdUsuario()
+                sesion.getUsuarioActual().getIdUsuario()
             );
             
-            System.out.println("📊 Estadísticas:");
-            System.out.println("  Total de consultas: " + estadisticas.get("total"));
-            System.out.println("  Completadas: " + estadisticas.getOrDefault("completadas", 0));
-            System.out.println("  Pendientes: " + estadisticas.getOrDefault("pendientes", 0));
-            System.out.println("  En proceso: " + estadisticas.getOrDefault("en_proceso", 0));
+            salida.println("📊 Estadísticas:");
+            salida.println("  Total de consultas: " + estadisticas.get("total"));
+            salida.println("  Completadas: " + estadisticas.getOrDefault("completadas", 0));
+            salida.println("  Pendientes: " + estadisticas.getOrDefault("pendientes", 0));
+            salida.println("  En proceso: " + estadisticas.getOrDefault("en_proceso", 0));
             
-            System.out.println("\n============================================================");
-            System.out.println("Últimas consultas completadas:\n");
+            salida.println("\n============================================================");
+            salida.println("Últimas consultas completadas:\n");
             
             // Mostrar últimas 5
             int limite = Math.min(5, consultas.size());
             for (int i = consultas.size() - limite; i < consultas.size(); i++) {
                 Consulta consulta = consultas.get(i);
                 Usuario paciente = gestionUsuarios.buscarPorId(consulta.getIdPaciente());
-                System.out.println("\n============================================================");
-                System.out.println("ID: " + consulta.getIdConsulta());
-                System.out.println("Paciente: " + (paciente != null ? paciente.getNombreCompleto() : "N/A"));
-                System.out.println("Fecha: " + consulta.getFechaAtencion());
-                System.out.println("Diagnóstico: " + consulta.getDiagnostico());
+                salida.println("\n============================================================");
+                salida.println("ID: " + consulta.getIdConsulta());
+                salida.println("Paciente: " + (paciente != null ? paciente.getNombreCompleto() : "N/A"));
+                salida.println("Fecha: " + consulta.getFechaAtencion());
+                salida.println("Diagnóstico: " + consulta.getDiagnostico());
             }
         }
         
@@ -831,58 +930,61 @@ public class Main {
     private void actualizarPerfilMedico() {
         mostrarEncabezado("Actualizar Perfil Profesional");
         
-        System.out.println("Deja en blanco para mantener el valor actual\n");
+        salida.println("Deja en blanco para mantener el valor actual\n");
         
         // Validar nombre
-        System.out.print("Nombre (" + usuarioActual.getNombre() + "): ");
-        String nombreInput = scanner.nextLine().trim();
+        salida.print("Nombre (" + sesion.getUsuarioActual().getNombre() + "): ");
+        String nombreInput = sesion.leerLinea().trim();
         String nombre = null;
         if (!nombreInput.isEmpty()) {
             while (!validarNombre(nombreInput, "Nombre")) {
-                System.out.print("Nombre (" + usuarioActual.getNombre() + "): ");
-                nombreInput = scanner.nextLine().trim();
+                salida.print("Nombre (" + sesion.getUsuarioActual().getNombre() + "): ");
+                nombreInput = sesion.leerLinea().trim();
             }
             nombre = nombreInput;
         }
         
         // Validar apellido
-        System.out.print("Apellido (" + usuarioActual.getApellido() + "): ");
-        String apellidoInput = scanner.nextLine().trim();
+        salida.print("Apellido (" + sesion.getUsuarioActual().getApellido() + "): ");
+        String apellidoInput = sesion.leerLinea().trim();
         String apellido = null;
         if (!apellidoInput.isEmpty()) {
             while (!validarNombre(apellidoInput, "Apellido")) {
-                System.out.print("Apellido (" + usuarioActual.getApellido() + "): ");
-                apellidoInput = scanner.nextLine().trim();
+                salida.print("Apellido (" + sesion.getUsuarioActual().getApellido() + "): ");
+                apellidoInput = sesion.leerLinea().trim();
             }
             apellido = apellidoInput;
         }
         
-        System.out.print("Correo (" + usuarioActual.getCorreo() + "): ");
-        String correo = scanner.nextLine().trim();
+        salida.print("Correo (" + sesion.getUsuarioActual().getCorreo() + "): ");
+        String correo = sesion.leerLinea().trim();
         
-        if (usuarioActual instanceof Medico) {
-            Medico medico = (Medico) usuarioActual;
-            System.out.print("Especialidad (" + medico.getEspecialidad() + "): ");
-            String especialidadInput = scanner.nextLine().trim();
+        String especialidad = "";
+        if (sesion.getUsuarioActual() instanceof Medico) {
+            Medico medico = (Medico) sesion.getUsuarioActual();
+            salida.print("Especialidad (" + medico.getEspecialidad() + "): ");
+            String especialidadInput = sesion.leerLinea().trim();
             
             if (!especialidadInput.isEmpty()) {
                 while (!validarEspecialidad(especialidadInput)) {
-                    System.out.print("Especialidad (" + medico.getEspecialidad() + "): ");
-                    especialidadInput = scanner.nextLine().trim();
+                    salida.print("Especialidad (" + medico.getEspecialidad() + "): ");
+                    especialidadInput = sesion.leerLinea().trim();
                     if (especialidadInput.isEmpty()) break;
                 }
             }
             
-            usuarioActual.actualizarDatos(nombre, apellido,
-                                         correo.isEmpty() ? null : correo, null);
-            
-            if (!especialidadInput.isEmpty()) {
-                medico.setEspecialidad(especialidadInput);
-            }
+            especialidad = especialidadInput;
         }
         
-        gestionUsuarios.actualizarUsuario(usuarioActual);
-        System.out.println("\n✓ Perfil actualizado correctamente.");
+        // Se aplica sobre la versión guardada (releída si otra sesión lo cambió)
+        String nuevoNombre = nombre, nuevoApellido = apellido, nuevaEspecialidad = especialidad;
+        sesion.setUsuarioActual(gestionUsuarios.modificarUsuario(sesion.getUsuarioActual().getIdUsuario(), u -> {
+            u.actualizarDatos(nuevoNombre, nuevoApellido, correo.isEmpty() ? null : correo, null);
+            if (u instanceof Medico && !nuevaEspecialidad.isEmpty()) {
+                ((Medico) u).setEspecialidad(nuevaEspecialidad);
+            }
+        }));
+        salida.println("\n✓ Perfil actualizado correctamente.");
         pausar();
     }
     
@@ -890,29 +992,196 @@ public class Main {
      * Cierra la sesión actual
      */
     private void cerrarSesion() {
-        System.out.println("\nCerrando sesión...");
+        salida.println("\nCerrando sesión...");
         try {
             Thread.sleep(1000);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
-        this.usuarioActual = null;
+        sesion.setUsuarioActual(null);
     }
     
     /**
-     * Inicia el sistema
+     * Inicia el sistema para la sesión de esta instancia
      */
     public void ejecutar() {
-        mostrarMenuPrincipal();
+        try {
+            mostrarMenuPrincipal();
+        } catch (Sesion.SesionTerminada e) {
+            // El cliente cerró la conexión
+        }
     }
     
     /**
      * Función principal
      */
     public static void main(String[] args) {
+        // -Dcuidate.metricas=stdout|ruta vuelca las métricas al terminar
+        String destinoMetricas = System.getProperty("cuidate.metricas");
+        if (destinoMetricas != null) {
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(() -> Metricas.volcarArchivo(destinoMetricas)));
+        }
+        
         try {
-            Main sistema = new Main();
-            sistema.ejecutar();
+            // -Dcuidate.datos=dir permite correr varios nodos desde la misma carpeta
+            String datos = System.getProperty("cuidate.datos", "data");
+            
+            // -Dcuidate.particiones=N reparte consultas y registros en N archivos por paciente
+            int particiones = Integer.getInteger("cuidate.particiones", 1);
+            
+            // --reparticionar N mueve los datos guardados a N particiones (sin el sistema en marcha)
+            if (args.length > 1 && args[0].equals("--reparticionar")) {
+                int nuevas = Integer.parseInt(args[1]);
+                AlmacenParticionado.reparticionar(datos + "/consultas.json", nuevas,
+                                                  json -> json.get("idPaciente").getAsString());
+                AlmacenParticionado.reparticionar(datos + "/registros.json", nuevas,
+                                                  json -> json.get("idPaciente").getAsString());
+                System.out.println("Datos repartidos en " + nuevas + " particiones; inicie con -Dcuidate.particiones=" + nuevas);
+                return;
+            }
+            
+            // Los tres almacenes se cargan a la vez; las particiones de cada uno
+            // se leen e indexan en paralelo sobre un pool acotado a los núcleos
+            ExecutorService cargador = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), Hilos.fabrica("carga"));
+            ExecutorService almacenes = Hilos.ejecutorPorTarea("almacen");
+            CompletableFuture<GestionUsuarios> usuarios = CompletableFuture.supplyAsync(
+                () -> new GestionUsuarios(datos + "/usuarios.json"), almacenes);
+            CompletableFuture<GestionConsultas> consultas = CompletableFuture.supplyAsync(
+                () -> new GestionConsultas(datos + "/consultas.json", particiones, cargador), almacenes);
+            CompletableFuture<MonitoreoSalud> registros = CompletableFuture.supplyAsync(
+                () -> new MonitoreoSalud(datos + "/registros.json", particiones, cargador), almacenes);
+            GestionUsuarios gestionUsuarios = usuarios.join();
+            GestionConsultas gestionConsultas = consultas.join();
+            MonitoreoSalud monitoreoSalud = registros.join();
+            cargador.shutdown();
+            almacenes.shutdown();
+            conectarServicios(gestionUsuarios, gestionConsultas, monitoreoSalud, datos);
+
+            // --importar|--exportar usuarios|consultas|registros archivo.csv|archivo.jsonl
+            if (args.length > 2 && (args[0].equals("--importar") || args[0].equals("--exportar"))) {
+                ImportacionMasiva importacion = new ImportacionMasiva(gestionUsuarios, gestionConsultas,
+                                                                      monitoreoSalud);
+                boolean importar = args[0].equals("--importar");
+                String archivo = args[2];
+                switch (args[1]) {
+                    case "usuarios":
+                        if (importar) {
+                            mostrarImportacion(importacion.importarUsuarios(archivo));
+                        } else {
+                            System.out.println(importacion.exportarUsuarios(archivo) + " usuarios exportados a " + archivo);
+                        }
+                        break;
+                    case "consultas":
+                        if (importar) {
+                            mostrarImportacion(importacion.importarConsultas(archivo));
+                        } else {
+                            System.out.println(importacion.exportarConsultas(archivo) + " consultas exportadas a " + archivo);
+                        }
+                        break;
+                    case "registros":
+                        if (importar) {
+                            mostrarImportacion(importacion.importarRegistros(archivo));
+                        } else {
+                            System.out.println(importacion.exportarRegistros(archivo) + " registros exportados a " + archivo);
+                        }
+                        break;
+                    default:
+                        System.out.println("Entidad desconocida: " + args[1] + " (usuarios, consultas o registros)");
+                }
+                return;
+            }
+
+            // --seguidor host:puerto [puertoApi] replica la primaria y atiende solo lecturas;
+            // -Dcuidate.replicacion.secreto debe coincidir con el de la primaria
+            if (args.length > 1 && args[0].equals("--seguidor")) {
+                String secreto = System.getProperty("cuidate.replicacion.secreto");
+                if (secreto == null || secreto.isEmpty()) {
+                    System.err.println("Falta -Dcuidate.replicacion.secreto para seguir a la primaria");
+                    return;
+                }
+                String[] primaria = args[1].split(":");
+                int puertoApi = args.length > 2 ? Integer.parseInt(args[2]) : 8081;
+                BusEventos bus = new BusEventos(Integer.getInteger("cuidate.bus.capacidad", 1 << 16));
+                gestionConsultas.agregarObservador(bus);
+                monitoreoSalud.agregarObservador(bus);
+                VistasMaterializadas vistas = VistasMaterializadas.conectar(gestionConsultas, monitoreoSalud, bus);
+                new ReplicacionSeguidor(gestionUsuarios, gestionConsultas, monitoreoSalud,
+                                        primaria[0], Integer.parseInt(primaria[1]), secreto).iniciar();
+                ServidorApi servidor = new ServidorApi(gestionUsuarios, gestionConsultas,
+                                                       monitoreoSalud);
+                servidor.setVistas(vistas);
+                servidor.setSoloLectura(true);
+                servidor.iniciar(System.getProperty("cuidate.api.host", "127.0.0.1"), puertoApi);
+                System.out.println("CUIDATE seguidor de " + args[1] + ", API de lectura en el puerto " + puertoApi);
+                return;
+            }
+            
+            // Registros crudos -> resúmenes por hora -> por día -> nivel frío (plazos en días)
+            RetencionRegistros retencion = new RetencionRegistros(monitoreoSalud,
+                Integer.getInteger("cuidate.retencion.crudos", 30),
+                Integer.getInteger("cuidate.retencion.horarios", 90),
+                Integer.getInteger("cuidate.retencion.calientes", 365),
+                datos + "/resumenes.json", datos + "/resumenes_frio.jsonl.gz");
+            retencion.iniciar(60, 100);
+            
+            // Bus de cambios: cada mutación de los servicios se publica una sola vez
+            BusEventos bus = new BusEventos(Integer.getInteger("cuidate.bus.capacidad", 1 << 16));
+            gestionUsuarios.agregarObservador(bus);
+            gestionConsultas.agregarObservador(bus);
+            monitoreoSalud.agregarObservador(bus);
+            
+            // Contadores de tablero que se actualizan con los eventos del bus
+            VistasMaterializadas vistas = VistasMaterializadas.conectar(gestionConsultas, monitoreoSalud, bus);
+            
+            // Turnos de los médicos; al cancelar una consulta se libera su cita
+            AgendaCitas agenda = new AgendaCitas(gestionUsuarios, gestionConsultas, datos + "/citas.log");
+            gestionConsultas.agregarObservador(agenda);
+            
+            // -Dcuidate.replicacion.puerto=N envía la bitácora de cambios a los seguidores que
+            // saluden con -Dcuidate.replicacion.secreto; escucha en -Dcuidate.replicacion.host
+            Integer puertoReplicacion = Integer.getInteger("cuidate.replicacion.puerto");
+            if (puertoReplicacion != null) {
+                String secreto = System.getProperty("cuidate.replicacion.secreto");
+                if (secreto == null || secreto.isEmpty()) {
+                    System.err.println("Replicación desactivada: falta -Dcuidate.replicacion.secreto");
+                } else {
+                    ReplicacionPrimario replicacion = new ReplicacionPrimario(gestionUsuarios, gestionConsultas,
+                        monitoreoSalud, Integer.getInteger("cuidate.replicacion.bitacora", 100_000));
+                    replicacion.iniciar(bus, System.getProperty("cuidate.replicacion.host", "127.0.0.1"),
+                                        puertoReplicacion, secreto);
+                }
+            }
+            
+            // --api [puerto] inicia el servidor HTTP/JSON en lugar de la consola (en
+            // -Dcuidate.api.host, por omisión solo la interfaz local)
+            if (args.length > 0 && args[0].equals("--api")) {
+                int puerto = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+                ServidorApi servidor = new ServidorApi(gestionUsuarios, gestionConsultas,
+                                                       monitoreoSalud);
+                servidor.setRetencion(retencion);
+                servidor.setVistas(vistas);
+                servidor.setAgenda(agenda);
+                servidor.iniciar(System.getProperty("cuidate.api.host", "127.0.0.1"), puerto);
+                System.out.println("CUIDATE API escuchando en el puerto " + puerto);
+                return;
+            }
+            
+            GestorSesiones gestor = new GestorSesiones(gestionUsuarios, gestionConsultas,
+                                                       monitoreoSalud);
+            
+            // --sesiones [puerto] atiende sesiones remotas estilo telnet (interfaz en
+            // -Dcuidate.sesiones.host, por omisión solo la local)
+            if (args.length > 0 && args[0].equals("--sesiones")) {
+                int puerto = args.length > 1 ? Integer.parseInt(args[1]) : 2323;
+                System.out.println("CUIDATE sesiones remotas en el puerto " + puerto);
+                gestor.escuchar(System.getProperty("cuidate.sesiones.host", "127.0.0.1"), puerto);
+                return;
+            }
+            
+            gestor.iniciar(Sesion.consola()).get();
+            System.exit(0);
         } catch (Exception e) {
             System.err.println("\nError inesperado: " + e.getMessage());
             e.printStackTrace();
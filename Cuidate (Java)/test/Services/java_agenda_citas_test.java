@@ -0,0 +1,170 @@
+package services;
+
+import models.Cita;
+import models.Consulta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.EnumSet;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la agenda de citas: búsqueda de turnos, reservas y bitácora
+ */
+public class AgendaCitasTest {
+    // Lunes
+    private static final LocalDateTime LUNES = LocalDateTime.of(2030, 1, 7, 0, 0);
+    
+    private Path directorio;
+    private GestionUsuarios gestionUsuarios;
+    private GestionConsultas gestionConsultas;
+    private AgendaCitas agenda;
+    
+    @BeforeEach
+    void crearServicios() throws Exception {
+        directorio = Files.createTempDirectory("cuidate-agenda");
+        // Usuarios de ejemplo: MED001 (Medicina General) y PAC001
+        gestionUsuarios = new GestionUsuarios(directorio.resolve("usuarios.json").toString());
+        gestionConsultas = new GestionConsultas(directorio.resolve("consultas.json").toString());
+        agenda = nuevaAgenda(4);
+    }
+    
+    private AgendaCitas nuevaAgenda(int particiones) {
+        AgendaCitas nueva = new AgendaCitas(gestionUsuarios, gestionConsultas,
+                                            directorio.resolve("citas.log").toString(), 90, particiones);
+        gestionConsultas.agregarObservador(nueva);
+        return nueva;
+    }
+    
+    @Test
+    void siguienteTurnoSaltaLasCitasYLosDiasSinAtencion() {
+        assertEquals(LUNES.withHour(8), agenda.siguienteTurno("MED001", LUNES.withHour(7)));
+        assertEquals(LUNES.withHour(9), agenda.siguienteTurno("MED001", LUNES.withHour(8).withMinute(40)));
+        
+        agenda.reservar("MED001", "PAC001", null, LUNES.withHour(8));
+        agenda.reservar("MED001", "PAC001", null, LUNES.withHour(8).withMinute(30));
+        assertEquals(LUNES.withHour(9), agenda.siguienteTurno("MED001", LUNES.withHour(8)));
+        
+        // Viernes después del último turno: el lunes siguiente
+        assertEquals(LUNES.plusDays(7).withHour(8), agenda.siguienteTurno("MED001", LUNES.plusDays(4).withHour(16).withMinute(45)));
+    }
+    
+    @Test
+    void siguienteTurnoRespetaElHorarioConfigurado() {
+        agenda.configurarHorario("MED001", new AgendaCitas.Horario(EnumSet.of(DayOfWeek.WEDNESDAY),
+                                                                   LocalTime.of(14, 0), LocalTime.of(15, 0)));
+        agenda.reservar("MED001", "PAC001", null, LUNES.plusDays(2).withHour(14));
+        
+        assertEquals(LUNES.plusDays(2).withHour(14).withMinute(30), agenda.siguienteTurno("MED001", LUNES));
+        agenda.reservar("MED001", "PAC001", null, LUNES.plusDays(2).withHour(14).withMinute(30));
+        assertEquals(LUNES.plusDays(9).withHour(14), agenda.siguienteTurno("MED001", LUNES));
+    }
+    
+    @Test
+    void reservarRechazaTurnosOcupadosYFueraDelHorario() {
+        assertNotNull(agenda.reservar("MED001", "PAC001", null, LUNES.withHour(10)));
+        assertNull(agenda.reservar("MED001", "PAC001", null, LUNES.withHour(10)));
+        assertThrows(IllegalArgumentException.class,
+            () -> agenda.reservar("MED001", "PAC001", null, LUNES.withHour(10).withMinute(10)));
+        assertThrows(IllegalArgumentException.class,
+            () -> agenda.reservar("MED001", "PAC001", null, LUNES.withHour(20)));
+    }
+    
+    @Test
+    void siguienteTurnoEspecialidadBuscaEntreLosMedicos() {
+        agenda.reservar("MED001", "PAC001", null, LUNES.withHour(8));
+        
+        AgendaCitas.Turno turno = agenda.siguienteTurnoEspecialidad("Medicina General", LUNES);
+        assertEquals("MED001", turno.getIdMedico());
+        assertEquals(LUNES.withHour(8).withMinute(30), turno.getInicio());
+        assertNull(agenda.siguienteTurnoEspecialidad("Cardiología", LUNES));
+    }
+    
+    @Test
+    void soloSeAgendanConsultasPendientes() {
+        Consulta consulta = gestionConsultas.crearConsulta("PAC001", "MED001", "Control");
+        gestionConsultas.cancelarConsulta(consulta.getIdConsulta(), "Viaje");
+        
+        assertNull(agenda.agendarConsulta(consulta.getIdConsulta(), LUNES));
+        assertThrows(IllegalArgumentException.class,
+            () -> agenda.reservar("MED001", "PAC001", consulta.getIdConsulta(), LUNES.withHour(8)));
+        assertNull(agenda.citaDeConsulta(consulta.getIdConsulta()));
+    }
+    
+    @Test
+    void cancelarLaConsultaLiberaSuCita() {
+        Consulta consulta = gestionConsultas.crearConsulta("PAC001", "MED001", "Control");
+        Cita cita = agenda.agendarConsulta(consulta.getIdConsulta(), LUNES);
+        assertEquals(cita, agenda.agendarConsulta(consulta.getIdConsulta(), LUNES));
+        
+        gestionConsultas.cancelarConsulta(consulta.getIdConsulta(), "Viaje");
+        
+        assertNull(agenda.obtenerCita(cita.getIdCita()));
+        assertEquals(cita.getFechaInicio(), agenda.siguienteTurno("MED001", LUNES));
+    }
+    
+    @Test
+    void laBitacoraSeRehaceAlReiniciar() {
+        Cita primera = agenda.reservar("MED001", "PAC001", null, LUNES.withHour(8));
+        Cita segunda = agenda.reservar("MED001", "PAC001", null, LUNES.withHour(9));
+        assertTrue(agenda.cancelar(primera.getIdCita()));
+        
+        agenda = nuevaAgenda(4);
+        
+        assertNull(agenda.obtenerCita(primera.getIdCita()));
+        assertNotNull(agenda.obtenerCita(segunda.getIdCita()));
+        assertEquals(LUNES.withHour(8), agenda.siguienteTurno("MED001", LUNES));
+        Cita tercera = agenda.reservar("MED001", "PAC001", null, LUNES.withHour(8));
+        assertNotEquals(segunda.getIdCita(), tercera.getIdCita());
+    }
+    
+    @Test
+    void cambiarElNumeroDeArchivosConservaLasCitas() throws Exception {
+        Cita cita = agenda.reservar("MED001", "PAC001", null, LUNES.withHour(8));
+        
+        agenda = nuevaAgenda(1);
+        assertNotNull(agenda.obtenerCita(cita.getIdCita()));
+        assertEquals(1, archivosDeAgenda());
+        
+        agenda = nuevaAgenda(8);
+        assertNotNull(agenda.obtenerCita(cita.getIdCita()));
+        assertEquals(8, archivosDeAgenda());
+    }
+    
+    @Test
+    void unaCitaSolapadaEnLaBitacoraSeDescarta() throws Exception {
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            for (Path archivo : (Iterable<Path>) archivos::iterator) {
+                if (archivo.getFileName().toString().startsWith("citas")) {
+                    Files.delete(archivo);
+                }
+            }
+        }
+        Files.write(directorio.resolve("citas.log"), String.join("\n",
+            "{\"op\":\"reservar\",\"cita\":{\"idCita\":\"CIT0001\",\"idMedico\":\"MED001\",\"idPaciente\":\"PAC001\","
+                + "\"inicio\":\"2030-01-07 08:00:00\",\"fin\":\"2030-01-07 08:30:00\"}}",
+            "{\"op\":\"reservar\",\"cita\":{\"idCita\":\"CIT0002\",\"idMedico\":\"MED001\",\"idPaciente\":\"PAC001\","
+                + "\"inicio\":\"2030-01-07 08:00:00\",\"fin\":\"2030-01-07 08:30:00\"}}",
+            "").getBytes(StandardCharsets.UTF_8));
+        
+        agenda = nuevaAgenda(1);
+        
+        assertNotNull(agenda.obtenerCita("CIT0001"));
+        assertNull(agenda.obtenerCita("CIT0002"));
+        assertEquals(1, agenda.citasMedico("MED001", LUNES, LUNES.plusDays(1)).size());
+    }
+    
+    private long archivosDeAgenda() throws Exception {
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            return archivos.filter(p -> p.getFileName().toString().startsWith("citas")
+                                        && p.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package services;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas del árbol de intervalos de la agenda
+ */
+public class ArbolIntervalosTest {
+    
+    @Test
+    void rechazaSolapamientosYAceptaIntervalosContiguos() {
+        ArbolIntervalos<String> arbol = new ArbolIntervalos<>();
+        assertTrue(arbol.insertarSiLibre(10, 20, "a"));
+        assertTrue(arbol.insertarSiLibre(20, 30, "b"));
+        assertTrue(arbol.insertarSiLibre(0, 10, "c"));
+        
+        assertFalse(arbol.insertarSiLibre(15, 25, "d"));
+        assertFalse(arbol.insertarSiLibre(5, 6, "e"));
+        assertFalse(arbol.insertarSiLibre(0, 40, "f"));
+        assertEquals(3, arbol.tamano());
+    }
+    
+    @Test
+    void primerSolapadoEsElDeMenorInicio() {
+        ArbolIntervalos<String> arbol = new ArbolIntervalos<>();
+        arbol.insertarSiLibre(30, 40, "b");
+        arbol.insertarSiLibre(10, 20, "a");
+        arbol.insertarSiLibre(50, 60, "c");
+        
+        assertEquals("a", arbol.primerSolapado(15, 55));
+        assertEquals("b", arbol.primerSolapado(20, 35));
+        assertNull(arbol.primerSolapado(20, 30));
+        assertNull(arbol.primerSolapado(60, 100));
+    }
+    
+    @Test
+    void quitarYRecorrerEnOrden() {
+        ArbolIntervalos<Integer> arbol = new ArbolIntervalos<>();
+        for (int i = 9; i >= 0; i--) {
+            arbol.insertarSiLibre(i * 10, i * 10 + 5, i);
+        }
+        assertTrue(arbol.quitar(40));
+        assertFalse(arbol.quitar(40));
+        assertFalse(arbol.quitar(41));
+        
+        List<Integer> vistos = new ArrayList<>();
+        arbol.recorrer(25, 75, vistos::add);
+        assertEquals(Arrays.asList(3, 5, 6, 7), vistos);
+        assertEquals(9, arbol.tamano());
+    }
+    
+    @Test
+    void coincideConUnaBusquedaLineal() {
+        Random random = new Random(42);
+        ArbolIntervalos<long[]> arbol = new ArbolIntervalos<>();
+        TreeMap<Long, Long> esperado = new TreeMap<>();
+        for (int paso = 0; paso < 5000; paso++) {
+            long inicio = random.nextInt(2000);
+            long fin = inicio + 1 + random.nextInt(30);
+            if (random.nextInt(3) == 0 && !esperado.isEmpty()) {
+                Long quitar = esperado.ceilingKey(inicio);
+                if (quitar != null) {
+                    assertTrue(arbol.quitar(quitar));
+                    esperado.remove(quitar);
+                }
+                continue;
+            }
+            long[] solapado = primerSolapado(esperado, inicio, fin);
+            long[] encontrado = arbol.primerSolapado(inicio, fin);
+            if (solapado == null) {
+                assertNull(encontrado);
+            } else {
+                assertEquals(solapado[0], encontrado[0]);
+            }
+            assertEquals(solapado == null, arbol.insertarSiLibre(inicio, fin, new long[] {inicio, fin}));
+            if (solapado == null) {
+                esperado.put(inicio, fin);
+            }
+            assertEquals(esperado.size(), arbol.tamano());
+        }
+    }
+    
+    private static long[] primerSolapado(TreeMap<Long, Long> intervalos, long inicio, long fin) {
+        for (Map.Entry<Long, Long> e : intervalos.entrySet()) {
+            if (e.getKey() < fin && e.getValue() > inicio) {
+                return new long[] {e.getKey(), e.getValue()};
+            }
+        }
+        return null;
+    }
+}
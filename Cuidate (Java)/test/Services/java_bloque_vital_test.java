@@ -0,0 +1,148 @@
+package services;
+
+import models.RegistroSalud;
+import models.SignoVital;
+import org.junit.jupiter.api.Test;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de ida y vuelta de la codificación por bits de las series vitales
+ */
+public class BloqueVitalTest {
+    private static final int SIGNOS = SignoVital.values().length;
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Test
+    void bloqueDevuelveExactamenteLoComprimido() {
+        Random azar = new Random(42);
+        int n = 500;
+        long[] tiempos = new long[n];
+        String[] ids = new String[n];
+        long[][] valores = new long[SIGNOS][n];
+        long t = 1_700_000_000L;
+        for (int i = 0; i < n; i++) {
+            // Intervalos regulares, repetidos, saltos grandes y valores extremos
+            t += i % 50 == 0 ? 86_400L * (1 + azar.nextInt(400)) : (i % 7 == 0 ? 0 : 60 + azar.nextInt(5));
+            tiempos[i] = t;
+            ids[i] = String.format("REG%04d", 10 + i * (i % 11 == 0 ? 1000 : 1));
+            for (int s = 0; s < SIGNOS; s++) {
+                valores[s][i] = i % 97 == 0 ? (azar.nextBoolean() ? Long.MAX_VALUE : Long.MIN_VALUE)
+                                            : 50 + azar.nextInt(300) - 150;
+            }
+        }
+        ids[3] = "OTRO-ID";
+        ids[4] = "REG00000000000000000000001";
+
+        BloqueVital bloque = BloqueVital.comprimir(tiempos, ids, valores, 0, n);
+        assertEquals(n, bloque.getCantidad());
+        assertEquals(tiempos[0], bloque.getTiempoInicial());
+        assertEquals(tiempos[n - 1], bloque.getTiempoFinal());
+        assertEquals(ids[n - 1], bloque.getUltimoId());
+
+        BloqueVital.Cursor cursor = bloque.cursor();
+        for (int i = 0; i < n; i++) {
+            assertTrue(cursor.siguiente(), "Faltan lecturas desde la " + i);
+            assertEquals(tiempos[i], cursor.tiempo(), "Tiempo de la lectura " + i);
+            assertEquals(ids[i], cursor.id(), "ID de la lectura " + i);
+            for (SignoVital s : SignoVital.values()) {
+                assertEquals(valores[s.ordinal()][i], cursor.cuantizado(s), s + " de la lectura " + i);
+            }
+        }
+        assertFalse(cursor.siguiente());
+    }
+
+    @Test
+    void bloqueDeUnaSolaLectura() {
+        long[][] valores = new long[SIGNOS][1];
+        for (int s = 0; s < SIGNOS; s++) {
+            valores[s][0] = -s;
+        }
+        BloqueVital bloque = BloqueVital.comprimir(new long[] {5}, new String[] {"REG0001"}, valores, 0, 1);
+        BloqueVital.Cursor cursor = bloque.cursor();
+        assertTrue(cursor.siguiente());
+        assertEquals(5, cursor.tiempo());
+        assertEquals("REG0001", cursor.id());
+        assertEquals(-2, cursor.cuantizado(SignoVital.values()[2]));
+        assertFalse(cursor.siguiente());
+
+        assertThrows(IllegalArgumentException.class,
+            () -> BloqueVital.comprimir(new long[0], new String[0], new long[SIGNOS][0], 0, 0));
+    }
+
+    @Test
+    void serieConserveLecturasSelladasYFueraDeOrden() {
+        SerieVital serie = new SerieVital();
+        List<RegistroSalud> esperados = new ArrayList<>();
+        LocalDateTime inicio = LocalDateTime.of(2026, 1, 1, 0, 0);
+        int n = SerieVital.TAMANO_BLOQUE * 3 + 17;
+        for (int i = 0; i < n; i++) {
+            esperados.add(registro(i, inicio.plusMinutes(2L * i)));
+        }
+        // Una lectura con fecha anterior a un bloque ya sellado obliga a recomprimirlo
+        RegistroSalud tardia = registro(n, inicio.plusMinutes(2L * 10 + 1));
+        for (RegistroSalud r : esperados) {
+            serie.agregar(r);
+        }
+        serie.agregar(tardia);
+        esperados.add(11, tardia);
+
+        assertEquals(n + 1, serie.tamano());
+        assertTrue(serie.lecturasComprimidas() >= SerieVital.TAMANO_BLOQUE * 3);
+        SerieVital.Lector lector = serie.lector(Long.MIN_VALUE, Long.MAX_VALUE);
+        for (RegistroSalud r : esperados) {
+            assertTrue(lector.siguiente());
+            assertEquals(r.getMarcaTiempo(), lector.tiempo());
+            assertEquals(r.getIdRegistro(), lector.id());
+            for (SignoVital s : SignoVital.values()) {
+                assertEquals(s.valor(r), lector.valor(s), 1e-9, s + " de " + r.getIdRegistro());
+            }
+        }
+        assertFalse(lector.siguiente());
+    }
+
+    @Test
+    void serieGuardadaSeReabreIgual() {
+        SerieVital serie = new SerieVital();
+        LocalDateTime inicio = LocalDateTime.of(2026, 1, 1, 0, 0);
+        int n = SerieVital.TAMANO_BLOQUE * 2 + 40;
+        for (int i = 0; i < n; i++) {
+            RegistroSalud r = registro(i, inicio.plusMinutes(i));
+            if (i % 100 == 0) {
+                r.setObservaciones("Nota " + i);
+            }
+            serie.agregar(r);
+        }
+
+        SerieVital copia = SerieVital.desdeJson(serie.toJson("PAC0001"));
+        assertEquals(n, copia.tamano());
+        // El búfer abierto vuelve a quedar abierto, no como un bloque pequeño
+        assertEquals(serie.lecturasComprimidas(), copia.lecturasComprimidas());
+        assertEquals(serie.getNumeroMayor(), copia.getNumeroMayor());
+        SerieVital.Lector original = serie.lector(Long.MIN_VALUE, Long.MAX_VALUE);
+        SerieVital.Lector leida = copia.lector(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (original.siguiente()) {
+            assertTrue(leida.siguiente());
+            RegistroSalud esperado = original.registro("PAC0001");
+            RegistroSalud r = leida.registro("PAC0001");
+            assertEquals(esperado.getIdRegistro(), r.getIdRegistro());
+            assertEquals(esperado.getFechaRegistro(), r.getFechaRegistro());
+            assertEquals(esperado.getTemperatura(), r.getTemperatura(), 1e-9);
+            assertEquals(esperado.getFrecuenciaCardiaca(), r.getFrecuenciaCardiaca());
+            assertEquals(esperado.getObservaciones(), r.getObservaciones());
+        }
+        assertFalse(leida.siguiente());
+        assertEquals("Nota 200", copia.buscar("PAC0001", "REG0201").getObservaciones());
+    }
+
+    private static RegistroSalud registro(int i, LocalDateTime fecha) {
+        RegistroSalud r = new RegistroSalud(String.format("REG%04d", i + 1), "PAC0001",
+                                            100 + i % 60, 60 + i % 30, 50 + i % 90,
+                                            35.0 + (i % 50) / 10.0, 85 + i % 15);
+        r.setFechaRegistro(fecha.format(formatter));
+        return r;
+    }
+}
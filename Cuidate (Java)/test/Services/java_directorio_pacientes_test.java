@@ -0,0 +1,55 @@
+package services;
+
+import models.Paciente;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas del directorio de pacientes fuera del heap
+ */
+public class DirectorioPacientesTest {
+    private DirectorioPacientes directorio;
+    
+    @BeforeEach
+    void crearDirectorio() {
+        directorio = new DirectorioPacientes(16);
+        directorio.guardar(new Paciente("PAC001", "María", "García", "0987654321",
+                                        "maria.garcia@email.com", "paciente123",
+                                        30, "Femenino", "Calle 123", "3001234567", "O+"));
+    }
+    
+    @Test
+    void obtenerRetornaCopiasIndependientes() {
+        Paciente primera = directorio.obtener("PAC001");
+        primera.setNombre("Cambiada");
+        primera.agregarConsulta("CON0001");
+        
+        Paciente segunda = directorio.obtener("PAC001");
+        assertNotSame(primera, segunda);
+        assertEquals("María", segunda.getNombre());
+        assertTrue(segunda.getHistorialConsultas().isEmpty());
+    }
+    
+    @Test
+    void guardarNoComparteElObjetoDelLlamador() {
+        Paciente paciente = directorio.obtener("PAC001");
+        paciente.setTelefono("3110000000");
+        directorio.guardar(paciente);
+        paciente.setTelefono("3229999999");
+        
+        assertEquals("3110000000", directorio.obtener("PAC001").getTelefono());
+        assertEquals("3110000000", directorio.buscarPorCedula("0987654321").getTelefono());
+    }
+    
+    @Test
+    void guardarSiVersionDetectaVersionVieja() {
+        Paciente leido = directorio.obtener("PAC001");
+        assertTrue(directorio.guardarSiVersion(directorio.obtener("PAC001"), 0));
+        
+        assertThrows(ConflictoVersion.class, () -> directorio.guardarSiVersion(leido, 0));
+        assertEquals(1, directorio.version("PAC001"));
+        assertFalse(directorio.guardarSiVersion(new Paciente("PAC999", "", "", "1", "", "", 0, "", "", "", ""), 0));
+    }
+}
@@ -0,0 +1,148 @@
+package services;
+
+import models.Consulta;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de las actualizaciones con versión de GestionConsultas
+ */
+public class GestionConsultasTest {
+    private GestionConsultas gestionConsultas;
+    private Consulta consulta;
+    
+    @BeforeEach
+    void crearServicio() throws Exception {
+        Path directorio = Files.createTempDirectory("cuidate-consultas");
+        gestionConsultas = new GestionConsultas(directorio.resolve("consultas.json").toString(), 2);
+        consulta = gestionConsultas.crearConsulta("PAC001", "MED001", "Control");
+    }
+    
+    @Test
+    void modificarConsultaCambiaElObjetoRegistradoSoloAlGuardar() {
+        Consulta guardada = gestionConsultas.modificarConsulta(consulta.getIdConsulta(), c -> {
+            c.setObservaciones("Trae exámenes");
+            assertEquals("", consulta.getObservaciones());
+        });
+        
+        assertSame(consulta, guardada);
+        assertEquals("Trae exámenes", consulta.getObservaciones());
+        assertEquals(1, consulta.getVersion());
+    }
+    
+    @Test
+    void actualizarConVersionViejaLanzaConflicto() {
+        Consulta copia = gestionConsultas.copiarConsulta(consulta.getIdConsulta());
+        gestionConsultas.modificarConsulta(consulta.getIdConsulta(), c -> c.setObservaciones("Primero"));
+        
+        copia.setObservaciones("Segundo");
+        assertThrows(ConflictoVersion.class, () -> gestionConsultas.actualizarConsulta(copia, 0));
+        assertEquals("Primero", consulta.getObservaciones());
+    }
+    
+    @Test
+    void actualizarElObjetoRegistradoSeRechaza() {
+        assertThrows(IllegalArgumentException.class,
+            () -> gestionConsultas.actualizarConsulta(consulta, consulta.getVersion()));
+    }
+    
+    @Test
+    void copiaLeidaAntesDeUnaTransicionEsConflicto() {
+        Consulta copia = gestionConsultas.copiarConsulta(consulta.getIdConsulta());
+        assertSame(consulta, gestionConsultas.tomarSiguienteConsulta("MED001"));
+        
+        copia.setObservaciones("Tarde");
+        assertThrows(ConflictoVersion.class, () -> gestionConsultas.actualizarConsulta(copia, 0));
+        assertEquals(Consulta.Estado.EN_PROCESO, consulta.getEstado());
+    }
+    
+    @Test
+    void diagnosticoConVersionViejaNoCompleta() {
+        gestionConsultas.modificarConsulta(consulta.getIdConsulta(), c -> c.setObservaciones("Cambio"));
+        
+        assertThrows(ConflictoVersion.class, () -> gestionConsultas.registrarDiagnostico(
+            consulta.getIdConsulta(), "Gripe", "Reposo", "", 0));
+        assertEquals(Consulta.Estado.PENDIENTE, consulta.getEstado());
+        assertEquals("", consulta.getDiagnostico());
+        
+        assertTrue(gestionConsultas.registrarDiagnostico(consulta.getIdConsulta(), "Gripe", "Reposo", "", 1));
+        assertEquals(Consulta.Estado.COMPLETADA, consulta.getEstado());
+        assertEquals("Gripe", consulta.getDiagnostico());
+        assertEquals(2, consulta.getVersion());
+    }
+    
+    @Test
+    void diagnosticoSobreConsultaCanceladaRetornaFalse() {
+        assertTrue(gestionConsultas.cancelarConsulta(consulta.getIdConsulta(), "Viaje"));
+        long version = consulta.getVersion();
+        
+        assertFalse(gestionConsultas.registrarDiagnostico(consulta.getIdConsulta(), "Gripe", "", "", version));
+        assertEquals(Consulta.Estado.CANCELADA, consulta.getEstado());
+        assertEquals(version, consulta.getVersion());
+    }
+    
+    @Test
+    void observadoresVenElDiagnosticoAlCompletar() {
+        String[] visto = new String[1];
+        gestionConsultas.agregarObservador(evento -> {
+            Consulta c = (Consulta) evento.getEntidad();
+            if (c.esCompletada()) {
+                visto[0] = c.getDiagnostico();
+            }
+        });
+        
+        assertTrue(gestionConsultas.registrarDiagnostico(consulta.getIdConsulta(), "Gripe", "", ""));
+        assertEquals("Gripe", visto[0]);
+    }
+    
+    @Test
+    void pendientesSePaginanEnOrdenDePrioridad() {
+        for (int i = 2; i <= 5; i++) {
+            gestionConsultas.crearConsulta("PAC00" + i, "MED001", "Control " + i);
+        }
+        gestionConsultas.setUrgenciaPaciente(id -> id.equals("PAC003") || id.equals("PAC005") ? 2 : 0);
+        List<Consulta> esperadas = gestionConsultas.obtenerConsultasPendientesMedico("MED001");
+        
+        List<Consulta> vistas = new ArrayList<>();
+        Pagina<Consulta> pagina = gestionConsultas.paginarConsultasPendientesMedico("MED001", null, 2);
+        vistas.addAll(pagina.getElementos());
+        // Atender la primera entre páginas no hace saltar ni repetir las demás
+        assertSame(esperadas.get(0), gestionConsultas.tomarSiguienteConsulta("MED001"));
+        while (pagina.haySiguiente()) {
+            pagina = gestionConsultas.paginarConsultasPendientesMedico("MED001", pagina.getSiguienteCursor(), 2);
+            vistas.addAll(pagina.getElementos());
+        }
+        
+        assertEquals(5, esperadas.size());
+        assertEquals(esperadas, vistas);
+        assertEquals("PAC003", esperadas.get(0).getIdPaciente());
+    }
+    
+    @Test
+    void replicaConEstadoDesconocidoOTransicionInvalidaNoSeAplica() {
+        assertTrue(gestionConsultas.cancelarConsulta(consulta.getIdConsulta(), "Viaje"));
+        long version = consulta.getVersion();
+        String observaciones = consulta.getObservaciones();
+        
+        JsonObject atrasada = GestionConsultas.consultaToJson(consulta);
+        atrasada.addProperty("estado", Consulta.Estado.PENDIENTE.getCodigo());
+        atrasada.addProperty("observaciones", "Reabierta");
+        atrasada.addProperty("version", version + 1);
+        assertSame(consulta, gestionConsultas.aplicarReplica(atrasada));
+        assertEquals(Consulta.Estado.CANCELADA, consulta.getEstado());
+        assertEquals(observaciones, consulta.getObservaciones());
+        assertEquals(version, consulta.getVersion());
+        
+        JsonObject desconocida = GestionConsultas.consultaToJson(consulta);
+        desconocida.addProperty("idConsulta", "CON9999");
+        desconocida.addProperty("estado", "archivada");
+        assertNull(gestionConsultas.aplicarReplica(desconocida));
+        assertNull(gestionConsultas.obtenerConsulta("CON9999"));
+    }
+}
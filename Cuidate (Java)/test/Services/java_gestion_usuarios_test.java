@@ -0,0 +1,112 @@
+package services;
+
+import models.Medico;
+import models.Paciente;
+import models.Usuario;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de las actualizaciones con versión de GestionUsuarios
+ */
+public class GestionUsuariosTest {
+    private GestionUsuarios gestionUsuarios;
+    
+    @BeforeEach
+    void crearServicio() throws Exception {
+        Path directorio = Files.createTempDirectory("cuidate-usuarios");
+        // Sin archivo se crean los usuarios de ejemplo MED001 y PAC001
+        gestionUsuarios = new GestionUsuarios(directorio.resolve("usuarios.json").toString());
+    }
+    
+    @Test
+    void modificarUsuarioNoTocaElRegistradoAntesDeGuardar() {
+        Usuario guardado = gestionUsuarios.modificarUsuario("MED001", u -> {
+            u.setNombre("Carla");
+            assertEquals("Carlos", gestionUsuarios.buscarPorId("MED001").getNombre());
+        });
+        
+        assertEquals("Carla", guardado.getNombre());
+        assertEquals("Carla", gestionUsuarios.buscarPorId("MED001").getNombre());
+        assertEquals(1, gestionUsuarios.buscarPorId("MED001").getVersion());
+    }
+    
+    @Test
+    void actualizarConVersionViejaLanzaConflictoSinCambiarNada() {
+        Usuario copia = gestionUsuarios.copiar(gestionUsuarios.buscarPorId("MED001"));
+        gestionUsuarios.modificarUsuario("MED001", u -> u.setCorreo("otro@cuidate.com"));
+        
+        copia.setNombre("Perdido");
+        ConflictoVersion conflicto = assertThrows(ConflictoVersion.class,
+            () -> gestionUsuarios.actualizarUsuario(copia, 0));
+        
+        assertEquals(0, conflicto.getVersionEsperada());
+        assertEquals(1, conflicto.getVersionActual());
+        Usuario actual = gestionUsuarios.buscarPorId("MED001");
+        assertEquals("Carlos", actual.getNombre());
+        assertEquals("otro@cuidate.com", actual.getCorreo());
+    }
+    
+    @Test
+    void actualizarElObjetoRegistradoSeRechaza() {
+        Usuario registrado = gestionUsuarios.buscarPorId("MED001");
+        
+        assertThrows(IllegalArgumentException.class,
+            () -> gestionUsuarios.actualizarUsuario(registrado, registrado.getVersion()));
+        assertEquals(0, gestionUsuarios.buscarPorId("MED001").getVersion());
+    }
+    
+    @Test
+    void pacienteConVersionViejaLanzaConflicto() {
+        Usuario copia = gestionUsuarios.copiar(gestionUsuarios.buscarPorId("PAC001"));
+        gestionUsuarios.modificarUsuario("PAC001", u -> ((Paciente) u).agregarConsulta("CON0001"));
+        
+        ((Paciente) copia).agregarConsulta("CON0002");
+        assertThrows(ConflictoVersion.class, () -> gestionUsuarios.actualizarUsuario(copia, 0));
+        
+        Paciente actual = (Paciente) gestionUsuarios.buscarPorId("PAC001");
+        assertEquals(Arrays.asList("CON0001"), actual.getHistorialConsultas());
+        assertEquals(1, actual.getVersion());
+    }
+    
+    @Test
+    void escritoresConcurrentesNoPierdenNiDuplicanCambios() throws Exception {
+        int hilos = 4;
+        int cambiosPorHilo = 10;
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+        AtomicInteger aplicados = new AtomicInteger();
+        Set<String> esperados = ConcurrentHashMap.newKeySet();
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            int hilo = h;
+            tareas.add(pool.submit(() -> {
+                for (int i = 0; i < cambiosPorHilo; i++) {
+                    String idPaciente = "PAC" + hilo + "-" + i;
+                    try {
+                        gestionUsuarios.modificarUsuario("MED001", u -> ((Medico) u).asignarPaciente(idPaciente));
+                        esperados.add(idPaciente);
+                        aplicados.incrementAndGet();
+                    } catch (ConflictoVersion e) {
+                        // Agotó los reintentos: el cambio no debe haber quedado
+                    }
+                }
+            }));
+        }
+        for (Future<?> tarea : tareas) {
+            tarea.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        
+        Medico medico = (Medico) gestionUsuarios.buscarPorId("MED001");
+        assertEquals(esperados, new HashSet<>(medico.getPacientesAsignados()));
+        assertEquals(aplicados.get(), medico.getPacientesAsignados().size());
+        assertEquals(aplicados.get(), medico.getVersion());
+    }
+}
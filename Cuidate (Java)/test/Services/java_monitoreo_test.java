@@ -0,0 +1,113 @@
+package services;
+
+import models.RegistroSalud;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.google.gson.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas del guardado de MonitoreoSalud como series comprimidas
+ */
+public class MonitoreoSaludTest {
+    private Path archivo;
+
+    @BeforeEach
+    void crearDirectorio() throws Exception {
+        archivo = Files.createTempDirectory("cuidate-monitoreo").resolve("registros.json");
+    }
+
+    @Test
+    void formatoAnteriorSeLeeYSeGuardaComoSeries() throws Exception {
+        JsonObject datos = new JsonObject();
+        datos.add("REG00001", lectura("REG00001", "PAC001", "2026-01-01 08:00:00", "En ayunas"));
+        datos.add("REG00002", lectura("REG00002", "PAC001", "2026-01-01 09:00:00", ""));
+        Files.write(archivo, datos.toString().getBytes(StandardCharsets.UTF_8));
+
+        MonitoreoSalud monitoreo = new MonitoreoSalud(archivo.toString());
+        assertEquals("En ayunas", monitoreo.obtenerRegistro("REG00001").getObservaciones());
+        RegistroSalud nuevo = monitoreo.crearRegistroManual("PAC001", 120, 80, 70, 36.55, 98);
+        assertEquals("REG00003", nuevo.getIdRegistro());
+        assertEquals(36.6, nuevo.getTemperatura(), 1e-9);
+
+        JsonObject guardado = JsonParser.parseString(Files.readString(archivo)).getAsJsonObject();
+        assertEquals(Set.of("PAC001"), guardado.keySet());
+        assertTrue(guardado.getAsJsonObject("PAC001").has("bloques"));
+
+        MonitoreoSalud recargado = new MonitoreoSalud(archivo.toString());
+        List<RegistroSalud> registros = recargado.obtenerRegistrosPaciente("PAC001");
+        assertEquals(3, registros.size());
+        assertEquals("2026-01-01 08:00:00", registros.get(0).getFechaRegistro());
+        assertEquals("En ayunas", registros.get(0).getObservaciones());
+        assertEquals(118, registros.get(0).getPresionSistolica());
+        assertEquals(36.6, recargado.obtenerUltimoRegistro("PAC001").getTemperatura(), 1e-9);
+        assertEquals("REG00004", recargado.crearRegistroAleatorio("PAC002").getIdRegistro());
+    }
+
+    @Test
+    void paginasCronologicasSinSaltosNiRepetidos() {
+        MonitoreoSalud monitoreo = new MonitoreoSalud(archivo.toString());
+        List<JsonObject> lote = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // Varias lecturas comparten la misma fecha
+            String fecha = String.format("2026-01-01 %02d:00:00", i / 3);
+            lote.add(lectura(null, "PAC001", fecha, ""));
+        }
+        monitoreo.agregarLote(lote);
+
+        List<String> esperados = new ArrayList<>();
+        for (RegistroSalud r : monitoreo.obtenerRegistrosPaciente("PAC001")) {
+            esperados.add(r.getIdRegistro());
+        }
+        List<String> vistos = new ArrayList<>();
+        String cursor = null;
+        do {
+            Pagina<RegistroSalud> pagina = monitoreo.paginarRegistrosPaciente("PAC001", cursor, 7);
+            for (RegistroSalud r : pagina.getElementos()) {
+                vistos.add(r.getIdRegistro());
+            }
+            cursor = pagina.getSiguienteCursor();
+        } while (cursor != null);
+
+        assertEquals(40, esperados.size());
+        assertEquals(esperados, vistos);
+    }
+
+    @Test
+    void loteNoGeneraIdsQueChoquenConLosExplicitos() {
+        MonitoreoSalud monitoreo = new MonitoreoSalud(archivo.toString());
+        List<JsonObject> lote = new ArrayList<>();
+        lote.add(lectura(null, "PAC001", "2026-01-01 08:00:00", ""));
+        lote.add(lectura("REG00001", "PAC001", "2026-01-01 09:00:00", ""));
+        lote.add(lectura("REG00001", "PAC001", "2026-01-01 10:00:00", ""));
+        lote.add(lectura("REG00003", "PAC001", "2026-01-01 11:00:00", ""));
+
+        Set<String> ids = new HashSet<>();
+        for (RegistroSalud r : monitoreo.agregarLote(lote)) {
+            assertTrue(ids.add(r.getIdRegistro()), "ID repetido " + r.getIdRegistro());
+        }
+        assertEquals(Set.of("REG00001", "REG00003", "REG00004", "REG00005"), ids);
+        assertEquals("REG00006", monitoreo.crearRegistroAleatorio("PAC001").getIdRegistro());
+    }
+
+    private static JsonObject lectura(String id, String idPaciente, String fecha, String observaciones) {
+        JsonObject json = new JsonObject();
+        if (id != null) {
+            json.addProperty("idRegistro", id);
+        }
+        json.addProperty("idPaciente", idPaciente);
+        json.addProperty("presionSistolica", 118);
+        json.addProperty("presionDiastolica", 76);
+        json.addProperty("frecuenciaCardiaca", 72);
+        json.addProperty("temperatura", 36.6);
+        json.addProperty("saturacionOxigeno", 97);
+        json.addProperty("fechaRegistro", fecha);
+        json.addProperty("observaciones", observaciones);
+        return json;
+    }
+}
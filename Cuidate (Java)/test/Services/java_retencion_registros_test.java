@@ -0,0 +1,103 @@
+package services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.google.gson.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas del nivel frío de RetencionRegistros
+ */
+public class RetencionRegistrosTest {
+    private static final LocalDateTime AHORA = LocalDateTime.of(2026, 3, 1, 12, 0);
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private Path directorio;
+    private MonitoreoSalud monitoreo;
+
+    @BeforeEach
+    void crearDatos() throws Exception {
+        directorio = Files.createTempDirectory("cuidate-retencion");
+        monitoreo = new MonitoreoSalud(directorio.resolve("registros.json").toString());
+        List<JsonObject> lote = new ArrayList<>();
+        for (int dia = 6; dia <= 10; dia++) {
+            for (int hora = 8; hora <= 9; hora++) {
+                lote.add(lectura(AHORA.minusDays(dia).withHour(hora)));
+            }
+        }
+        monitoreo.agregarLote(lote);
+    }
+
+    @Test
+    void diariosViejosVanAUnSegmentoSinRepetirseAlReiniciar() throws Exception {
+        retencion().compactar(100, AHORA);
+
+        assertTrue(Files.exists(directorio.resolve("frio_000001.jsonl.gz")));
+        assertEquals(5, retencion().leerArchivoFrio("PAC001").size());
+        assertFalse(resumenes().has("pendienteFrio"));
+
+        RetencionRegistros reiniciada = retencion();
+        reiniciada.compactar(100, AHORA);
+        assertEquals(5, reiniciada.leerArchivoFrio("PAC001").size());
+    }
+
+    @Test
+    void segmentoPendienteSeReescribeConElMismoNumero() throws Exception {
+        retencion().compactar(100, AHORA);
+
+        // Como si se hubiera cortado antes de guardar los resúmenes sin el pendiente
+        JsonArray archivados = new JsonArray();
+        try (BufferedReader lector = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                new FileInputStream(directorio.resolve("frio_000001.jsonl.gz").toFile())), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                archivados.add(JsonParser.parseString(linea));
+            }
+        }
+        JsonObject pendiente = new JsonObject();
+        pendiente.addProperty("segmento", 1);
+        pendiente.add("resumenes", archivados);
+        JsonObject datos = resumenes();
+        datos.add("pendienteFrio", pendiente);
+        Files.write(directorio.resolve("resumenes.json"), datos.toString().getBytes(StandardCharsets.UTF_8));
+
+        RetencionRegistros reiniciada = retencion();
+        assertEquals(5, reiniciada.leerArchivoFrio("PAC001").size());
+        reiniciada.compactar(100, AHORA);
+
+        assertEquals(5, reiniciada.leerArchivoFrio("PAC001").size());
+        assertFalse(resumenes().has("pendienteFrio"));
+        assertFalse(Files.exists(directorio.resolve("frio_000002.jsonl.gz")));
+    }
+
+    private RetencionRegistros retencion() {
+        return new RetencionRegistros(monitoreo, 1, 2, 3, directorio.resolve("resumenes.json").toString(),
+                                      directorio.resolve("frio.jsonl.gz").toString());
+    }
+
+    private JsonObject resumenes() throws IOException {
+        return JsonParser.parseString(Files.readString(directorio.resolve("resumenes.json"))).getAsJsonObject();
+    }
+
+    private static JsonObject lectura(LocalDateTime fecha) {
+        JsonObject json = new JsonObject();
+        json.addProperty("idPaciente", "PAC001");
+        json.addProperty("presionSistolica", 118);
+        json.addProperty("presionDiastolica", 76);
+        json.addProperty("frecuenciaCardiaca", 72);
+        json.addProperty("temperatura", 36.6);
+        json.addProperty("saturacionOxigeno", 97);
+        json.addProperty("fechaRegistro", fecha.format(formatter));
+        json.addProperty("observaciones", "");
+        return json;
+    }
+}
@@ -0,0 +1,179 @@
+package services;
+
+import models.Consulta;
+import models.Medico;
+import models.Paciente;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pruebas de la bitácora de Transacciones: confirmación, conflictos y
+ * recuperación al reiniciar
+ */
+public class TransaccionesTest {
+    private static final long SIN_PUNTO_CONTROL = Long.MAX_VALUE;
+    
+    private Path directorio;
+    private GestionUsuarios gestionUsuarios;
+    private GestionConsultas gestionConsultas;
+    private Transacciones transacciones;
+    
+    @BeforeEach
+    void crearServicios() throws Exception {
+        directorio = Files.createTempDirectory("cuidate-transacciones");
+        reiniciar();
+    }
+    
+    /**
+     * Vuelve a cargar los servicios desde los archivos, como tras una caída
+     */
+    private void reiniciar() {
+        gestionUsuarios = new GestionUsuarios(directorio.resolve("usuarios.json").toString());
+        gestionConsultas = new GestionConsultas(directorio.resolve("consultas.json").toString(), 2);
+        transacciones = new Transacciones(gestionUsuarios, gestionConsultas,
+                                          directorio.resolve("transacciones.log").toString(),
+                                          SIN_PUNTO_CONTROL);
+    }
+    
+    private Consulta agendar(String motivo) {
+        return transacciones.ejecutar(tx -> {
+            Consulta consulta = tx.crearConsulta("PAC001", "MED001", motivo);
+            tx.modificarUsuario("PAC001", u -> ((Paciente) u).agregarConsulta(consulta.getIdConsulta()));
+            tx.modificarUsuario("MED001", u -> ((Medico) u).asignarPaciente("PAC001"));
+            return consulta;
+        });
+    }
+    
+    @Test
+    void confirmarInstalaTodoConUnaVersionNueva() {
+        Consulta consulta = agendar("Control");
+        
+        assertSame(consulta, gestionConsultas.obtenerConsulta(consulta.getIdConsulta()));
+        Paciente paciente = (Paciente) gestionUsuarios.buscarPorId("PAC001");
+        assertTrue(paciente.getHistorialConsultas().contains(consulta.getIdConsulta()));
+        assertEquals(1, paciente.getVersion());
+        assertEquals(1, gestionUsuarios.buscarPorId("MED001").getVersion());
+        assertTrue(transacciones.getTamanoBitacora() > 0);
+    }
+    
+    @Test
+    void laBitacoraSeRehaceAlReiniciar() {
+        Consulta consulta = agendar("Control");
+        
+        // Los archivos de datos no se reescribieron: todo sale de la bitácora
+        reiniciar();
+        
+        assertNotNull(gestionConsultas.obtenerConsulta(consulta.getIdConsulta()));
+        Paciente paciente = (Paciente) gestionUsuarios.buscarPorId("PAC001");
+        assertTrue(paciente.getHistorialConsultas().contains(consulta.getIdConsulta()));
+        assertEquals(1, paciente.getVersion());
+        assertTrue(((Medico) gestionUsuarios.buscarPorId("MED001")).getPacientesAsignados().contains("PAC001"));
+        // Al recuperar se hizo un punto de control
+        assertEquals(0, transacciones.getTamanoBitacora());
+    }
+    
+    @Test
+    void unaLineaIncompletaAlFinalSeDescarta() throws Exception {
+        Consulta consulta = agendar("Control");
+        Files.write(directorio.resolve("transacciones.log"),
+                    "{\"secuencia\": 2, \"usuarios\": [{\"idUsuario\": \"PAC0".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+        
+        reiniciar();
+        
+        assertNotNull(gestionConsultas.obtenerConsulta(consulta.getIdConsulta()));
+        assertEquals(1, gestionUsuarios.buscarPorId("PAC001").getVersion());
+    }
+    
+    @Test
+    void loQueSeConfirmaTrasUnaLineaRotaSobreviveAlReinicio() throws Exception {
+        Files.write(directorio.resolve("transacciones.log"),
+                    "{\"secuencia\": 1, \"usuarios\": [".getBytes(StandardCharsets.UTF_8));
+        reiniciar();
+        
+        // La línea rota se recortó al iniciar: la nueva no queda detrás de ella
+        Consulta consulta = agendar("Control");
+        reiniciar();
+        
+        assertNotNull(gestionConsultas.obtenerConsulta(consulta.getIdConsulta()));
+        assertEquals(1, gestionUsuarios.buscarPorId("PAC001").getVersion());
+    }
+    
+    @Test
+    void unaLineaRotaEnMedioDetieneElInicio() throws Exception {
+        agendar("Control");
+        byte[] linea = Files.readAllBytes(directorio.resolve("transacciones.log"));
+        Files.write(directorio.resolve("transacciones.log"), "{roto\n".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+        Files.write(directorio.resolve("transacciones.log"), linea, StandardOpenOption.APPEND);
+        
+        assertThrows(IllegalStateException.class, this::reiniciar);
+    }
+    
+    @Test
+    void rehacerDosVecesNoCambiaNada() throws Exception {
+        Consulta consulta = agendar("Control");
+        byte[] bitacora = Files.readAllBytes(directorio.resolve("transacciones.log"));
+        reiniciar();
+        
+        // La misma línea otra vez, sobre archivos que ya la incluyen
+        Files.write(directorio.resolve("transacciones.log"), bitacora);
+        reiniciar();
+        
+        Paciente paciente = (Paciente) gestionUsuarios.buscarPorId("PAC001");
+        assertEquals(1, paciente.getVersion());
+        assertEquals(1, paciente.getHistorialConsultas().size());
+        assertEquals(1, gestionConsultas.obtenerConsultasPaciente("PAC001").size());
+        assertNotNull(gestionConsultas.obtenerConsulta(consulta.getIdConsulta()));
+    }
+    
+    @Test
+    void unConflictoNoEscribeNiInstalaNada() {
+        Transacciones.Transaccion tx = transacciones.iniciar();
+        Consulta consulta = tx.crearConsulta("PAC001", "MED001", "Control");
+        tx.modificarUsuario("PAC001", u -> ((Paciente) u).agregarConsulta(consulta.getIdConsulta()));
+        gestionUsuarios.modificarUsuario("PAC001", u -> u.setCorreo("nuevo@email.com"));
+        
+        assertThrows(ConflictoVersion.class, tx::confirmar);
+        
+        assertEquals(0, transacciones.getTamanoBitacora());
+        assertNull(gestionConsultas.obtenerConsulta(consulta.getIdConsulta()));
+        Paciente paciente = (Paciente) gestionUsuarios.buscarPorId("PAC001");
+        assertTrue(paciente.getHistorialConsultas().isEmpty());
+        assertEquals("nuevo@email.com", paciente.getCorreo());
+    }
+    
+    @Test
+    void puntoDeControlGuardaLosArchivosYVaciaLaBitacora() {
+        Consulta consulta = agendar("Control");
+        
+        transacciones.puntoDeControl();
+        assertEquals(0, transacciones.getTamanoBitacora());
+        
+        reiniciar();
+        assertNotNull(gestionConsultas.obtenerConsulta(consulta.getIdConsulta()));
+        assertEquals(1, gestionUsuarios.buscarPorId("PAC001").getVersion());
+    }
+    
+    @Test
+    void puntoDeControlFallidoConservaLaBitacora() throws Exception {
+        Consulta consulta = agendar("Control");
+        long tamano = transacciones.getTamanoBitacora();
+        // Un directorio no vacío en lugar del archivo de usuarios impide reemplazarlo
+        Path usuarios = directorio.resolve("usuarios.json");
+        Files.delete(usuarios);
+        Files.createDirectory(usuarios);
+        Files.createFile(usuarios.resolve("ocupado"));
+        
+        transacciones.puntoDeControl();
+        
+        assertEquals(tamano, transacciones.getTamanoBitacora());
+        assertNotNull(gestionConsultas.obtenerConsulta(consulta.getIdConsulta()));
+    }
+}